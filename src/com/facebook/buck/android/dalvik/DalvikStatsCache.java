@@ -17,15 +17,52 @@
 package com.facebook.buck.android.dalvik;
 
 import com.facebook.buck.jvm.java.classes.FileLike;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
-/** Cache to memoize results from DalvikStatsTool. */
+/**
+ * Cache to memoize results from DalvikStatsTool.
+ *
+ * <p>Results are memoized per {@link FileLike} for the lifetime of this cache, and in a cache shared
+ * by all instances. The latter lives as long as the daemon does, so re-splitting an app after a
+ * small change only analyzes the classes that actually changed. It's keyed both by the hash of the
+ * container and the path of the entry within it, which finds the classes of an unchanged JAR
+ * without inflating them, and by the hash of the class file, which finds unchanged classes in a
+ * JAR that was rebuilt.
+ */
 class DalvikStatsCache {
 
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  /**
+   * Bounds the shared cache by the number of member references it holds, which is what its memory
+   * use is dominated by: a few hundred megabytes, enough for the classes of a large app.
+   */
+  private static final long MAX_CACHED_MEMBER_REFERENCES = 4_000_000;
+
+  private static final Cache<HashCode, DalvikStatsTool.Stats> SHARED_STATS =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_MEMBER_REFERENCES)
+          .<HashCode, DalvikStatsTool.Stats>weigher(
+              (hash, stats) -> 1 + stats.methodReferences.size() + stats.fieldReferences.size())
+          .build();
+
   private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private final ConcurrentMap<Path, Optional<HashCode>> containerHashes = new ConcurrentHashMap<>();
 
   DalvikStatsCache() {
     cache = new MapMaker().weakKeys().makeMap();
@@ -44,9 +81,39 @@ class DalvikStatsCache {
       return stats;
     }
 
+    Optional<HashCode> entryKey =
+        containerHashes
+            .computeIfAbsent(entry.getContainer(), DalvikStatsCache::hashContainer)
+            .map(
+                containerHash ->
+                    HASH_FUNCTION
+                        .newHasher()
+                        .putBytes(containerHash.asBytes())
+                        .putString(name, StandardCharsets.UTF_8)
+                        .hash());
+    if (entryKey.isPresent()) {
+      stats = SHARED_STATS.getIfPresent(entryKey.get());
+    }
+    if (stats == null) {
+      stats = getStatsByContent(entry);
+      if (entryKey.isPresent()) {
+        SHARED_STATS.put(entryKey.get(), stats);
+      }
+    }
+    cache.put(entry, stats);
+    return stats;
+  }
+
+  private static DalvikStatsTool.Stats getStatsByContent(FileLike entry) {
+    String name = entry.getRelativePath();
     try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
-      cache.put(entry, stats);
+      byte[] contents = ByteStreams.toByteArray(is);
+      HashCode hash = HASH_FUNCTION.hashBytes(contents);
+      DalvikStatsTool.Stats stats = SHARED_STATS.getIfPresent(hash);
+      if (stats == null) {
+        stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(contents));
+        SHARED_STATS.put(hash, stats);
+      }
       return stats;
     } catch (IOException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
@@ -54,4 +121,13 @@ class DalvikStatsCache {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
   }
+
+  /** @return the hash of a JAR or class file, or nothing if it can't be read as a file. */
+  private static Optional<HashCode> hashContainer(Path container) {
+    try {
+      return Optional.of(MoreFiles.asByteSource(container).hash(HASH_FUNCTION));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
 }
@@ -112,6 +112,20 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   protected abstract FetchResult fetchImpl(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) throws IOException;
 
+  /**
+   * Fetches an artifact and hands it to {@code consumer} on a hit. Implementations that can read
+   * the artifact as it arrives should override this, the default fetches to {@code output} and
+   * leaves it there for the caller.
+   */
+  protected FetchResult fetchImpl(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      @SuppressWarnings("unused") FetchedArtifactConsumer consumer)
+      throws IOException {
+    return fetchImpl(target, ruleKey, output);
+  }
+
   protected abstract MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
       throws IOException;
 
@@ -259,7 +273,13 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         eventListener.fetchStarted(request.getBuildTarget(), request.getRuleKey());
     try {
       FetchResult fetchResult =
-          fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput());
+          request.getConsumer().isPresent()
+              ? fetchImpl(
+                  request.getBuildTarget(),
+                  request.getRuleKey(),
+                  request.getOutput(),
+                  request.getConsumer().get())
+              : fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput());
       result = fetchResult.getCacheResult();
       requestEvents.finished(fetchResult);
     } catch (IOException e) {
@@ -467,14 +487,26 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   @Override
   public final ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
-    SettableFuture<CacheResult> future = SettableFuture.create();
-    FetchRequest fetchRequest = new FetchRequest(target, ruleKey, output, future);
+    return fetchAsync(new FetchRequest(target, ruleKey, output, SettableFuture.create()));
+  }
+
+  @Override
+  public final ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    return fetchAsync(
+        new FetchRequest(target, ruleKey, output, Optional.of(consumer), SettableFuture.create()));
+  }
+
+  private ListenableFuture<CacheResult> fetchAsync(FetchRequest fetchRequest) {
     if (isMultiCheckEnabled()) {
       addCheckRequest(fetchRequest);
     } else {
       addFetchRequest(fetchRequest);
     }
-    return future;
+    return fetchRequest.future;
   }
 
   @Override
@@ -691,6 +723,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     @Nullable private final BuildTarget target;
     private final RuleKey ruleKey;
     private final LazyPath output;
+    private final Optional<FetchedArtifactConsumer> consumer;
     private final SettableFuture<CacheResult> future;
 
     @VisibleForTesting
@@ -699,9 +732,19 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         RuleKey ruleKey,
         LazyPath output,
         SettableFuture<CacheResult> future) {
+      this(target, ruleKey, output, Optional.empty(), future);
+    }
+
+    private FetchRequest(
+        @Nullable BuildTarget target,
+        RuleKey ruleKey,
+        LazyPath output,
+        Optional<FetchedArtifactConsumer> consumer,
+        SettableFuture<CacheResult> future) {
       this.target = target;
       this.ruleKey = ruleKey;
       this.output = output;
+      this.consumer = consumer;
       this.future = future;
     }
 
@@ -717,6 +760,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     public LazyPath getOutput() {
       return output;
     }
+
+    /** If present, receives the artifact if the cache can stream it. */
+    public Optional<FetchedArtifactConsumer> getConsumer() {
+      return consumer;
+    }
   }
 
   /** Return type used by the implementations of this abstract class. */
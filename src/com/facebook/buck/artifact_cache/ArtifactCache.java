@@ -47,6 +47,31 @@ public interface ArtifactCache extends AutoCloseable {
   ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and hand its contents to {@code consumer}.
+   *
+   * <p>Caches that can stream artifacts call {@code consumer} while the artifact is still being
+   * fetched and never touch {@code output}. Other caches, including the default implementation,
+   * fetch the artifact to {@code output} and never call {@code consumer}, leaving it to the caller
+   * to read the artifact from there on its own executor.
+   *
+   * @param target rule for which this is an artifact
+   * @param ruleKey cache fetch key
+   * @param output Path that may be used to store the artifact if it cannot be streamed.
+   * @param consumer receives the artifact on a hit. If it throws, the fetch returns a {@link
+   *     CacheResultType#ERROR}.
+   * @return whether it was a {@link CacheResultType#MISS} (indicating a failure) or some type of
+   *     hit. A {@link CacheResultType#HIT} guarantees that either {@code consumer} has read the
+   *     artifact or, if it was never called, that the artifact is at {@code output}.
+   */
+  default ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    return fetchAsync(target, ruleKey, output);
+  }
+
   /** All pending (and future) async fetches will be immediately marked as skipped. */
   void skipPendingAndFutureAsyncFetches();
 
@@ -44,6 +44,7 @@ import com.facebook.buck.slb.SingleUriService;
 import com.facebook.buck.support.bgtasks.BackgroundTask;
 import com.facebook.buck.support.bgtasks.TaskAction;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Preconditions;
@@ -264,6 +265,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             input ->
                 createDirArtifactCache(
                     Optional.empty(),
+                    buckConfig,
                     input,
                     unconfiguredBuildTargetFactory,
                     targetConfigurationSerializer,
@@ -302,6 +304,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         case dir:
           initializeDirCaches(
               cacheEntries,
+              buckConfig,
               buckEventBus,
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
@@ -328,6 +331,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         case sqlite:
           initializeSQLiteCaches(
               cacheEntries,
+              buckConfig,
               buckEventBus,
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
@@ -390,6 +394,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
 
   private static void initializeDirCaches(
       ArtifactCacheEntries artifactCacheEntries,
+      ArtifactCacheBuckConfig buckConfig,
       BuckEventBus buckEventBus,
       Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -400,6 +405,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       builder.add(
           createDirArtifactCache(
               Optional.ofNullable(buckEventBus),
+              buckConfig,
               cacheEntry,
               unconfiguredBuildTargetFactory,
               targetConfigurationSerializer,
@@ -452,6 +458,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
 
   private static void initializeSQLiteCaches(
       ArtifactCacheEntries artifactCacheEntries,
+      ArtifactCacheBuckConfig buckConfig,
       BuckEventBus buckEventBus,
       Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -464,6 +471,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                 builder.add(
                     createSQLiteArtifactCache(
                         buckEventBus,
+                        buckConfig,
                         cacheEntry,
                         unconfiguredBuildTargetFactory,
                         targetConfigurationSerializer,
@@ -472,6 +480,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
 
   private static ArtifactCache createDirArtifactCache(
       Optional<BuckEventBus> buckEventBus,
+      ArtifactCacheBuckConfig buckConfig,
       DirCacheEntry dirCacheConfig,
       Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -486,15 +495,17 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
-              storeExecutorService);
+              storeExecutorService,
+              dirCacheConfig.getLinkMode());
 
+      ArtifactCache cache = withBatchedFetches(dirArtifactCache, "dir", buckConfig);
       if (!buckEventBus.isPresent()) {
-        return dirArtifactCache;
+        return cache;
       }
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus.get(),
-          dirArtifactCache,
+          cache,
           new DirArtifactCacheEvent.DirArtifactCacheEventFactory(
               unconfiguredBuildTargetFactory, targetConfigurationSerializer));
 
@@ -695,6 +706,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
 
   private static ArtifactCache createSQLiteArtifactCache(
       BuckEventBus buckEventBus,
+      ArtifactCacheBuckConfig buckConfig,
       SQLiteCacheEntry cacheConfig,
       Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -709,11 +721,12 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getCacheReadMode(),
+              cacheConfig.getReadConnections());
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
-          sqLiteArtifactCache,
+          withBatchedFetches(sqLiteArtifactCache, "sqlite", buckConfig),
           new SQLiteArtifactCacheEvent.SQLiteArtifactCacheEventFactory(
               unconfiguredBuildTargetFactory, targetConfigurationSerializer));
     } catch (IOException | SQLException e) {
@@ -722,6 +735,19 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     }
   }
 
+  /** Moves fetches from a local cache off the build threads, if configured to. */
+  private static ArtifactCache withBatchedFetches(
+      LocalArtifactCache cache, String name, ArtifactCacheBuckConfig buckConfig) {
+    int fetchThreads = buckConfig.getLocalFetchThreads();
+    if (fetchThreads == 0) {
+      return cache;
+    }
+    return new BatchingLocalCacheDecorator(
+        cache,
+        MostExecutors.newMultiThreadExecutor(name + "-cache-fetch", fetchThreads),
+        buckConfig.getLocalMultiFetchLimit());
+  }
+
   private static String stripNonAscii(String str) {
     if (CharMatcher.ascii().matchesAllOf(str)) {
       return str;
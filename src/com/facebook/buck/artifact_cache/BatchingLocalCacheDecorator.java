@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.types.Pair;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Takes fetches from a {@link LocalArtifactCache} off the calling threads.
+ *
+ * <p>Fetches are queued and run on a dedicated, bounded executor, which takes up to a batch of them
+ * off the queue at a time and hands them to {@link LocalArtifactCache#multiFetch}. A fetch for a
+ * rule key which is still queued is coalesced with the queued fetch: the artifact is read from the
+ * cache once, and copied to the other outputs.
+ *
+ * <p>All other operations go straight to the delegate.
+ */
+public class BatchingLocalCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  private static final Logger LOG = Logger.get(BatchingLocalCacheDecorator.class);
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  private final LocalArtifactCache delegate;
+  private final ExecutorService fetchExecutorService;
+  private final int batchSize;
+
+  private final BlockingQueue<PendingFetch> pendingFetches = new LinkedBlockingQueue<>();
+  private final ConcurrentMap<RuleKey, PendingFetch> pendingFetchesByRuleKey =
+      new ConcurrentHashMap<>();
+  private volatile boolean markAllFetchRequestsAsSkipped = false;
+
+  /**
+   * @param fetchExecutorService executor to fetch on, which is shut down when this cache is
+   *     closed. Its number of threads bounds the number of batches read concurrently.
+   * @param batchSize maximum number of fetches to hand to the delegate at once.
+   */
+  public BatchingLocalCacheDecorator(
+      LocalArtifactCache delegate, ExecutorService fetchExecutorService, int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+    this.delegate = delegate;
+    this.fetchExecutorService = fetchExecutorService;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    if (markAllFetchRequestsAsSkipped) {
+      return Futures.immediateFuture(CacheResult.skipped());
+    }
+
+    SettableFuture<CacheResult> future = SettableFuture.create();
+    PendingFetch fetch = new PendingFetch(ruleKey, output, future);
+    while (true) {
+      PendingFetch queuedFetch = pendingFetchesByRuleKey.putIfAbsent(ruleKey, fetch);
+      if (queuedFetch == null) {
+        break;
+      }
+      if (queuedFetch.coalesce(output, future)) {
+        return future;
+      }
+      // The queued fetch has just been claimed by a batch, so it can't take any more outputs.
+      pendingFetchesByRuleKey.remove(ruleKey, queuedFetch);
+    }
+
+    pendingFetches.add(fetch);
+    try {
+      fetchExecutorService.execute(this::processFetches);
+    } catch (RejectedExecutionException e) {
+      // The cache is being closed.
+      if (pendingFetches.remove(fetch)) {
+        pendingFetchesByRuleKey.remove(ruleKey, fetch);
+        fetch.claim().complete(CacheResult.skipped());
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Local artifacts are only fetched to {@code output}, so {@code consumer} is never called. The
+   * caller reads the artifact from there on its own executor rather than on the fetch threads,
+   * which are only meant for the batched reads.
+   */
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    return fetchAsync(target, ruleKey, output);
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    if (markAllFetchRequestsAsSkipped) {
+      return; // Avoid log spam
+    }
+    LOG.info(
+        "All [%d] pending, and future, fetch requests will return skipped results.",
+        pendingFetches.size());
+    markAllFetchRequestsAsSkipped = true;
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  private void processFetches() {
+    List<PendingFetch> claimed = new ArrayList<>(batchSize);
+    pendingFetches.drainTo(claimed, batchSize);
+    if (claimed.isEmpty()) {
+      // Another task took our fetch into its batch.
+      return;
+    }
+
+    ImmutableList.Builder<ClaimedFetch> batchBuilder =
+        ImmutableList.builderWithExpectedSize(claimed.size());
+    for (PendingFetch fetch : claimed) {
+      pendingFetchesByRuleKey.remove(fetch.ruleKey, fetch);
+      batchBuilder.add(fetch.claim());
+    }
+    ImmutableList<ClaimedFetch> batch = batchBuilder.build();
+
+    if (markAllFetchRequestsAsSkipped) {
+      batch.forEach(fetch -> fetch.complete(CacheResult.skipped()));
+      return;
+    }
+
+    try {
+      ImmutableList<CacheResult> results =
+          delegate.multiFetch(
+              batch.stream()
+                  .map(fetch -> new Pair<>(fetch.ruleKey, fetch.output))
+                  .collect(ImmutableList.toImmutableList()));
+      Preconditions.checkState(
+          results.size() == batch.size(),
+          "Expected %s results, got %s",
+          batch.size(),
+          results.size());
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).complete(results.get(i));
+      }
+    } catch (Throwable e) {
+      // Nothing else completes claimed fetches, so fail them even on errors, or the rules waiting
+      // for them would hang.
+      LOG.error(e, "Exception thrown while fetching a batch of %d artifacts.", batch.size());
+      batch.forEach(fetch -> fetch.fail(e));
+      Throwables.throwIfInstanceOf(e, Error.class);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    // Let queued fetches finish before the delegate goes away.
+    try {
+      MostExecutors.shutdown(fetchExecutorService, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  /** A queued fetch, and the fetches for the same rule key which were coalesced with it. */
+  private static class PendingFetch {
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> future;
+    private final List<Pair<LazyPath, SettableFuture<CacheResult>>> followers = new ArrayList<>();
+    private boolean claimed = false;
+
+    private PendingFetch(RuleKey ruleKey, LazyPath output, SettableFuture<CacheResult> future) {
+      this.ruleKey = ruleKey;
+      this.output = output;
+      this.future = future;
+    }
+
+    /** @return whether the fetch was coalesced, which is only possible until it is claimed. */
+    private synchronized boolean coalesce(LazyPath output, SettableFuture<CacheResult> future) {
+      if (claimed) {
+        return false;
+      }
+      followers.add(new Pair<>(output, future));
+      return true;
+    }
+
+    private synchronized ClaimedFetch claim() {
+      claimed = true;
+      return new ClaimedFetch(ruleKey, output, future, ImmutableList.copyOf(followers));
+    }
+  }
+
+  /** A fetch which has been taken off the queue, and can no longer be coalesced with. */
+  private static class ClaimedFetch {
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> future;
+    private final ImmutableList<Pair<LazyPath, SettableFuture<CacheResult>>> followers;
+
+    private ClaimedFetch(
+        RuleKey ruleKey,
+        LazyPath output,
+        SettableFuture<CacheResult> future,
+        ImmutableList<Pair<LazyPath, SettableFuture<CacheResult>>> followers) {
+      this.ruleKey = ruleKey;
+      this.output = output;
+      this.future = future;
+      this.followers = followers;
+    }
+
+    private void complete(CacheResult result) {
+      for (Pair<LazyPath, SettableFuture<CacheResult>> follower : followers) {
+        follower.getSecond().set(copyResult(result, follower.getFirst()));
+      }
+      future.set(result);
+    }
+
+    /** Gives a coalesced fetch its own copy of the fetched artifact. */
+    private CacheResult copyResult(CacheResult result, LazyPath followerOutput) {
+      if (result.getType() != CacheResultType.HIT) {
+        return result;
+      }
+      try {
+        Path fetched = output.get();
+        if (Files.exists(fetched)) {
+          Files.copy(fetched, followerOutput.get(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return result;
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to copy the artifact for %s to a coalesced fetch.", ruleKey);
+        return CacheResult.error(
+            result.getCacheSource(),
+            result.cacheMode().get(),
+            String.format("%s: %s", e.getClass(), e.getMessage()));
+      }
+    }
+
+    private void fail(Throwable throwable) {
+      for (Pair<LazyPath, SettableFuture<CacheResult>> follower : followers) {
+        follower.getSecond().setException(throwable);
+      }
+      future.setException(throwable);
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheLinkMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
@@ -26,6 +27,7 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.DirectoryCleaner;
 import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -54,7 +56,7 @@ import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nullable;
 
-public class DirArtifactCache implements ArtifactCache {
+public class DirArtifactCache implements LocalArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
 
@@ -72,6 +74,7 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final DirCacheLinkMode linkMode;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -82,12 +85,32 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Long> maxCacheSizeBytes,
       ListeningExecutorService storeExecutorService)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        cacheReadMode,
+        maxCacheSizeBytes,
+        storeExecutorService,
+        DirCacheLinkMode.DEFAULT);
+  }
+
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService,
+      DirCacheLinkMode linkMode)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheReadMode = cacheReadMode;
     this.storeExecutorService = storeExecutorService;
+    this.linkMode = linkMode;
     this.bytesSinceLastDeleteOldFiles = 0L;
 
     // Check first, as mkdirs will fail if the path is a symlink.
@@ -102,6 +125,16 @@ public class DirArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(fetch(ruleKey, output));
   }
 
+  @Override
+  public ImmutableList<CacheResult> multiFetch(ImmutableList<Pair<RuleKey, LazyPath>> requests) {
+    ImmutableList.Builder<CacheResult> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (Pair<RuleKey, LazyPath> request : requests) {
+      results.add(fetch(request.getFirst(), request.getSecond()));
+    }
+    return results.build();
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     // Async requests are not supported by DirArtifactCache, so do nothing
@@ -128,7 +161,10 @@ public class DirArtifactCache implements ArtifactCache {
       }
 
       // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      if (!tryLink(artifactPath, output.get())) {
+        filesystem.copyFile(artifactPath, output.get());
+      }
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
@@ -175,7 +211,9 @@ public class DirArtifactCache implements ArtifactCache {
         filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
 
         if (!output.canBorrow()) {
-          storeArtifactOutput(output.getPath(), artifactPath);
+          // The output may be written to in place later on, so it must not share an inode with
+          // the cached artifact.
+          storeArtifactOutput(output.getPath(), artifactPath, /* allowLink */ false);
         } else {
           // This branch means that we are apparently the only users of the `output`, so instead
           // of making a safe transfer of the output to the dir cache (copy+move), we can just
@@ -184,7 +222,8 @@ public class DirArtifactCache implements ArtifactCache {
             borrowedAndStoredArtifactPath = Optional.of(artifactPath);
             filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
           } else {
-            storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
+            storeArtifactOutput(
+                borrowedAndStoredArtifactPath.get(), artifactPath, /* allowLink */ true);
           }
         }
         bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
@@ -302,13 +341,16 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
-  private void storeArtifactOutput(Path output, Path artifactPath) throws IOException {
+  private void storeArtifactOutput(Path output, Path artifactPath, boolean allowLink)
+      throws IOException {
     // Write to a temporary file and move the file to its final location atomically to protect
     // against partial artifacts (whether due to buck interruption or filesystem failure) posing
     // as valid artifacts during subsequent buck runs.
     Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "artifact", TMP_EXTENSION);
     try {
-      filesystem.copyFile(output, tmp);
+      if (!allowLink || !tryLink(output, tmp)) {
+        filesystem.copyFile(output, tmp);
+      }
       filesystem.move(tmp, artifactPath);
       bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
     } finally {
@@ -316,6 +358,37 @@ public class DirArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Replaces {@code target} with a hardlink to {@code source} if the link mode allows it.
+   *
+   * <p>Only use this when neither path is ever written to in place: between entries of this cache,
+   * or to fetch into a file which is only read (such as the downloaded archive the build engine
+   * extracts and then deletes). Writing through either link would corrupt the cached artifact.
+   *
+   * @return whether the link was created. If not, the caller should fall back to a copy.
+   * @throws NoSuchFileException if {@code source} doesn't exist, so that misses are reported the
+   *     same way as with copies.
+   */
+  private boolean tryLink(Path source, Path target) throws IOException {
+    if (linkMode != DirCacheLinkMode.HARDLINK) {
+      return false;
+    }
+    Path absoluteSource = filesystem.resolve(source);
+    Path absoluteTarget = filesystem.resolve(target);
+    if (!Files.exists(absoluteSource)) {
+      throw new NoSuchFileException(absoluteSource.toString());
+    }
+    try {
+      Files.deleteIfExists(absoluteTarget);
+      Files.createLink(absoluteTarget, absoluteSource);
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      // Most likely the paths are on different file systems.
+      LOG.debug(e, "Failed to hardlink %s to %s, falling back to a copy", target, source);
+      return false;
+    }
+  }
+
   @Override
   public CacheReadMode getCacheReadMode() {
     return cacheReadMode;
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the contents of a cache hit as a stream, so that they can be unpacked while they are
+ * still being fetched instead of being written to a temporary file first.
+ *
+ * <p>Only caches that can read an artifact as it arrives call the consumer, and they do so on their
+ * own threads. Other caches leave the artifact at the fetch's output path instead.
+ */
+@FunctionalInterface
+public interface FetchedArtifactConsumer {
+  /**
+   * Called at most once per fetch, and only once the cache knows it has the artifact.
+   *
+   * <p>The artifact is not verified until the whole payload has been read, so anything produced
+   * here must be discarded if the fetch does not end up returning a {@link CacheResultType#HIT}.
+   *
+   * @param metadata the metadata stored with the artifact
+   * @param artifact the artifact bytes. It does not need to be closed.
+   */
+  void consume(ImmutableMap<String, String> metadata, InputStream artifact) throws IOException;
+}
@@ -34,6 +34,7 @@ import java.net.URLEncoder;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 import okhttp3.MediaType;
@@ -65,6 +66,26 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
   @Override
   protected FetchResult fetchImpl(@Nullable BuildTarget target, RuleKey ruleKey, LazyPath output)
       throws IOException {
+    return fetchImpl(target, ruleKey, output, Optional.empty());
+  }
+
+  /** Streams the response body to {@code consumer} without staging it in a temporary file. */
+  @Override
+  protected FetchResult fetchImpl(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer)
+      throws IOException {
+    return fetchImpl(target, ruleKey, output, Optional.of(consumer));
+  }
+
+  private FetchResult fetchImpl(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<FetchedArtifactConsumer> consumer)
+      throws IOException {
     ImmutableFetchResult.Builder resultBuilder = ImmutableFetchResult.builder();
     Request.Builder requestBuilder = new Request.Builder().get();
 
@@ -94,18 +115,33 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
-        // Setup a temporary file, which sits next to the destination, to write to and
-        // make sure all parent dirs exist.
-        Path file = output.get();
-        getProjectFilesystem().createParentDirs(file);
-        Path temp =
-            getProjectFilesystem()
-                .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
-
         HttpArtifactCacheBinaryProtocol.FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
+        Optional<Path> temp;
+        if (consumer.isPresent()) {
+          // Hand the payload over as it arrives, unless it is not the artifact we asked for.
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input,
+                  (ruleKeys, metadata, payload) -> {
+                    if (ruleKeys.contains(ruleKey)) {
+                      consumer.get().consume(metadata, payload);
+                    }
+                  });
+          temp = Optional.empty();
+        } else {
+          // Setup a temporary file, which sits next to the destination, to write to and
+          // make sure all parent dirs exist.
+          Path file = output.get();
+          getProjectFilesystem().createParentDirs(file);
+          temp =
+              Optional.of(
+                  getProjectFilesystem()
+                      .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp"));
+          try (OutputStream tempFileOutputStream =
+              getProjectFilesystem().newFileOutputStream(temp.get())) {
+            fetchedData =
+                HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+          }
         }
 
         resultBuilder
@@ -129,12 +165,17 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
           String msg = "artifact had invalid checksum";
           reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          getProjectFilesystem().deleteFileAtPath(temp);
+          if (temp.isPresent()) {
+            getProjectFilesystem().deleteFileAtPath(temp.get());
+          }
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
         // Finally, move the temp file into it's final place.
-        getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        if (temp.isPresent()) {
+          getProjectFilesystem()
+              .move(temp.get(), output.get(), StandardCopyOption.REPLACE_EXISTING);
+        }
 
         LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
         return resultBuilder
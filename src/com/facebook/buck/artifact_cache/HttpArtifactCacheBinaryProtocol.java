@@ -30,10 +30,12 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -61,6 +63,22 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /**
+   * Reads a fetch response, handing the payload to {@code payloadReader} as it arrives rather than
+   * buffering it. The checksums in the result cover the whole payload, including any bytes the
+   * reader left unread, so callers must check them before trusting what the reader produced.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, PayloadReader payloadReader) throws IOException {
+
+    MetadataAndPayloadReadResultInternal resultInternal =
+        readMetadataAndPayload(input, payloadReader);
+
+    ImmutableFetchResponseReadResult.Builder result =
+        ImmutableFetchResponseReadResult.builder().from(resultInternal);
+    return result.build();
+  }
+
   public static StoreResponseReadResult readStoreRequest(
       DataInputStream input, OutputStream payloadSink) throws IOException {
     ImmutableSet.Builder<RuleKey> rawRuleKeys = ImmutableSet.builder();
@@ -80,6 +98,12 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, (ruleKeys, metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, PayloadReader payloadReader) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -91,6 +115,8 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -103,7 +129,7 @@ public class HttpArtifactCacheBinaryProtocol {
         // building up.
         int size = metadataIn.readInt();
         for (int i = 0; i < size; i++) {
-          result.addRuleKeys(new RuleKey(metadataIn.readUTF()));
+          ruleKeys.add(new RuleKey(metadataIn.readUTF()));
         }
 
         // Read in the actual metadata map, and add it the hash.
@@ -113,7 +139,7 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
       }
 
@@ -124,12 +150,28 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    ImmutableSet<RuleKey> readRuleKeys = ruleKeys.build();
+    ImmutableMap<String, String> readMetadata = metadata.build();
+    result.setRuleKeys(readRuleKeys).setMetadata(readMetadata);
+
+    // The remaining data is the payload, which we hand to the reader, and also include in our
+    // verification checksum. Whatever the reader leaves unread is drained so that the checksum
+    // always covers the full payload.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    try (CountingInputStream payload =
+        new CountingInputStream(
+            new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      payloadReader.read(
+          readRuleKeys,
+          readMetadata,
+          new FilterInputStream(payload) {
+            @Override
+            public void close() {
+              // The payload is owned by the protocol, which still has to drain it.
+            }
+          });
+      ByteStreams.exhaust(payload);
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -138,6 +180,19 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /** Consumes the payload of a response once its metadata header has been read. */
+  @FunctionalInterface
+  public interface PayloadReader {
+    /**
+     * @param ruleKeys the rule keys the artifact was stored under
+     * @param metadata the metadata the artifact was stored with
+     * @param payload the artifact bytes. It is not necessary to read it fully or to close it.
+     */
+    void read(
+        ImmutableSet<RuleKey> ruleKeys, ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException;
+  }
+
   @VisibleForTesting
   static byte[] createKeysHeader(ImmutableSet<RuleKey> ruleKeys) throws IOException {
     try (ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An {@link ArtifactCache} backed by local storage, whose fetches are synchronous reads. Such
+ * caches can fetch several artifacts in one go, so that {@link BatchingLocalCacheDecorator} can
+ * take fetches off the build threads and run them in batches.
+ */
+public interface LocalArtifactCache extends ArtifactCache {
+
+  /**
+   * Fetches several artifacts, blocking until all of them have been fetched.
+   *
+   * @param requests rule keys to fetch, and the paths to fetch them to.
+   * @return one result for every request, in the same order.
+   */
+  ImmutableList<CacheResult> multiFetch(ImmutableList<Pair<RuleKey, LazyPath>> requests);
+}
@@ -53,9 +53,31 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache, CacheDecora
     ArtifactCacheEvent.Started started =
         eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
     eventBus.post(started);
-    CacheResult fetchResult = Futures.getUnchecked(delegate.fetchAsync(target, ruleKey, output));
-    eventBus.post(eventFactory.newFetchFinishedEvent(started, fetchResult));
-    return Futures.immediateFuture(fetchResult);
+    return postFetchFinished(started, delegate.fetchAsync(target, ruleKey, output));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    ArtifactCacheEvent.Started started =
+        eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
+    eventBus.post(started);
+    return postFetchFinished(started, delegate.fetchAsync(target, ruleKey, output, consumer));
+  }
+
+  /** Posts the finished event once the fetch completes, without waiting for it. */
+  private ListenableFuture<CacheResult> postFetchFinished(
+      ArtifactCacheEvent.Started started, ListenableFuture<CacheResult> fetchResult) {
+    return Futures.transform(
+        fetchResult,
+        result -> {
+          eventBus.post(eventFactory.newFetchFinishedEvent(started, result));
+          return result;
+        },
+        MoreExecutors.directExecutor());
   }
 
   @Override
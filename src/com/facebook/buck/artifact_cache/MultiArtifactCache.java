@@ -19,6 +19,7 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.TeeInputStream;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.util.types.Pair;
@@ -30,9 +31,14 @@ import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -95,18 +101,63 @@ public class MultiArtifactCache implements ArtifactCache {
             return result;
           }
 
-          ImmutableList.Builder<ArtifactCache> builder = ImmutableList.builder();
-          for (ArtifactCache artifactCache : artifactCaches) {
-            if (artifactCache == lastCache.get()) {
-              break;
-            }
+          ImmutableList<ArtifactCache> cachesToFill = getCachesToFill(lastCache.get());
+          if (!cachesToFill.isEmpty()) {
+            storeToCaches(
+                cachesToFill,
+                ArtifactInfo.builder()
+                    .addRuleKeys(ruleKey)
+                    .setMetadata(result.getMetadata())
+                    .setBuildTarget(Optional.ofNullable(target))
+                    .build(),
+                BorrowablePath.notBorrowablePath(output.getUnchecked()));
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Like {@link #fetchAsync(BuildTarget, RuleKey, LazyPath)}, but streams the artifact to {@code
+   * consumer}. When writable caches come before the one that has the artifact, the streamed bytes
+   * are also copied to {@code output}, so that the hit can be propagated to those caches from
+   * there.
+   */
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    ListenableFuture<CacheResult> cacheResult = Futures.immediateFuture(CacheResult.miss());
+    AtomicReference<ArtifactCache> lastCache = new AtomicReference<>();
+
+    for (ArtifactCache artifactCache : artifactCaches) {
+      FetchedArtifactConsumer cacheConsumer =
+          getCachesToFill(artifactCache).isEmpty() ? consumer : copyingTo(output, consumer);
+      cacheResult =
+          Futures.transformAsync(
+              cacheResult,
+              (result) -> {
+                if (result.getType().isSuccess()) {
+                  return Futures.immediateFuture(result);
+                }
 
-            if (artifactCache.getCacheReadMode().isWritable()) {
-              builder.add(artifactCache);
-            }
+                lastCache.set(artifactCache);
+                return artifactCache.fetchAsync(target, ruleKey, output, cacheConsumer);
+              },
+              MoreExecutors.directExecutor());
+    }
+
+    return Futures.transform(
+        cacheResult,
+        (CacheResult result) -> {
+          if (!result.getType().isSuccess()) {
+            return result;
           }
 
-          ImmutableList<ArtifactCache> cachesToFill = builder.build();
+          // Either way the artifact ended up at output, propagate it to previous writable caches.
+          ImmutableList<ArtifactCache> cachesToFill = getCachesToFill(lastCache.get());
           if (!cachesToFill.isEmpty()) {
             storeToCaches(
                 cachesToFill,
@@ -122,6 +173,34 @@ public class MultiArtifactCache implements ArtifactCache {
         MoreExecutors.directExecutor());
   }
 
+  /** Keeps a copy at {@code output} of whatever is streamed to {@code consumer}. */
+  private static FetchedArtifactConsumer copyingTo(
+      LazyPath output, FetchedArtifactConsumer consumer) {
+    return (metadata, artifact) -> {
+      try (OutputStream copy = new BufferedOutputStream(Files.newOutputStream(output.get()))) {
+        InputStream tee = new TeeInputStream(artifact, copy);
+        consumer.consume(metadata, tee);
+        // The consumer may stop before the end of the payload.
+        ByteStreams.exhaust(tee);
+      }
+    };
+  }
+
+  /** Returns the writable caches that come before {@code lastCache}. */
+  private ImmutableList<ArtifactCache> getCachesToFill(@Nullable ArtifactCache lastCache) {
+    ImmutableList.Builder<ArtifactCache> builder = ImmutableList.builder();
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (artifactCache == lastCache) {
+        break;
+      }
+
+      if (artifactCache.getCacheReadMode().isWritable()) {
+        builder.add(artifactCache);
+      }
+    }
+    return builder.build();
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     for (ArtifactCache artifactCache : artifactCaches) {
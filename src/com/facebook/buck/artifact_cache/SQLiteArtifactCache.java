@@ -29,6 +29,8 @@ import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
 import com.facebook.buck.util.types.Pair;
@@ -39,6 +41,7 @@ import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
@@ -60,12 +63,25 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -77,7 +93,7 @@ import org.sqlite.SQLiteConfig;
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
  */
-public class SQLiteArtifactCache implements ArtifactCache {
+public class SQLiteArtifactCache implements LocalArtifactCache {
 
   private static final Logger LOG = Logger.get(SQLiteArtifactCache.class);
 
@@ -88,6 +104,14 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
 
+  private static final String SELECT_METADATA = "SELECT data FROM metadata WHERE rulekey = ?";
+  private static final String SELECT_CONTENT =
+      "SELECT artifact, filepath, size FROM content WHERE sha1 = ?";
+  private static final String SELECT_ALL_METADATA =
+      "SELECT rulekey, data FROM metadata WHERE rulekey";
+  private static final String SELECT_ALL_CONTENT =
+      "SELECT sha1, artifact, filepath, size FROM content WHERE sha1";
+
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
@@ -112,6 +136,32 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        cacheMode,
+        0);
+  }
+
+  /**
+   * @param readConnections number of pooled read-only connections. When positive, lookups run
+   *     concurrently on these connections and access time updates are coalesced and written in
+   *     batches by a single background thread. When zero, all operations share one connection.
+   */
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      CacheReadMode cacheMode,
+      int readConnections)
+      throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -136,7 +186,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
           String.format("Cache path [%s] already exists and is not a directory.", cacheDir));
     }
 
-    this.db = new ConnectionInfo(cacheDir);
+    this.db = new ConnectionInfo(cacheDir, readConnections);
   }
 
   @Override
@@ -145,14 +195,50 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(fetch(ruleKey, output));
   }
 
+  /** Looks up the metadata and content of all requests with a single query each. */
+  @Override
+  public ImmutableList<CacheResult> multiFetch(ImmutableList<Pair<RuleKey, LazyPath>> requests) {
+    ImmutableList<RuleKey> ruleKeys =
+        requests.stream().map(Pair::getFirst).distinct().collect(ImmutableList.toImmutableList());
+    Map<RuleKey, Content> contents;
+    Map<RuleKey, byte[]> metadata;
+    try {
+      contents = db.selectAllContent(ruleKeys);
+      metadata = db.selectAllMetadata(ruleKeys);
+    } catch (SQLException e) {
+      LOG.warn(e, "Artifact multiFetch(%s) error", ruleKeys);
+      CacheResult error =
+          CacheResult.error(
+              name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage()));
+      return requests.stream().map(request -> error).collect(ImmutableList.toImmutableList());
+    }
+
+    ImmutableList.Builder<CacheResult> results =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (Pair<RuleKey, LazyPath> request : requests) {
+      results.add(
+          fetch(
+              request.getFirst(),
+              request.getSecond(),
+              contentHash -> Optional.ofNullable(contents.get(contentHash)),
+              ruleKey -> Optional.ofNullable(metadata.get(ruleKey))));
+    }
+    return results.build();
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     // Async requests are not supported by SQLiteArtifactCache, so do nothing
   }
 
   private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
-    CacheResult artifactResult = fetchContent(ruleKey, output);
-    CacheResult metadataResult = fetchMetadata(ruleKey, output);
+    return fetch(ruleKey, output, db::selectContent, db::selectMetadata);
+  }
+
+  private CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, Lookup<Content> contents, Lookup<byte[]> metadata) {
+    CacheResult artifactResult = fetchContent(ruleKey, output, contents);
+    CacheResult metadataResult = fetchMetadata(ruleKey, output, metadata);
 
     if (artifactResult.getType().isSuccess() && metadataResult.getType().isSuccess()) {
       return CacheResult.hit(
@@ -165,14 +251,15 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  private CacheResult fetchContent(RuleKey contentHash, LazyPath output) {
+  private CacheResult fetchContent(
+      RuleKey contentHash, LazyPath output, Lookup<Content> contents) {
     CacheResult result =
         CacheResult.error(
             name,
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
+      Optional<Content> content = contents.lookup(contentHash);
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -208,14 +295,15 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  private CacheResult fetchMetadata(RuleKey ruleKey, LazyPath output) {
+  private CacheResult fetchMetadata(
+      RuleKey ruleKey, LazyPath output, Lookup<byte[]> metadataLookup) {
     CacheResult result =
         CacheResult.error(
             name,
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
+      Optional<byte[]> metadata = metadataLookup.lookup(ruleKey);
       if (metadata.isPresent()) {
         db.accessMetadata(ruleKey);
         output.get(); // for MultiArtifactCache, force evaluation of the output path
@@ -404,6 +492,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
   ListenableFuture<Unit> removeOldMetadata() {
     Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
     try {
+      db.flushAccesses();
       int deleted = db.deleteMetadata(evictionTime);
       LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
     } catch (SQLException e) {
@@ -422,6 +511,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
     long totalSizeBytes;
     try {
+      db.flushAccesses();
       totalSizeBytes = db.totalSize();
       if (totalSizeBytes <= maxCacheSizeBytes.get()) {
         return Futures.immediateFuture(null);
@@ -456,8 +546,14 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "sqlite_cache_clean")) {
+    db.stopAccessWriter();
+    try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(eventBus, "sqlite_cache_clean")) {
       Futures.allAsList(removeOldMetadata(), removeOldContent()).get();
+      scope.appendFinishedInfo(
+          "read_wait_millis", TimeUnit.NANOSECONDS.toMillis(db.readWaitNanos.sum()));
+      scope.appendFinishedInfo(
+          "write_wait_millis", TimeUnit.NANOSECONDS.toMillis(db.writeWaitNanos.sum()));
+      scope.appendFinishedInfo("batched_access_updates", db.batchedAccessUpdates.sum());
     } catch (ExecutionException | InterruptedException e) {
       LOG.error("Failed to clean SQLite cache");
     }
@@ -528,6 +624,16 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return keys.build();
   }
 
+  @VisibleForTesting
+  void flushAccesses() throws SQLException {
+    db.flushAccesses();
+  }
+
+  @VisibleForTesting
+  long getBatchedAccessUpdates() {
+    return db.batchedAccessUpdates.sum();
+  }
+
   @VisibleForTesting
   ImmutableList<RuleKey> metadataRuleKeys() throws SQLException {
     ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
@@ -541,7 +647,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
   }
 
   private static class ConnectionInfo {
+    private static final long ACCESS_WRITER_SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final int MAX_KEYS_PER_SELECT = 500;
+
     private final Connection connection;
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     private final PreparedStatement fetchMetadata;
     private final PreparedStatement fetchContent;
@@ -561,13 +671,21 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
     private final PreparedStatement contentSize;
 
-    private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+    // Only used in pooled mode, where reads go through their own connections and access time
+    // updates are coalesced and applied in batches by a single writer thread.
+    private final BlockingQueue<ReadConnection> readConnections;
+    private final Optional<ExecutorService> accessWriter;
+    private final Set<RuleKey> pendingMetadataAccesses = ConcurrentHashMap.newKeySet();
+    private final Set<RuleKey> pendingContentAccesses = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean accessFlushScheduled = new AtomicBoolean();
+
+    private final LongAdder readWaitNanos = new LongAdder();
+    private final LongAdder writeWaitNanos = new LongAdder();
+    private final LongAdder batchedAccessUpdates = new LongAdder();
+
+    private ConnectionInfo(Path cacheDir, int readConnectionCount) throws SQLException {
+      Path dbPath = cacheDir.resolve("dircache.db");
+      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, getProperties(false));
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
 
@@ -603,10 +721,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+      fetchMetadata = connection.prepareStatement(SELECT_METADATA);
+      fetchContent = connection.prepareStatement(SELECT_CONTENT);
 
       updateMetadataTime =
           connection.prepareStatement(
@@ -637,125 +753,353 @@ public class SQLiteArtifactCache implements ArtifactCache {
       contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
 
       BusyHandler.setHandler(connection, new RetryBusyHandler());
+
+      // Readers are opened after the writer so that they see the tables and WAL journal mode.
+      readConnections = new ArrayBlockingQueue<>(Math.max(1, readConnectionCount));
+      for (int i = 0; i < readConnectionCount; i++) {
+        readConnections.add(new ReadConnection(dbPath));
+      }
+      accessWriter =
+          readConnectionCount > 0
+              ? Optional.of(MostExecutors.newSingleThreadExecutor("SQLiteArtifactCache-writer"))
+              : Optional.empty();
     }
 
-    private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+    private static Properties getProperties(boolean readOnly) {
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(readOnly);
+      // date format must be set to match CURRENT_TIMESTAMP
+      Properties properties = config.toProperties();
+      properties.setProperty(
+          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+      return properties;
     }
 
-    private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
+    private AutoCloseableLock lockWriter() {
+      long start = System.nanoTime();
+      AutoCloseableLock lock = AutoCloseableLock.createFor(writeLock);
+      writeWaitNanos.add(System.nanoTime() - start);
+      return lock;
     }
 
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
-      updateMetadataTime.setBytes(1, getBytes(ruleKey));
-      updateMetadataTime.executeUpdate();
+    private ReadConnection borrowReadConnection() throws SQLException {
+      long start = System.nanoTime();
+      try {
+        return readConnections.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a read connection", e);
+      } finally {
+        readWaitNanos.add(System.nanoTime() - start);
+      }
     }
 
-    private synchronized void accessContent(RuleKey contentHash) throws SQLException {
-      updateContentTime.setBytes(1, getBytes(contentHash));
-      updateContentTime.executeUpdate();
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      if (!accessWriter.isPresent()) {
+        try (AutoCloseableLock ignored = lockWriter()) {
+          return selectMetadata(fetchMetadata, ruleKey);
+        }
+      }
+      ReadConnection reader = borrowReadConnection();
+      try {
+        return selectMetadata(reader.fetchMetadata, ruleKey);
+      } finally {
+        readConnections.add(reader);
+      }
     }
 
-    private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
+    private static Optional<byte[]> selectMetadata(PreparedStatement statement, RuleKey ruleKey)
         throws SQLException {
-      for (RuleKey ruleKey : ruleKeys) {
-        storeMetadata.setBytes(1, getBytes(ruleKey));
-        storeMetadata.setBytes(2, metadata);
-        storeMetadata.addBatch();
+      statement.setBytes(1, getBytes(ruleKey));
+      try (ResultSet rs = statement.executeQuery()) {
+        return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
       }
-      storeMetadata.executeBatch();
     }
 
-    private synchronized void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      if (!accessWriter.isPresent()) {
+        try (AutoCloseableLock ignored = lockWriter()) {
+          return selectContent(fetchContent, contentHash);
+        }
+      }
+      ReadConnection reader = borrowReadConnection();
+      try {
+        return selectContent(reader.fetchContent, contentHash);
+      } finally {
+        readConnections.add(reader);
+      }
+    }
+
+    private static Optional<Content> selectContent(
+        PreparedStatement statement, RuleKey contentHash) throws SQLException {
+      statement.setBytes(1, getBytes(contentHash));
+      try (ResultSet rs = statement.executeQuery()) {
+        return rs.next()
+            ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+            : Optional.empty();
+      }
+    }
+
+    private Map<RuleKey, byte[]> selectAllMetadata(List<RuleKey> ruleKeys) throws SQLException {
+      return selectAll(SELECT_ALL_METADATA, ruleKeys, rs -> rs.getBytes(2));
+    }
+
+    private Map<RuleKey, Content> selectAllContent(List<RuleKey> contentHashes)
+        throws SQLException {
+      return selectAll(
+          SELECT_ALL_CONTENT,
+          contentHashes,
+          rs -> new Content(rs.getBytes(2), rs.getString(3), rs.getLong(4)));
+    }
+
+    private <T> Map<RuleKey, T> selectAll(String query, List<RuleKey> keys, RowReader<T> reader)
         throws SQLException {
-      for (RuleKey contentHash : hashes) {
-        storeArtifact.setBytes(1, getBytes(contentHash));
-        storeArtifact.setBytes(2, artifact);
-        storeArtifact.setLong(3, size);
-        storeArtifact.addBatch();
+      if (!accessWriter.isPresent()) {
+        try (AutoCloseableLock ignored = lockWriter()) {
+          return selectAll(connection, query, keys, reader);
+        }
+      }
+      ReadConnection readConnection = borrowReadConnection();
+      try {
+        return selectAll(readConnection.connection, query, keys, reader);
+      } finally {
+        readConnections.add(readConnection);
       }
-      storeArtifact.executeBatch();
     }
 
-    private synchronized void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+    /** Selects the rows for all keys, chunked to stay below SQLite's limit on parameters. */
+    private static <T> Map<RuleKey, T> selectAll(
+        Connection connection, String query, List<RuleKey> keys, RowReader<T> reader)
         throws SQLException {
-      for (RuleKey ruleKey : ruleKeys) {
-        storeFilepath.setBytes(1, getBytes(ruleKey));
-        storeFilepath.setString(2, filepath);
-        storeFilepath.setLong(3, size);
-        storeFilepath.addBatch();
+      Map<RuleKey, T> rows = new HashMap<>();
+      for (List<RuleKey> chunk : Lists.partition(keys, MAX_KEYS_PER_SELECT)) {
+        String parameters = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+        try (PreparedStatement statement =
+            connection.prepareStatement(query + " IN (" + parameters + ")")) {
+          for (int i = 0; i < chunk.size(); i++) {
+            statement.setBytes(i + 1, getBytes(chunk.get(i)));
+          }
+          try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+              rows.put(new RuleKey(HashCode.fromBytes(rs.getBytes(1))), reader.read(rs));
+            }
+          }
+        }
       }
-      storeFilepath.executeBatch();
+      return rows;
     }
 
-    private synchronized int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
-      deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
-      return deleteMetadataBeforeCutoff.executeUpdate();
+    private void accessMetadata(RuleKey ruleKey) throws SQLException {
+      if (accessWriter.isPresent()) {
+        pendingMetadataAccesses.add(ruleKey);
+        scheduleAccessFlush();
+        return;
+      }
+      try (AutoCloseableLock ignored = lockWriter()) {
+        updateMetadataTime.setBytes(1, getBytes(ruleKey));
+        updateMetadataTime.executeUpdate();
+      }
     }
 
-    private synchronized int deleteContent(Timestamp evictionCutoff) throws SQLException {
-      deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
-      return deleteContentBeforeCutoff.executeUpdate();
+    private void accessContent(RuleKey contentHash) throws SQLException {
+      if (accessWriter.isPresent()) {
+        pendingContentAccesses.add(contentHash);
+        scheduleAccessFlush();
+        return;
+      }
+      try (AutoCloseableLock ignored = lockWriter()) {
+        updateContentTime.setBytes(1, getBytes(contentHash));
+        updateContentTime.executeUpdate();
+      }
     }
 
-    private synchronized void deleteContent(RuleKey contentHash) throws SQLException {
-      deleteContentForHash.setBytes(1, getBytes(contentHash));
-      deleteContentForHash.executeUpdate();
+    private void scheduleAccessFlush() {
+      if (accessFlushScheduled.compareAndSet(false, true)) {
+        try {
+          accessWriter.get().execute(this::flushAccessesQuietly);
+        } catch (RejectedExecutionException e) {
+          // The writer is shutting down, pending updates are flushed when the cache is closed.
+          accessFlushScheduled.set(false);
+        }
+      }
+    }
+
+    private void flushAccessesQuietly() {
+      try {
+        flushAccesses();
+      } catch (SQLException e) {
+        LOG.warn(e, "Failed to update access times");
+      }
     }
 
-    private synchronized long totalSize() throws SQLException {
-      ResultSet rs = contentSize.executeQuery();
-      if (!rs.next()) {
-        throw new SQLException("Query failed: total size of artifacts");
+    /** Applies all pending access time updates in a single transaction. */
+    private void flushAccesses() throws SQLException {
+      // Reset first, so that accesses recorded while we drain schedule another flush.
+      accessFlushScheduled.set(false);
+      ImmutableList<RuleKey> metadataKeys = drain(pendingMetadataAccesses);
+      ImmutableList<RuleKey> contentHashes = drain(pendingContentAccesses);
+      if (metadataKeys.isEmpty() && contentHashes.isEmpty()) {
+        return;
       }
 
-      return rs.getLong(1);
+      try (AutoCloseableLock ignored = lockWriter()) {
+        connection.setAutoCommit(false);
+        try {
+          for (RuleKey ruleKey : metadataKeys) {
+            updateMetadataTime.setBytes(1, getBytes(ruleKey));
+            updateMetadataTime.addBatch();
+          }
+          updateMetadataTime.executeBatch();
+          for (RuleKey contentHash : contentHashes) {
+            updateContentTime.setBytes(1, getBytes(contentHash));
+            updateContentTime.addBatch();
+          }
+          updateContentTime.executeBatch();
+          connection.commit();
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        } finally {
+          connection.setAutoCommit(true);
+        }
+      }
+      batchedAccessUpdates.add(metadataKeys.size() + contentHashes.size());
+    }
+
+    private static ImmutableList<RuleKey> drain(Set<RuleKey> pending) {
+      ImmutableList.Builder<RuleKey> drained = ImmutableList.builder();
+      Iterator<RuleKey> iterator = pending.iterator();
+      while (iterator.hasNext()) {
+        drained.add(iterator.next());
+        iterator.remove();
+      }
+      return drained.build();
     }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
+    private void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
         throws SQLException {
-      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
-      long deleted = 0;
+      try (AutoCloseableLock ignored = lockWriter()) {
+        for (RuleKey ruleKey : ruleKeys) {
+          storeMetadata.setBytes(1, getBytes(ruleKey));
+          storeMetadata.setBytes(2, metadata);
+          storeMetadata.addBatch();
+        }
+        storeMetadata.executeBatch();
+      }
+    }
 
-      ResultSet artifacts = selectContentByTime.executeQuery();
-      while (deleted < minToDelete && artifacts.next()) {
-        String filepath = artifacts.getString(1);
-        long sizeBytes = artifacts.getLong(2);
+    private void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
+        throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter()) {
+        for (RuleKey contentHash : hashes) {
+          storeArtifact.setBytes(1, getBytes(contentHash));
+          storeArtifact.setBytes(2, artifact);
+          storeArtifact.setLong(3, size);
+          storeArtifact.addBatch();
+        }
+        storeArtifact.executeBatch();
+      }
+    }
 
-        // from database constraint, exactly one of filepath/artifact is null
-        if (Objects.nonNull(filepath)) {
-          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
-          filepaths.add(filepath);
-        } else {
-          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+    private void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+        throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter()) {
+        for (RuleKey ruleKey : ruleKeys) {
+          storeFilepath.setBytes(1, getBytes(ruleKey));
+          storeFilepath.setString(2, filepath);
+          storeFilepath.setLong(3, size);
+          storeFilepath.addBatch();
         }
+        storeFilepath.executeBatch();
+      }
+    }
 
-        deleted += sizeBytes;
+    private int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter()) {
+        deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
+        return deleteMetadataBeforeCutoff.executeUpdate();
       }
+    }
 
-      Timestamp evictionCutoff;
-      if (artifacts.next()) {
-        evictionCutoff = artifacts.getTimestamp(3);
-      } else {
-        evictionCutoff = Timestamp.from(Instant.now());
+    private int deleteContent(Timestamp evictionCutoff) throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter()) {
+        deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
+        return deleteContentBeforeCutoff.executeUpdate();
       }
+    }
 
-      return new Pair<>(filepaths.build(), evictionCutoff);
+    private void deleteContent(RuleKey contentHash) throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter()) {
+        deleteContentForHash.setBytes(1, getBytes(contentHash));
+        deleteContentForHash.executeUpdate();
+      }
+    }
+
+    private long totalSize() throws SQLException {
+      try (AutoCloseableLock ignored = lockWriter();
+          ResultSet rs = contentSize.executeQuery()) {
+        if (!rs.next()) {
+          throw new SQLException("Query failed: total size of artifacts");
+        }
+
+        return rs.getLong(1);
+      }
+    }
+
+    private Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
+        throws SQLException {
+      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
+      long deleted = 0;
+
+      try (AutoCloseableLock ignored = lockWriter();
+          ResultSet artifacts = selectContentByTime.executeQuery()) {
+        while (deleted < minToDelete && artifacts.next()) {
+          String filepath = artifacts.getString(1);
+          long sizeBytes = artifacts.getLong(2);
+
+          // from database constraint, exactly one of filepath/artifact is null
+          if (Objects.nonNull(filepath)) {
+            LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
+            filepaths.add(filepath);
+          } else {
+            LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+          }
+
+          deleted += sizeBytes;
+        }
+
+        Timestamp evictionCutoff;
+        if (artifacts.next()) {
+          evictionCutoff = artifacts.getTimestamp(3);
+        } else {
+          evictionCutoff = Timestamp.from(Instant.now());
+        }
+
+        return new Pair<>(filepaths.build(), evictionCutoff);
+      }
     }
 
     private static byte[] getBytes(RuleKey ruleKey) {
       return ruleKey.getHashCode().asBytes();
     }
 
+    /** Stops accepting batched access time updates, waiting for in-flight ones to finish. */
+    private void stopAccessWriter() {
+      if (accessWriter.isPresent()) {
+        try {
+          MostExecutors.shutdown(
+              accessWriter.get(), ACCESS_WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
     private void close() {
       try {
+        for (ReadConnection reader : readConnections) {
+          reader.connection.close();
+        }
         connection.close();
       } catch (SQLException e) {
         throw new RuntimeException(e);
@@ -763,6 +1107,32 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
+  /** A read-only connection used for lookups in pooled mode. */
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+
+    private ReadConnection(Path dbPath) throws SQLException {
+      connection =
+          DriverManager.getConnection("jdbc:sqlite:" + dbPath, ConnectionInfo.getProperties(true));
+      fetchMetadata = connection.prepareStatement(SELECT_METADATA);
+      fetchContent = connection.prepareStatement(SELECT_CONTENT);
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    }
+  }
+
+  /** Looks up a row of the cache by its key. */
+  @FunctionalInterface
+  private interface Lookup<T> {
+    Optional<T> lookup(RuleKey key) throws SQLException;
+  }
+
+  @FunctionalInterface
+  private interface RowReader<T> {
+    T read(ResultSet rs) throws SQLException;
+  }
+
   private static class Content {
     private final byte[] artifact;
     private final String filepath;
@@ -123,8 +123,38 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetchAsync(target, ruleKey, output, Optional.empty());
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      FetchedArtifactConsumer consumer) {
+    return fetchAsync(target, ruleKey, output, Optional.of(consumer));
+  }
+
+  private ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<FetchedArtifactConsumer> consumer) {
+    // Only single-level entries carry the artifact itself, first-level entries are just pointers.
+    ListenableFuture<CacheResult> firstLevelFetchResultFuture =
+        consumer.isPresent()
+            ? delegate.fetchAsync(
+                target,
+                ruleKey,
+                output,
+                (metadata, artifact) -> {
+                  if (!metadata.containsKey(METADATA_KEY)) {
+                    consumer.get().consume(metadata, artifact);
+                  }
+                })
+            : delegate.fetchAsync(target, ruleKey, output);
     return Futures.transformAsync(
-        delegate.fetchAsync(target, ruleKey, output),
+        firstLevelFetchResultFuture,
         (CacheResult fetchResult) -> {
           if (!fetchResult.getType().isSuccess()) {
             LOG.verbose("Missed first-level lookup.");
@@ -136,8 +166,21 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
           LOG.verbose("Found a first-level artifact with metadata: %s", fetchResult.getMetadata());
 
           String contentHashKey = fetchResult.getMetadata().get(METADATA_KEY);
+          // The two level content hash was not part of the original metadata that was stored
+          // to the cache, don't include it in the result.
+          ImmutableMap<String, String> originalMetadata =
+              ImmutableMap.copyOf(
+                  RichStream.from(fetchResult.getMetadata().entrySet())
+                      .filter(e -> !Objects.equals(e.getKey(), METADATA_KEY))
+                      .toOnceIterable());
           ListenableFuture<CacheResult> outputFileFetchResultFuture =
-              delegate.fetchAsync(target, new RuleKey(contentHashKey), output);
+              consumer.isPresent()
+                  ? delegate.fetchAsync(
+                      target,
+                      new RuleKey(contentHashKey),
+                      output,
+                      (metadata, artifact) -> consumer.get().consume(originalMetadata, artifact))
+                  : delegate.fetchAsync(target, new RuleKey(contentHashKey), output);
 
           return Futures.transformAsync(
               outputFileFetchResultFuture,
@@ -169,17 +212,9 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
                 // outputFileFetchResult,
                 // so that the client gets the correct metadata.
                 CacheResult finalResult =
-                    fetchResult.withTwoLevelContentHashKey(Optional.of(contentHashKey));
-
-                // The two level content hash was not part of the original metadata that was stored
-                // to the cache, don't include it in the result.
-                finalResult =
-                    finalResult.withMetadata(
-                        Optional.of(
-                            ImmutableMap.copyOf(
-                                RichStream.from(finalResult.getMetadata().entrySet())
-                                    .filter(e -> !Objects.equals(e.getKey(), METADATA_KEY))
-                                    .toOnceIterable())));
+                    fetchResult
+                        .withTwoLevelContentHashKey(Optional.of(contentHashKey))
+                        .withMetadata(Optional.of(originalMetadata));
                 return Futures.immediateFuture(finalResult);
               },
               MoreExecutors.directExecutor());
@@ -85,6 +85,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_LINK_MODE_FIELD = "dir_link_mode";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
       ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
@@ -106,6 +107,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
+  private static final String SQLITE_READ_CONNECTIONS_FIELD = "sqlite_read_connections";
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.READONLY.name();
@@ -144,6 +146,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
+  private static final String LOCAL_FETCH_THREADS = "local_fetch_threads";
+  private static final String LOCAL_MULTI_FETCH_LIMIT = "local_multi_fetch_limit";
 
   private static final String ENV_VAR_SUFFIX = "_env_var";
 
@@ -189,6 +193,32 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_MULTI_FETCH_LIMIT);
   }
 
+  /**
+   * @return number of threads each local (dir and sqlite) cache fetches on. Zero means that local
+   *     caches fetch synchronously on the calling thread.
+   */
+  public int getLocalFetchThreads() {
+    int threads = buckConfig.getInteger(CACHE_SECTION_NAME, LOCAL_FETCH_THREADS).orElse(0);
+    if (threads < 0) {
+      throw new HumanReadableException(
+          "%s:%s must not be negative", CACHE_SECTION_NAME, LOCAL_FETCH_THREADS);
+    }
+    return threads;
+  }
+
+  /** @return maximum number of fetches a local cache reads in one batch. */
+  public int getLocalMultiFetchLimit() {
+    int limit =
+        buckConfig
+            .getInteger(CACHE_SECTION_NAME, LOCAL_MULTI_FETCH_LIMIT)
+            .orElse(DEFAULT_MULTI_FETCH_LIMIT);
+    if (limit < 1) {
+      throw new HumanReadableException(
+          "%s:%s must be positive", CACHE_SECTION_NAME, LOCAL_MULTI_FETCH_LIMIT);
+    }
+    return limit;
+  }
+
   public String getRepository() {
     return buckConfig.getValue(CACHE_SECTION_NAME, REPOSITORY).orElse(DEFAULT_REPOSITORY);
   }
@@ -538,7 +568,12 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxSizeBytes =
         buckConfig.getValue(section, DIR_MAX_SIZE_FIELD).map(SizeUnit::parseBytes);
 
-    return DirCacheEntry.of(cacheName, pathToCacheDir, maxSizeBytes, readMode);
+    DirCacheLinkMode linkMode =
+        buckConfig
+            .getEnum(section, DIR_LINK_MODE_FIELD, DirCacheLinkMode.class)
+            .orElse(DirCacheLinkMode.DEFAULT);
+
+    return DirCacheEntry.of(cacheName, pathToCacheDir, maxSizeBytes, readMode, linkMode);
   }
 
   private HttpCacheEntry obtainHttpEntry() {
@@ -594,8 +629,20 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    int readConnections =
+        buckConfig.getInteger(section, SQLITE_READ_CONNECTIONS_FIELD).orElse(0);
+    if (readConnections < 0) {
+      throw new HumanReadableException(
+          "%s:%s must not be negative", section, SQLITE_READ_CONNECTIONS_FIELD);
+    }
+
     return ImmutableSQLiteCacheEntry.of(
-        Optional.of(cacheName), pathToCacheDir, maxSizeBytes, maxInlinedSizeBytes, readMode);
+        Optional.of(cacheName),
+        pathToCacheDir,
+        maxSizeBytes,
+        maxInlinedSizeBytes,
+        readMode,
+        readConnections);
   }
 
   public ImmutableSet<String> getBlacklistedWifiSsids() {
@@ -30,6 +30,8 @@ public abstract class DirCacheEntry {
 
   public abstract CacheReadMode getCacheReadMode();
 
+  public abstract DirCacheLinkMode getLinkMode();
+
   public static DirCacheEntry of(
       Path cacheDir, Optional<Long> maxSizeBytes, CacheReadMode cacheReadMode) {
     return of(Optional.empty(), cacheDir, maxSizeBytes, cacheReadMode);
@@ -40,13 +42,23 @@ public abstract class DirCacheEntry {
       Path cacheDir,
       Optional<Long> maxSizeBytes,
       CacheReadMode cacheReadMode) {
-    return ImmutableDirCacheEntry.of(name, cacheDir, maxSizeBytes, cacheReadMode);
+    return of(name, cacheDir, maxSizeBytes, cacheReadMode, DirCacheLinkMode.DEFAULT);
+  }
+
+  public static DirCacheEntry of(
+      Optional<String> name,
+      Path cacheDir,
+      Optional<Long> maxSizeBytes,
+      CacheReadMode cacheReadMode,
+      DirCacheLinkMode linkMode) {
+    return ImmutableDirCacheEntry.of(name, cacheDir, maxSizeBytes, cacheReadMode, linkMode);
   }
 
   public DirCacheEntry withCacheReadMode(CacheReadMode cacheReadMode) {
     if (getCacheReadMode().equals(cacheReadMode)) {
       return this;
     }
-    return ImmutableDirCacheEntry.of(getName(), getCacheDir(), getMaxSizeBytes(), cacheReadMode);
+    return ImmutableDirCacheEntry.of(
+        getName(), getCacheDir(), getMaxSizeBytes(), cacheReadMode, getLinkMode());
   }
 }
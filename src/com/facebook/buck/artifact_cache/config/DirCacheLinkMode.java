@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** Describes how artifacts are moved in and out of a dir cache. */
+public enum DirCacheLinkMode {
+  // Artifacts are copied on fetch and on store.
+  COPY,
+  // Artifacts are hardlinked on fetch, falling back to a copy if the cache and the other path are
+  // on different file systems. Stores still copy, as the stored output may be modified later.
+  HARDLINK;
+
+  public static final DirCacheLinkMode DEFAULT = COPY;
+}
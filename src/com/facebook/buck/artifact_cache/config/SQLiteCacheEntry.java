@@ -31,4 +31,7 @@ public abstract class SQLiteCacheEntry {
   public abstract Optional<Long> getMaxInlinedSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Number of pooled read connections, or zero to use a single shared connection. */
+  public abstract int getReadConnections();
 }
@@ -56,11 +56,13 @@ import com.facebook.buck.query.AttrRegexFilterFunction;
 import com.facebook.buck.query.BuildFileFunction;
 import com.facebook.buck.query.DepsFunction;
 import com.facebook.buck.query.FilterFunction;
+import com.facebook.buck.query.IndexedQueryGraph;
 import com.facebook.buck.query.InputsFunction;
 import com.facebook.buck.query.KindFunction;
 import com.facebook.buck.query.LabelsFunction;
 import com.facebook.buck.query.NoopQueryEvaluator;
 import com.facebook.buck.query.OwnerFunction;
+import com.facebook.buck.query.ParallelQueryEvaluator;
 import com.facebook.buck.query.QueryBuildTarget;
 import com.facebook.buck.query.QueryEnvironment;
 import com.facebook.buck.query.QueryException;
@@ -89,7 +91,6 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -99,8 +100,11 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * The environment of a Buck query that can evaluate queries to produce a result.
@@ -135,14 +139,21 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   private final BuckEventBus eventBus;
   private final QueryEnvironment.TargetEvaluator queryTargetEvaluator;
   private final TypeCoercerFactory typeCoercerFactory;
+  private final boolean parallelEvaluation;
 
   private final ImmutableMap<Cell, BuildFileTree> buildFileTrees;
-  private final Map<BuildTarget, QueryBuildTarget> buildTargetToQueryTarget = new HashMap<>();
+  private final Map<BuildTarget, QueryBuildTarget> buildTargetToQueryTarget =
+      new ConcurrentHashMap<>();
 
-  // Query execution is single threaded, however the buildTransitiveClosure implementation
-  // traverses the graph in parallel.
+  // Queries may be evaluated by several threads at once (see `evaluateQuery`). Those threads parse
+  // new targets concurrently, but `graph` only grows, and `indexedGraph` is only extended, while
+  // holding the `addedNodes` lock.
   private MutableDirectedGraph<TargetNode<?>> graph = MutableDirectedGraph.createConcurrent();
   private Map<BuildTarget, TargetNode<?>> targetsToNodes = new ConcurrentHashMap<>();
+  // Nodes in the order in which they were added to `graph`, and a snapshot of the first
+  // `indexedGraph.size()` of them for the query functions, which is extended when it's requested.
+  private final List<TargetNode<?>> addedNodes = new ArrayList<>();
+  @Nullable private volatile IndexedQueryGraph<QueryBuildTarget> indexedGraph;
   private TemporaryUnconfiguredTargetToTargetUniquenessChecker checker;
 
   @VisibleForTesting
@@ -171,6 +182,8 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     this.targetPatternEvaluator = targetPatternEvaluator;
     this.queryTargetEvaluator = new TargetEvaluator(targetPatternEvaluator);
     this.typeCoercerFactory = typeCoercerFactory;
+    this.parallelEvaluation =
+        BuildBuckConfig.of(rootCell.getBuckConfig()).getParallelQueryEvaluation();
     this.checker =
         TemporaryUnconfiguredTargetToTargetUniquenessChecker.create(
             BuildBuckConfig.of(rootCell.getBuckConfig()).shouldBuckOutIncludeTargetConfigHash());
@@ -251,7 +264,16 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     Set<String> targetLiterals = new HashSet<>();
     expr.collectTargetPatterns(targetLiterals);
     preloadTargetPatterns(targetLiterals);
-    return new NoopQueryEvaluator<QueryBuildTarget>().eval(expr, this);
+    BuildBuckConfig buildBuckConfig = BuildBuckConfig.of(rootCell.getBuckConfig());
+    if (!buildBuckConfig.getParallelQueryEvaluation()) {
+      return new NoopQueryEvaluator<QueryBuildTarget>().eval(expr, this);
+    }
+    ForkJoinPool pool = new ForkJoinPool(buildBuckConfig.getNumThreads());
+    try {
+      return new ParallelQueryEvaluator<QueryBuildTarget>(pool).eval(expr, this);
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
   public Set<QueryTarget> evaluateQuery(String query) throws QueryException, InterruptedException {
@@ -348,6 +370,45 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
         .collect(ImmutableSet.toImmutableSet());
   }
 
+  @Override
+  public Optional<IndexedQueryGraph<QueryBuildTarget>> getIndexedGraph() throws QueryException {
+    IndexedQueryGraph<QueryBuildTarget> snapshot = indexedGraph;
+    if (snapshot != null && snapshot.size() == graph.getNodeCount()) {
+      return Optional.of(snapshot);
+    }
+    synchronized (addedNodes) {
+      return Optional.of(extendIndexedGraph());
+    }
+  }
+
+  @GuardedBy("addedNodes")
+  private IndexedQueryGraph<QueryBuildTarget> extendIndexedGraph() throws QueryException {
+    IndexedQueryGraph<QueryBuildTarget> indexedGraph = this.indexedGraph;
+    int indexedNodes = indexedGraph == null ? 0 : indexedGraph.size();
+    if (indexedGraph == null || indexedNodes < addedNodes.size()) {
+      List<QueryBuildTarget> newTargets = new ArrayList<>(addedNodes.size() - indexedNodes);
+      for (TargetNode<?> node : addedNodes.subList(indexedNodes, addedNodes.size())) {
+        newTargets.add(getOrCreateQueryBuildTarget(node.getBuildTarget()));
+      }
+      List<QueryBuildTarget> successors = new ArrayList<>();
+      IndexedQueryGraph.SuccessorFunction<QueryBuildTarget> successorFunction =
+          target -> {
+            successors.clear();
+            for (TargetNode<?> dep : graph.getOutgoingNodesFor(getNode(target))) {
+              successors.add(getOrCreateQueryBuildTarget(dep.getBuildTarget()));
+            }
+            successors.sort(QueryTarget::compare);
+            return successors;
+          };
+      indexedGraph =
+          indexedGraph == null
+              ? IndexedQueryGraph.of(newTargets, successorFunction, parallelEvaluation)
+              : indexedGraph.extend(newTargets, successorFunction);
+      this.indexedGraph = indexedGraph;
+    }
+    return indexedGraph;
+  }
+
   @Override
   public ImmutableSet<QueryBuildTarget> getTransitiveClosure(Set<QueryBuildTarget> targets)
       throws QueryException {
@@ -374,11 +435,17 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   public void buildTransitiveClosure(Set<? extends QueryTarget> targets, int maxDepth)
       throws QueryException {
     // Filter QueryTargets that are build targets and not yet present in the build target graph.
+    // Targets which another thread has parsed but not yet added are parsed again, which is cheap,
+    // so that they are added before this method returns.
     ImmutableSet<BuildTarget> newBuildTargets =
         targets.stream()
             .filter(target -> target instanceof QueryBuildTarget)
             .map(target -> ((QueryBuildTarget) target).getBuildTarget())
-            .filter(buildTarget -> !targetsToNodes.containsKey(buildTarget))
+            .filter(
+                buildTarget -> {
+                  TargetNode<?> node = targetsToNodes.get(buildTarget);
+                  return node == null || !graph.getNodes().contains(node);
+                })
             .collect(ImmutableSet.toImmutableSet());
 
     // TODO(mkosiba): This looks more and more like the Parser.buildTargetGraph method. Unify the
@@ -430,14 +497,19 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     AcyclicDepthFirstPostOrderTraversalWithPayload<BuildTarget, TargetNode<?>> targetNodeTraversal =
         new AcyclicDepthFirstPostOrderTraversalWithPayload<>(traversable);
     try {
-      for (Pair<BuildTarget, TargetNode<?>> entry : targetNodeTraversal.traverse(newBuildTargets)) {
-        TargetNode<?> node = entry.getSecond();
-        graph.addNode(node);
-        for (BuildTarget dep : node.getParseDeps()) {
-          graph.addEdge(
-              node,
-              Preconditions.checkNotNull(
-                  targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
+      synchronized (addedNodes) {
+        for (Pair<BuildTarget, TargetNode<?>> entry :
+            targetNodeTraversal.traverse(newBuildTargets)) {
+          TargetNode<?> node = entry.getSecond();
+          if (graph.addNode(node)) {
+            addedNodes.add(node);
+          }
+          for (BuildTarget dep : node.getParseDeps()) {
+            graph.addEdge(
+                node,
+                Preconditions.checkNotNull(
+                    targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
+          }
         }
       }
     } catch (CycleException e) {
@@ -27,6 +27,7 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig.Executor;
 import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.command.config.ConfigDifference;
 import com.facebook.buck.command.config.ConfigDifference.ConfigChange;
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellName;
@@ -57,6 +58,7 @@ import com.facebook.buck.core.model.tc.factory.TargetConfigurationFactory;
 import com.facebook.buck.core.module.BuckModuleManager;
 import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.resources.ResourceProfiles;
 import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.config.ConfigurationRuleDescription;
@@ -1436,6 +1438,10 @@ public final class MainRunner {
             }
           }
 
+          Optional<ResourceProfiles> resourceProfiles =
+              buckConfig.getView(ResourcesConfig.class).getResourceProfiles();
+          resourceProfiles.ifPresent(buildEventBus::register);
+
           buildEventBus.post(
               new BuckInitializationDurationEvent(
                   TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initTimestamp)));
@@ -1494,6 +1500,7 @@ public final class MainRunner {
             throw e;
           } finally {
             buildEventBus.post(CommandEvent.finished(startedEvent, exitCode));
+            resourceProfiles.ifPresent(ResourceProfiles::save);
             buildEventBus.post(
                 new CacheStatsEvent(
                     "versioned_target_graph_cache",
@@ -2211,8 +2218,10 @@ public final class MainRunner {
     Path criticalPathDir = projectFilesystem.resolve(logDirectoryPath);
     Path criticalPathLog = criticalPathDir.resolve(CRITICAL_PATH_FILE_NAME);
     projectFilesystem.mkdirs(criticalPathDir);
+    Path logDir = projectFilesystem.resolve(projectFilesystem.getBuckPaths().getLogDir());
     CriticalPathEventListener criticalPathEventListener =
-        new CriticalPathEventListener(criticalPathLog);
+        new CriticalPathEventListener(
+            criticalPathLog, Optional.of(logDir.resolve(BuildRuleDurationHistory.FILE_NAME)));
     buckEventBus.register(criticalPathEventListener);
 
     ChromeTraceBuckConfig chromeTraceConfig = buckConfig.getView(ChromeTraceBuckConfig.class);
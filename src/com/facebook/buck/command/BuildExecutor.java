@@ -17,6 +17,7 @@
 package com.facebook.buck.command;
 
 import com.facebook.buck.command.config.BuildBuckConfig;
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
 import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine;
@@ -28,6 +29,7 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
@@ -138,6 +140,11 @@ public class BuildExecutor {
     cachingBuildEngine.close();
   }
 
+  private Path getLogFilePath(String fileName) {
+    ProjectFilesystem filesystem = args.getCells().getRootCell().getFilesystem();
+    return filesystem.resolve(filesystem.getBuckPaths().getLogDir()).resolve(fileName);
+  }
+
   private CachingBuildEngine createCachingBuildEngine(
       boolean remoteExecutionAutoEnabled, boolean forceDisableRemoteExecution) {
     CachingBuildEngineBuckConfig engineConfig =
@@ -173,7 +180,8 @@ public class BuildExecutor {
             actionGraphAndBuilder.getActionGraphBuilder(),
             args.getBuckConfig().getView(BuildBuckConfig.class).getBuildInputRuleKeyFileSizeLimit(),
             ruleKeyCacheScope.getCache(),
-            ruleKeyLogger));
+            ruleKeyLogger),
+        BuildRuleDurationHistory.load(getLogFilePath(BuildRuleDurationHistory.FILE_NAME)));
   }
 
   public Build getBuild() {
@@ -39,6 +39,7 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
   private static final String PROJECT_SECTION = "project";
   private static final String TARGETS_SECTION = "targets";
   private static final String CACHE_SECTION = "cache";
+  private static final String QUERY_SECTION = "query";
 
   @Override
   public abstract BuckConfig getDelegate();
@@ -205,6 +206,12 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(TARGETS_SECTION, "versions", false);
   }
 
+  /** @return whether to evaluate independent parts of query expressions concurrently. */
+  @Value.Lazy
+  public boolean getParallelQueryEvaluation() {
+    return getDelegate().getBooleanValue(QUERY_SECTION, "parallel_evaluation", false);
+  }
+
   /** @return whether to enable caching of rule key calculations between builds. */
   @Value.Lazy
   public boolean getRuleKeyCaching() {
@@ -243,6 +250,15 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(BUILD_SECTION, "delete_temporaries", false);
   }
 
+  /**
+   * @return whether to persist the hashes of files in cells, so that they don't have to be
+   *     recomputed after a daemon restart or a watchman overflow.
+   */
+  @Value.Lazy
+  public boolean getPersistentFileHashCaching() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "persistent_file_hash_caching", false);
+  }
+
   /** @return whether to enable new file hash cache engine. */
   @Value.Lazy
   public FileHashCacheMode getFileHashCacheMode() {
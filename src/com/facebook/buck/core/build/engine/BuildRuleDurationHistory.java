@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * How long (in milliseconds) each rule took to execute the last time it was built locally or
+ * remotely. Rules fetched from the cache keep the duration of their last execution. Used to
+ * estimate the critical path of a build before it runs (see {@link BuildRulePriorities}), so that
+ * rules on it are started first.
+ *
+ * <p>Only the rules of the most recent builds are kept: targets are stored in the order they were
+ * last built, and the ones which were not built for the longest time are dropped once there are
+ * more than {@link #MAX_ENTRIES}.
+ */
+public class BuildRuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(BuildRuleDurationHistory.class);
+
+  /** Name of the file, in the log directory, which holds the durations of previous builds. */
+  public static final String FILE_NAME = "last_rule_durations.json";
+
+  @VisibleForTesting static final int MAX_ENTRIES = 100_000;
+
+  private static final BuildRuleDurationHistory EMPTY =
+      new BuildRuleDurationHistory(ImmutableMap.of());
+
+  /** Ordered from the least to the most recently built target. */
+  private final ImmutableMap<String, Long> durationMsByTarget;
+
+  private BuildRuleDurationHistory(ImmutableMap<String, Long> durationMsByTarget) {
+    this.durationMsByTarget = durationMsByTarget;
+  }
+
+  public static BuildRuleDurationHistory empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @param durationMsByTarget execution duration of each rule, keyed by fully qualified target,
+   *     from the least to the most recently built one.
+   */
+  public static BuildRuleDurationHistory of(Map<String, Long> durationMsByTarget) {
+    return new BuildRuleDurationHistory(ImmutableMap.copyOf(durationMsByTarget));
+  }
+
+  /** Loads a history written by {@link #save(Path)}, or an empty one if there is none. */
+  public static BuildRuleDurationHistory load(Path path) {
+    if (!Files.isRegularFile(path)) {
+      return EMPTY;
+    }
+    try {
+      return of(
+          ObjectMappers.readValue(path, new TypeReference<LinkedHashMap<String, Long>>() {}));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to load rule durations from %s.", path);
+      return EMPTY;
+    }
+  }
+
+  /** Writes the history to a temporary file first, so readers never see a partial one. */
+  public void save(Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tmp = Files.createTempFile(path.getParent(), FILE_NAME, ".tmp");
+    try {
+      ObjectMappers.WRITER.writeValue(tmp.toFile(), durationMsByTarget);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * @param builtTargets all the targets of the latest build, including the ones fetched from the
+   *     cache. They become the most recent entries.
+   * @param newDurationMsByTarget durations of the targets which the latest build executed.
+   * @return this history with the new durations, and without the least recently built targets if
+   *     it grew too large.
+   */
+  public BuildRuleDurationHistory updatedWith(
+      Collection<String> builtTargets, Map<String, Long> newDurationMsByTarget) {
+    Map<String, Long> updated = new LinkedHashMap<>(durationMsByTarget);
+    for (String target : builtTargets) {
+      Long durationMs = updated.remove(target);
+      if (durationMs != null) {
+        updated.put(target, durationMs);
+      }
+    }
+    for (Map.Entry<String, Long> entry : newDurationMsByTarget.entrySet()) {
+      updated.remove(entry.getKey());
+      updated.put(entry.getKey(), entry.getValue());
+    }
+    Iterator<String> leastRecentlyBuilt = updated.keySet().iterator();
+    for (int toRemove = updated.size() - MAX_ENTRIES; toRemove > 0; toRemove--) {
+      leastRecentlyBuilt.next();
+      leastRecentlyBuilt.remove();
+    }
+    return of(updated);
+  }
+
+  /** @return how long the given target took to execute the last time it was built. */
+  public OptionalLong getDurationMs(BuildTarget target) {
+    Long durationMs = durationMsByTarget.get(target.getFullyQualifiedName());
+    return durationMs == null ? OptionalLong.empty() : OptionalLong.of(durationMs);
+  }
+
+  public boolean isEmpty() {
+    return durationMsByTarget.isEmpty();
+  }
+
+  @VisibleForTesting
+  int size() {
+    return durationMsByTarget.size();
+  }
+}
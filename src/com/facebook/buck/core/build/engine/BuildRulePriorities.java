@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates the critical path of a build from the {@link BuildRuleDurationHistory}.
+ *
+ * <p>The priority of a rule is the expected time, in milliseconds, from starting it to finishing
+ * the top-level rule which depends on it through the longest chain found so far. Rules with the
+ * highest priority are on the critical path, so their rule keys are computed first and they are
+ * given resources first when rules wait for them. Rules with no recorded duration count as {@link
+ * #UNKNOWN_RULE_DURATION_MS}, so without history the depth of the chain decides.
+ *
+ * <p>Rules are added as they are discovered, from the top-level rules down. When a longer chain to
+ * an already discovered rule is found, the increase is propagated to its dependencies which were
+ * discovered as well. Rules discovered concurrently may still miss an increase, which is fine for
+ * ordering the work.
+ */
+public class BuildRulePriorities {
+
+  /** Expected duration of rules which have not been executed before. */
+  public static final long UNKNOWN_RULE_DURATION_MS = 1;
+
+  private final BuildRuleDurationHistory durationHistory;
+  private final RuleDepsCache ruleDeps;
+  private final ConcurrentMap<BuildTarget, Long> priorities = new ConcurrentHashMap<>();
+
+  public BuildRulePriorities(BuildRuleDurationHistory durationHistory, RuleDepsCache ruleDeps) {
+    this.durationHistory = durationHistory;
+    this.ruleDeps = ruleDeps;
+  }
+
+  /** @return the priority of the rule, or 0 if it has not been discovered yet. */
+  public long get(BuildRule rule) {
+    return priorities.getOrDefault(rule.getBuildTarget(), 0L);
+  }
+
+  /** Adds a rule which was requested directly, rather than as a dependency of another rule. */
+  public void addTopLevelRule(BuildRule rule) {
+    Propagation propagation = new Propagation();
+    propagation.raise(rule, 0);
+    propagation.run();
+  }
+
+  /**
+   * Adds the dependencies of a discovered rule. Build dependencies have to finish before the rule
+   * starts, while runtime dependencies run alongside it.
+   */
+  public void addDeps(BuildRule rule) {
+    Propagation propagation = new Propagation();
+    propagation.raiseDeps(rule, false);
+    propagation.run();
+  }
+
+  /**
+   * Raises priorities through the graph using a worklist of the discovered rules whose priority
+   * went up, so that long chains neither grow the stack nor get walked once per increase.
+   */
+  private class Propagation {
+    private final Queue<BuildRule> raisedRules = new ArrayDeque<>();
+    private final Set<BuildTarget> queuedTargets = new HashSet<>();
+
+    /**
+     * Makes sure the priority of the rule is at least its expected duration plus the given priority
+     * of a rule which has to wait for it.
+     */
+    void raise(BuildRule rule, long dependentPriority) {
+      long priority = dependentPriority + getExpectedDurationMs(rule);
+      BuildTarget target = rule.getBuildTarget();
+      Long previous = priorities.putIfAbsent(target, priority);
+      while (previous != null && previous < priority) {
+        if (priorities.replace(target, previous, priority)) {
+          if (queuedTargets.add(target)) {
+            raisedRules.add(rule);
+          }
+          return;
+        }
+        previous = priorities.get(target);
+      }
+    }
+
+    void raiseDeps(BuildRule rule, boolean onlyDiscovered) {
+      long priority = get(rule);
+      for (BuildRule dep : rule.getBuildDeps()) {
+        if (!onlyDiscovered || priorities.containsKey(dep.getBuildTarget())) {
+          raise(dep, priority);
+        }
+      }
+      long runtimeDependentPriority = priority - getExpectedDurationMs(rule);
+      for (BuildRule dep : ruleDeps.getRuntimeDeps(rule)) {
+        if (!onlyDiscovered || priorities.containsKey(dep.getBuildTarget())) {
+          raise(dep, runtimeDependentPriority);
+        }
+      }
+    }
+
+    /** Propagates the raised priorities to the dependencies which were discovered as well. */
+    void run() {
+      while (!raisedRules.isEmpty()) {
+        BuildRule rule = raisedRules.remove();
+        queuedTargets.remove(rule.getBuildTarget());
+        raiseDeps(rule, true);
+      }
+    }
+  }
+
+  private long getExpectedDurationMs(BuildRule rule) {
+    return durationHistory.getDurationMs(rule.getBuildTarget()).orElse(UNKNOWN_RULE_DURATION_MS);
+  }
+}
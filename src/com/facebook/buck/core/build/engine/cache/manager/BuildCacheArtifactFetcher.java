@@ -19,9 +19,9 @@ package com.facebook.buck.core.build.engine.cache.manager;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.FetchedArtifactConsumer;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
-import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
@@ -34,18 +34,27 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.stream.RichStream;
-import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 public class BuildCacheArtifactFetcher {
 
@@ -121,24 +130,30 @@ public class BuildCacheArtifactFetcher {
       return Futures.immediateFuture(CacheResult.ignored());
     }
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
+    // Caches that can stream artifacts hand them straight to the extractor, so that the download
+    // and the extraction overlap. Others still need a temp file to fetch the artifact into, whose
+    // extension must be ".zip" for Filesystems.newFileSystem() to infer that we are creating a
+    // zip-based FileSystem. It lives under buck-out, so that local caches on the same file system
+    // can hardlink artifacts into place instead of copying them.
+    AtomicReference<Path> stagedZipPath = new AtomicReference<>();
     LazyPath lazyZipPath =
         new LazyPath() {
           @Override
           protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
+            Path zipPath =
+                filesystem.resolve(
+                    filesystem.createTempFile(
+                        "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
+                        ".zip"));
+            stagedZipPath.set(zipPath);
+            return zipPath;
           }
         };
+    ArtifactExtractor extractor = new ArtifactExtractor(ruleKey, artifactCache, filesystem);
 
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
     return convertErrorToSoftError(
         Futures.transformAsync(
-            fetch(artifactCache, ruleKey, lazyZipPath),
+            artifactCache.fetchAsync(rule.getBuildTarget(), ruleKey, lazyZipPath, extractor),
             cacheResult -> {
               try (Scope ignored = buildRuleScope()) {
                 // Verify that the rule key we used to fetch the artifact is one of the rule keys
@@ -158,7 +173,8 @@ public class BuildCacheArtifactFetcher {
                 }
 
                 return Futures.immediateFuture(
-                    extractArtifactFromCacheResult(ruleKey, lazyZipPath, filesystem, cacheResult));
+                    finishArtifactExtraction(
+                        ruleKey, extractor, Optional.ofNullable(stagedZipPath.get()), cacheResult));
               }
             },
             executorService),
@@ -174,27 +190,32 @@ public class BuildCacheArtifactFetcher {
             if (cacheResult.getType() != CacheResultType.HIT) {
               return cacheResult;
             }
-            for (String ruleKeyName : BuildInfo.RULE_KEY_NAMES) {
-              if (!cacheResult.getMetadata().containsKey(ruleKeyName)) {
-                continue;
-              }
-              String ruleKeyValue = cacheResult.getMetadata().get(ruleKeyName);
-              try {
-                verify(ruleKeyValue);
-              } catch (IllegalArgumentException e) {
-                throw new IllegalArgumentException(
-                    String.format(
-                        "Invalid '%s' rule key in metadata for artifact '%s' returned by cache '%s': '%s'",
-                        ruleKeyName, ruleKey, artifactCache.getClass(), ruleKeyValue),
-                    e);
-              }
-            }
+            verifyRuleKeyMetadata(artifactCache, ruleKey, cacheResult.getMetadata());
             return cacheResult;
           }
         },
         executorService);
   }
 
+  private void verifyRuleKeyMetadata(
+      ArtifactCache artifactCache, RuleKey ruleKey, ImmutableMap<String, String> metadata) {
+    for (String ruleKeyName : BuildInfo.RULE_KEY_NAMES) {
+      if (!metadata.containsKey(ruleKeyName)) {
+        continue;
+      }
+      String ruleKeyValue = metadata.get(ruleKeyName);
+      try {
+        verify(ruleKeyValue);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Invalid '%s' rule key in metadata for artifact '%s' returned by cache '%s': '%s'",
+                ruleKeyName, ruleKey, artifactCache.getClass(), ruleKeyValue),
+            e);
+      }
+    }
+  }
+
   /**
    * Checks that passed rule key value is valid and throws an {@link IllegalArgumentException} if it
    * is not.
@@ -206,72 +227,59 @@ public class BuildCacheArtifactFetcher {
     HashCode.fromString(ruleKeyValue);
   }
 
-  private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+  private CacheResult finishArtifactExtraction(
+      RuleKey ruleKey,
+      ArtifactExtractor extractor,
+      Optional<Path> stagedZipPath,
+      CacheResult cacheResult)
       throws IOException {
-
-    // We only unpack artifacts from hits.
-    if (!cacheResult.getType().isSuccess()) {
-      LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
-      return cacheResult;
+    if (extractor.started == null
+        && cacheResult.getType() == CacheResultType.HIT
+        && stagedZipPath.isPresent()) {
+      // The cache could not stream the artifact, so unpack it from where the cache put it.
+      extractor.extractFile(cacheResult.getMetadata(), stagedZipPath.get());
     }
-    onOutputsWillChange.call();
-
-    Preconditions.checkState(cacheResult.metadata().isPresent());
-    Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
-    LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
-
-    // It should be fine to get the path straight away, since cache already did it's job.
-    Path zipPath = lazyZipPath.getUnchecked();
-
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipPath.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MostFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MostFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
-    ArtifactCompressionEvent.Started started =
-        ArtifactCompressionEvent.started(
-            ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey), rule);
-    eventBus.post(started);
-    long compressedSize = filesystem.getFileSize(zipPath);
+
+    @Nullable ArtifactCompressionEvent.Started started = extractor.started;
+    @Nullable IOException failure = extractor.failure;
     long fullSize = 0L;
     try {
-      // First, clear out the pre-existing metadata directory.  We have to do this *before*
-      // unpacking the zipped artifact, as it includes files that will be stored in the metadata
-      // directory.
-      BuildInfoStore buildInfoStore = buildInfoStoreManager.get(rule.getProjectFilesystem());
+      if (started != null && (failure != null || cacheResult.getType() != CacheResultType.HIT)) {
+        // The artifact was unpacked while it was fetched, but then turned out to be unusable
+        // (e.g. because of a bad checksum), so make sure nothing trusts what we unpacked.
+        extractor.discardOutputs();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+
+      // We only unpack artifacts from hits.
+      if (!cacheResult.getType().isSuccess()) {
+        LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
+        return cacheResult;
+      }
 
+      Preconditions.checkState(cacheResult.metadata().isPresent());
+      Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
       Preconditions.checkState(
-          cacheResult.getMetadata().containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID),
-          "Cache artifact for rulekey %s is missing metadata %s.",
-          ruleKey,
-          BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
-
-      ImmutableSet<Path> extractedFiles =
-          ArchiveFormat.TAR_ZSTD
-              .getUnarchiver()
-              .extractArchive(
-                  zipPath.toAbsolutePath(),
-                  filesystem,
-                  ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
-
-      onDiskBuildInfo.validateArtifact(extractedFiles);
+          started != null, "Cache hit for rulekey %s was never extracted.", ruleKey);
+      LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
+
       fullSize =
           Long.parseLong(onDiskBuildInfo.getValue(BuildInfo.MetadataKey.OUTPUT_SIZE).getLeft());
 
       // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
       // around for debugging purposes.
-      Files.delete(zipPath);
+      if (stagedZipPath.isPresent()) {
+        Files.delete(stagedZipPath.get());
+      }
 
       // TODO(cjhopman): This should probably record metadata with the buildInfoRecorder, not
       // directly into the buildInfoStore.
       // Also write out the build metadata.
-      buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      buildInfoStoreManager
+          .get(rule.getProjectFilesystem())
+          .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
     } catch (IOException e) {
       throw new IOException(
           String.format(
@@ -279,12 +287,114 @@ public class BuildCacheArtifactFetcher {
               e.getMessage(), ruleKey),
           e.getCause());
     } finally {
-      eventBus.post(ArtifactCompressionEvent.finished(started, fullSize, compressedSize, rule));
+      if (started != null) {
+        eventBus.post(
+            ArtifactCompressionEvent.finished(started, fullSize, extractor.compressedSize, rule));
+      }
     }
 
     return cacheResult;
   }
 
+  /** Unpacks an artifact into the project filesystem while the cache is still fetching it. */
+  private class ArtifactExtractor implements FetchedArtifactConsumer {
+    private final RuleKey ruleKey;
+    private final ArtifactCache artifactCache;
+    private final ProjectFilesystem filesystem;
+    private final Set<Path> extractedPaths = ConcurrentHashMap.newKeySet();
+
+    @Nullable private volatile ArtifactCompressionEvent.Started started;
+    @Nullable private volatile IOException failure;
+    private volatile long compressedSize;
+
+    private ArtifactExtractor(
+        RuleKey ruleKey, ArtifactCache artifactCache, ProjectFilesystem filesystem) {
+      this.ruleKey = ruleKey;
+      this.artifactCache = artifactCache;
+      this.filesystem = filesystem;
+    }
+
+    /**
+     * Called on the cache's own threads, which unpack the artifact as they read it. This must not
+     * wait on {@link #executorService}, whose threads may all be busy waiting for fetches.
+     */
+    @Override
+    public void consume(ImmutableMap<String, String> metadata, InputStream artifact)
+        throws IOException {
+      // Start over if the cache hands the artifact over again.
+      discardOutputs();
+      failure = null;
+
+      extract(
+          metadata,
+          new FilterInputStream(artifact) {
+            @Override
+            public void close() {
+              // The artifact is owned by the cache, which may still have to read the rest of it.
+            }
+          });
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void extractFile(ImmutableMap<String, String> metadata, Path zipPath) {
+      try {
+        extract(metadata, Files.newInputStream(zipPath));
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+
+    /** Extracts {@code artifact} and closes it. Failures are recorded in {@link #failure}. */
+    private void extract(ImmutableMap<String, String> metadata, InputStream artifact) {
+      try (Scope ignored = buildRuleScope();
+          CountingInputStream compressed = new CountingInputStream(artifact)) {
+        verifyRuleKeyMetadata(artifactCache, ruleKey, metadata);
+        Preconditions.checkState(
+            metadata.containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID),
+            "Cache artifact for rulekey %s is missing metadata %s.",
+            ruleKey,
+            BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
+        onOutputsWillChange.call();
+
+        started =
+            ArtifactCompressionEvent.started(
+                ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey), rule);
+        eventBus.post(started);
+
+        try {
+          ImmutableSet<Path> extractedFiles =
+              Untar.zstdUnarchiver()
+                  .extractArchive(
+                      compressed,
+                      filesystem,
+                      ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+                      extractedPaths::add);
+          onDiskBuildInfo.validateArtifact(extractedFiles);
+        } finally {
+          compressedSize = compressed.getCount();
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = new IOException(e.getMessage(), e);
+      }
+    }
+
+    /** Deletes whatever an extraction has written so far, so that the rule is built locally. */
+    private void discardOutputs() throws IOException {
+      if (started == null) {
+        return;
+      }
+      for (Path path : extractedPaths) {
+        filesystem.deleteFileAtPathIfExists(path);
+      }
+      extractedPaths.clear();
+      onDiskBuildInfo.deleteExistingMetadata();
+    }
+  }
+
   @FunctionalInterface
   public interface OnOutputsWillChange {
     void call() throws IOException;
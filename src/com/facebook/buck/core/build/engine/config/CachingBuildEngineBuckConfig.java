@@ -20,8 +20,12 @@ import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
+import com.facebook.buck.core.resources.ResourceProfiles;
 import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 @BuckStyleValue
@@ -65,9 +69,21 @@ public abstract class CachingBuildEngineBuckConfig implements ConfigView<BuckCon
 
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
+    Map<String, ResourceAmounts> amountsPerRuleType = new HashMap<>();
+    Optional<ResourceProfiles> resourceProfiles = resourcesConfig.getResourceProfiles();
+    if (resourceProfiles.isPresent()) {
+      amountsPerRuleType.putAll(
+          resourceProfiles
+              .get()
+              .getResourceAmountsPerRuleType(
+                  resourcesConfig.getDefaultResourceAmounts(),
+                  resourcesConfig.getMaximumResourceAmounts()));
+    }
+    // Explicitly configured amounts always win over learned ones.
+    amountsPerRuleType.putAll(resourcesConfig.getResourceAmountsPerRuleType());
     return ResourceAwareSchedulingInfo.of(
         resourcesConfig.isResourceAwareSchedulingEnabled(),
         resourcesConfig.getDefaultResourceAmounts(),
-        resourcesConfig.getResourceAmountsPerRuleType());
+        amountsPerRuleType);
   }
 }
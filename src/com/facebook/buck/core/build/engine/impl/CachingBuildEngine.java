@@ -25,6 +25,8 @@ import com.facebook.buck.core.build.engine.BuildEngineBuildContext;
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildRuleStatus;
 import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.BuildRulePriorities;
 import com.facebook.buck.core.build.engine.RuleDepsCache;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
@@ -40,6 +42,7 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
+import com.facebook.buck.core.resources.ResourceProfiles;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
 import com.facebook.buck.core.rules.BuildRule;
@@ -94,7 +97,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   public static final ResourceAmounts SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS =
       ResourceAmounts.zero();
 
-  static final String BUILD_RULE_TYPE_CONTEXT_KEY = "build_rule_type";
+  static final String BUILD_RULE_TYPE_CONTEXT_KEY = ResourceProfiles.BUILD_RULE_TYPE_CONTEXT_KEY;
   static final String STEP_TYPE_CONTEXT_KEY = "step_type";
   private final ConcurrentLinkedQueue<ListenableFuture<Unit>> asyncCallbacks;
 
@@ -135,6 +138,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
   private final BuildRulePipelinesRunner pipelinesRunner = new BuildRulePipelinesRunner();
   private final ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator;
+  private final BuildRulePriorities rulePriorities;
 
   private final BuildInfoStoreManager buildInfoStoreManager;
 
@@ -157,6 +161,44 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories) {
+    this(
+        cachingBuildEngineDelegate,
+        customBuildRuleStrategy,
+        service,
+        buildMode,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        resolver,
+        actionToBuildRuleResolver,
+        targetConfigurationSerializer,
+        buildInfoStoreManager,
+        resourceAwareSchedulingInfo,
+        consoleLogBuildFailuresInline,
+        ruleKeyFactories,
+        BuildRuleDurationHistory.empty());
+  }
+
+  /**
+   * @param durationHistory durations of rules in previous builds, used to compute the rule keys of
+   *     and to start the rules on the expected critical path of this build first.
+   */
+  public CachingBuildEngine(
+      CachingBuildEngineDelegate cachingBuildEngineDelegate,
+      Optional<BuildRuleStrategy> customBuildRuleStrategy,
+      WeightedListeningExecutorService service,
+      BuildType buildMode,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      BuildRuleResolver resolver,
+      BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
+      TargetConfigurationSerializer targetConfigurationSerializer,
+      BuildInfoStoreManager buildInfoStoreManager,
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      boolean consoleLogBuildFailuresInline,
+      RuleKeyFactories ruleKeyFactories,
+      BuildRuleDurationHistory durationHistory) {
     this(
         cachingBuildEngineDelegate,
         customBuildRuleStrategy,
@@ -180,7 +222,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                 ruleKeyFactories
                     .getDefaultRuleKeyFactory()
                     .buildForDiagnostics(appendable, new StringRuleKeyHasher())),
-        consoleLogBuildFailuresInline);
+        consoleLogBuildFailuresInline,
+        durationHistory);
   }
 
   /** This constructor MUST ONLY BE USED FOR TESTS. */
@@ -201,6 +244,42 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
       boolean consoleLogBuildFailuresInline) {
+    this(
+        cachingBuildEngineDelegate,
+        customBuildRuleStrategy,
+        service,
+        buildMode,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        resolver,
+        buildInfoStoreManager,
+        actionToBuildRuleResolver,
+        targetConfigurationSerializer,
+        ruleKeyFactories,
+        resourceAwareSchedulingInfo,
+        defaultRuleKeyDiagnostics,
+        consoleLogBuildFailuresInline,
+        BuildRuleDurationHistory.empty());
+  }
+
+  private CachingBuildEngine(
+      CachingBuildEngineDelegate cachingBuildEngineDelegate,
+      Optional<BuildRuleStrategy> customBuildRuleStrategy,
+      WeightedListeningExecutorService service,
+      BuildType buildMode,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      BuildRuleResolver resolver,
+      BuildInfoStoreManager buildInfoStoreManager,
+      BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
+      TargetConfigurationSerializer targetConfigurationSerializer,
+      RuleKeyFactories ruleKeyFactories,
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
+      boolean consoleLogBuildFailuresInline,
+      BuildRuleDurationHistory durationHistory) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
     this.customBuildRuleStrategy = customBuildRuleStrategy;
 
@@ -221,6 +300,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
+    this.rulePriorities = new BuildRulePriorities(durationHistory, ruleDeps);
     this.asyncCallbacks = new ConcurrentLinkedQueue<>();
     this.ruleKeyCalculator =
         new ParallelRuleKeyCalculator<>(
@@ -232,7 +312,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     eventBus,
                     rule,
                     buildRuleDurationTracker,
-                    ruleKeyFactories.getDefaultRuleKeyFactory()));
+                    ruleKeyFactories.getDefaultRuleKeyFactory()),
+            rulePriorities);
   }
 
   @Override
@@ -351,6 +432,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       return existingResult;
     }
 
+    rulePriorities.addDeps(rule);
+
     // Get the future holding the result for this rule and, if we have no additional runtime deps
     // to attach, return it.
     ListenableFuture<RuleKey> ruleKey = calculateRuleKey(rule, buildContext);
@@ -446,6 +529,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    rulePriorities.addTopLevelRule(rule);
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
     return BuildEngine.BuildEngineResult.of(resultFuture);
@@ -498,7 +582,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             targetConfigurationSerializer,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            service.withPriority(() -> rulePriorities.get(rule)),
             this.ruleDeps,
             rule,
             buildContext,
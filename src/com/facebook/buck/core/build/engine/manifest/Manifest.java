@@ -40,18 +40,24 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  /** The original format, which stores hashes as hex strings. */
+  private static final int LEGACY_VERSION = 0;
+
+  /** Stores hashes as raw bytes, and indexes hashes by input and hash, rather than only hash. */
+  private static final int VERSION = 1;
 
   private final RuleKey key;
 
@@ -59,10 +65,22 @@ public class Manifest {
   private final Map<String, Integer> inputIndices;
 
   @VisibleForTesting final List<Pair<Integer, HashCode>> hashes;
-  private final Map<HashCode, Integer> hashIndices;
+  private final Map<Pair<Integer, HashCode>, Integer> hashIndices;
 
   @VisibleForTesting final List<Pair<RuleKey, int[]>> entries;
 
+  /**
+   * An inverted index from hash indices to the indices of the entries using them, lazily built on
+   * lookup.
+   */
+  @Nullable private int[][] entriesByHash;
+
+  /** The number of entries covered by {@link #entriesByHash}. */
+  private int indexedEntries;
+
+  /** The index of the first entry without any inputs, which always matches. */
+  private int firstEntryWithoutInputs;
+
   /** Create an empty manifest. */
   public Manifest(RuleKey key) {
     this.key = key;
@@ -79,7 +97,11 @@ public class Manifest {
 
     // Verify the manifest version.
     int version = input.readInt();
-    Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+    Preconditions.checkState(
+        version == VERSION || version == LEGACY_VERSION,
+        "invalid version: %s != %s",
+        version,
+        VERSION);
 
     key = new RuleKey(input.readUTF());
 
@@ -99,9 +121,17 @@ public class Manifest {
     hashIndices = new HashMap<>(numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
       int inputIndex = input.readInt();
-      HashCode inputHash = HashCode.fromString(input.readUTF());
-      hashes.add(new Pair<>(inputIndex, inputHash));
-      hashIndices.put(inputHash, index);
+      HashCode inputHash;
+      if (version == LEGACY_VERSION) {
+        inputHash = HashCode.fromString(input.readUTF());
+      } else {
+        byte[] bytes = new byte[input.readUnsignedByte()];
+        input.readFully(bytes);
+        inputHash = HashCode.fromBytes(bytes);
+      }
+      Pair<Integer, HashCode> hash = new Pair<>(inputIndex, inputHash);
+      hashes.add(hash);
+      hashIndices.putIfAbsent(hash, index);
     }
 
     int numberOfEntries = input.readInt();
@@ -132,11 +162,12 @@ public class Manifest {
       inputIndices.put(input, inputIndex);
     }
 
-    Integer hashIndex = hashIndices.get(hash);
+    Pair<Integer, HashCode> inputHash = new Pair<>(inputIndex, hash);
+    Integer hashIndex = hashIndices.get(inputHash);
     if (hashIndex == null) {
-      hashes.add(new Pair<>(inputIndex, hash));
+      hashes.add(inputHash);
       hashIndex = hashes.size() - 1;
-      hashIndices.put(hash, hashIndex);
+      hashIndices.put(inputHash, hashIndex);
     }
 
     return hashIndex;
@@ -179,65 +210,90 @@ public class Manifest {
         resolver.getRelativePath(archivePath.getArchiveSourcePath()), archivePath.getMemberPath());
   }
 
-  private boolean hashesMatch(
+  /**
+   * Each distinct input is hashed once, and the matching entry is found via an inverted index from
+   * input hashes to entries, so lookups don't scale with the number of entries times the number of
+   * inputs per entry.
+   *
+   * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
+   *     fileHashLoader}.
+   */
+  public Optional<RuleKey> lookup(
       FileHashLoader fileHashLoader,
       SourcePathResolverAdapter resolver,
-      ImmutableListMultimap<String, SourcePath> universe,
-      int[] hashIndices)
+      ImmutableSet<SourcePath> universe)
       throws IOException {
-    for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String input = inputs.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(input);
+    // Create a multimap from paths we care about to SourcePaths that maps to them.
+    ImmutableListMultimap<String, SourcePath> mappedUniverse =
+        index(
+            universe,
+            path -> sourcePathToManifestHeader(path, resolver),
+            inputIndices::containsKey);
+
+    // Find the hashes which match what's on disk.  There is at most one per input.
+    BitSet matchingHashes = new BitSet(hashes.size());
+    for (int inputIndex = 0; inputIndex < inputs.size(); inputIndex++) {
+      ImmutableList<SourcePath> candidates = mappedUniverse.get(inputs.get(inputIndex));
       if (candidates.isEmpty()) {
-        return false;
+        continue;
       }
       HashCode onDiskHeaderHash;
       try {
         onDiskHeaderHash = hashSourcePathGroup(fileHashLoader, resolver, candidates);
       } catch (NoSuchFileException e) {
-        return false;
+        continue;
       }
-      HashCode inputHash = hashEntry.getSecond();
-      if (!inputHash.equals(onDiskHeaderHash)) {
-        return false;
+      Integer hashIndex = hashIndices.get(new Pair<>(inputIndex, onDiskHeaderHash));
+      if (hashIndex != null) {
+        matchingHashes.set(hashIndex);
       }
     }
-    return true;
-  }
 
-  /**
-   * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
-   *     fileHashLoader}.
-   */
-  public Optional<RuleKey> lookup(
-      FileHashLoader fileHashLoader,
-      SourcePathResolverAdapter resolver,
-      ImmutableSet<SourcePath> universe)
-      throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(inputs.get(hashes.get(hashIndex).getFirst()));
+    // Count the matching hashes of every entry, using the inverted index.  An entry matches if all
+    // of its hashes match.  To stay consistent with earlier versions, prefer the oldest entry.
+    int[][] entriesByHash = getEntriesByHash();
+    int[] matchCounts = new int[entries.size()];
+    int match = firstEntryWithoutInputs;
+    for (int hashIndex = matchingHashes.nextSetBit(0);
+        hashIndex >= 0;
+        hashIndex = matchingHashes.nextSetBit(hashIndex + 1)) {
+      for (int entryIndex : entriesByHash[hashIndex]) {
+        if (++matchCounts[entryIndex] == entries.get(entryIndex).getSecond().length) {
+          match = Math.min(match, entryIndex);
+        }
       }
     }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
-
-    // Create a multimap from paths we care about to SourcePaths that maps to them.
-    ImmutableListMultimap<String, SourcePath> mappedUniverse =
-        index(
-            universe,
-            path -> sourcePathToManifestHeader(path, resolver),
-            interestingPaths::contains);
+    return match < entries.size() ? Optional.of(entries.get(match).getFirst()) : Optional.empty();
+  }
 
-    // Find a matching entry.
-    for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
-        return Optional.of(entry.getFirst());
+  private int[][] getEntriesByHash() {
+    if (entriesByHash != null && indexedEntries == entries.size()) {
+      return entriesByHash;
+    }
+    int[] counts = new int[hashes.size()];
+    firstEntryWithoutInputs = Integer.MAX_VALUE;
+    for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+      int[] entryHashes = entries.get(entryIndex).getSecond();
+      if (entryHashes.length == 0) {
+        firstEntryWithoutInputs = Math.min(firstEntryWithoutInputs, entryIndex);
+      }
+      for (int hashIndex : entryHashes) {
+        counts[hashIndex]++;
+      }
+    }
+    int[][] index = new int[hashes.size()][];
+    for (int hashIndex = 0; hashIndex < index.length; hashIndex++) {
+      index[hashIndex] = new int[counts[hashIndex]];
+      counts[hashIndex] = 0;
+    }
+    for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+      for (int hashIndex : entries.get(entryIndex).getSecond()) {
+        index[hashIndex][counts[hashIndex]++] = entryIndex;
       }
     }
-    return Optional.empty();
+    entriesByHash = index;
+    indexedEntries = entries.size();
+    return index;
   }
 
   private static String sourcePathToManifestHeader(
@@ -305,7 +361,9 @@ public class Manifest {
     output.writeInt(hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
       output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      byte[] bytes = hash.getSecond().asBytes();
+      output.writeByte(bytes.length);
+      output.write(bytes);
     }
 
     output.writeInt(entries.size());
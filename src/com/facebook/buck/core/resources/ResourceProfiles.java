@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.resources;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.perf.ProcessTracker;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per rule type resource requirements learned from the processes that build steps launch, persisted
+ * across builds.
+ *
+ * <p>{@link ProcessTracker} reports the peak resident memory and CPU time of every external process
+ * it observes. Processes launched by a rule's steps carry the rule type in their context, so they
+ * can be attributed to it. For each rule type we keep the peak memory and the peak number of cores
+ * used by a single process. A new build's peak replaces the stored one if it is higher; otherwise
+ * the stored one decays towards it, so that profiles follow rules that got lighter without a single
+ * light build undoing what a heavy one taught us.
+ */
+public class ResourceProfiles {
+
+  private static final Logger LOG = Logger.get(ResourceProfiles.class);
+
+  /** Context key under which the build engine records the type of rule launching a process. */
+  public static final String BUILD_RULE_TYPE_CONTEXT_KEY = "build_rule_type";
+
+  public static final String RESOURCE_PROFILES_JSON = "resource_profiles.json";
+
+  /** How much of the stored peak is kept when a build observes a lower one. */
+  @VisibleForTesting static final double DECAY = 0.8;
+
+  private final Optional<Path> storageFile;
+  private final ImmutableMap<String, Profile> storedProfiles;
+  private final ConcurrentMap<String, Profile> observedProfiles = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  ResourceProfiles(Optional<Path> storageFile, ImmutableMap<String, Profile> storedProfiles) {
+    this.storageFile = storageFile;
+    this.storedProfiles = storedProfiles;
+  }
+
+  /** Loads the profiles stored in {@code storageFile}, if any, which {@link #save} updates. */
+  public static ResourceProfiles load(Path storageFile) {
+    ImmutableMap<String, Profile> profiles = ImmutableMap.of();
+    if (Files.exists(storageFile)) {
+      try {
+        Map<String, Profile> map =
+            ObjectMappers.READER.readValue(
+                ObjectMappers.createParser(Files.readAllBytes(storageFile)),
+                new TypeReference<HashMap<String, Profile>>() {});
+        profiles = ImmutableMap.copyOf(map);
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to load resource profiles from %s", storageFile);
+      }
+    }
+    return new ResourceProfiles(Optional.of(storageFile), profiles);
+  }
+
+  @Subscribe
+  public void processResourceConsumption(ProcessTracker.ProcessResourceConsumptionEvent event) {
+    if (!event.getContext().isPresent() || !event.getResourceConsumption().isPresent()) {
+      return;
+    }
+    String ruleType = event.getContext().get().get(BUILD_RULE_TYPE_CONTEXT_KEY);
+    if (ruleType != null) {
+      record(ruleType, event.getResourceConsumption().get());
+    }
+  }
+
+  /** Records the peak consumption of one process launched by a rule of type {@code ruleType}. */
+  public void record(String ruleType, ProcessResourceConsumption consumption) {
+    // cpu_real is the wall time the process has been alive, cpu_total the time spent on all cores.
+    double cores =
+        consumption.getCpuReal() > 0
+            ? (double) consumption.getCpuTotal() / consumption.getCpuReal()
+            : 0;
+    Profile observed = new Profile(cores, consumption.getMemResident());
+    observedProfiles.merge(ruleType, observed, Profile::max);
+  }
+
+  /**
+   * @return resource amounts for every rule type with a profile. CPU and memory come from the
+   *     profile, bounded by {@code maximumAmounts} so that a rule can always be scheduled; other
+   *     resources are taken from {@code defaultAmounts}.
+   */
+  public ImmutableMap<String, ResourceAmounts> getResourceAmountsPerRuleType(
+      ResourceAmounts defaultAmounts, ResourceAmounts maximumAmounts) {
+    ImmutableMap.Builder<String, ResourceAmounts> result = ImmutableMap.builder();
+    for (Map.Entry<String, Profile> entry : getProfiles().entrySet()) {
+      Profile profile = entry.getValue();
+      result.put(
+          entry.getKey(),
+          ResourceAmounts.of(
+              clamp((long) Math.ceil(profile.getCores()), maximumAmounts.getCpu()),
+              clamp(
+                  (profile.getMemoryBytes() + ResourceAmountsEstimator.MEMORY_UNIT_BYTES - 1)
+                      / ResourceAmountsEstimator.MEMORY_UNIT_BYTES,
+                  maximumAmounts.getMemory()),
+              defaultAmounts.getDiskIO(),
+              defaultAmounts.getNetworkIO()));
+    }
+    return result.build();
+  }
+
+  /** Writes the stored profiles, updated with what this build observed. */
+  public void save() {
+    if (!storageFile.isPresent() || observedProfiles.isEmpty()) {
+      return;
+    }
+    Path file = storageFile.get();
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), RESOURCE_PROFILES_JSON, ".tmp");
+      ObjectMappers.WRITER.writeValue(tmp.toFile(), getProfiles());
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to save resource profiles to %s", file);
+    }
+  }
+
+  @VisibleForTesting
+  Map<String, Profile> getProfiles() {
+    Map<String, Profile> profiles = new HashMap<>(storedProfiles);
+    for (Map.Entry<String, Profile> entry : observedProfiles.entrySet()) {
+      profiles.merge(entry.getKey(), entry.getValue(), Profile::update);
+    }
+    return profiles;
+  }
+
+  private static int clamp(long amount, int maximum) {
+    return (int) Math.max(1, Math.min(amount, Math.max(1, maximum)));
+  }
+
+  /** Peak consumption of a single process. */
+  @VisibleForTesting
+  static class Profile {
+    private final double cores;
+    private final long memoryBytes;
+
+    @JsonCreator
+    Profile(@JsonProperty("cores") double cores, @JsonProperty("memory_bytes") long memoryBytes) {
+      this.cores = cores;
+      this.memoryBytes = memoryBytes;
+    }
+
+    @JsonProperty("cores")
+    double getCores() {
+      return cores;
+    }
+
+    @JsonProperty("memory_bytes")
+    long getMemoryBytes() {
+      return memoryBytes;
+    }
+
+    Profile max(Profile other) {
+      return new Profile(Math.max(cores, other.cores), Math.max(memoryBytes, other.memoryBytes));
+    }
+
+    /** @return this stored profile updated with the peak observed by a newer build. */
+    Profile update(Profile observed) {
+      return new Profile(
+          Math.max(observed.cores, cores * DECAY),
+          Math.max(observed.memoryBytes, (long) (memoryBytes * DECAY)));
+    }
+  }
+}
@@ -20,6 +20,7 @@ import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmounts;
@@ -27,6 +28,8 @@ import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 @BuckStyleValue
@@ -57,6 +60,39 @@ public abstract class ResourcesConfig implements ConfigView<BuckConfig> {
         .getBooleanValue(RESOURCES_SECTION_HEADER, "resource_aware_scheduling_enabled", false);
   }
 
+  /**
+   * @return whether resource aware scheduling should use per rule type resource amounts learned
+   *     from previous builds for rule types that don't have amounts configured.
+   */
+  @Value.Lazy
+  public boolean isAdaptiveResourceEstimationEnabled() {
+    return isResourceAwareSchedulingEnabled()
+        && getDelegate()
+            .getBooleanValue(RESOURCES_SECTION_HEADER, "adaptive_resource_estimation", false);
+  }
+
+  /** @return where learned {@link ResourceProfiles} are stored, if adaptive estimation is on. */
+  @Value.Lazy
+  public Optional<Path> getResourceProfilesPath() {
+    if (!isAdaptiveResourceEstimationEnabled()) {
+      return Optional.empty();
+    }
+    ProjectFilesystem filesystem = getDelegate().getFilesystem();
+    return Optional.of(
+        filesystem
+            .resolve(filesystem.getBuckPaths().getCacheDir())
+            .resolve(ResourceProfiles.RESOURCE_PROFILES_JSON));
+  }
+
+  /**
+   * @return the learned {@link ResourceProfiles}, loaded once for this config, if adaptive
+   *     estimation is on.
+   */
+  @Value.Lazy
+  public Optional<ResourceProfiles> getResourceProfiles() {
+    return getResourceProfilesPath().map(ResourceProfiles::load);
+  }
+
   @Value.Lazy
   public ImmutableMap<String, ResourceAmounts> getResourceAmountsPerRuleType() {
     ImmutableMap.Builder<String, ResourceAmounts> result = ImmutableMap.builder();
@@ -120,12 +156,18 @@ public abstract class ResourcesConfig implements ConfigView<BuckConfig> {
 
   @Value.Lazy
   public ResourceAmounts getMaximumResourceAmounts() {
+    // Learned amounts are measured memory, so they are bounded by what the host has rather than
+    // by the size of the JVM heap.
     ResourceAmounts estimated = ResourceAmountsEstimator.getEstimatedAmounts();
     return ResourceAmounts.of(
         getDelegate().getView(BuildBuckConfig.class).getNumThreads(estimated.getCpu()),
         getDelegate()
             .getInteger(RESOURCES_SECTION_HEADER, "max_memory_resource")
-            .orElse(estimated.getMemory()),
+            .orElseGet(
+                () ->
+                    isAdaptiveResourceEstimationEnabled()
+                        ? ResourceAmountsEstimator.getHostMemoryCap()
+                        : estimated.getMemory()),
         getDelegate()
             .getInteger(RESOURCES_SECTION_HEADER, "max_disk_io_resource")
             .orElse(estimated.getDiskIO()),
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.core.rulekey.calculator;
 
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.BuildRulePriorities;
 import com.facebook.buck.core.build.engine.RuleDepsCache;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.model.BuildTarget;
@@ -25,6 +27,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.rules.keys.RuleKeyFactory;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.collect.SortedSets;
+import com.facebook.buck.util.concurrent.PrioritizedExecutor;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -35,16 +38,24 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import javax.annotation.Nonnull;
 
-/** Calculates {@link RuleKey}, bottom-up, using tree parallelism. */
+/**
+ * Calculates {@link RuleKey}, bottom-up, using tree parallelism.
+ *
+ * <p>Work is prioritized by {@link BuildRulePriorities}, so that long chains of dependencies are
+ * not starved by the many leaves that every build has: the rules on the longest remaining chain,
+ * which everything above them waits on, go first.
+ */
 public class ParallelRuleKeyCalculator<T> {
 
-  private final ListeningExecutorService service;
+  private final PrioritizedExecutor executor;
   private final RuleKeyFactory<T> ruleKeyFactory;
   private final RuleDepsCache ruleDepsCache;
   private final BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope;
+  private final BuildRulePriorities priorities;
 
   private final ConcurrentMap<BuildTarget, ListenableFuture<T>> ruleKeys = Maps.newConcurrentMap();
 
@@ -53,10 +64,25 @@ public class ParallelRuleKeyCalculator<T> {
       RuleKeyFactory<T> ruleKeyFactory,
       RuleDepsCache ruleDepsCache,
       BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope) {
-    this.service = service;
+    this(
+        service,
+        ruleKeyFactory,
+        ruleDepsCache,
+        ruleKeyCalculationScope,
+        new BuildRulePriorities(BuildRuleDurationHistory.empty(), ruleDepsCache));
+  }
+
+  public ParallelRuleKeyCalculator(
+      ListeningExecutorService service,
+      RuleKeyFactory<T> ruleKeyFactory,
+      RuleDepsCache ruleDepsCache,
+      BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope,
+      BuildRulePriorities priorities) {
+    this.executor = new PrioritizedExecutor(service);
     this.ruleKeyFactory = ruleKeyFactory;
     this.ruleDepsCache = ruleDepsCache;
     this.ruleKeyCalculationScope = ruleKeyCalculationScope;
+    this.priorities = priorities;
   }
 
   /**
@@ -88,6 +114,12 @@ public class ParallelRuleKeyCalculator<T> {
       return future;
     }
 
+    // Dependencies were already added along with their dependents, only the rules requested first
+    // are new here.
+    priorities.addTopLevelRule(rule);
+    priorities.addDeps(rule);
+    Executor prioritizedExecutor = executor.withPriority(() -> priorities.get(rule));
+
     // Grab all the dependency rule key futures.  Since our rule key calculation depends on this
     // one, we need to wait for them to complete.
     ListenableFuture<List<T>> depKeys =
@@ -101,7 +133,7 @@ public class ParallelRuleKeyCalculator<T> {
               }
               return Futures.allAsList(depKeys1);
             },
-            service);
+            prioritizedExecutor);
 
     // Setup a future to calculate this rule key once the dependencies have been calculated.
     ListenableFuture<T> calculated =
@@ -115,7 +147,7 @@ public class ParallelRuleKeyCalculator<T> {
                     e, String.format("When computing rulekey for %s.", rule));
               }
             },
-            service);
+            prioritizedExecutor);
 
     future.setFuture(calculated);
     return future;
@@ -33,13 +33,19 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import java.io.BufferedReader;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -82,9 +88,11 @@ class Depfiles {
     ADD_PREREQ
   }
 
-  private static final String WHITESPACE_CHARS = " \n\r\t";
-  private static final String ESCAPED_TARGET_CHARS = ": #";
-  private static final String ESCAPED_PREREQ_CHARS = " #";
+  /** Depfiles smaller than this are read into the heap, as mapping them costs more than it saves. */
+  private static final long MIN_MAPPED_DEPFILE_SIZE = 64 * 1024;
+
+  private static final Interner<String> PREREQ_INTERNER = Interners.newWeakInterner();
+
   private static final String UNTRACKED_HEADER_ERROR_TIPS =
       "Untracked headers detected. Please reference these headers "
           + System.lineSeparator()
@@ -102,101 +110,113 @@ class Depfiles {
    * dep2, ...]) inside.
    */
   public static Depfile parseDepfile(Readable readable) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    CharBuffer buffer = CharBuffer.allocate(4096);
+    while (readable.read(buffer) != -1) {
+      buffer.flip();
+      contents.append(buffer);
+      buffer.clear();
+    }
+    return parseDepfile(ByteBuffer.wrap(contents.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Parses the UTF-8 encoded contents of a .d Makefile between the buffer's position and limit.
+   *
+   * <p>All characters with a special meaning in the Makefile syntax are ASCII, and ASCII bytes never
+   * occur inside multi-byte UTF-8 sequences, so the parser works on raw bytes and only decodes the
+   * finished identifiers. Identifiers are interned, as the same headers show up in the depfiles of
+   * most compiles of a build.
+   */
+  public static Depfile parseDepfile(ByteBuffer buffer) throws IOException {
     String target = null;
     ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
     State state = State.LOOKING_FOR_TARGET;
-    StringBuilder identifierBuilder = new StringBuilder();
-
-    CharBuffer buffer = CharBuffer.allocate(4096);
+    byte[] identifier = new byte[256];
+    int identifierLength = 0;
     int numBackslashes = 0;
 
-    while (readable.read(buffer) != -1) {
-      buffer.flip();
-
-      while (buffer.hasRemaining()) {
-        char c = buffer.get();
-        Action action = Action.NONE;
-        boolean isBackslash = c == '\\';
-        boolean isCarriageReturn = c == '\r';
-        boolean isNewline = c == '\n';
-        boolean isWhitespace = WHITESPACE_CHARS.indexOf(c) != -1;
-        boolean inIdentifier = identifierBuilder.length() > 0;
-        boolean isEscaped;
-        if (state == State.LOOKING_FOR_TARGET) {
-          isEscaped = ESCAPED_TARGET_CHARS.indexOf(c) != -1;
-        } else {
-          isEscaped = ESCAPED_PREREQ_CHARS.indexOf(c) != -1;
+    for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+      byte c = buffer.get(i);
+      Action action = Action.NONE;
+      boolean isBackslash = c == '\\';
+      boolean isCarriageReturn = c == '\r';
+      boolean isNewline = c == '\n';
+      boolean isWhitespace = c == ' ' || c == '\t' || isNewline || isCarriageReturn;
+      boolean inIdentifier = identifierLength > 0;
+      boolean isEscaped =
+          c == ' ' || c == '#' || (c == ':' && state == State.LOOKING_FOR_TARGET);
+
+      if (isBackslash) {
+        // We need to count the number of backslashes in case the
+        // first non-backslash is an escaped character.
+        numBackslashes++;
+      } else if (numBackslashes > 0 && isEscaped) {
+        // Consume one backslash to escape the special char.
+        numBackslashes--;
+        if (inIdentifier) {
+          action = Action.APPEND_TO_IDENTIFIER;
         }
-
-        if (isBackslash) {
-          // We need to count the number of backslashes in case the
-          // first non-backslash is an escaped character.
-          numBackslashes++;
-        } else if (numBackslashes > 0 && isEscaped) {
-          // Consume one backslash to escape the special char.
-          numBackslashes--;
-          if (inIdentifier) {
-            action = Action.APPEND_TO_IDENTIFIER;
+      } else if (isWhitespace) {
+        if (numBackslashes == 0) {
+          if (state == State.FOUND_TARGET && inIdentifier) {
+            action = Action.ADD_PREREQ;
           }
-        } else if (isWhitespace) {
-          if (numBackslashes == 0) {
-            if (state == State.FOUND_TARGET && inIdentifier) {
-              action = Action.ADD_PREREQ;
-            }
-            if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
-              state = State.LOOKING_FOR_TARGET;
-            }
-          } else if (isNewline) {
-            // Consume one backslash to escape \n or \r\n.
-            numBackslashes--;
-          } else if (!isCarriageReturn) {
-            action = Action.APPEND_TO_IDENTIFIER;
+          if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
+            state = State.LOOKING_FOR_TARGET;
           }
-        } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
-          state = State.FOUND_TARGET;
-          action = Action.SET_TARGET;
-        } else {
+        } else if (isNewline) {
+          // Consume one backslash to escape \n or \r\n.
+          numBackslashes--;
+        } else if (!isCarriageReturn) {
           action = Action.APPEND_TO_IDENTIFIER;
         }
+      } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
+        state = State.FOUND_TARGET;
+        action = Action.SET_TARGET;
+      } else {
+        action = Action.APPEND_TO_IDENTIFIER;
+      }
 
-        if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
-          int numBackslashesToAppend;
-          if (isEscaped || isWhitespace) {
-            // Backslashes escape themselves before an escaped character or whitespace.
-            numBackslashesToAppend = numBackslashes / 2;
-          } else {
-            // Backslashes are literal before a non-escaped character.
-            numBackslashesToAppend = numBackslashes;
-          }
-
-          for (int i = 0; i < numBackslashesToAppend; i++) {
-            identifierBuilder.append('\\');
-          }
-          numBackslashes = 0;
+      if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
+        int numBackslashesToAppend;
+        if (isEscaped || isWhitespace) {
+          // Backslashes escape themselves before an escaped character or whitespace.
+          numBackslashesToAppend = numBackslashes / 2;
+        } else {
+          // Backslashes are literal before a non-escaped character.
+          numBackslashesToAppend = numBackslashes;
         }
 
-        switch (action) {
-          case NONE:
-            break;
-          case APPEND_TO_IDENTIFIER:
-            identifierBuilder.append(c);
-            break;
-          case SET_TARGET:
-            if (target != null) {
-              throw new HumanReadableException(
-                  "Depfile parser cannot handle .d file with multiple targets");
-            }
-            target = identifierBuilder.toString();
-            identifierBuilder.setLength(0);
-            break;
-          case ADD_PREREQ:
-            prereqsBuilder.add(identifierBuilder.toString());
-            identifierBuilder.setLength(0);
-            break;
+        identifier = ensureCapacity(identifier, identifierLength + numBackslashesToAppend + 1);
+        for (int j = 0; j < numBackslashesToAppend; j++) {
+          identifier[identifierLength++] = '\\';
         }
+        numBackslashes = 0;
       }
 
-      buffer.clear();
+      switch (action) {
+        case NONE:
+          break;
+        case APPEND_TO_IDENTIFIER:
+          identifier = ensureCapacity(identifier, identifierLength + 1);
+          identifier[identifierLength++] = c;
+          break;
+        case SET_TARGET:
+          if (target != null) {
+            throw new HumanReadableException(
+                "Depfile parser cannot handle .d file with multiple targets");
+          }
+          target = new String(identifier, 0, identifierLength, StandardCharsets.UTF_8);
+          identifierLength = 0;
+          break;
+        case ADD_PREREQ:
+          prereqsBuilder.add(
+              PREREQ_INTERNER.intern(
+                  new String(identifier, 0, identifierLength, StandardCharsets.UTF_8)));
+          identifierLength = 0;
+          break;
+      }
     }
 
     ImmutableList<String> prereqs = prereqsBuilder.build();
@@ -207,6 +227,26 @@ class Depfiles {
     }
   }
 
+  private static byte[] ensureCapacity(byte[] bytes, int capacity) {
+    return capacity <= bytes.length
+        ? bytes
+        : Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+  }
+
+  /** Reads a depfile, mapping it into memory if it's large enough for that to pay off. */
+  private static Depfile parseDepfile(ProjectFilesystem filesystem, Path depFile)
+      throws IOException {
+    if (filesystem.getFileSize(depFile) < MIN_MAPPED_DEPFILE_SIZE) {
+      try (InputStream input = filesystem.newFileInputStream(depFile)) {
+        return parseDepfile(ByteBuffer.wrap(ByteStreams.toByteArray(input)));
+      }
+    }
+    try (FileChannel channel =
+        FileChannel.open(filesystem.resolve(depFile), StandardOpenOption.READ)) {
+      return parseDepfile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
   private static ImmutableList<String> getRawUsedHeadersFromDepfile(
       ProjectFilesystem filesystem,
       Path sourceDepFile,
@@ -216,30 +256,27 @@ class Depfiles {
       throws IOException {
     switch (dependencyTrackingMode) {
       case MAKEFILE:
-        try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-          ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
-          // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
-          // appear first in the dep file, followed by the input source file.  So, just skip over
-          // everything until just after the input source which should position us at the headers.
-          //
-          // TODO(#11303454): This means we're not including the content of these special files into
-          // the rule key. The correct way to handle this is likely to support macros in
-          // preprocessor/compiler flags at which point we can use the entries for these files in
-          // the depfile to verify that the user properly references these files via the macros.
-          int inputIndex =
-              prereqs.indexOf(
-                  useUnixPathSeparator
-                      ? PathFormatter.pathWithUnixSeparators(inputPath)
-                      : inputPath.toString());
-          Preconditions.checkState(
-              inputIndex != -1,
-              "Could not find input source (%s) in dep file prereqs (%s)",
-              inputPath,
-              prereqs);
-          ImmutableList<String> includes = prereqs.subList(inputIndex + 1, prereqs.size());
-          return includes;
-        }
+        ImmutableList<String> prereqs =
+            Depfiles.parseDepfile(filesystem, sourceDepFile).getPrereqs();
+        // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
+        // appear first in the dep file, followed by the input source file.  So, just skip over
+        // everything until just after the input source which should position us at the headers.
+        //
+        // TODO(#11303454): This means we're not including the content of these special files into
+        // the rule key. The correct way to handle this is likely to support macros in
+        // preprocessor/compiler flags at which point we can use the entries for these files in
+        // the depfile to verify that the user properly references these files via the macros.
+        int inputIndex =
+            prereqs.indexOf(
+                useUnixPathSeparator
+                    ? PathFormatter.pathWithUnixSeparators(inputPath)
+                    : inputPath.toString());
+        Preconditions.checkState(
+            inputIndex != -1,
+            "Could not find input source (%s) in dep file prereqs (%s)",
+            inputPath,
+            prereqs);
+        return prereqs.subList(inputIndex + 1, prereqs.size());
       case SHOW_HEADERS:
       case SHOW_INCLUDES:
         // An intermediate depfile in `show_include` mode contains a source file + used headers
@@ -339,13 +376,13 @@ class Depfiles {
       Path header = filesystem.resolve(rawHeader).normalize();
       Optional<Path> absolutePath =
           headerPathNormalizer.getAbsolutePathForUnnormalizedPath(pathResolver, header);
-      Optional<Path> repoRelativePath = filesystem.getPathRelativeToProjectRoot(header);
       if (absolutePath.isPresent()) {
         Preconditions.checkState(absolutePath.get().isAbsolute());
         resultBuilder.add(absolutePath.get());
       } else if ((headerVerification.getMode() != HeaderVerification.Mode.IGNORE)
           && (!(headerVerification.isWhitelisted(header.toString())
-              || repoRelativePath
+              || filesystem
+                  .getPathRelativeToProjectRoot(header)
                   .map(path -> headerVerification.isWhitelisted(path.toString()))
                   .orElse(false)))) {
         // Check again with the real path with all symbolic links resolved.
@@ -24,7 +24,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.nio.file.Path;
-import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -36,13 +35,13 @@ class HeaderPathNormalizer {
    * A mapping from absolute path of a header path (file or directory) to it's corresponding source
    * path.
    */
-  private final ImmutableMap<Path, SourcePath> headers;
+  private final PathPrefixTrie<SourcePath> headers;
 
   /**
    * A mapping of unnormalized header paths that are used by the tooling to the absolute path
    * representation of the corresponding source path.
    */
-  private final ImmutableMap<Path, SourcePath> normalized;
+  private final PathPrefixTrie<SourcePath> normalized;
 
   /** Minimal mappings to translate paths used during compilation to their real locations. */
   private final ImmutableMap<Path, Path> prefixMap;
@@ -51,8 +50,8 @@ class HeaderPathNormalizer {
       ImmutableMap<Path, SourcePath> headers,
       ImmutableMap<Path, SourcePath> normalized,
       ImmutableMap<Path, Path> prefixMap) {
-    this.headers = headers;
-    this.normalized = normalized;
+    this.headers = PathPrefixTrie.of(headers);
+    this.normalized = PathPrefixTrie.of(normalized);
     this.prefixMap = prefixMap;
   }
 
@@ -60,36 +59,23 @@ class HeaderPathNormalizer {
     return new HeaderPathNormalizer(ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of());
   }
 
-  private static <T> Optional<Map.Entry<Path, T>> pathLookup(Path path, Map<Path, T> map) {
-    while (path != null) {
-      T res = map.get(path);
-      if (res != null) {
-        return Optional.of(new AbstractMap.SimpleEntry<>(path, res));
-      }
-      path = path.getParent();
-    }
-    return Optional.empty();
-  }
-
   public Optional<Path> getAbsolutePathForUnnormalizedPath(
       SourcePathResolverAdapter pathResolver, Path unnormalizedPath) {
     Preconditions.checkArgument(unnormalizedPath.isAbsolute());
-    Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
+    Optional<Pair<SourcePath, Path>> result = normalized.getLongestPrefix(unnormalizedPath);
     if (!result.isPresent()) {
       return Optional.empty();
     }
     return Optional.of(
-        pathResolver
-            .getAbsolutePath(result.get().getValue())
-            .resolve(result.get().getKey().relativize(unnormalizedPath)));
+        pathResolver.getAbsolutePath(result.get().getFirst()).resolve(result.get().getSecond()));
   }
 
   /** @return the {@link SourcePath} which corresponds to the given absolute path. */
   public SourcePath getSourcePathForAbsolutePath(Path absolutePath) {
     Preconditions.checkArgument(absolutePath.isAbsolute());
-    Optional<Map.Entry<Path, SourcePath>> path = pathLookup(absolutePath, headers);
+    Optional<Pair<SourcePath, Path>> path = headers.getLongestPrefix(absolutePath);
     Preconditions.checkState(path.isPresent(), "no headers mapped to %s", absolutePath);
-    return path.get().getValue();
+    return path.get().getFirst();
   }
 
   /**
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.util.types.Pair;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable map from paths to values which resolves a path to the value of its longest mapped
+ * prefix.
+ *
+ * <p>Nodes are keyed by single path elements, so paths sharing a directory share the nodes for it
+ * and a lookup walks the path once instead of materializing and hashing each of its parents.
+ *
+ * @param <T> The type of the values.
+ */
+class PathPrefixTrie<T> {
+
+  private static class Node<T> {
+    // Nullable to conserve memory, most nodes are leaves.
+    @Nullable Map<Path, Node<T>> children = null;
+    @Nullable T value = null;
+
+    Node<T> getOrCreateChild(Path name) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      return children.computeIfAbsent(name, ignored -> new Node<>());
+    }
+
+    @Nullable
+    Node<T> getChild(@Nullable Path name) {
+      return children == null ? null : children.get(name);
+    }
+  }
+
+  // Holds one child per path root (`null` for relative paths).
+  private final Node<T> root = new Node<>();
+  private final int size;
+
+  private PathPrefixTrie(Map<Path, T> map) {
+    for (Map.Entry<Path, T> entry : map.entrySet()) {
+      Path path = entry.getKey();
+      Node<T> node = root.getOrCreateChild(path.getRoot());
+      for (int i = 0; i < path.getNameCount(); i++) {
+        node = node.getOrCreateChild(path.getName(i));
+      }
+      node.value = entry.getValue();
+    }
+    this.size = map.size();
+  }
+
+  public static <T> PathPrefixTrie<T> of(Map<Path, T> map) {
+    return new PathPrefixTrie<>(map);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the value of the longest mapped prefix of {@code path} (which may be {@code path}
+   *     itself), paired with the remainder of {@code path} relative to that prefix.
+   */
+  public Optional<Pair<T, Path>> getLongestPrefix(Path path) {
+    Node<T> node = root.getChild(path.getRoot());
+    T value = null;
+    int depth = -1;
+    int nameCount = path.getNameCount();
+    for (int i = 0; node != null; i++) {
+      if (node.value != null) {
+        value = node.value;
+        depth = i;
+      }
+      if (i == nameCount) {
+        break;
+      }
+      node = node.getChild(path.getName(i));
+    }
+    if (value == null) {
+      return Optional.empty();
+    }
+    Path remainder =
+        depth == nameCount ? path.getFileSystem().getPath("") : path.subpath(depth, nameCount);
+    return Optional.of(new Pair<>(value, remainder));
+  }
+}
@@ -16,11 +16,18 @@
 
 package com.facebook.buck.cxx.toolchain;
 
+import com.facebook.buck.core.build.buildable.context.BuildableContext;
+import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rules.impl.MappedSymlinkTree;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.SymlinkPaths;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -35,6 +42,25 @@ public class HeaderSymlinkTree extends MappedSymlinkTree {
     super("cxx_header", target, filesystem, root, links);
   }
 
+  /**
+   * Header trees are rebuilt whenever a single header is added or removed, so rather than wiping
+   * and recreating the whole tree we only touch the links that changed since the last build.
+   */
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context, BuildableContext buildableContext) {
+    SymlinkPaths paths = getResolvedSymlinks(context.getSourcePathResolver());
+    return ImmutableList.of(
+        getVerifyStep(paths),
+        new SymlinkTreeSyncStep(
+            category,
+            getProjectFilesystem(),
+            root,
+            paths,
+            BuildTargetPaths.getScratchPath(
+                getProjectFilesystem(), getBuildTarget(), "%s.symlinks")));
+  }
+
   /**
    * Get path to use as an include path to get access to the files in the tree.
    *
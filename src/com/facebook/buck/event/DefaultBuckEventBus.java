@@ -18,6 +18,7 @@ package com.facebook.buck.event;
 
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.EventSubscriber.QueuedEvent;
 import com.facebook.buck.log.GlobalStateManager;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.concurrent.CommandThreadFactory;
@@ -26,33 +27,64 @@ import com.facebook.buck.util.timing.Clock;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.eventbus.EventBus;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Delivers events to listeners with {@link com.google.common.eventbus.Subscribe} methods.
+ *
+ * <p>Every listener has its own queue of events, see {@link EventSubscriber}, and posting an event
+ * only queues it for those listeners which handle its type, without taking any locks. The queues
+ * are drained on a small pool of threads, so a slow listener delays neither the threads posting
+ * events nor the other listeners. A listener implementing {@link LossyEventListener} has a bounded
+ * queue, and misses some events rather than falling further behind.
+ *
+ * <p>Each listener sees events in the order in which they were posted, but listeners don't see
+ * them in step: there is no fixed order between one listener handling an event and another
+ * listener handling the same or any other event.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
 
+  private static final int DEFAULT_DISPATCH_THREADS = 4;
+
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER =
       () -> Thread.currentThread().getId();
 
   private final Clock clock;
   private final ExecutorService executorService;
-  private final EventBus eventBus;
+  private final boolean async;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
-  // synchronization variables to ensure proper shutdown
-  private volatile int activeTasks = 0;
+  private final Object registrationLock = new Object();
+  private volatile SubscriberIndex subscriberIndex = new SubscriberIndex(ImmutableList.of());
+
+  // Events which have been queued for a listener but not yet handled by it, so that shutdown can
+  // wait for them. `lock` is only taken when the count drops to zero while someone is waiting.
+  private final AtomicInteger pendingEvents = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
   private final Object lock = new Object();
 
+  // Events posted by a listener while it handles an event on the same thread, when not async.
+  private final ThreadLocal<SynchronousDispatch> synchronousDispatch =
+      ThreadLocal.withInitial(SynchronousDispatch::new);
+
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
     this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
   }
@@ -65,43 +97,92 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         buildId,
         shutdownTimeoutMillis,
         async
-            ? MostExecutors.newSingleThreadExecutor(
+            ? MostExecutors.newMultiThreadExecutor(
                 new CommandThreadFactory(
                     BuckEventBus.class.getSimpleName(),
-                    GlobalStateManager.singleton().getThreadToCommandRegister()))
-            : MoreExecutors.newDirectExecutorService());
+                    GlobalStateManager.singleton().getThreadToCommandRegister()),
+                DEFAULT_DISPATCH_THREADS)
+            : MoreExecutors.newDirectExecutorService(),
+        async);
   }
 
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, BuildId buildId, int shutdownTimeoutMillis, ExecutorService executorService) {
+    this(clock, buildId, shutdownTimeoutMillis, executorService, true);
+  }
+
+  private DefaultBuckEventBus(
+      Clock clock,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      ExecutorService executorService,
+      boolean async) {
     this.clock = clock;
     this.executorService = executorService;
-    this.eventBus = new EventBus("buck-build-events");
+    this.async = async;
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
   }
 
   private void dispatch(BuckEvent event) {
-    // keep track the number of active tasks so we can do proper shutdown
-    synchronized (lock) {
-      activeTasks++;
+    EventSubscriber[] subscribers = subscriberIndex.getSubscribers(event.getClass());
+    if (subscribers.length == 0) {
+      return;
+    }
+    QueuedEvent queuedEvent = new QueuedEvent(event, System.nanoTime());
+    // keep track the number of pending events so we can do proper shutdown
+    pendingEvents.addAndGet(subscribers.length);
+    if (async) {
+      for (EventSubscriber subscriber : subscribers) {
+        if (!subscriber.enqueue(queuedEvent)) {
+          onEventDone();
+        }
+      }
+    } else {
+      dispatchSynchronously(queuedEvent, subscribers);
     }
+  }
 
-    executorService.execute(
-        () -> {
+  /**
+   * Delivers an event on the current thread. Like Guava's event bus, events posted while handling
+   * an event are delivered once the current one has been delivered to all listeners.
+   */
+  private void dispatchSynchronously(QueuedEvent event, EventSubscriber[] subscribers) {
+    SynchronousDispatch state = synchronousDispatch.get();
+    state.queue.add(new SynchronousDispatch.Entry(event, subscribers));
+    if (state.dispatching) {
+      return;
+    }
+    state.dispatching = true;
+    try {
+      SynchronousDispatch.Entry next;
+      while ((next = state.queue.poll()) != null) {
+        for (EventSubscriber subscriber : next.subscribers) {
           try {
-            eventBus.post(event);
-          } finally {
-            // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
+            synchronized (subscriber) {
+              subscriber.recordLatency(System.nanoTime() - next.event.getPostedNanos());
+              subscriber.deliverIfRegistered(next.event.getEvent());
             }
+          } finally {
+            onEventDone();
           }
-        });
+        }
+      }
+    } finally {
+      state.dispatching = false;
+      state.queue.clear();
+    }
+  }
+
+  private void onEventDone() {
+    if (pendingEvents.decrementAndGet() == 0 && waiters.get() > 0) {
+      synchronized (lock) {
+        // notify about event completion; shutdown may wait for it
+        lock.notifyAll();
+      }
+    }
   }
 
   @Override
@@ -124,12 +205,38 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    synchronized (registrationLock) {
+      if (subscriberIndex.find(object) != null) {
+        return;
+      }
+      EventSubscriber subscriber = EventSubscriber.of(object, executorService, this::onEventDone);
+      if (subscriber.hasHandlers()) {
+        subscriberIndex = subscriberIndex.with(subscriber);
+      }
+    }
   }
 
   @Override
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    synchronized (registrationLock) {
+      EventSubscriber subscriber = subscriberIndex.find(object);
+      if (subscriber == null) {
+        Preconditions.checkArgument(
+            !EventSubscriber.hasSubscribeMethods(object.getClass()),
+            "missing event subscriber for an annotated method. Is %s registered?",
+            object);
+        return;
+      }
+      subscriber.unregister();
+      subscriberIndex = subscriberIndex.without(subscriber);
+    }
+  }
+
+  /** @return counters for each registered listener, in the order in which they were registered. */
+  public ImmutableList<EventListenerStats> getListenerStats() {
+    return subscriberIndex.subscribers.stream()
+        .map(EventSubscriber::getStats)
+        .collect(ImmutableList.toImmutableList());
   }
 
   @Override
@@ -157,7 +264,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   /**
    * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called to wait
-   * for events which have been posted, but which have been queued by the {@link EventBus}, to be
+   * for events which have been posted, but which are still queued for a listener, to be
    * delivered. This allows listeners to record or report as much information as possible. This aids
    * debugging when close is called during exception processing.
    */
@@ -171,6 +278,22 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // ideally it should be done inside executorService but it only provides shutdown() method
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     waitEvents(shutdownTimeoutMillis);
+    for (EventListenerStats stats : getListenerStats()) {
+      if (stats.getDroppedEvents() > 0) {
+        LOG.warn(
+            "%s fell behind and missed %d of %d events.",
+            stats.getListener(),
+            stats.getDroppedEvents(),
+            stats.getDeliveredEvents() + stats.getDroppedEvents());
+      }
+      LOG.debug(
+          "%s: %d events delivered, %d dropped, %d max queued, %d ms max latency.",
+          stats.getListener(),
+          stats.getDeliveredEvents(),
+          stats.getDroppedEvents(),
+          stats.getMaxQueueDepth(),
+          TimeUnit.NANOSECONDS.toMillis(stats.getMaxDispatchLatencyNanos()));
+    }
 
     executorService.shutdown();
     try {
@@ -193,24 +316,29 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   @Override
   public boolean waitEvents(long timeout) {
     long startWaitTime = System.nanoTime();
-    synchronized (lock) {
-      while (activeTasks > 0) {
-
-        long waitTime = 0;
-        if (timeout > 0) {
-          waitTime = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startWaitTime);
-          if (waitTime <= 0) {
-            return false;
+    waiters.incrementAndGet();
+    try {
+      synchronized (lock) {
+        while (pendingEvents.get() > 0) {
+
+          long waitTime = 0;
+          if (timeout > 0) {
+            waitTime = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startWaitTime);
+            if (waitTime <= 0) {
+              return false;
+            }
           }
-        }
 
-        try {
-          lock.wait(waitTime);
-        } catch (InterruptedException e) {
-          Threads.interruptCurrentThread();
-          return activeTasks == 0;
+          try {
+            lock.wait(waitTime);
+          } catch (InterruptedException e) {
+            Threads.interruptCurrentThread();
+            return pendingEvents.get() == 0;
+          }
         }
       }
+    } finally {
+      waiters.decrementAndGet();
     }
     return true;
   }
@@ -229,4 +357,76 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         threadId,
         buildId);
   }
+
+  /**
+   * An immutable set of subscribers, which lazily indexes them by the types of events they handle.
+   * Registering or unregistering a listener replaces the whole index.
+   */
+  private static class SubscriberIndex {
+    private static final EventSubscriber[] NO_SUBSCRIBERS = new EventSubscriber[0];
+
+    private final ImmutableList<EventSubscriber> subscribers;
+    private final Map<Class<?>, EventSubscriber[]> subscribersByEventType =
+        new ConcurrentHashMap<>();
+
+    private SubscriberIndex(ImmutableList<EventSubscriber> subscribers) {
+      this.subscribers = subscribers;
+    }
+
+    EventSubscriber[] getSubscribers(Class<?> eventType) {
+      EventSubscriber[] result = subscribersByEventType.get(eventType);
+      if (result == null) {
+        result = subscribersByEventType.computeIfAbsent(eventType, this::findSubscribers);
+      }
+      return result;
+    }
+
+    private EventSubscriber[] findSubscribers(Class<?> eventType) {
+      List<EventSubscriber> result = new ArrayList<>();
+      for (EventSubscriber subscriber : subscribers) {
+        if (subscriber.handles(eventType)) {
+          result.add(subscriber);
+        }
+      }
+      return result.isEmpty() ? NO_SUBSCRIBERS : result.toArray(NO_SUBSCRIBERS);
+    }
+
+    @Nullable
+    EventSubscriber find(Object listener) {
+      for (EventSubscriber subscriber : subscribers) {
+        if (subscriber.getListener() == listener) {
+          return subscriber;
+        }
+      }
+      return null;
+    }
+
+    SubscriberIndex with(EventSubscriber subscriber) {
+      return new SubscriberIndex(
+          ImmutableList.<EventSubscriber>builder().addAll(subscribers).add(subscriber).build());
+    }
+
+    SubscriberIndex without(EventSubscriber subscriber) {
+      return new SubscriberIndex(
+          subscribers.stream()
+              .filter(existing -> existing != subscriber)
+              .collect(ImmutableList.toImmutableList()));
+    }
+  }
+
+  /** The per-thread state of synchronous dispatch. */
+  private static class SynchronousDispatch {
+    private final Queue<Entry> queue = new ArrayDeque<>();
+    private boolean dispatching = false;
+
+    private static class Entry {
+      private final QueuedEvent event;
+      private final EventSubscriber[] subscribers;
+
+      private Entry(QueuedEvent event, EventSubscriber[] subscribers) {
+        this.event = event;
+        this.subscribers = subscribers;
+      }
+    }
+  }
 }
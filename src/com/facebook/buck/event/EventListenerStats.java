@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+
+/** Counters describing how well a listener of a {@link DefaultBuckEventBus} keeps up. */
+@BuckStyleValue
+public abstract class EventListenerStats {
+
+  /** @return the class name of the listener. */
+  public abstract String getListener();
+
+  public abstract long getDeliveredEvents();
+
+  /** @return the number of events dropped because a {@link LossyEventListener} fell behind. */
+  public abstract long getDroppedEvents();
+
+  /** @return the number of events currently waiting to be delivered. */
+  public abstract int getQueueDepth();
+
+  public abstract int getMaxQueueDepth();
+
+  /** @return the total time events spent between being posted and being delivered. */
+  public abstract long getTotalDispatchLatencyNanos();
+
+  public abstract long getMaxDispatchLatencyNanos();
+
+  public static EventListenerStats of(
+      String listener,
+      long deliveredEvents,
+      long droppedEvents,
+      int queueDepth,
+      int maxQueueDepth,
+      long totalDispatchLatencyNanos,
+      long maxDispatchLatencyNanos) {
+    return ImmutableEventListenerStats.of(
+        listener,
+        deliveredEvents,
+        droppedEvents,
+        queueDepth,
+        maxQueueDepth,
+        totalDispatchLatencyNanos,
+        maxDispatchLatencyNanos);
+  }
+}
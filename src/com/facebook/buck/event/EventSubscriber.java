@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * A listener registered with a {@link DefaultBuckEventBus}, together with the queue of events that
+ * are yet to be delivered to it.
+ *
+ * <p>The {@link Subscribe} methods of the listener are looked up once, when it's registered, and
+ * bound to it as method handles. Which of them handle a given type of event is resolved the first
+ * time an event of that type is posted, so that delivering an event doesn't involve reflection.
+ *
+ * <p>Events are queued without locking, and are delivered in batches by a task which is scheduled
+ * on the dispatch executor whenever the queue becomes non-empty. At most one such task runs at a
+ * time, so a listener sees its events one at a time and in the order in which they were queued,
+ * but a slow listener doesn't hold up the others.
+ */
+final class EventSubscriber implements Runnable {
+
+  private static final Logger LOG = Logger.get(EventSubscriber.class);
+
+  /** The number of events to deliver before giving other listeners a turn on the executor. */
+  private static final int MAX_BATCH_SIZE = 1024;
+
+  private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, Object.class);
+
+  private static final MethodHandle[] NO_HANDLERS = new MethodHandle[0];
+
+  private static final ClassValue<ImmutableList<Method>> SUBSCRIBE_METHODS =
+      new ClassValue<ImmutableList<Method>>() {
+        @Override
+        protected ImmutableList<Method> computeValue(Class<?> type) {
+          return findSubscribeMethods(type);
+        }
+      };
+
+  private final Object listener;
+  private final ImmutableList<Method> methods;
+  private final ImmutableList<MethodHandle> handles;
+  private final Map<Class<?>, MethodHandle[]> handlersByEventType = new ConcurrentHashMap<>();
+  @Nullable private final LossyEventListener lossyListener;
+  private final int maxQueuedEvents;
+  private final Executor executor;
+  private final Runnable onEventDone;
+
+  private final Queue<QueuedEvent> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile boolean registered = true;
+  // Keys of dropped events whose matching events are to be dropped too.
+  private final Set<EventKey> droppedEventKeys = ConcurrentHashMap.newKeySet();
+  // Only accessed by the task delivering events, of which there is at most one at a time.
+  private long reportedDroppedEvents;
+
+  private final LongAdder deliveredEvents = new LongAdder();
+  private final LongAdder droppedEvents = new LongAdder();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final LongAdder totalDispatchLatencyNanos = new LongAdder();
+  private final AtomicLong maxDispatchLatencyNanos = new AtomicLong();
+
+  private EventSubscriber(
+      Object listener,
+      ImmutableList<Method> methods,
+      ImmutableList<MethodHandle> handles,
+      Executor executor,
+      Runnable onEventDone) {
+    this.listener = listener;
+    this.methods = methods;
+    this.handles = handles;
+    this.lossyListener =
+        listener instanceof LossyEventListener ? (LossyEventListener) listener : null;
+    this.maxQueuedEvents =
+        lossyListener != null ? lossyListener.getMaxQueuedEvents() : Integer.MAX_VALUE;
+    this.executor = executor;
+    this.onEventDone = onEventDone;
+  }
+
+  /**
+   * Creates a subscriber for {@code listener}, whose events are delivered on {@code executor}.
+   *
+   * @param onEventDone called once for each queued event, after it was delivered or discarded.
+   * @throws IllegalArgumentException if a {@link Subscribe} method doesn't take exactly one
+   *     argument.
+   */
+  static EventSubscriber of(Object listener, Executor executor, Runnable onEventDone) {
+    ImmutableList<Method> methods = SUBSCRIBE_METHODS.get(listener.getClass());
+    ImmutableList.Builder<MethodHandle> handles = ImmutableList.builder();
+    for (Method method : methods) {
+      try {
+        handles.add(
+            MethodHandles.lookup().unreflect(method).bindTo(listener).asType(HANDLER_TYPE));
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException(
+            String.format("Cannot access event handler %s.", method), e);
+      }
+    }
+    return new EventSubscriber(listener, methods, handles.build(), executor, onEventDone);
+  }
+
+  /** @return whether instances of the given class have any {@link Subscribe} methods. */
+  static boolean hasSubscribeMethods(Class<?> listenerType) {
+    return !SUBSCRIBE_METHODS.get(listenerType).isEmpty();
+  }
+
+  Object getListener() {
+    return listener;
+  }
+
+  /** @return whether the listener has any {@link Subscribe} methods. */
+  boolean hasHandlers() {
+    return !handles.isEmpty();
+  }
+
+  /** @return whether the listener handles events of the given type. */
+  boolean handles(Class<?> eventType) {
+    return getHandlers(eventType).length > 0;
+  }
+
+  /** Stops the delivery of events, including those which are already queued. */
+  void unregister() {
+    registered = false;
+  }
+
+  /**
+   * Queues an event for delivery on the executor.
+   *
+   * @return false if the event was dropped, because the listener is too far behind or because the
+   *     event it pairs with was dropped.
+   */
+  boolean enqueue(QueuedEvent event) {
+    if (!droppedEventKeys.isEmpty() && droppedEventKeys.remove(event.getEvent().getEventKey())) {
+      droppedEvents.increment();
+      return false;
+    }
+    int depth = queueDepth.incrementAndGet();
+    if (depth > maxQueuedEvents
+        && Objects.requireNonNull(lossyListener).isDroppable(event.getEvent())) {
+      queueDepth.decrementAndGet();
+      droppedEventKeys.add(event.getEvent().getEventKey());
+      droppedEvents.increment();
+      return false;
+    }
+    queue.add(event);
+    maxQueueDepth.accumulateAndGet(depth, Math::max);
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(this);
+    }
+    return true;
+  }
+
+  /** Delivers queued events, up to a batch. */
+  @Override
+  public void run() {
+    try {
+      for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+        QueuedEvent next = queue.poll();
+        if (next == null) {
+          break;
+        }
+        queueDepth.decrementAndGet();
+        try {
+          recordLatency(System.nanoTime() - next.getPostedNanos());
+          reportDroppedEvents(next.getEvent());
+          deliverIfRegistered(next.getEvent());
+        } finally {
+          onEventDone.run();
+        }
+      }
+    } finally {
+      // An event queued after the last poll above will have seen `scheduled` set, so it's up to
+      // this task to schedule the next one.
+      scheduled.set(false);
+      if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+  }
+
+  /**
+   * Delivers an event to the listener right away, unless it was unregistered. Exceptions thrown by
+   * the listener are logged, errors are propagated.
+   */
+  void deliverIfRegistered(Object event) {
+    if (!registered) {
+      return;
+    }
+    for (MethodHandle handler : getHandlers(event.getClass())) {
+      try {
+        handler.invokeExact(event);
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable t) {
+        LOG.error(t, "Exception thrown by %s when handling %s.", listener.getClass(), event);
+      }
+    }
+    deliveredEvents.increment();
+  }
+
+  private void reportDroppedEvents(BuckEvent nextEvent) {
+    if (lossyListener == null || !registered) {
+      return;
+    }
+    long dropped = droppedEvents.sum();
+    if (dropped == reportedDroppedEvents) {
+      return;
+    }
+    reportedDroppedEvents = dropped;
+    try {
+      lossyListener.eventsDropped(dropped, nextEvent);
+    } catch (RuntimeException e) {
+      LOG.error(e, "Exception thrown by %s when told about dropped events.", listener.getClass());
+    }
+  }
+
+  void recordLatency(long latencyNanos) {
+    totalDispatchLatencyNanos.add(latencyNanos);
+    maxDispatchLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+  }
+
+  EventListenerStats getStats() {
+    return EventListenerStats.of(
+        listener.getClass().getName(),
+        deliveredEvents.sum(),
+        droppedEvents.sum(),
+        queueDepth.get(),
+        maxQueueDepth.get(),
+        totalDispatchLatencyNanos.sum(),
+        maxDispatchLatencyNanos.get());
+  }
+
+  private MethodHandle[] getHandlers(Class<?> eventType) {
+    MethodHandle[] handlers = handlersByEventType.get(eventType);
+    if (handlers == null) {
+      handlers = handlersByEventType.computeIfAbsent(eventType, this::resolveHandlers);
+    }
+    return handlers;
+  }
+
+  /**
+   * Finds the handlers for events of the given type: those for the type itself come first, then
+   * those for its supertypes.
+   */
+  private MethodHandle[] resolveHandlers(Class<?> eventType) {
+    List<MethodHandle> result = new ArrayList<>();
+    for (Class<?> type : TypeToken.of(eventType).getTypes().rawTypes()) {
+      for (int i = 0; i < methods.size(); i++) {
+        if (methods.get(i).getParameterTypes()[0] == type) {
+          result.add(handles.get(i));
+        }
+      }
+    }
+    return result.isEmpty() ? NO_HANDLERS : result.toArray(NO_HANDLERS);
+  }
+
+  /**
+   * Finds the {@link Subscribe} methods of a listener class, including inherited ones. Overridden
+   * methods are only included once.
+   */
+  private static ImmutableList<Method> findSubscribeMethods(Class<?> listenerType) {
+    ImmutableList.Builder<Method> result = ImmutableList.builder();
+    Set<List<Object>> seen = new HashSet<>();
+    for (Class<?> type : TypeToken.of(listenerType).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+          continue;
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length != 1) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Method %s has @Subscribe annotation but has %d parameters. "
+                      + "Subscriber methods must have exactly 1 parameter.",
+                  method, parameterTypes.length));
+        }
+        if (seen.add(Arrays.asList(method.getName(), parameterTypes[0]))) {
+          method.setAccessible(true);
+          result.add(method);
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /** An event on its way to listeners, with the time at which it was posted. */
+  static final class QueuedEvent {
+    private final BuckEvent event;
+    private final long postedNanos;
+
+    QueuedEvent(BuckEvent event, long postedNanos) {
+      this.event = event;
+      this.postedNanos = postedNanos;
+    }
+
+    BuckEvent getEvent() {
+      return event;
+    }
+
+    long getPostedNanos() {
+      return postedNanos;
+    }
+  }
+}
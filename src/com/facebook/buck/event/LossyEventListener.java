@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+/**
+ * An event bus listener which can afford to miss some events, e.g. because it only uses them to
+ * show progress. Once more than {@link #getMaxQueuedEvents()} events are waiting to be delivered to
+ * such a listener, further events for which {@link #isDroppable(BuckEvent)} holds are dropped for
+ * it instead of being queued, so that it can't build up an unbounded backlog or delay the shutdown
+ * of the event bus. Other events are always delivered.
+ */
+public interface LossyEventListener {
+
+  /** @return the maximum number of events waiting to be delivered to this listener. */
+  int getMaxQueuedEvents();
+
+  /**
+   * @return whether the listener can do without the given event. When it's dropped, the next event
+   *     with the same {@link EventKey}, i.e. the matching finished event, is dropped as well, so
+   *     this should only hold for the events which start such a pair.
+   */
+  boolean isDroppable(BuckEvent event);
+
+  /**
+   * Called before an event is delivered if events were dropped since the last one was delivered.
+   *
+   * @param droppedEvents the number of events dropped for this listener so far.
+   * @param nextEvent the event about to be delivered.
+   */
+  void eventsDropped(long droppedEvents, BuckEvent nextEvent);
+}
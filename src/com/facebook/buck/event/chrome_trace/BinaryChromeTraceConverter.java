@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts traces written by {@link BinaryChromeTraceWriter} to the JSON format understood by
+ * chrome://tracing and other trace tooling.
+ */
+public class BinaryChromeTraceConverter {
+
+  private BinaryChromeTraceConverter() {}
+
+  /**
+   * Reads a binary trace, optionally gzipped, from {@code in} and writes it as a JSON trace to
+   * {@code out}. Neither stream is closed.
+   */
+  public static void convertToJson(InputStream in, OutputStream out) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+    buffered.mark(2);
+    boolean gzipped = buffered.read() == 0x1f && buffered.read() == 0x8b;
+    buffered.reset();
+    InputStream source = gzipped ? new GZIPInputStream(buffered, 1 << 16) : buffered;
+
+    BinaryChromeTraceReader reader = new BinaryChromeTraceReader(source);
+    ChromeTraceWriter writer = new ChromeTraceWriter(new UncloseableOutputStream(out));
+    writer.writeStart();
+    for (ChromeTraceEvent event = reader.readEvent();
+        event != null;
+        event = reader.readEvent()) {
+      writer.writeEvent(event);
+    }
+    writer.writeEnd();
+    writer.close();
+  }
+
+  /** Usage: {@code BinaryChromeTraceConverter <binary trace> <json trace>}. */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BinaryChromeTraceConverter <binary trace> <json trace>");
+      System.exit(1);
+    }
+    try (InputStream in = Files.newInputStream(Paths.get(args[0]));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(args[1])))) {
+      convertToJson(in, out);
+    }
+  }
+
+  private static class UncloseableOutputStream extends FilterOutputStream {
+    UncloseableOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+/**
+ * Layout of the binary trace format written by {@link BinaryChromeTraceWriter}.
+ *
+ * <p>A trace starts with {@link #MAGIC} and {@link #VERSION}, followed by a sequence of records,
+ * each introduced by a one byte tag. Integers are unsigned LEB128 varints; signed values are
+ * zigzag encoded first. Strings are referenced by varint id: id {@code 0} means the string follows
+ * inline as a varint byte length and UTF-8 bytes, any other id refers to a preceding {@link
+ * #STRING_RECORD}. Event timestamps are encoded as deltas from the previous event's timestamp.
+ */
+final class BinaryChromeTraceFormat {
+
+  static final byte[] MAGIC = {'B', 'T', 'R', 'C'};
+  static final int VERSION = 1;
+
+  /** Defines the next string id: varint byte length, UTF-8 bytes. */
+  static final int STRING_RECORD = 1;
+
+  /**
+   * An event: category, name, phase ordinal byte, pid, tid, timestamp delta, thread timestamp, arg
+   * count and (key, tagged value) pairs.
+   */
+  static final int EVENT_RECORD = 2;
+
+  /** Marks the end of a complete trace. */
+  static final int END_RECORD = 3;
+
+  static final int ARG_STRING = 1;
+  static final int ARG_LONG = 2;
+  static final int ARG_DOUBLE = 3;
+  static final int ARG_TRUE = 4;
+  static final int ARG_FALSE = 5;
+  /** Any other value, as a string of its JSON serialization. */
+  static final int ARG_JSON = 6;
+
+  static final int INLINE_STRING = 0;
+
+  /** Strings beyond this many distinct values are written inline rather than interned. */
+  static final int MAX_INTERNED_STRINGS = 1 << 16;
+
+  /** Argument values longer than this are unlikely to repeat and are always written inline. */
+  static final int MAX_INTERNED_VALUE_LENGTH = 128;
+
+  private BinaryChromeTraceFormat() {}
+
+  static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
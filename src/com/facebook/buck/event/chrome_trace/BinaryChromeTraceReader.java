@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Reads events written by {@link BinaryChromeTraceWriter}. The caller owns, and must close, the
+ * underlying stream.
+ */
+public class BinaryChromeTraceReader {
+
+  private static final ChromeTraceEvent.Phase[] PHASES = ChromeTraceEvent.Phase.values();
+
+  private final InputStream in;
+  private final List<String> strings = new ArrayList<>();
+  private byte[] stringBuffer = new byte[256];
+  private long previousMicroTime = 0;
+  private boolean headerRead = false;
+
+  public BinaryChromeTraceReader(InputStream in) {
+    this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16);
+  }
+
+  /**
+   * @return the next event in the trace, or {@code null} once the end of the trace is reached. A
+   *     trace that was cut short, e.g. by a crash, ends at the last complete event.
+   */
+  @Nullable
+  public ChromeTraceEvent readEvent() throws IOException {
+    if (!headerRead) {
+      readHeader();
+      headerRead = true;
+    }
+    while (true) {
+      int tag = in.read();
+      switch (tag) {
+        case -1:
+        case BinaryChromeTraceFormat.END_RECORD:
+          return null;
+        case BinaryChromeTraceFormat.STRING_RECORD:
+          strings.add(readUtf8());
+          break;
+        case BinaryChromeTraceFormat.EVENT_RECORD:
+          try {
+            return readEventRecord();
+          } catch (EOFException e) {
+            return null;
+          }
+        default:
+          throw new IOException(String.format("Unknown trace record type %d", tag));
+      }
+    }
+  }
+
+  private void readHeader() throws IOException {
+    for (byte expected : BinaryChromeTraceFormat.MAGIC) {
+      if (in.read() != expected) {
+        throw new IOException("Not a binary trace file");
+      }
+    }
+    int version = in.read();
+    if (version != BinaryChromeTraceFormat.VERSION) {
+      throw new IOException(String.format("Unsupported binary trace version %d", version));
+    }
+  }
+
+  private ChromeTraceEvent readEventRecord() throws IOException {
+    String category = readStringRef();
+    String name = readStringRef();
+    int phase = readByte();
+    if (phase >= PHASES.length) {
+      throw new IOException(String.format("Unknown trace event phase %d", phase));
+    }
+    long processId = BinaryChromeTraceFormat.unzigzag(readVarint());
+    long threadId = BinaryChromeTraceFormat.unzigzag(readVarint());
+    long microTime = previousMicroTime + BinaryChromeTraceFormat.unzigzag(readVarint());
+    previousMicroTime = microTime;
+    long microThreadUserTime = BinaryChromeTraceFormat.unzigzag(readVarint());
+    int argCount = (int) readVarint();
+    ImmutableMap.Builder<String, Object> args = ImmutableMap.builderWithExpectedSize(argCount);
+    for (int i = 0; i < argCount; i++) {
+      String key = readStringRef();
+      args.put(key, readArgValue());
+    }
+    return new ChromeTraceEvent(
+        category,
+        name,
+        PHASES[phase],
+        processId,
+        threadId,
+        microTime,
+        microThreadUserTime,
+        args.build());
+  }
+
+  private Object readArgValue() throws IOException {
+    int tag = readByte();
+    switch (tag) {
+      case BinaryChromeTraceFormat.ARG_STRING:
+        return readStringRef();
+      case BinaryChromeTraceFormat.ARG_LONG:
+        return BinaryChromeTraceFormat.unzigzag(readVarint());
+      case BinaryChromeTraceFormat.ARG_DOUBLE:
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+          bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+      case BinaryChromeTraceFormat.ARG_TRUE:
+        return true;
+      case BinaryChromeTraceFormat.ARG_FALSE:
+        return false;
+      case BinaryChromeTraceFormat.ARG_JSON:
+        return ObjectMappers.READER.readTree(readStringRef());
+      default:
+        throw new IOException(String.format("Unknown trace argument type %d", tag));
+    }
+  }
+
+  private String readStringRef() throws IOException {
+    long id = readVarint();
+    if (id == BinaryChromeTraceFormat.INLINE_STRING) {
+      return readUtf8();
+    }
+    if (id > strings.size()) {
+      throw new IOException(String.format("Undefined trace string %d", id));
+    }
+    return strings.get((int) id - 1);
+  }
+
+  private String readUtf8() throws IOException {
+    int length = (int) readVarint();
+    if (length > stringBuffer.length) {
+      stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+    }
+    int read = 0;
+    while (read < length) {
+      int count = in.read(stringBuffer, read, length - read);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      read += count;
+    }
+    return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in trace");
+  }
+
+  private int readByte() throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes Chrome trace events in the compact format described by {@link BinaryChromeTraceFormat}.
+ *
+ * <p>Categories, names, argument keys and short argument values are interned, so a repeated string
+ * costs one or two bytes. Records are encoded into a reusable buffer that is handed to the
+ * underlying stream in large chunks, which keeps per-event overhead low when the stream compresses.
+ * Use {@link BinaryChromeTraceConverter} to turn the output back into JSON.
+ *
+ * <p>Not thread-safe: callers are expected to write from a single thread.
+ */
+public class BinaryChromeTraceWriter implements ChromeTraceEventWriter {
+
+  private static final int FLUSH_THRESHOLD = 1 << 16;
+
+  private final OutputStream out;
+  private final Map<String, Integer> stringIds = new HashMap<>();
+  private byte[] buffer = new byte[FLUSH_THRESHOLD + 1024];
+  private int position = 0;
+  private long previousMicroTime = 0;
+
+  /** Create a writer backed by specified output stream. */
+  public BinaryChromeTraceWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void writeStart() throws IOException {
+    for (byte b : BinaryChromeTraceFormat.MAGIC) {
+      writeByte(b);
+    }
+    writeByte(BinaryChromeTraceFormat.VERSION);
+  }
+
+  @Override
+  public void writeEvent(ChromeTraceEvent event) throws IOException {
+    // String definitions must precede the event that first references them.
+    intern(event.getCategory());
+    intern(event.getName());
+    for (Map.Entry<String, ?> arg : event.getArgs().entrySet()) {
+      intern(arg.getKey());
+      Object value = arg.getValue();
+      if (value instanceof String
+          && ((String) value).length() <= BinaryChromeTraceFormat.MAX_INTERNED_VALUE_LENGTH) {
+        intern((String) value);
+      }
+    }
+
+    writeByte(BinaryChromeTraceFormat.EVENT_RECORD);
+    writeStringRef(event.getCategory());
+    writeStringRef(event.getName());
+    writeByte(event.getPhase().ordinal());
+    writeVarint(BinaryChromeTraceFormat.zigzag(event.getProcessId()));
+    writeVarint(BinaryChromeTraceFormat.zigzag(event.getThreadId()));
+    writeVarint(BinaryChromeTraceFormat.zigzag(event.getMicroTime() - previousMicroTime));
+    previousMicroTime = event.getMicroTime();
+    writeVarint(BinaryChromeTraceFormat.zigzag(event.getMicroThreadUserTime()));
+    writeVarint(event.getArgs().size());
+    for (Map.Entry<String, ?> arg : event.getArgs().entrySet()) {
+      writeStringRef(arg.getKey());
+      writeArgValue(arg.getValue());
+    }
+
+    if (position >= FLUSH_THRESHOLD) {
+      flushBuffer();
+    }
+  }
+
+  @Override
+  public void writeEnd() throws IOException {
+    writeByte(BinaryChromeTraceFormat.END_RECORD);
+    flushBuffer();
+  }
+
+  /** Flush buffered records and close the underlying stream. */
+  @Override
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeArgValue(Object value) throws IOException {
+    if (value instanceof String) {
+      writeByte(BinaryChromeTraceFormat.ARG_STRING);
+      writeStringRef((String) value);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      writeByte(BinaryChromeTraceFormat.ARG_LONG);
+      writeVarint(BinaryChromeTraceFormat.zigzag(((Number) value).longValue()));
+    } else if (value instanceof Double || value instanceof Float) {
+      writeByte(BinaryChromeTraceFormat.ARG_DOUBLE);
+      long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte) (bits >>> shift);
+      }
+    } else if (value instanceof Boolean) {
+      writeByte(
+          (Boolean) value ? BinaryChromeTraceFormat.ARG_TRUE : BinaryChromeTraceFormat.ARG_FALSE);
+    } else {
+      writeByte(BinaryChromeTraceFormat.ARG_JSON);
+      writeInlineString(ObjectMappers.WRITER.writeValueAsString(value));
+    }
+  }
+
+  private void intern(String string) {
+    if (stringIds.containsKey(string)
+        || stringIds.size() >= BinaryChromeTraceFormat.MAX_INTERNED_STRINGS) {
+      return;
+    }
+    stringIds.put(string, stringIds.size() + 1);
+    writeByte(BinaryChromeTraceFormat.STRING_RECORD);
+    writeUtf8(string);
+  }
+
+  private void writeStringRef(String string) {
+    Integer id = stringIds.get(string);
+    if (id != null) {
+      writeVarint(id);
+    } else {
+      writeInlineString(string);
+    }
+  }
+
+  private void writeInlineString(String string) {
+    writeVarint(BinaryChromeTraceFormat.INLINE_STRING);
+    writeUtf8(string);
+  }
+
+  private void writeUtf8(String string) {
+    int length = string.length();
+    // Trace strings are almost always ASCII, which can be copied without an intermediate array.
+    boolean ascii = true;
+    for (int i = 0; i < length; i++) {
+      if (string.charAt(i) >= 0x80) {
+        ascii = false;
+        break;
+      }
+    }
+    if (ascii) {
+      writeVarint(length);
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++) {
+        buffer[position++] = (byte) string.charAt(i);
+      }
+    } else {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
+  private void writeVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (position + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+    out.flush();
+  }
+}
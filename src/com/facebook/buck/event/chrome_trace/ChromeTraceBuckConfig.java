@@ -27,6 +27,15 @@ import java.net.URI;
 import java.util.Optional;
 
 public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
+
+  /** Formats of build traces. */
+  public enum TraceFormat {
+    /** Chrome's JSON trace format, optionally gzipped. */
+    JSON,
+    /** The compact format of {@link BinaryChromeTraceWriter}, always gzipped. */
+    BINARY,
+  }
+
   private static final String DEFAULT_MAX_TRACES = "25";
 
   private static final String LOG_SECTION = "log";
@@ -55,6 +64,13 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  /** @return the format in which build traces are written. */
+  public TraceFormat getTraceFormat() {
+    return delegate
+        .getEnum(LOG_SECTION, "trace_format", TraceFormat.class)
+        .orElse(TraceFormat.JSON);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
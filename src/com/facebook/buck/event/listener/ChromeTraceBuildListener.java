@@ -36,14 +36,18 @@ import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.CompilerPluginDurationEvent;
 import com.facebook.buck.event.InstallEvent;
 import com.facebook.buck.event.LeafEvents;
+import com.facebook.buck.event.LossyEventListener;
 import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
+import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig.TraceFormat;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.AnnotationProcessingEvent;
@@ -96,9 +100,10 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /** Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing). */
-public class ChromeTraceBuildListener implements BuckEventListener {
+public class ChromeTraceBuildListener implements BuckEventListener, LossyEventListener {
 
   private static final LoadingCache<String, String> CONVERTED_EVENT_ID_CACHE =
       CacheBuilder.newBuilder()
@@ -116,12 +121,15 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   private static final Logger LOG = Logger.get(ChromeTraceBuildListener.class);
 
+  /** Beyond this backlog, the starts of fine-grained events are dropped rather than traced. */
+  private static final int MAX_QUEUED_EVENTS = 100_000;
+
   private final ProjectFilesystem projectFilesystem;
   private final Clock clock;
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
   private final OutputStream traceStream;
-  private final ChromeTraceWriter chromeTraceWriter;
+  private final ChromeTraceEventWriter chromeTraceWriter;
   private final Path logDirectoryPath;
   private final ChromeTraceBuckConfig config;
   private final Set<Long> threadNamesRecorded = new HashSet<>();
@@ -195,7 +203,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    this.chromeTraceWriter =
+        config.getTraceFormat() == TraceFormat.BINARY
+            ? new BinaryChromeTraceWriter(this.traceStream)
+            : new ChromeTraceWriter(this.traceStream);
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -233,14 +244,21 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private TracePathAndStream createPathAndStream(BuildId buildId) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
     String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
-    if (config.getCompressTraces()) {
+    boolean binary = config.getTraceFormat() == TraceFormat.BINARY;
+    if (binary) {
+      traceName = traceName + ".bin";
+    } else if (config.getCompressTraces()) {
       traceName = traceName + ".gz";
     }
     Path tracePath = logDirectoryPath.resolve(traceName);
     try {
       projectFilesystem.createParentDirs(tracePath);
       OutputStream stream = projectFilesystem.newFileOutputStream(tracePath);
-      if (config.getCompressTraces()) {
+      if (binary) {
+        // The binary format is already compact, so the default level compresses it well enough
+        // without BestCompression's cost on the output thread.
+        stream = new GZIPOutputStream(stream, 1 << 16);
+      } else if (config.getCompressTraces()) {
         stream = new BestCompressionGZIPOutputStream(stream, true);
       }
       return new TracePathAndStream(tracePath, stream);
@@ -270,6 +288,36 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     managerScope.schedule(task);
   }
 
+  @Override
+  public int getMaxQueuedEvents() {
+    return MAX_QUEUED_EVENTS;
+  }
+
+  /**
+   * Steps and compiler phases are the bulk of the trace, and the trace is still useful with some of
+   * them missing. Rules, commands and the like are always traced.
+   */
+  @Override
+  public boolean isDroppable(BuckEvent event) {
+    return event instanceof StepEvent.Started
+        || event instanceof LeafEvents.SimpleLeafEvent.Started
+        || event instanceof ArtifactCompressionEvent.Started
+        || event instanceof JavacPhaseEvent.Started
+        || event instanceof AnnotationProcessingEvent.Started
+        || event instanceof CompilerPluginDurationEvent.Started;
+  }
+
+  /** Records how many events are missing from the trace, as a counter. */
+  @Override
+  public void eventsDropped(long droppedEvents, BuckEvent nextEvent) {
+    writeChromeTraceEvent(
+        "buck",
+        "dropped_events",
+        ChromeTraceEvent.Phase.COUNTER,
+        ImmutableMap.of("dropped_events", Long.toString(droppedEvents)),
+        nextEvent);
+  }
+
   @Subscribe
   public void commandStarted(CommandEvent.Started started) {
     writeChromeTraceEvent(
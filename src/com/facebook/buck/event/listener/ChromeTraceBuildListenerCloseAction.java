@@ -20,7 +20,8 @@ import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
-import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig.TraceFormat;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
 import com.facebook.buck.io.file.PathListing;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.support.bgtasks.TaskAction;
@@ -52,7 +53,7 @@ class ChromeTraceBuildListenerCloseAction
 
     public abstract Path getTracePath();
 
-    public abstract ChromeTraceWriter getChromeTraceWriter();
+    public abstract ChromeTraceEventWriter getChromeTraceWriter();
 
     public abstract OutputStream getTraceStream();
 
@@ -72,7 +73,8 @@ class ChromeTraceBuildListenerCloseAction
       Path tracePath,
       Path logDirectoryPath) {
     Optional<URI> traceUploadUri = config.getTraceUploadUriIfEnabled();
-    if (!traceUploadUri.isPresent()) {
+    // The upload endpoint only understands JSON traces.
+    if (!traceUploadUri.isPresent() || config.getTraceFormat() == TraceFormat.BINARY) {
       return;
     }
 
@@ -91,12 +93,14 @@ class ChromeTraceBuildListenerCloseAction
     }
 
     Path traceDirectory = projectFilesystem.getPathForRelativePath(logDirectoryPath);
+    String tracePattern =
+        config.getTraceFormat() == TraceFormat.BINARY ? "build.*.trace.bin" : "build.*.trace";
 
     try {
       for (Path path :
           PathListing.listMatchingPathsWithFilters(
               traceDirectory,
-              "build.*.trace",
+              tracePattern,
               PathListing.GET_PATH_MODIFIED_TIME,
               PathListing.FilterMode.EXCLUDE,
               OptionalInt.of(config.getMaxTraces()),
@@ -131,7 +135,12 @@ class ChromeTraceBuildListenerCloseAction
         args.getTracePath(),
         args.getLogDirectoryPath());
 
-    String symlinkName = args.getConfig().getCompressTraces() ? "build.trace.gz" : "build.trace";
+    String symlinkName;
+    if (args.getConfig().getTraceFormat() == TraceFormat.BINARY) {
+      symlinkName = "build.trace.bin";
+    } else {
+      symlinkName = args.getConfig().getCompressTraces() ? "build.trace.gz" : "build.trace";
+    }
     Path symlinkPath = args.getProjectFilesystem().getBuckPaths().getLogDir().resolve(symlinkName);
     args.getProjectFilesystem()
         .createSymLink(
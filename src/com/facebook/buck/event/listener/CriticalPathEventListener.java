@@ -16,6 +16,7 @@
 
 package com.facebook.buck.event.listener;
 
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
 import com.facebook.buck.core.build.event.BuildRuleExecutionEvent;
 import com.facebook.buck.core.build.event.FinalizingBuildRuleEvent;
 import com.facebook.buck.core.model.BuildTarget;
@@ -38,9 +39,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -71,8 +74,20 @@ public class CriticalPathEventListener implements BuckEventListener {
 
   private final Map<BuildTarget, ExecutionTimeInfo> buildTargetToExecutionTimeMap = new HashMap<>();
 
+  private final Optional<Path> durationHistoryPath;
+
   public CriticalPathEventListener(Path outputPath) {
+    this(outputPath, Optional.empty());
+  }
+
+  /**
+   * @param durationHistoryPath where to update the {@link BuildRuleDurationHistory} with the
+   *     durations of the rules executed by this build, so that the next build can schedule the
+   *     work on its critical path first.
+   */
+  public CriticalPathEventListener(Path outputPath, Optional<Path> durationHistoryPath) {
     this.outputPath = Objects.requireNonNull(outputPath);
+    this.durationHistoryPath = durationHistoryPath;
   }
 
   /** Subscribes to {@link BuildRuleExecutionEvent.Finished} events */
@@ -168,6 +183,33 @@ public class CriticalPathEventListener implements BuckEventListener {
           parentDir,
           Files.exists(parentDir));
     }
+    if (durationHistoryPath.isPresent()) {
+      try {
+        saveDurationHistory(durationHistoryPath.get());
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save the rule durations into [%s].", durationHistoryPath.get());
+      }
+    }
+  }
+
+  private void saveDurationHistory(Path path) throws IOException {
+    List<String> builtTargets = new ArrayList<>(buildTargetToCriticalPathNodeMap.size());
+    Map<String, Long> durationMsByTarget = new HashMap<>();
+    for (Map.Entry<BuildTarget, CriticalPathNode> entry :
+        buildTargetToCriticalPathNodeMap.entrySet()) {
+      String target = entry.getKey().getFullyQualifiedName();
+      builtTargets.add(target);
+      long durationMs = entry.getValue().getExecutionTimeInfo().getExecutionDurationMs();
+      // Rules fetched from the cache took no time, which says nothing about how long they take to
+      // build, so they keep the duration of their last execution.
+      if (durationMs > 0) {
+        durationMsByTarget.put(target, durationMs);
+      }
+    }
+    // Builds served entirely from the cache change nothing worth rewriting the file for.
+    if (!durationMsByTarget.isEmpty()) {
+      BuildRuleDurationHistory.load(path).updatedWith(builtTargets, durationMsByTarget).save(path);
+    }
   }
 
   /** Dumps critical path into the given {@code outputPath} */
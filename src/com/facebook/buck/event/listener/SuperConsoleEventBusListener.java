@@ -25,11 +25,13 @@ import com.facebook.buck.core.test.event.TestSummaryEvent;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.ArtifactCompressionEvent;
+import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.CommandEvent.Finished;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.FlushConsoleEvent;
 import com.facebook.buck.event.LeafEvent;
 import com.facebook.buck.event.LeafEvents;
+import com.facebook.buck.event.LossyEventListener;
 import com.facebook.buck.event.ParsingEvent;
 import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
@@ -72,7 +74,8 @@ import java.util.logging.Level;
 import javax.annotation.concurrent.GuardedBy;
 
 /** Console that provides rich, updating ansi output about the current build. */
-public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListener {
+public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListener
+    implements LossyEventListener {
 
   /**
    * Maximum expected rendered line length so we can start with a decent size of line rendering
@@ -85,6 +88,9 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
   private static final Logger LOG = Logger.get(SuperConsoleEventBusListener.class);
 
+  /** Beyond this backlog, the starts of steps are dropped rather than queued for rendering. */
+  private static final int MAX_QUEUED_EVENTS = 10_000;
+
   private final Locale locale;
   private final Function<Long, String> formatTimeFunction;
 
@@ -587,6 +593,24 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
+  @Override
+  public int getMaxQueuedEvents() {
+    return MAX_QUEUED_EVENTS;
+  }
+
+  /** Steps are only shown while they run, so missing some of them only leaves gaps in progress. */
+  @Override
+  public boolean isDroppable(BuckEvent event) {
+    return event instanceof StepEvent.Started
+        || event instanceof LeafEvents.SimpleLeafEvent.Started
+        || event instanceof ArtifactCompressionEvent.Started;
+  }
+
+  @Override
+  public void eventsDropped(long droppedEvents, BuckEvent nextEvent) {
+    printInfoDirectlyOnce("The console fell behind the build, so some steps are not shown.");
+  }
+
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
     runningStepStarted(started);
@@ -28,6 +28,12 @@ import java.nio.file.Path;
 /** Creates a JAR file from a collection of directories/ZIP/JAR files. */
 public class JarDirectoryStep implements Step {
 
+  /**
+   * Upper bound on the threads a single step deflates entries on. Several jar steps usually run at
+   * the same time, each already using one of the build's threads.
+   */
+  private static final int MAX_COMPRESSION_THREADS = 4;
+
   private final ProjectFilesystem filesystem;
 
   private final JarParameters parameters;
@@ -76,6 +82,11 @@ public class JarDirectoryStep implements Step {
         new JavacEventSinkToBuckEventBusBridge(context.getBuckEventBus());
     LoggingJarBuilderObserver loggingObserver =
         new LoggingJarBuilderObserver(eventSink, parameters.getDuplicatesLogLevel());
+    int compressionThreads =
+        parameters.getCompressInParallel()
+            ? Math.max(
+                1, Math.min(MAX_COMPRESSION_THREADS, context.getConcurrencyLimit().threadLimit))
+            : 1;
     return StepExecutionResult.of(
         new JarBuilder()
             .setObserver(loggingObserver)
@@ -85,6 +96,8 @@ public class JarDirectoryStep implements Step {
             .setShouldMergeManifests(parameters.getMergeManifests())
             .setShouldDisallowAllDuplicates(parameters.getDisallowAllDuplicates())
             .setShouldHashEntries(parameters.getHashEntries())
+            .setShouldCopyCompressedEntries(parameters.getCopyCompressedEntries())
+            .setCompressionThreads(compressionThreads)
             .setRemoveEntryPredicate(parameters.getRemoveEntryPredicate())
             .createJarFile(filesystem.resolve(parameters.getJarPath())));
   }
@@ -41,6 +41,18 @@ public abstract class JarParameters {
     return false;
   }
 
+  /** Whether entries deflated in source jars are copied without compressing them again. */
+  @Value.Default
+  public boolean getCopyCompressedEntries() {
+    return false;
+  }
+
+  /** Whether new entries are deflated on several threads. */
+  @Value.Default
+  public boolean getCompressInParallel() {
+    return false;
+  }
+
   public abstract Path getJarPath();
 
   @Value.Default
@@ -118,6 +118,8 @@ public class MavenUberJar extends AbstractBuildRuleWithDeclaredAndExtraDeps
                 .setEntriesToJar(
                     toOutputPaths(context.getSourcePathResolver(), traversedDeps.packagedDeps))
                 .setMergeManifests(true)
+                .setCopyCompressedEntries(true)
+                .setCompressInParallel(true)
                 .build());
     return ImmutableList.of(mkOutputDirStep, mergeOutputsStep);
   }
@@ -16,21 +16,77 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.filesystems.AbsPath;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.api.Syntax;
+import com.facebook.buck.parser.cache.ParserCache;
+import com.facebook.buck.parser.config.ParserConfig;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-/** A pipeline that provides a {@link BuildFileManifest} for a given build file. */
+/**
+ * A pipeline that provides a {@link BuildFileManifest} for a given build file.
+ *
+ * <p>If enabled, manifests are looked up in a persistent {@link ParserCache} before invoking the
+ * parser.
+ */
 public class BuildFileRawNodeParsePipeline extends GenericFileParsePipeline<BuildFileManifest> {
 
+  private final ProjectBuildFileParserPool projectBuildFileParserPool;
+  private final ListeningExecutorService executorService;
+  private final BuckEventBus eventBus;
+  private final Watchman watchman;
+  private final FileHashLoader fileHashLoader;
+  private final ConcurrentMap<Cell, Optional<ParserCache>> parserCaches =
+      new ConcurrentHashMap<>();
+
   public BuildFileRawNodeParsePipeline(
       PipelineNodeCache<AbsPath, BuildFileManifest> cache,
       ProjectBuildFileParserPool projectBuildFileParserPool,
       ListeningExecutorService executorService,
       BuckEventBus eventBus,
-      Watchman watchman) {
+      Watchman watchman,
+      FileHashLoader fileHashLoader) {
     super(cache, projectBuildFileParserPool, executorService, eventBus, watchman);
+    this.projectBuildFileParserPool = projectBuildFileParserPool;
+    this.executorService = executorService;
+    this.eventBus = eventBus;
+    this.watchman = watchman;
+    this.fileHashLoader = fileHashLoader;
+  }
+
+  @Override
+  protected ListenableFuture<BuildFileManifest> parse(Cell cell, AbsPath buildFile) {
+    Optional<ParserCache> parserCache = parserCaches.computeIfAbsent(cell, this::createParserCache);
+    if (!parserCache.isPresent()) {
+      return super.parse(cell, buildFile);
+    }
+    return projectBuildFileParserPool.runWithParser(
+        eventBus,
+        cell,
+        watchman,
+        parser ->
+            parserCache.get().getManifest((ProjectBuildFileParser) parser, buildFile.getPath()),
+        executorService);
+  }
+
+  private Optional<ParserCache> createParserCache(Cell cell) {
+    ParserConfig parserConfig = cell.getBuckConfigView(ParserConfig.class);
+    // Cached manifests are validated by re-evaluating their globs, which only the Skylark parser
+    // records.
+    if (!parserConfig.isPersistentManifestCachingEnabled()
+        || parserConfig.isPolyglotParsingEnabled()
+        || parserConfig.getDefaultBuildFileSyntax() != Syntax.SKYLARK) {
+      return Optional.empty();
+    }
+    return Optional.of(ParserCache.of(cell.getBuckConfig(), cell.getFilesystem(), fileHashLoader));
   }
 }
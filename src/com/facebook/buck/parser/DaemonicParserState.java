@@ -43,6 +43,7 @@ import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
@@ -357,6 +358,9 @@ public class DaemonicParserState {
 
   private final int parsingThreads;
 
+  /** Hashes the files build files load, for validating persistently cached manifests. */
+  private final FileHashLoader fileHashLoader;
+
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
 
   /**
@@ -369,8 +373,9 @@ public class DaemonicParserState {
   private final AutoCloseableReadWriteLock cachedStateLock;
   private final AutoCloseableReadWriteLock cellStateLock;
 
-  public DaemonicParserState(int parsingThreads) {
+  public DaemonicParserState(int parsingThreads, FileHashLoader fileHashLoader) {
     this.parsingThreads = parsingThreads;
+    this.fileHashLoader = fileHashLoader;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
         new TagSetCounter(
             COUNTER_CATEGORY, INVALIDATED_BY_ENV_VARS_COUNTER_NAME, ImmutableMap.of());
@@ -415,6 +420,10 @@ public class DaemonicParserState {
     this.cellStateLock = new AutoCloseableReadWriteLock();
   }
 
+  FileHashLoader getFileHashLoader() {
+    return fileHashLoader;
+  }
+
   LoadingCache<Cell, BuildFileTree> getBuildFileTrees() {
     return buildFileTrees;
   }
@@ -76,15 +76,34 @@ abstract class FileParserPool<T extends FileManifest> implements AutoCloseable {
       Watchman watchman,
       AbsPath parseFile,
       ListeningExecutorService executorService) {
+    return runWithParser(
+        buckEventBus,
+        cell,
+        watchman,
+        parser -> parser.getManifest(parseFile.getPath()),
+        executorService);
+  }
+
+  /**
+   * Runs an operation with one of the parsers of {@code cell}.
+   *
+   * @return a {@link ListenableFuture} containing the result of the operation. The future will be
+   *     cancelled if the {@link ProjectBuildFileParserPool#close()} method is called.
+   */
+  <R> ListenableFuture<R> runWithParser(
+      BuckEventBus buckEventBus,
+      Cell cell,
+      Watchman watchman,
+      ResourcePool.ThrowingFunction<FileParser<T>, R> operation,
+      ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
     if (shouldUsePoolForCell(cell)) {
       return getResourcePoolForCell(buckEventBus, cell, watchman)
-          .scheduleOperationWithResource(
-              parser -> parser.getManifest(parseFile.getPath()), executorService);
+          .scheduleOperationWithResource(operation, executorService);
     }
     FileParser<T> parser = getParserForCell(buckEventBus, cell, watchman);
-    return executorService.submit(() -> parser.getManifest(parseFile.getPath()));
+    return executorService.submit(() -> operation.apply(parser));
   }
 
   private synchronized ResourcePool<FileParser<T>> getResourcePoolForCell(
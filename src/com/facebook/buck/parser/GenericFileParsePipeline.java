@@ -75,11 +75,16 @@ public class GenericFileParsePipeline<T extends FileManifest> implements FilePar
                 pathToCheck);
           }
 
-          return fileParserPool.getManifest(eventBus, cell, watchman, buildFile, executorService);
+          return parse(cell, buildFile);
         },
         eventBus);
   }
 
+  /** Schedules parsing of {@code buildFile} with one of the parsers of {@code cell}. */
+  protected ListenableFuture<T> parse(Cell cell, AbsPath buildFile) {
+    return fileParserPool.getManifest(eventBus, cell, watchman, buildFile, executorService);
+  }
+
   @Override
   public void close() {
     shuttingDown.set(true);
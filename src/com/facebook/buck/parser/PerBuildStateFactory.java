@@ -136,7 +136,8 @@ public class PerBuildStateFactory {
             projectBuildFileParserPool,
             executorService,
             eventBus,
-            watchman);
+            watchman,
+            daemonicParserState.getFileHashLoader());
 
     BuildTargetRawNodeParsePipeline buildTargetRawNodeParsePipeline =
         new BuildTargetRawNodeParsePipeline(executorService, buildFileRawNodeParsePipeline);
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.DirectoryCleaner;
+import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ParserCacheStorage} which keeps each entry in its own file below a root directory, so
+ * that concurrent parser threads and daemons never have to coordinate.
+ *
+ * <p>Reading an entry updates its access time, and the least recently accessed entries are deleted
+ * once the entries stored since the last trim add up to half of the maximum size.
+ */
+public class LocalParserCacheStorage implements ParserCacheStorage {
+
+  private static final Logger LOG = Logger.get(LocalParserCacheStorage.class);
+
+  // Ratio of bytes stored to max size that triggers trimming the cache.
+  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
+  // How much of the max size to leave when trimming the cache.
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+  private static final String TMP_EXTENSION = ".tmp";
+
+  private final Path root;
+  private final long maxSizeBytes;
+  private final AtomicLong bytesSinceLastTrim = new AtomicLong();
+  private final AtomicBoolean trimming = new AtomicBoolean();
+
+  private LocalParserCacheStorage(Path root, long maxSizeBytes) {
+    this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * @param root the directory to store entries in, which is created on demand.
+   * @param maxSizeBytes the size the directory is trimmed to.
+   */
+  public static LocalParserCacheStorage of(Path root, long maxSizeBytes) {
+    return new LocalParserCacheStorage(root, maxSizeBytes);
+  }
+
+  private Path getEntryPath(HashCode fingerprint) {
+    String name = fingerprint.toString();
+    return root.resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  @Override
+  public void store(HashCode fingerprint, byte[] entry) throws ParserCacheException {
+    Path path = getEntryPath(fingerprint);
+    try {
+      Files.createDirectories(path.getParent());
+      Path tmp =
+          Files.createTempFile(path.getParent(), path.getFileName().toString(), TMP_EXTENSION);
+      try {
+        Files.write(tmp, entry);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      throw new ParserCacheException(e, "Failed to store parser cache entry %s.", path);
+    }
+    if (bytesSinceLastTrim.addAndGet(entry.length)
+        > maxSizeBytes * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER) {
+      trim();
+    }
+  }
+
+  @Override
+  public Optional<byte[]> get(HashCode fingerprint) throws ParserCacheException {
+    Path path = getEntryPath(fingerprint);
+    try {
+      byte[] entry = Files.readAllBytes(path);
+      // Don't rely on the file system to track access times, many are mounted with noatime.
+      Files.getFileAttributeView(path, BasicFileAttributeView.class)
+          .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+      return Optional.of(entry);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new ParserCacheException(e, "Failed to read parser cache entry %s.", path);
+    }
+  }
+
+  /** Deletes the least recently used entries until the cache is below the trim ratio. */
+  private void trim() {
+    // Parser threads which store entries while another one trims the cache don't wait for it.
+    if (!trimming.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      bytesSinceLastTrim.set(0);
+      new DirectoryCleaner(
+              DirectoryCleanerArgs.builder()
+                  .setPathSelector(
+                      new DirectoryCleaner.PathSelector() {
+                        @Override
+                        public Iterable<Path> getCandidatesToDelete(Path rootPath)
+                            throws IOException {
+                          return getEntries(rootPath);
+                        }
+
+                        @Override
+                        public int comparePaths(
+                            DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+                          return ComparisonChain.start()
+                              .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+                              .compare(path1.getCreationMillis(), path2.getCreationMillis())
+                              .result();
+                        }
+                      })
+                  .setMaxTotalSizeBytes(maxSizeBytes)
+                  .setMaxBytesAfterDeletion((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO))
+                  .build())
+          .clean(root);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to trim parser cache %s.", root);
+    } finally {
+      trimming.set(false);
+    }
+  }
+
+  private static List<Path> getEntries(Path root) throws IOException {
+    try (Stream<Path> files = Files.walk(root)) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(file -> !file.getFileName().toString().endsWith(TMP_EXTENSION))
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.cache.binary.BuildFileManifestSerializer;
+import com.facebook.buck.parser.config.ParserConfig;
+import com.facebook.buck.parser.exceptions.BuildFileParseException;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent, content-addressed cache of {@link BuildFileManifest}s, which lets a new daemon skip
+ * evaluating build files that haven't changed since they were last parsed.
+ *
+ * <p>Entries are addressed by a fingerprint of the build file's path and contents, the buck
+ * version and the buckconfig sections which influence how build files are evaluated. Each entry
+ * records the hashes of the files the build file loaded or included, and is only served if they
+ * all still match, if the configuration values read by the build file are unchanged, and if the
+ * globs it evaluated still expand to the same files. Since the latter is checked by the parser,
+ * manifests are only cached for parsers which record their globs.
+ */
+public class ParserCache {
+
+  private static final Logger LOG = Logger.get(ParserCache.class);
+
+  private static final int VERSION = 0;
+
+  /** Coarsest modification time granularity of common file systems. */
+  private static final long MODIFICATION_TIME_GRANULARITY_MS = 2000;
+
+  /** Configuration sections which can change the result of evaluating a build file. */
+  private static final ImmutableList<String> PARSER_SECTIONS =
+      ImmutableList.of("buildfile", "parser", "repositories", "repository_aliases");
+
+  private final ParserCacheStorage storage;
+  private final BuckConfig buckConfig;
+  private final FileHashLoader fileHashLoader;
+  private final HashCode configFingerprint;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @VisibleForTesting
+  ParserCache(ParserCacheStorage storage, BuckConfig buckConfig, FileHashLoader fileHashLoader) {
+    this.storage = storage;
+    this.buckConfig = buckConfig;
+    this.fileHashLoader = fileHashLoader;
+    this.configFingerprint = computeConfigFingerprint(buckConfig);
+  }
+
+  /**
+   * Creates a cache for the build files of a cell, which stores its entries in the cell's
+   * buck-out.
+   *
+   * @param fileHashLoader hashes the files loaded by build files. Lookups hash every such file, so
+   *     this should be the daemon's file hash cache, which only rehashes files that changed.
+   */
+  public static ParserCache of(
+      BuckConfig buckConfig, ProjectFilesystem filesystem, FileHashLoader fileHashLoader) {
+    return new ParserCache(
+        LocalParserCacheStorage.of(
+            filesystem.resolve(filesystem.getBuckPaths().getCacheDir()).resolve("parser"),
+            buckConfig.getView(ParserConfig.class).getPersistentManifestCacheMaxSizeBytes()),
+        buckConfig,
+        fileHashLoader);
+  }
+
+  private static HashCode computeConfigFingerprint(BuckConfig buckConfig) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(VERSION);
+    hasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+    for (String section : PARSER_SECTIONS) {
+      hasher.putString(section, StandardCharsets.UTF_8);
+      for (Map.Entry<String, String> entry :
+          buckConfig.getEntriesForSection(section).entrySet()) {
+        hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+        hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+      }
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Returns the manifest of {@code buildFile}, either from the cache or by parsing it with {@code
+   * parser}, in which case the result is stored in the cache.
+   */
+  public BuildFileManifest getManifest(ProjectBuildFileParser parser, Path buildFile)
+      throws BuildFileParseException, InterruptedException, IOException {
+    HashCode buildFileHash = fileHashLoader.get(buildFile);
+    HashCode fingerprint = computeFingerprint(buildFile, buildFileHash);
+
+    Optional<BuildFileManifest> cachedManifest = lookup(parser, buildFile, fingerprint);
+    if (cachedManifest.isPresent()) {
+      hits.incrementAndGet();
+      return cachedManifest.get();
+    }
+    misses.incrementAndGet();
+
+    long parseStartMs = System.currentTimeMillis();
+    BuildFileManifest manifest = parser.getManifest(buildFile);
+    // Don't store manifests of build files which, or whose loaded files, were modified while they
+    // were being parsed.
+    if (manifest.getErrors().isEmpty()
+        && !manifest.getEnv().isPresent()
+        && buildFileHash.equals(fileHashLoader.get(buildFile))
+        && !anyModifiedSince(manifest.getIncludes(), parseStartMs)) {
+      store(buildFile, fingerprint, manifest);
+    }
+    return manifest;
+  }
+
+  private HashCode computeFingerprint(Path buildFile, HashCode buildFileHash) {
+    return Hashing.sha1()
+        .newHasher()
+        .putBytes(configFingerprint.asBytes())
+        .putString(buildFile.toString(), StandardCharsets.UTF_8)
+        .putBytes(buildFileHash.asBytes())
+        .hash();
+  }
+
+  private Optional<BuildFileManifest> lookup(
+      ProjectBuildFileParser parser, Path buildFile, HashCode fingerprint)
+      throws InterruptedException {
+    try {
+      Optional<byte[]> entry = storage.get(fingerprint);
+      if (!entry.isPresent()) {
+        return Optional.empty();
+      }
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(entry.get()));
+      if (input.readInt() != VERSION) {
+        return Optional.empty();
+      }
+      for (int i = input.readInt(); i > 0; i--) {
+        Path include = Paths.get(input.readUTF());
+        HashCode hash = HashCode.fromBytes(readBytes(input));
+        if (!Optional.of(hash).equals(hashFileIfExists(include))) {
+          LOG.verbose("Ignoring cached manifest of %s, %s changed.", buildFile, include);
+          return Optional.empty();
+        }
+      }
+      BuildFileManifest manifest = BuildFileManifestSerializer.deserialize(readBytes(input));
+      if (!configsMatch(manifest)) {
+        LOG.verbose("Ignoring cached manifest of %s, configuration changed.", buildFile);
+        return Optional.empty();
+      }
+      if (!manifest.getGlobManifest().isEmpty()
+          && !parser.globResultsMatchCurrentState(buildFile, manifest.getGlobManifest())) {
+        LOG.verbose("Ignoring cached manifest of %s, glob results changed.", buildFile);
+        return Optional.empty();
+      }
+      return Optional.of(manifest);
+    } catch (ParserCacheException | IOException e) {
+      LOG.warn(e, "Failed to read cached manifest of %s.", buildFile);
+      return Optional.empty();
+    }
+  }
+
+  private void store(Path buildFile, HashCode fingerprint, BuildFileManifest manifest) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeInt(VERSION);
+      output.writeInt(manifest.getIncludes().size());
+      for (String include : manifest.getIncludes()) {
+        output.writeUTF(include);
+        writeBytes(output, fileHashLoader.get(Paths.get(include)).asBytes());
+      }
+      writeBytes(output, BuildFileManifestSerializer.serialize(manifest));
+      output.flush();
+      storage.store(fingerprint, bytes.toByteArray());
+    } catch (ParserCacheException | IOException e) {
+      LOG.debug(e, "Not caching manifest of %s.", buildFile);
+    }
+  }
+
+  /** @return whether all configuration values read by the build file still have the same value. */
+  private boolean configsMatch(BuildFileManifest manifest) {
+    for (Map.Entry<String, Object> section : manifest.getConfigs().entrySet()) {
+      if (!(section.getValue() instanceof Map)) {
+        return false;
+      }
+      for (Map.Entry<?, ?> option : ((Map<?, ?>) section.getValue()).entrySet()) {
+        Object recorded = option.getValue();
+        if (!(recorded instanceof Optional)) {
+          recorded = Optional.ofNullable(recorded);
+        }
+        if (!recorded.equals(
+            buckConfig.getValue(section.getKey(), String.valueOf(option.getKey())))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The files loaded by a build file are only known once it has been parsed, so unlike the build
+   * file they can't be hashed beforehand. Instead, their hashes are only recorded if none of them
+   * was modified since parsing started, allowing for coarse modification times.
+   */
+  private static boolean anyModifiedSince(Iterable<String> paths, long timeMs) {
+    for (String path : paths) {
+      try {
+        if (Files.getLastModifiedTime(Paths.get(path)).toMillis()
+            > timeMs - MODIFICATION_TIME_GRANULARITY_MS) {
+          return true;
+        }
+      } catch (IOException e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Optional<HashCode> hashFileIfExists(Path path) throws IOException {
+    try {
+      return Optional.of(fileHashLoader.get(path));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  @VisibleForTesting
+  long getHitCount() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  long getMissCount() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import com.google.common.hash.HashCode;
+import java.util.Optional;
+
+/** Stores serialized parser cache entries, addressed by the fingerprint of their contents. */
+public interface ParserCacheStorage {
+
+  /**
+   * Stores a serialized entry.
+   *
+   * @param fingerprint the address of the entry.
+   * @param entry the serialized entry.
+   * @throws ParserCacheException if the entry could not be stored.
+   */
+  void store(HashCode fingerprint, byte[] entry) throws ParserCacheException;
+
+  /**
+   * Retrieves a serialized entry.
+   *
+   * @param fingerprint the address of the entry.
+   * @return the serialized entry, or {@link Optional#empty()} if there is none.
+   * @throws ParserCacheException if the entry exists but could not be read.
+   */
+  Optional<byte[]> get(HashCode fingerprint) throws ParserCacheException;
+}
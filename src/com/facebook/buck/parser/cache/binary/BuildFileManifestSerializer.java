@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import javax.annotation.Nullable;
+
+/**
+ * This class serializes the {@link BuildFileManifest} to a compact binary form, which is both
+ * smaller and cheaper to read back than the JSON written by {@link
+ * com.facebook.buck.parser.cache.json.BuildFileManifestSerializer}.
+ *
+ * <p>Every value is prefixed with a one byte tag, integers are written as variable length
+ * integers, and each distinct string is only written once and referred to by its index afterwards,
+ * since attribute names and labels repeat a lot across the targets of a build file. Only the value
+ * types produced by the build file parsers are supported.
+ */
+public class BuildFileManifestSerializer {
+
+  private static final int VERSION = 0;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte STRING_REFERENCE = 2;
+  private static final byte TRUE = 3;
+  private static final byte FALSE = 4;
+  private static final byte INTEGER = 5;
+  private static final byte LONG = 6;
+  private static final byte DOUBLE = 7;
+  private static final byte LIST = 8;
+  private static final byte SET = 9;
+  private static final byte SORTED_SET = 10;
+  private static final byte MAP = 11;
+  private static final byte SORTED_MAP = 12;
+  private static final byte OPTIONAL_EMPTY = 13;
+  private static final byte OPTIONAL_PRESENT = 14;
+  private static final byte SELECTOR_VALUE = 15;
+  private static final byte LIST_WITH_SELECTS = 16;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final Comparator<Object> NATURAL_ORDER = (Comparator) Ordering.natural();
+
+  private BuildFileManifestSerializer() {}
+
+  /**
+   * Serializes an instance of {@link BuildFileManifest} to a byte array.
+   *
+   * @param buildFileManifest the instance of {@link BuildFileManifest} to be serialized.
+   * @return a byte array with the serialized manifest.
+   * @throws IOException if the manifest contains values of unsupported types.
+   */
+  public static byte[] serialize(BuildFileManifest buildFileManifest) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Writer writer = new Writer(new DataOutputStream(bytes));
+    writer.writeVarInt(VERSION);
+    writer.writeValue(buildFileManifest.getTargets());
+    writer.writeValue(buildFileManifest.getIncludes());
+    writer.writeValue(buildFileManifest.getConfigs());
+    writer.writeValue(buildFileManifest.getEnv());
+    writer.writeVarInt(buildFileManifest.getGlobManifest().size());
+    for (GlobSpecWithResult globSpecWithResult : buildFileManifest.getGlobManifest()) {
+      GlobSpec globSpec = globSpecWithResult.getGlobSpec();
+      writer.writeValue(ImmutableList.copyOf(globSpec.getInclude()));
+      writer.writeValue(ImmutableList.copyOf(globSpec.getExclude()));
+      writer.writeValue(globSpec.getExcludeDirectories());
+      writer.writeValue(ImmutableSet.copyOf(globSpecWithResult.getFilePaths()));
+    }
+    writer.writeVarInt(buildFileManifest.getErrors().size());
+    for (ParsingError error : buildFileManifest.getErrors()) {
+      writer.writeValue(error.getMessage());
+      writer.writeValue(error.getStackTrace());
+    }
+    writer.output.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes an instance of {@link BuildFileManifest} from a byte array.
+   *
+   * @param buildFileManifestBytes the bytes for the manifest to be deserialized.
+   * @return a new instance of {@link BuildFileManifest} serialized from the {@code
+   *     buildFileManifestBytes}.
+   * @throws IOException if the bytes are not a manifest serialized by this version of the class.
+   */
+  @SuppressWarnings("unchecked")
+  public static BuildFileManifest deserialize(byte[] buildFileManifestBytes) throws IOException {
+    Reader reader =
+        new Reader(new DataInputStream(new ByteArrayInputStream(buildFileManifestBytes)));
+    int version = reader.readVarInt();
+    if (version != VERSION) {
+      throw new IOException(String.format("Unsupported manifest version %d.", version));
+    }
+    ImmutableMap<String, ImmutableMap<String, Object>> targets =
+        reader.readValue(ImmutableMap.class);
+    ImmutableSortedSet<String> includes = reader.readValue(ImmutableSortedSet.class);
+    ImmutableMap<String, Object> configs = reader.readValue(ImmutableMap.class);
+    Optional<ImmutableMap<String, Optional<String>>> env = reader.readValue(Optional.class);
+    ImmutableList.Builder<GlobSpecWithResult> globManifest = ImmutableList.builder();
+    for (int i = reader.readVarInt(); i > 0; i--) {
+      ImmutableList<String> include = reader.readValue(ImmutableList.class);
+      ImmutableList<String> exclude = reader.readValue(ImmutableList.class);
+      boolean excludeDirectories = reader.readValue(Boolean.class);
+      ImmutableSet<String> filePaths = reader.readValue(ImmutableSet.class);
+      globManifest.add(
+          GlobSpecWithResult.of(GlobSpec.of(include, exclude, excludeDirectories), filePaths));
+    }
+    ImmutableList.Builder<ParsingError> errors = ImmutableList.builder();
+    for (int i = reader.readVarInt(); i > 0; i--) {
+      String message = reader.readValue(String.class);
+      ImmutableList<String> stackTrace = reader.readValue(ImmutableList.class);
+      errors.add(ParsingError.of(message, stackTrace));
+    }
+    return BuildFileManifest.of(
+        targets, includes, configs, env, globManifest.build(), errors.build());
+  }
+
+  private static boolean isNaturalOrder(@Nullable Comparator<?> comparator) {
+    return comparator == null
+        || comparator.equals(Ordering.natural())
+        || comparator.equals(Comparator.naturalOrder());
+  }
+
+  private static class Writer {
+    private final DataOutputStream output;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private Writer(DataOutputStream output) {
+      this.output = output;
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        output.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      output.writeByte((int) value);
+    }
+
+    private void writeZigZag(long value) throws IOException {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeString(String value) throws IOException {
+      Integer index = strings.get(value);
+      if (index != null) {
+        output.writeByte(STRING_REFERENCE);
+        writeVarInt(index);
+        return;
+      }
+      strings.put(value, strings.size());
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      output.writeByte(STRING);
+      writeVarInt(bytes.length);
+      output.write(bytes);
+    }
+
+    private void writeElements(byte tag, Collection<?> values) throws IOException {
+      output.writeByte(tag);
+      writeVarInt(values.size());
+      for (Object value : values) {
+        writeValue(value);
+      }
+    }
+
+    private void writeEntries(byte tag, Map<?, ?> values) throws IOException {
+      output.writeByte(tag);
+      writeVarInt(values.size());
+      for (Map.Entry<?, ?> entry : values.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeValue(@Nullable Object value) throws IOException {
+      if (value == null) {
+        output.writeByte(NULL);
+      } else if (value instanceof String) {
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        output.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        output.writeByte(INTEGER);
+        writeZigZag((Integer) value);
+      } else if (value instanceof Long) {
+        output.writeByte(LONG);
+        writeZigZag((Long) value);
+      } else if (value instanceof Double) {
+        output.writeByte(DOUBLE);
+        output.writeDouble((Double) value);
+      } else if (value instanceof List) {
+        writeElements(LIST, (List<?>) value);
+      } else if (value instanceof SortedSet
+          && isNaturalOrder(((SortedSet<?>) value).comparator())) {
+        writeElements(SORTED_SET, (SortedSet<?>) value);
+      } else if (value instanceof Set && !(value instanceof SortedSet)) {
+        writeElements(SET, (Set<?>) value);
+      } else if (value instanceof SortedMap
+          && isNaturalOrder(((SortedMap<?, ?>) value).comparator())) {
+        writeEntries(SORTED_MAP, (SortedMap<?, ?>) value);
+      } else if (value instanceof Map && !(value instanceof SortedMap)) {
+        writeEntries(MAP, (Map<?, ?>) value);
+      } else if (value instanceof Optional) {
+        Optional<?> optional = (Optional<?>) value;
+        if (optional.isPresent()) {
+          output.writeByte(OPTIONAL_PRESENT);
+          writeValue(optional.get());
+        } else {
+          output.writeByte(OPTIONAL_EMPTY);
+        }
+      } else if (value instanceof SelectorValue) {
+        SelectorValue selectorValue = (SelectorValue) value;
+        output.writeByte(SELECTOR_VALUE);
+        writeValue(selectorValue.getDictionary());
+        writeValue(selectorValue.getNoMatchError());
+      } else if (value instanceof ListWithSelects) {
+        ListWithSelects listWithSelects = (ListWithSelects) value;
+        output.writeByte(LIST_WITH_SELECTS);
+        writeValue(listWithSelects.getElements());
+        writeValue(listWithSelects.getType().getName());
+      } else {
+        throw new IOException(
+            String.format("Values of type %s cannot be serialized.", value.getClass().getName()));
+      }
+    }
+  }
+
+  private static class Reader {
+    private final DataInputStream input;
+    private final List<String> strings = new ArrayList<>();
+
+    private Reader(DataInputStream input) {
+      this.input = input;
+    }
+
+    private int readVarInt() throws IOException {
+      long value = readVarLong();
+      if (value < 0 || value > Integer.MAX_VALUE) {
+        throw new IOException(String.format("Invalid length %d.", value));
+      }
+      return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = input.readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer.");
+    }
+
+    private long readZigZag() throws IOException {
+      long value = readVarLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private <T> T readValue(Class<T> type) throws IOException {
+      Object value = readValue();
+      if (!type.isInstance(value)) {
+        throw new IOException(
+            String.format(
+                "Expected a value of type %s, got %s.",
+                type.getName(), value == null ? null : value.getClass().getName()));
+      }
+      return type.cast(value);
+    }
+
+    @Nullable
+    private Object readValue() throws IOException {
+      byte tag = input.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          byte[] bytes = new byte[readVarInt()];
+          input.readFully(bytes);
+          String string = new String(bytes, StandardCharsets.UTF_8);
+          strings.add(string);
+          return string;
+        case STRING_REFERENCE:
+          int index = readVarInt();
+          if (index >= strings.size()) {
+            throw new IOException(String.format("Invalid string reference %d.", index));
+          }
+          return strings.get(index);
+        case TRUE:
+          return true;
+        case FALSE:
+          return false;
+        case INTEGER:
+          return (int) readZigZag();
+        case LONG:
+          return readZigZag();
+        case DOUBLE:
+          return input.readDouble();
+        case LIST:
+          {
+            int size = readVarInt();
+            ImmutableList.Builder<Object> builder = ImmutableList.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+              builder.add(readValue());
+            }
+            return builder.build();
+          }
+        case SET:
+          {
+            int size = readVarInt();
+            ImmutableSet.Builder<Object> builder = ImmutableSet.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+              builder.add(readValue());
+            }
+            return builder.build();
+          }
+        case SORTED_SET:
+          {
+            int size = readVarInt();
+            List<Object> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+              elements.add(readValue(Comparable.class));
+            }
+            return ImmutableSortedSet.copyOf(NATURAL_ORDER, elements);
+          }
+        case MAP:
+          {
+            int size = readVarInt();
+            ImmutableMap.Builder<Object, Object> builder =
+                ImmutableMap.builderWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+              builder.put(readValue(), readValue());
+            }
+            return builder.build();
+          }
+        case SORTED_MAP:
+          {
+            int size = readVarInt();
+            ImmutableSortedMap.Builder<Object, Object> builder =
+                ImmutableSortedMap.orderedBy(NATURAL_ORDER);
+            for (int i = 0; i < size; i++) {
+              builder.put(readValue(Comparable.class), readValue());
+            }
+            return builder.build();
+          }
+        case OPTIONAL_EMPTY:
+          return Optional.empty();
+        case OPTIONAL_PRESENT:
+          return Optional.of(readValue());
+        case SELECTOR_VALUE:
+          {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> dictionary = readValue(ImmutableMap.class);
+            return SelectorValue.of(dictionary, readValue(String.class));
+          }
+        case LIST_WITH_SELECTS:
+          {
+            @SuppressWarnings("unchecked")
+            ImmutableList<Object> elements = readValue(ImmutableList.class);
+            String typeName = readValue(String.class);
+            try {
+              return ListWithSelects.of(
+                  elements,
+                  Class.forName(
+                      typeName, false, BuildFileManifestSerializer.class.getClassLoader()));
+            } catch (ClassNotFoundException e) {
+              throw new IOException(String.format("Unknown selector list type %s.", typeName), e);
+            }
+          }
+        default:
+          throw new IOException(String.format("Unknown value tag %d.", tag));
+      }
+    }
+  }
+}
@@ -30,6 +30,7 @@ import com.facebook.buck.parser.exceptions.MissingBuildFileException;
 import com.facebook.buck.parser.implicit.ImplicitInclude;
 import com.facebook.buck.parser.options.ImplicitNativeRulesState;
 import com.facebook.buck.parser.options.UserDefinedRulesState;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -50,6 +51,7 @@ public abstract class ParserConfig implements ConfigView<BuckConfig> {
 
   private static final long NUM_PARSING_THREADS_DEFAULT = 1L;
   private static final int TARGET_PARSER_THRESHOLD = 100000;
+  private static final long DEFAULT_PERSISTENT_MANIFEST_CACHE_MAX_SIZE_BYTES = 256L * 1024 * 1024;
 
   public enum GlobHandler {
     PYTHON,
@@ -263,6 +265,27 @@ public abstract class ParserConfig implements ConfigView<BuckConfig> {
         .orElse(Syntax.PYTHON_DSL);
   }
 
+  /**
+   * @return whether parsed build file manifests should be persisted in buck-out and reused by later
+   *     daemons, as long as the build files and everything they depend on are unchanged.
+   */
+  @Value.Lazy
+  public boolean isPersistentManifestCachingEnabled() {
+    return getDelegate().getBooleanValue("parser", "persistent_manifest_caching", false);
+  }
+
+  /**
+   * @return the size the persistent manifest cache is trimmed to, by dropping the least recently
+   *     used manifests.
+   */
+  @Value.Lazy
+  public long getPersistentManifestCacheMaxSizeBytes() {
+    return getDelegate()
+        .getValue("parser", "persistent_manifest_cache_max_size")
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_PERSISTENT_MANIFEST_CACHE_MAX_SIZE_BYTES);
+  }
+
   /**
    * @return whether native build rules are available for users in build files. If not, they are
    *     only accessible in extension files under the 'native' object
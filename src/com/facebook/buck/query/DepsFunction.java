@@ -79,6 +79,12 @@ public class DepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
     return ARGUMENT_TYPES;
   }
 
+  @Override
+  public boolean isArgumentEvaluatedInCallerEnvironment(int argumentIndex) {
+    // The deps expression is evaluated once per target, with target-specific variables bound.
+    return argumentIndex != 2;
+  }
+
   private void forEachDep(
       QueryEnvironment<T> env,
       QueryExpression<T> depsExpression,
@@ -115,6 +121,13 @@ public class DepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
         args.size() > 2 ? Optional.of(args.get(2).getExpression()) : Optional.empty();
     env.buildTransitiveClosure(argumentSet, depthBound);
 
+    if (!deps.isPresent()) {
+      Optional<IndexedQueryGraph<T>> indexedGraph = env.getIndexedGraph();
+      if (indexedGraph.isPresent() && indexedGraph.get().containsAll(argumentSet)) {
+        return indexedGraph.get().getDeps(argumentSet, depthBound);
+      }
+    }
+
     // LinkedHashSet preserves the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable snapshot of a dependency graph in which every node is assigned a dense integer id,
+ * so that traversals work on primitive arrays and bit sets rather than on sets of targets.
+ *
+ * <p>Forward and reverse edges are stored in compressed sparse row form: the successors of node
+ * {@code i} are {@code forwardEdges[forwardOffsets[i]]} to {@code
+ * forwardEdges[forwardOffsets[i + 1] - 1]}. Results are returned as {@link IndexedTargetSet}s,
+ * which only map ids back to targets when they are iterated.
+ *
+ * <p>The traversals mirror the corresponding query functions, including the order in which they
+ * discover targets. They proceed level by level. If the graph was created for parallel traversals
+ * and a traversal runs in a {@link ForkJoinPool}, the successors of large levels are scanned in
+ * parallel on that pool, with the same results.
+ */
+public final class IndexedQueryGraph<T> {
+
+  /** Traversal levels with at least this many nodes have their successors scanned in parallel. */
+  private static final int PARALLEL_FRONTIER_THRESHOLD = 4096;
+
+  private static final int PARALLEL_FRONTIER_CHUNK_SIZE = 1024;
+
+  private final Object[] nodes;
+  private final Map<T, Integer> ids;
+  private final int[] forwardOffsets;
+  private final int[] forwardEdges;
+  private final int[] reverseOffsets;
+  private final int[] reverseEdges;
+  private final boolean parallel;
+
+  private IndexedQueryGraph(
+      Object[] nodes,
+      Map<T, Integer> ids,
+      int[] forwardOffsets,
+      int[] forwardEdges,
+      int[] reverseOffsets,
+      int[] reverseEdges,
+      boolean parallel) {
+    this.nodes = nodes;
+    this.ids = ids;
+    this.forwardOffsets = forwardOffsets;
+    this.forwardEdges = forwardEdges;
+    this.reverseOffsets = reverseOffsets;
+    this.reverseEdges = reverseEdges;
+    this.parallel = parallel;
+  }
+
+  /**
+   * Provides the direct successors of a node, in the order in which they should be traversed. The
+   * result is consumed before the function is called again, so it may be reused between calls.
+   */
+  @FunctionalInterface
+  public interface SuccessorFunction<T> {
+    Iterable<T> getSuccessors(T node) throws QueryException;
+  }
+
+  /**
+   * Creates a snapshot of the graph formed by {@code nodes} and their successors, all of which must
+   * be contained in {@code nodes}.
+   */
+  public static <T> IndexedQueryGraph<T> of(
+      Collection<T> nodes, SuccessorFunction<T> successorFunction) throws QueryException {
+    return of(nodes, successorFunction, false);
+  }
+
+  /**
+   * Like {@link #of(Collection, SuccessorFunction)}, but if {@code parallel} is set, traversals
+   * which run in a {@link ForkJoinPool} scan the successors of large levels in parallel on it.
+   */
+  public static <T> IndexedQueryGraph<T> of(
+      Collection<T> nodes, SuccessorFunction<T> successorFunction, boolean parallel)
+      throws QueryException {
+    return new IndexedQueryGraph<T>(
+            new Object[0],
+            new ConcurrentHashMap<>(),
+            new int[1],
+            new int[0],
+            new int[1],
+            new int[0],
+            parallel)
+        .extend(nodes, successorFunction);
+  }
+
+  /**
+   * Creates a snapshot of this graph with {@code newNodes} added. Their successors must be part of
+   * this graph or of {@code newNodes}, and the successors of the nodes already in this graph must
+   * not change.
+   *
+   * <p>Only the new nodes are passed to {@code successorFunction}. The existing ids and edges are
+   * copied as they are, so growing the graph only costs a copy of its arrays. The new snapshot
+   * shares the id map with this one, which ignores ids beyond its own nodes, so a graph can only be
+   * extended once.
+   */
+  public IndexedQueryGraph<T> extend(
+      Collection<T> newNodes, SuccessorFunction<T> successorFunction) throws QueryException {
+    if (ids.size() != nodes.length) {
+      throw new IllegalStateException("Only the latest snapshot of a graph can be extended.");
+    }
+    int oldSize = nodes.length;
+    int size = oldSize + newNodes.size();
+    Object[] nodeArray = Arrays.copyOf(nodes, size);
+    int nextId = oldSize;
+    for (T node : newNodes) {
+      if (ids.putIfAbsent(node, nextId) != null) {
+        throw new IllegalArgumentException(String.format("%s is already part of the graph.", node));
+      }
+      nodeArray[nextId++] = node;
+    }
+
+    int[] forwardOffsets = Arrays.copyOf(this.forwardOffsets, size + 1);
+    IntList forwardEdges =
+        new IntList(
+            Arrays.copyOf(this.forwardEdges, Math.max(this.forwardEdges.length * 2, 16)),
+            this.forwardEdges.length);
+    for (int id = oldSize; id < size; id++) {
+      @SuppressWarnings("unchecked")
+      T node = (T) nodeArray[id];
+      forwardOffsets[id] = forwardEdges.size;
+      for (T successor : successorFunction.getSuccessors(node)) {
+        Integer successorId = ids.get(successor);
+        if (successorId == null || successorId >= size) {
+          throw new IllegalArgumentException(
+              String.format("%s depends on %s, which is not part of the graph.", node, successor));
+        }
+        forwardEdges.add(successorId);
+      }
+    }
+    forwardOffsets[size] = forwardEdges.size;
+
+    // New nodes may depend on existing ones, so the reverse edges are laid out again from the
+    // forward edges: count the in-degrees, turn them into offsets, then fill in node order.
+    int[] reverseOffsets = new int[size + 1];
+    for (int i = 0; i < forwardEdges.size; i++) {
+      reverseOffsets[forwardEdges.values[i] + 1]++;
+    }
+    for (int id = 0; id < size; id++) {
+      reverseOffsets[id + 1] += reverseOffsets[id];
+    }
+    int[] reverseEdges = new int[forwardEdges.size];
+    int[] reverseFill = Arrays.copyOf(reverseOffsets, size);
+    for (int id = 0; id < size; id++) {
+      for (int i = forwardOffsets[id]; i < forwardOffsets[id + 1]; i++) {
+        reverseEdges[reverseFill[forwardEdges.values[i]]++] = id;
+      }
+    }
+
+    return new IndexedQueryGraph<>(
+        nodeArray,
+        ids,
+        forwardOffsets,
+        forwardEdges.toArray(),
+        reverseOffsets,
+        reverseEdges,
+        parallel);
+  }
+
+  /** @return the number of nodes in the graph. */
+  public int size() {
+    return nodes.length;
+  }
+
+  /** @return the id of {@code node}, or -1 if it's not part of the graph. */
+  int getId(Object node) {
+    Integer id = ids.get(node);
+    return id == null || id >= nodes.length ? -1 : id;
+  }
+
+  @SuppressWarnings("unchecked")
+  T getNode(int id) {
+    return (T) nodes[id];
+  }
+
+  /** @return the ids of those {@code targets} which are part of the graph, in iteration order. */
+  private IntList getIds(Set<?> targets) {
+    if (targets instanceof IndexedTargetSet && ((IndexedTargetSet<?>) targets).getGraph() == this) {
+      return ((IndexedTargetSet<?>) targets).getIds();
+    }
+    IntList result = new IntList(targets.size());
+    for (Object target : targets) {
+      int id = getId(target);
+      if (id >= 0) {
+        result.add(id);
+      }
+    }
+    return result;
+  }
+
+  /** @return whether all {@code targets} are part of the graph. */
+  public boolean containsAll(Set<?> targets) {
+    if (targets instanceof IndexedTargetSet && ((IndexedTargetSet<?>) targets).getGraph() == this) {
+      return true;
+    }
+    for (Object target : targets) {
+      if (getId(target) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the forward transitive closure of {@code targets}, including themselves, in breadth
+   * first order. Targets which are not part of the graph are ignored.
+   */
+  public IndexedTargetSet<T> getTransitiveClosure(Set<?> targets) {
+    IntList roots = getIds(targets);
+    BitSet visited = new BitSet(size());
+    IntList order = new IntList(roots.size);
+    for (int i = 0; i < roots.size; i++) {
+      visitOnce(roots.values[i], visited, order);
+    }
+    // The list of visited nodes doubles as the work queue, consumed one level at a time.
+    for (int levelStart = 0; levelStart < order.size; ) {
+      int levelEnd = order.size;
+      expandLevel(order, levelStart, levelEnd, forwardOffsets, forwardEdges, null, visited, order);
+      levelStart = levelEnd;
+    }
+    return new IndexedTargetSet<>(this, visited, order);
+  }
+
+  /**
+   * Returns {@code targets} and their dependencies up to {@code maxDepth} levels deep, level by
+   * level, as the deps() function does. All {@code targets} must be part of the graph.
+   */
+  public IndexedTargetSet<T> getDeps(Set<?> targets, int maxDepth) {
+    IntList current = getIds(targets);
+    BitSet visited = new BitSet(size());
+    IntList order = new IntList(current.size);
+    for (int i = 0; i < current.size; i++) {
+      visitOnce(current.values[i], visited, order);
+    }
+    for (int depth = 0; depth < maxDepth; depth++) {
+      int levelStart = order.size;
+      expandLevel(
+          current, 0, current.size, forwardOffsets, forwardEdges, null, visited, order);
+      if (order.size == levelStart) {
+        break;
+      }
+      current = order.subList(levelStart);
+    }
+    return new IndexedTargetSet<>(this, visited, order);
+  }
+
+  /**
+   * Returns the reverse dependencies of {@code targets} up to {@code maxDepth} levels deep within
+   * the transitive closure of {@code universe}, level by level, as the rdeps() function does.
+   */
+  public IndexedTargetSet<T> getReverseDeps(Set<?> universe, Set<?> targets, int maxDepth) {
+    BitSet universeIds = getTransitiveClosure(universe).getBits();
+    IntList roots = getIds(targets);
+    BitSet visited = new BitSet(size());
+    IntList order = new IntList();
+    for (int i = 0; i < roots.size; i++) {
+      if (universeIds.get(roots.values[i])) {
+        visitOnce(roots.values[i], visited, order);
+      }
+    }
+    int levelStart = 0;
+    for (int depth = 0; depth < maxDepth && levelStart < order.size; depth++) {
+      int levelEnd = order.size;
+      expandLevel(
+          order, levelStart, levelEnd, reverseOffsets, reverseEdges, universeIds, visited, order);
+      levelStart = levelEnd;
+    }
+    return new IndexedTargetSet<>(this, visited, order);
+  }
+
+  /**
+   * Returns all targets on paths from {@code from} to {@code to}, as the allpaths() function does.
+   */
+  public IndexedTargetSet<T> getAllPaths(Set<?> from, Set<?> to) {
+    IndexedTargetSet<T> reachable = getTransitiveClosure(from);
+    BitSet reachableIds = reachable.getBits();
+    BitSet visited = new BitSet(size());
+    IntList order = new IntList();
+
+    // Seed the result with the intersection of both sets, iterating the smaller one.
+    if (reachable.size() > to.size()) {
+      IntList toIds = getIds(to);
+      for (int i = 0; i < toIds.size; i++) {
+        if (reachableIds.get(toIds.values[i])) {
+          visitOnce(toIds.values[i], visited, order);
+        }
+      }
+    } else {
+      IntList reachableOrder = reachable.getIds();
+      for (int i = 0; i < reachableOrder.size; i++) {
+        int id = reachableOrder.values[i];
+        if (to.contains(getNode(id))) {
+          visitOnce(id, visited, order);
+        }
+      }
+    }
+
+    for (int levelStart = 0; levelStart < order.size; ) {
+      int levelEnd = order.size;
+      expandLevel(
+          order, levelStart, levelEnd, reverseOffsets, reverseEdges, reachableIds, visited, order);
+      levelStart = levelEnd;
+    }
+    return new IndexedTargetSet<>(this, visited, order);
+  }
+
+  /**
+   * Visits the successors of {@code frontier[from, to)} along the given edges which are not yet
+   * visited and, if {@code filter} is given, are contained in it, in the order a sequential scan
+   * would discover them.
+   *
+   * <p>For parallel graphs, large frontiers are split into chunks which are scanned in parallel
+   * against the visited set as of the start of the level, on the pool the caller runs in. The
+   * candidates of each chunk are then visited in chunk order, so the result is the same as that of
+   * the sequential scan.
+   */
+  private void expandLevel(
+      IntList frontier,
+      int from,
+      int to,
+      int[] offsets,
+      int[] edges,
+      @Nullable BitSet filter,
+      BitSet visited,
+      IntList order) {
+    if (!parallel || !ForkJoinTask.inForkJoinPool() || to - from < PARALLEL_FRONTIER_THRESHOLD) {
+      for (int i = from; i < to; i++) {
+        int id = frontier.values[i];
+        for (int j = offsets[id]; j < offsets[id + 1]; j++) {
+          int successor = edges[j];
+          if (filter == null || filter.get(successor)) {
+            visitOnce(successor, visited, order);
+          }
+        }
+      }
+      return;
+    }
+
+    // `frontier` may be `order` itself, so pin down the level before anything is appended to it.
+    int[] level = Arrays.copyOfRange(frontier.values, from, to);
+    List<ForkJoinTask<IntList>> chunks = new ArrayList<>();
+    for (int start = 0; start < level.length; start += PARALLEL_FRONTIER_CHUNK_SIZE) {
+      int chunkStart = start;
+      int chunkEnd = Math.min(start + PARALLEL_FRONTIER_CHUNK_SIZE, level.length);
+      chunks.add(
+          ForkJoinTask.adapt(
+              () -> {
+                IntList candidates = new IntList();
+                scan(level, chunkStart, chunkEnd, offsets, edges, filter, visited, candidates);
+                return candidates;
+              }));
+    }
+    ForkJoinTask.invokeAll(chunks);
+    for (ForkJoinTask<IntList> chunk : chunks) {
+      IntList candidates = chunk.join();
+      for (int i = 0; i < candidates.size; i++) {
+        visitOnce(candidates.values[i], visited, order);
+      }
+    }
+  }
+
+  /**
+   * Appends the successors of {@code ids[from, to)} which pass {@code filter} and are not in {@code
+   * visited} to {@code out}, without modifying {@code visited}.
+   */
+  private static void scan(
+      int[] ids,
+      int from,
+      int to,
+      int[] offsets,
+      int[] edges,
+      @Nullable BitSet filter,
+      BitSet visited,
+      IntList out) {
+    for (int i = from; i < to; i++) {
+      int id = ids[i];
+      for (int j = offsets[id]; j < offsets[id + 1]; j++) {
+        int successor = edges[j];
+        if ((filter == null || filter.get(successor)) && !visited.get(successor)) {
+          out.add(successor);
+        }
+      }
+    }
+  }
+
+  private static void visitOnce(int id, BitSet visited, IntList order) {
+    if (!visited.get(id)) {
+      visited.set(id);
+      order.add(id);
+    }
+  }
+
+  /** A minimal growable list of ints, to avoid boxing on hot traversal paths. */
+  static final class IntList {
+    int[] values;
+    int size;
+
+    IntList() {
+      this(16);
+    }
+
+    IntList(int capacity) {
+      values = new int[Math.max(capacity, 1)];
+    }
+
+    private IntList(int[] values, int size) {
+      this.values = values;
+      this.size = size;
+    }
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    IntList subList(int from) {
+      return new IntList(Arrays.copyOfRange(values, from, size), size - from);
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
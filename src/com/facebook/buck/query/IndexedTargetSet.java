@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import com.facebook.buck.query.IndexedQueryGraph.IntList;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of nodes of an {@link IndexedQueryGraph}, backed by a bit set of their ids.
+ *
+ * <p>Iteration follows the order in which the nodes were added, like a {@link
+ * java.util.LinkedHashSet}, and is the only time nodes are looked up by their id. Membership tests
+ * and passing the set back into traversals of the same graph don't touch the nodes at all.
+ */
+public final class IndexedTargetSet<T> extends AbstractSet<T> {
+
+  private final IndexedQueryGraph<T> graph;
+  private final BitSet bits;
+  private final IntList ids;
+
+  IndexedTargetSet(IndexedQueryGraph<T> graph, BitSet bits, IntList ids) {
+    this.graph = graph;
+    this.bits = bits;
+    this.ids = ids;
+  }
+
+  IndexedQueryGraph<T> getGraph() {
+    return graph;
+  }
+
+  BitSet getBits() {
+    return bits;
+  }
+
+  IntList getIds() {
+    return ids;
+  }
+
+  @Override
+  public int size() {
+    return ids.size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return ids.size == 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    int id = graph.getId(o);
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < ids.size;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return graph.getNode(ids.values[index++]);
+      }
+    };
+  }
+}
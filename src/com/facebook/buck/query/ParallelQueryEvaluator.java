@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import com.facebook.buck.core.model.QueryTarget;
+import com.facebook.buck.query.QueryEnvironment.Argument;
+import com.facebook.buck.query.QueryEnvironment.ArgumentType;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import javax.annotation.Nullable;
+
+/**
+ * Evaluates independent subexpressions of a query concurrently on a {@link ForkJoinPool}.
+ *
+ * <p>Before an expression is evaluated, the operands of set operations and the expression arguments
+ * of functions are forked, so that e.g. both sides of {@code deps(a) ^ rdeps(b, c)} are computed
+ * at the same time. The expression itself is then evaluated as usual, and picks up the results of
+ * its subexpressions as it asks for them. Since it does so in its usual order, results and errors
+ * are the same as with sequential evaluation. Like {@link CachingQueryEvaluator}, every distinct
+ * expression is evaluated only once.
+ *
+ * <p>The environment must support concurrent calls from multiple threads.
+ */
+public class ParallelQueryEvaluator<ENV_NODE_TYPE> implements QueryEvaluator<ENV_NODE_TYPE> {
+  private final ForkJoinPool pool;
+  private final ConcurrentMap<QueryExpression<ENV_NODE_TYPE>, EvaluationTask<ENV_NODE_TYPE>> tasks =
+      new ConcurrentHashMap<>();
+
+  public ParallelQueryEvaluator(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <OUTPUT_TYPE extends QueryTarget> Set<OUTPUT_TYPE> eval(
+      QueryExpression<ENV_NODE_TYPE> exp, QueryEnvironment<ENV_NODE_TYPE> env)
+      throws QueryException {
+    EvaluationTask<ENV_NODE_TYPE> newTask = new EvaluationTask<>(this, exp, env);
+    EvaluationTask<ENV_NODE_TYPE> task = tasks.putIfAbsent(exp, newTask);
+    if (task == null) {
+      task = newTask;
+      if (ForkJoinTask.getPool() == pool) {
+        task.invoke();
+      } else {
+        pool.invoke(task);
+      }
+    } else {
+      task.join();
+    }
+    return (Set<OUTPUT_TYPE>) task.getResult();
+  }
+
+  /** Forks the evaluation of those subexpressions which are not being evaluated yet. */
+  private void forkSubexpressions(
+      QueryExpression<ENV_NODE_TYPE> exp, QueryEnvironment<ENV_NODE_TYPE> env) {
+    List<QueryExpression<ENV_NODE_TYPE>> subexpressions = getSubexpressions(exp);
+    if (subexpressions.size() < 2) {
+      // Nothing to run alongside.
+      return;
+    }
+    for (QueryExpression<ENV_NODE_TYPE> subexpression : subexpressions) {
+      EvaluationTask<ENV_NODE_TYPE> task = new EvaluationTask<>(this, subexpression, env);
+      if (tasks.putIfAbsent(subexpression, task) == null) {
+        task.fork();
+      }
+    }
+  }
+
+  /**
+   * @return the subexpressions which {@code exp} evaluates in its own environment, in the order in
+   *     which it evaluates them.
+   */
+  private static <T> List<QueryExpression<T>> getSubexpressions(QueryExpression<T> exp) {
+    if (exp instanceof BinaryOperatorExpression) {
+      return ((BinaryOperatorExpression<T>) exp).getOperands();
+    }
+    if (exp instanceof FunctionExpression) {
+      FunctionExpression<T> function = (FunctionExpression<T>) exp;
+      ImmutableList<Argument<T>> args = function.getArgs();
+      List<QueryExpression<T>> result = new ArrayList<>(args.size());
+      for (int i = 0; i < args.size(); i++) {
+        if (args.get(i).getType() == ArgumentType.EXPRESSION
+            && function.getFunction().isArgumentEvaluatedInCallerEnvironment(i)) {
+          result.add(args.get(i).getExpression());
+        }
+      }
+      return result;
+    }
+    return ImmutableList.of();
+  }
+
+  /** Evaluation of a single expression, which completes with either its result or its failure. */
+  private static class EvaluationTask<T> extends RecursiveTask<Set<?>> {
+    private final ParallelQueryEvaluator<T> evaluator;
+    private final QueryExpression<T> exp;
+    private final QueryEnvironment<T> env;
+    @Nullable private QueryException failure;
+
+    private EvaluationTask(
+        ParallelQueryEvaluator<T> evaluator, QueryExpression<T> exp, QueryEnvironment<T> env) {
+      this.evaluator = evaluator;
+      this.exp = exp;
+      this.env = env;
+    }
+
+    @Override
+    @Nullable
+    protected Set<?> compute() {
+      evaluator.forkSubexpressions(exp, env);
+      try {
+        return exp.eval(evaluator, env);
+      } catch (QueryException e) {
+        failure = e;
+        return null;
+      }
+    }
+
+    /** Returns the result of a completed evaluation, or rethrows its failure. */
+    private Set<?> getResult() throws QueryException {
+      if (failure != null) {
+        throw failure;
+      }
+      return Objects.requireNonNull(getRawResult());
+    }
+  }
+}
@@ -34,6 +34,7 @@ import com.facebook.buck.core.model.QueryTarget;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -196,6 +197,16 @@ public interface QueryEnvironment<NODE_TYPE> {
         QueryEnvironment<ENV_NODE_TYPE> env,
         ImmutableList<Argument<ENV_NODE_TYPE>> args)
         throws QueryException;
+
+    /**
+     * Whether the expression argument at the given position is evaluated with the evaluator and
+     * environment the function is called with, so that it can be computed ahead of the function
+     * itself. Arguments evaluated in a derived environment, or not at all, must return false.
+     */
+    @SuppressWarnings("unused")
+    default boolean isArgumentEvaluatedInCallerEnvironment(int argumentIndex) {
+      return true;
+    }
   }
 
   /**
@@ -259,6 +270,16 @@ public interface QueryEnvironment<NODE_TYPE> {
   void buildTransitiveClosure(Set<? extends QueryTarget> targetNodes, int maxDepth)
       throws QueryException;
 
+  /**
+   * Returns a snapshot of the graph built by {@link #buildTransitiveClosure} in which targets are
+   * identified by dense integer ids, so that traversals of large graphs don't need to build
+   * intermediate sets of targets. Environments which don't support this return {@link
+   * Optional#empty()}, and callers fall back to the other methods of this interface.
+   */
+  default Optional<IndexedQueryGraph<NODE_TYPE>> getIndexedGraph() throws QueryException {
+    return Optional.empty();
+  }
+
   String getTargetKind(NODE_TYPE target) throws QueryException;
 
   /** Returns the tests associated with the given target. */
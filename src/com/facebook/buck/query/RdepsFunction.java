@@ -38,6 +38,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import java.util.LinkedHashSet;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -82,6 +83,16 @@ public class RdepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
       throws QueryException {
     Set<T> universeSet = evaluator.eval(args.get(0).getExpression(), env);
     env.buildTransitiveClosure(universeSet, Integer.MAX_VALUE);
+    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
+
+    Optional<IndexedQueryGraph<T>> indexedGraph = env.getIndexedGraph();
+    if (indexedGraph.isPresent()) {
+      return indexedGraph
+          .get()
+          .getReverseDeps(
+              universeSet, evaluator.eval(args.get(1).getExpression(), env), depthBound);
+    }
+
     Set<T> transitiveClosureUniverse = env.getTransitiveClosure(universeSet);
 
     // LinkedHashSet preserves the order of insertion when iterating over the values.
@@ -97,7 +108,6 @@ public class RdepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
     Predicate<T> filter =
         target -> (transitiveClosureUniverse.contains(target) && visited.add(target));
 
-    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
     // Iterating depthBound+1 times because the first one processes the given argument set.
     for (int i = 0; i <= depthBound; i++) {
       Set<T> next = env.getReverseDeps(Iterables.filter(current, filter));
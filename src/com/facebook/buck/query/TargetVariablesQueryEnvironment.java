@@ -19,6 +19,7 @@ package com.facebook.buck.query;
 import com.facebook.buck.core.model.QueryTarget;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -68,6 +69,11 @@ public class TargetVariablesQueryEnvironment<NODE_TYPE> implements QueryEnvironm
     delegate.buildTransitiveClosure(targetNodes, maxDepth);
   }
 
+  @Override
+  public Optional<IndexedQueryGraph<NODE_TYPE>> getIndexedGraph() throws QueryException {
+    return delegate.getIndexedGraph();
+  }
+
   @Override
   public String getTargetKind(NODE_TYPE target) throws QueryException {
     return delegate.getTargetKind(target);
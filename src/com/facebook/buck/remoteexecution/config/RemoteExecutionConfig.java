@@ -28,6 +28,7 @@ import com.facebook.buck.io.filesystem.GlobPatternMatcher;
 import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.remoteexecution.proto.RESessionID;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.RemoteExecutionUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -90,6 +91,12 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
       "is_local_fallback_disabled_on_corrupt_artifacts";
   /** The maximum size of inputs allowed on remote execution, if unset, no maximum. */
   public static final String MAX_INPUT_SIZE_BYTES = "max_input_size_bytes";
+  /**
+   * Upper bound on the directory entries of the input merkle trees whose encoded data is kept in
+   * memory between builds.
+   */
+  public static final String MAX_RETAINED_MERKLE_TREE_ENTRIES_KEY =
+      "max_retained_merkle_tree_entries";
   /** The large blob size bytes threshold, if unset, no threshold. */
   public static final String LARGE_BLOB_SIZE_BYTES = "large_blob_size_bytes";
   /**
@@ -363,6 +370,11 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
             .map(size -> OptionalLong.of(Long.parseLong(size)))
             .orElseGet(OptionalLong::empty);
 
+    long maxRetainedMerkleTreeEntries =
+        getDelegate()
+            .getLong(SECTION, MAX_RETAINED_MERKLE_TREE_ENTRIES_KEY)
+            .orElse(MerkleTreeNodeCache.DEFAULT_MAX_RETAINED_ENTRIES);
+
     String workerRequirementsFilename =
         getDelegate()
             .getValue(SECTION, WORKER_REQUIREMENTS_FILENAME)
@@ -463,6 +475,11 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
         return largeBlobSizeBytes;
       }
 
+      @Override
+      public long getMaxRetainedMerkleTreeEntries() {
+        return maxRetainedMerkleTreeEntries;
+      }
+
       @Override
       public String getWorkerRequirementsFilename() {
         return workerRequirementsFilename;
@@ -44,6 +44,8 @@ public interface RemoteExecutionStrategyConfig {
 
   OptionalLong largeBlobSizeBytes();
 
+  long getMaxRetainedMerkleTreeEntries();
+
   String getWorkerRequirementsFilename();
 
   boolean tryLargerWorkerOnOom();
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the digests of output files materialized from remote execution results, so that an
+ * action which reproduces an output that is still on disk doesn't have to fetch it again.
+ *
+ * <p>A digest is only trusted while the file has the size, modification time and file key it had
+ * when it was recorded, so checking whether an output is up to date only needs its attributes,
+ * never its contents. Anything else is considered stale.
+ */
+public class MaterializedOutputs {
+
+  private final Cache<Path, RecordedOutput> outputs;
+
+  public MaterializedOutputs(long maxRecordedOutputs) {
+    this.outputs = CacheBuilder.newBuilder().maximumSize(maxRecordedOutputs).build();
+  }
+
+  /**
+   * Records the digests of output files which were just materialized under {@code root}. Files
+   * which don't exist (anymore) are skipped.
+   */
+  public void record(Path root, Collection<OutputFile> outputFiles) throws IOException {
+    for (OutputFile file : outputFiles) {
+      Path path = root.resolve(file.getPath());
+      BasicFileAttributes attributes = readAttributes(path);
+      if (attributes == null
+          || !attributes.isRegularFile()
+          || attributes.size() != file.getDigest().getSize()) {
+        outputs.invalidate(path);
+        continue;
+      }
+      outputs.put(
+          path,
+          new RecordedOutput(
+              file.getDigest(),
+              file.getIsExecutable(),
+              attributes.size(),
+              attributes.lastModifiedTime(),
+              attributes.fileKey()));
+    }
+  }
+
+  /**
+   * @return the paths (relative to {@code root}) of those output files which are on disk as they
+   *     were recorded, with the expected digest.
+   */
+  public ImmutableSet<Path> findUpToDateOutputs(Path root, Collection<OutputFile> outputFiles)
+      throws IOException {
+    ImmutableSet.Builder<Path> upToDate = ImmutableSet.builder();
+    for (OutputFile file : outputFiles) {
+      Path path = root.resolve(file.getPath());
+      RecordedOutput recorded = outputs.getIfPresent(path);
+      if (recorded == null
+          || !recorded.digestHash.equals(file.getDigest().getHash())
+          || recorded.isExecutable != file.getIsExecutable()) {
+        continue;
+      }
+      BasicFileAttributes attributes = readAttributes(path);
+      if (attributes != null && recorded.matches(attributes)) {
+        upToDate.add(Paths.get(file.getPath()));
+      } else {
+        outputs.invalidate(path);
+      }
+    }
+    return upToDate.build();
+  }
+
+  @Nullable
+  private static BasicFileAttributes readAttributes(Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static class RecordedOutput {
+    private final String digestHash;
+    private final boolean isExecutable;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    @Nullable private final Object fileKey;
+
+    RecordedOutput(
+        Digest digest,
+        boolean isExecutable,
+        long size,
+        FileTime lastModifiedTime,
+        @Nullable Object fileKey) {
+      this.digestHash = digest.getHash();
+      this.isExecutable = isExecutable;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+      this.fileKey = fileKey;
+    }
+
+    boolean matches(BasicFileAttributes attributes) {
+      return attributes.isRegularFile()
+          && attributes.size() == size
+          && attributes.lastModifiedTime().equals(lastModifiedTime)
+          && Objects.equals(attributes.fileKey(), fileKey);
+    }
+  }
+}
@@ -26,10 +26,14 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.TreeNode;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
+import com.google.common.collect.Sets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -37,6 +41,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -45,11 +50,32 @@ import javax.annotation.Nullable;
  * MerkleTreeNodeCache is used to create and merge merkle trees for action inputs. The nodes are
  * interned.
  *
+ * <p>Nodes only describe their contents (not their location), so identical subtrees anywhere in any
+ * action's inputs resolve to the same node. The interner is shared by all instances and nodes
+ * whose data has been computed are retained between builds (up to a configurable number of
+ * directory entries), which lets a daemon reuse the encoded data of unchanged directories instead
+ * of recomputing it for every action.
+ *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
  * (these values are cached once computed for a node).
  */
 public class MerkleTreeNodeCache {
-  private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
+  /** Default upper bound on the directory entries kept reachable by {@link #retainedNodes}. */
+  public static final long DEFAULT_MAX_RETAINED_ENTRIES = 1_000_000;
+
+  private static final Interner<MerkleTreeNode> NODE_INTERNER = Interners.newWeakInterner();
+  private static final Interner<String> NAME_INTERNER = Interners.newWeakInterner();
+
+  private static long maxRetainedEntries = DEFAULT_MAX_RETAINED_ENTRIES;
+
+  /**
+   * The interner only holds nodes weakly, so without this the encoded data computed for one command
+   * would be collected before the next one. Only nodes whose data has been computed are added, the
+   * others are cheap to rebuild.
+   */
+  private static volatile Cache<MerkleTreeNode, Boolean> retainedNodes =
+      newRetainedNodes(DEFAULT_MAX_RETAINED_ENTRIES);
+
   private final Protocol protocol;
 
   public MerkleTreeNodeCache(Protocol protocol) {
@@ -68,7 +94,7 @@ public class MerkleTreeNodeCache {
     files.forEach(processTreeNode(rootBuilder, NodeType.FILE));
     symlinks.forEach(processTreeNode(rootBuilder, NodeType.SYMLINK));
     emptyDirectories.forEach(processTreeNode(rootBuilder, NodeType.DIRECTORY));
-    return rootBuilder.build(nodeInterner);
+    return rootBuilder.build();
   }
 
   private BiConsumer<Path, TreeNode> processTreeNode(
@@ -102,15 +128,17 @@ public class MerkleTreeNodeCache {
     while (iterator.hasNext()) {
       root.merge(iterator.next());
     }
-    return root.build(nodeInterner);
+    return root.build();
   }
 
   /**
    * Iterate over all the encoded data for the tree rooted at the provided node. This is useful for
-   * collecting all the data that will be needed to reconstruct the merkle tree.
+   * collecting all the data that will be needed to reconstruct the merkle tree. Subtrees that
+   * appear in several places are only reported once.
    */
   public void forAllData(MerkleTreeNode rootNode, Consumer<NodeData> dataConsumer) {
-    rootNode.forAllNodes(n -> dataConsumer.accept(getData(n)));
+    Set<MerkleTreeNode> visited = Sets.newIdentityHashSet();
+    rootNode.forAllNodes(visited, n -> dataConsumer.accept(getData(n)));
   }
 
   /** Gets the {@link Protocol} encoded data for the provided tree. */
@@ -118,28 +146,46 @@ public class MerkleTreeNodeCache {
     return node.getData(protocol);
   }
 
+  /**
+   * Sets the upper bound on the directory entries of the nodes whose encoded data is kept between
+   * builds. Changing it drops the nodes retained so far.
+   */
+  public static synchronized void setMaxRetainedEntries(long maxEntries) {
+    Preconditions.checkArgument(
+        maxEntries >= 0, "Expected a non-negative bound. Got %s.", maxEntries);
+    if (maxEntries != maxRetainedEntries) {
+      maxRetainedEntries = maxEntries;
+      retainedNodes = newRetainedNodes(maxEntries);
+    }
+  }
+
+  private static Cache<MerkleTreeNode, Boolean> newRetainedNodes(long maxEntries) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(Math.max(16, Runtime.getRuntime().availableProcessors()))
+        .maximumWeight(maxEntries)
+        .weigher((MerkleTreeNode node, Boolean ignored) -> 1 + node.getEntryCount())
+        .build();
+  }
+
   /** Represents a node in the merkle tree of files and symlinks. */
   public static class MerkleTreeNode {
     @Nullable private volatile NodeData data;
     private final int hashCode;
-    @Nullable private final Path path;
-    private final ImmutableSortedMap<Path, MerkleTreeNode> children;
-    private final ImmutableSortedMap<Path, FileNode> files;
-    private final ImmutableSortedMap<Path, SymlinkNode> symlinks;
-    private final ImmutableSortedMap<Path, DirectoryNode> emptyDirectories;
+    private final ImmutableSortedMap<String, MerkleTreeNode> children;
+    private final ImmutableSortedMap<String, FileNode> files;
+    private final ImmutableSortedMap<String, SymlinkNode> symlinks;
+    private final ImmutableSortedMap<String, DirectoryNode> emptyDirectories;
 
     MerkleTreeNode(
-        @Nullable Path path,
-        ImmutableSortedMap<Path, MerkleTreeNode> children,
-        ImmutableSortedMap<Path, FileNode> files,
-        ImmutableSortedMap<Path, SymlinkNode> symlinks,
-        ImmutableSortedMap<Path, DirectoryNode> emptyDirectories) {
-      this.path = path;
+        ImmutableSortedMap<String, MerkleTreeNode> children,
+        ImmutableSortedMap<String, FileNode> files,
+        ImmutableSortedMap<String, SymlinkNode> symlinks,
+        ImmutableSortedMap<String, DirectoryNode> emptyDirectories) {
       this.children = children;
       this.files = files;
       this.symlinks = symlinks;
       this.emptyDirectories = emptyDirectories;
-      this.hashCode = Objects.hash(path, children, files, symlinks, emptyDirectories);
+      this.hashCode = Objects.hash(children, files, symlinks, emptyDirectories);
     }
 
     /**
@@ -147,8 +193,12 @@ public class MerkleTreeNodeCache {
      * fall path resolved against root.
      */
     public void forAllFiles(BiConsumer<Path, FileNode> nodeConsumer) {
-      files.forEach(nodeConsumer::accept);
-      children.forEach((key, value) -> value.forAllFiles(nodeConsumer));
+      forAllFiles(Paths.get(""), nodeConsumer);
+    }
+
+    private void forAllFiles(Path directory, BiConsumer<Path, FileNode> nodeConsumer) {
+      files.forEach((name, file) -> nodeConsumer.accept(directory.resolve(name), file));
+      children.forEach((name, child) -> child.forAllFiles(directory.resolve(name), nodeConsumer));
     }
 
     /** Iterate over the nodes in the tree rooted at this node. */
@@ -157,6 +207,18 @@ public class MerkleTreeNodeCache {
       children.values().forEach(child -> child.forAllNodes(nodeConsumer));
     }
 
+    private void forAllNodes(Set<MerkleTreeNode> visited, Consumer<MerkleTreeNode> nodeConsumer) {
+      if (!visited.add(this)) {
+        return;
+      }
+      nodeConsumer.accept(this);
+      children.values().forEach(child -> child.forAllNodes(visited, nodeConsumer));
+    }
+
+    private int getEntryCount() {
+      return children.size() + files.size() + symlinks.size() + emptyDirectories.size();
+    }
+
     @Override
     public int hashCode() {
       return hashCode;
@@ -174,7 +236,7 @@ public class MerkleTreeNodeCache {
 
       MerkleTreeNode other = (MerkleTreeNode) obj;
 
-      return Objects.equals(path, other.path)
+      return hashCode == other.hashCode
           && Objects.equals(children, other.children)
           && Objects.equals(files, other.files)
           && Objects.equals(symlinks, other.symlinks)
@@ -182,20 +244,20 @@ public class MerkleTreeNodeCache {
     }
 
     private NodeData getData(Protocol protocol) {
-      if (data != null) {
+      NodeData data = this.data;
+      // Nodes are shared between instances, only reuse data that was encoded the same way.
+      if (data != null && data.protocolType == protocol.getClass()) {
         return data;
       }
 
       // It's unlikely, but possible that multiple threads get here... that's okay they'll all
       // compute the same thing.
-      List<DirectoryNode> childNodes = new ArrayList<>();
+      List<DirectoryNode> childNodes = new ArrayList<>(children.size() + emptyDirectories.size());
       long totalInputsSize = 0;
-      for (Map.Entry<Path, MerkleTreeNode> entry : children.entrySet()) {
-        MerkleTreeNode child = entry.getValue();
-        NodeData childData = child.getData(protocol);
+      for (Map.Entry<String, MerkleTreeNode> entry : children.entrySet()) {
+        NodeData childData = entry.getValue().getData(protocol);
         totalInputsSize += childData.totalInputsSize;
-        childNodes.add(
-            protocol.newDirectoryNode(entry.getKey().getFileName().toString(), childData.digest));
+        childNodes.add(protocol.newDirectoryNode(entry.getKey(), childData.digest));
       }
       for (FileNode value : files.values()) {
         totalInputsSize += value.getDigest().getSize();
@@ -203,63 +265,63 @@ public class MerkleTreeNodeCache {
       childNodes.addAll(emptyDirectories.values());
       Directory directory = protocol.newDirectory(childNodes, files.values(), symlinks.values());
       NodeData nodeData =
-          new NodeData(directory, protocol.computeDigest(directory), totalInputsSize);
+          new NodeData(
+              directory, protocol.computeDigest(directory), totalInputsSize, protocol.getClass());
       this.data = nodeData;
+      retainedNodes.put(this, Boolean.TRUE);
       return nodeData;
     }
   }
 
   private static class TreeNodeBuilder {
-    @Nullable private final Path path;
-    private final Map<Path, Either<MerkleTreeNode, TreeNodeBuilder>> childrenBuilder =
+    private final Map<String, Either<MerkleTreeNode, TreeNodeBuilder>> childrenBuilder =
         new HashMap<>();
-    private final Map<Path, FileNode> filesBuilder = new HashMap<>();
-    private final Map<Path, SymlinkNode> symlinksBuilder = new HashMap<>();
-    private final Map<Path, DirectoryNode> emptyDirectoryBuilder = new HashMap<>();
+    private final Map<String, FileNode> filesBuilder = new HashMap<>();
+    private final Map<String, SymlinkNode> symlinksBuilder = new HashMap<>();
+    private final Map<String, DirectoryNode> emptyDirectoryBuilder = new HashMap<>();
 
-    public TreeNodeBuilder() {
-      this((Path) null);
-    }
-
-    public TreeNodeBuilder(Path path) {
-      this.path = path;
-      if (path != null) checkName(path.getFileName().toString());
-    }
+    public TreeNodeBuilder() {}
 
     public TreeNodeBuilder(MerkleTreeNode from) {
-      this(from.path);
       merge(from);
     }
 
     private void add(Path pathFragment, TreeNode treeNode, NodeType nodeType) {
-      Verify.verify(pathFragment.getNameCount() > 0);
-      getMutableParentDirectory(pathFragment).addImpl(pathFragment, treeNode, nodeType);
+      int segments = pathFragment.getNameCount();
+      Verify.verify(segments > 0);
+      TreeNodeBuilder parent = this;
+      for (int i = 0; i < segments - 1; i++) {
+        String name = pathFragment.getName(i).toString();
+        checkName(name);
+        parent = parent.getMutableDirectory(NAME_INTERNER.intern(name));
+      }
+      parent.addImpl(treeNode.getName(), treeNode, nodeType);
     }
 
-    private void addImpl(Path path, TreeNode treeNode, NodeType nodeType) {
-      verifyTreeNodeAndPath(treeNode, path, nodeType);
-      TreeNode previous = getBuilder(nodeType).putIfAbsent(path, treeNode);
+    private void addImpl(String name, TreeNode treeNode, NodeType nodeType) {
+      verifyTreeNodeAndName(treeNode, name, nodeType);
+      TreeNode previous = getBuilder(nodeType).putIfAbsent(name, treeNode);
       Verify.verify(previous == null || previous.equals(treeNode));
     }
 
-    private void verifyTreeNodeAndPath(TreeNode treeNode, Path path, NodeType nodeType) {
+    private void verifyTreeNodeAndName(TreeNode treeNode, String name, NodeType nodeType) {
       checkName(treeNode.getName());
-      Verify.verify(!childrenBuilder.containsKey(path));
+      Verify.verify(!childrenBuilder.containsKey(name));
 
       switch (nodeType) {
         case FILE:
-          Verify.verify(!symlinksBuilder.containsKey(path));
-          Verify.verify(!emptyDirectoryBuilder.containsKey(path));
+          Verify.verify(!symlinksBuilder.containsKey(name));
+          Verify.verify(!emptyDirectoryBuilder.containsKey(name));
           break;
 
         case SYMLINK:
-          Verify.verify(!filesBuilder.containsKey(path));
-          Verify.verify(!emptyDirectoryBuilder.containsKey(path));
+          Verify.verify(!filesBuilder.containsKey(name));
+          Verify.verify(!emptyDirectoryBuilder.containsKey(name));
           break;
 
         case DIRECTORY:
-          Verify.verify(!filesBuilder.containsKey(path));
-          Verify.verify(!symlinksBuilder.containsKey(path));
+          Verify.verify(!filesBuilder.containsKey(name));
+          Verify.verify(!symlinksBuilder.containsKey(name));
           break;
 
         default:
@@ -268,45 +330,33 @@ public class MerkleTreeNodeCache {
     }
 
     @SuppressWarnings("unchecked")
-    private <T extends TreeNode> Map<Path, T> getBuilder(NodeType nodeType) {
+    private <T extends TreeNode> Map<String, T> getBuilder(NodeType nodeType) {
       switch (nodeType) {
         case FILE:
-          return (Map<Path, T>) filesBuilder;
+          return (Map<String, T>) filesBuilder;
 
         case SYMLINK:
-          return (Map<Path, T>) symlinksBuilder;
+          return (Map<String, T>) symlinksBuilder;
 
         case DIRECTORY:
-          return (Map<Path, T>) emptyDirectoryBuilder;
+          return (Map<String, T>) emptyDirectoryBuilder;
 
         default:
           throw new IllegalStateException(nodeType + " is not supported!");
       }
     }
 
-    private TreeNodeBuilder getMutableParentDirectory(Path pathFragment) {
-      int segments = pathFragment.getNameCount();
-      if (segments == getPathSegments() + 1) {
-        return this;
-      }
-      return getMutableDirectory(pathFragment).getMutableParentDirectory(pathFragment);
-    }
-
-    private int getPathSegments() {
-      return path == null ? 0 : path.getNameCount();
-    }
-
     private void merge(MerkleTreeNode node) {
       node.files.forEach(processTreeNodes(NodeType.FILE));
       node.symlinks.forEach(processTreeNodes(NodeType.SYMLINK));
       node.emptyDirectories.forEach(processTreeNodes(NodeType.DIRECTORY));
 
       node.children.forEach(
-          (path, merkleTreeNode) -> {
-            Either<MerkleTreeNode, TreeNodeBuilder> existingChild = childrenBuilder.get(path);
+          (name, merkleTreeNode) -> {
+            Either<MerkleTreeNode, TreeNodeBuilder> existingChild = childrenBuilder.get(name);
             if (existingChild == null) {
-              verifyPathNotYetProcessed(path);
-              childrenBuilder.put(path, Either.ofLeft(merkleTreeNode));
+              verifyNameNotYetProcessed(name);
+              childrenBuilder.put(name, Either.ofLeft(merkleTreeNode));
               return;
             }
 
@@ -320,47 +370,43 @@ public class MerkleTreeNodeCache {
               return;
             }
 
-            getMutableDirectory(path).merge(merkleTreeNode);
+            getMutableDirectory(name).merge(merkleTreeNode);
           });
     }
 
-    private BiConsumer<Path, TreeNode> processTreeNodes(NodeType nodeType) {
-      return (path, treeNode) -> addImpl(path, treeNode, nodeType);
+    private BiConsumer<String, TreeNode> processTreeNodes(NodeType nodeType) {
+      return (name, treeNode) -> addImpl(name, treeNode, nodeType);
     }
 
-    private void verifyPathNotYetProcessed(Path path) {
-      Verify.verify(!symlinksBuilder.containsKey(path));
-      Verify.verify(!filesBuilder.containsKey(path));
-      Verify.verify(!emptyDirectoryBuilder.containsKey(path));
+    private void verifyNameNotYetProcessed(String name) {
+      Verify.verify(!symlinksBuilder.containsKey(name));
+      Verify.verify(!filesBuilder.containsKey(name));
+      Verify.verify(!emptyDirectoryBuilder.containsKey(name));
     }
 
     // TODO(cjhopman): Should this only make a child mutable if that child doesn't contain the item
     // we are about to add?
-    private TreeNodeBuilder getMutableDirectory(Path dir) {
-      Preconditions.checkArgument(dir.getNameCount() > getPathSegments());
-      Path subPath = dir.subpath(0, getPathSegments() + 1);
-      verifyPathNotYetProcessed(subPath);
-      return childrenBuilder
-          .compute(
-              subPath,
-              (ignored, value) ->
-                  Either.ofRight(
-                      value == null
-                          ? new TreeNodeBuilder(subPath)
-                          : value.transform(TreeNodeBuilder::new, right -> right)))
-          .getRight();
+    private TreeNodeBuilder getMutableDirectory(String name) {
+      Either<MerkleTreeNode, TreeNodeBuilder> existing = childrenBuilder.get(name);
+      if (existing != null && existing.isRight()) {
+        return existing.getRight();
+      }
+      verifyNameNotYetProcessed(name);
+      TreeNodeBuilder builder =
+          existing == null ? new TreeNodeBuilder() : new TreeNodeBuilder(existing.getLeft());
+      childrenBuilder.put(name, Either.ofRight(builder));
+      return builder;
     }
 
-    public MerkleTreeNode build(Interner<MerkleTreeNode> nodeInterner) {
-      ImmutableSortedMap.Builder<Path, MerkleTreeNode> children = ImmutableSortedMap.naturalOrder();
+    public MerkleTreeNode build() {
+      ImmutableSortedMap.Builder<String, MerkleTreeNode> children =
+          ImmutableSortedMap.naturalOrder();
       childrenBuilder.forEach(
           (key, value) ->
-              children.put(
-                  key, value.transform(left -> left, builder -> builder.build(nodeInterner))));
+              children.put(key, value.transform(left -> left, TreeNodeBuilder::build)));
 
-      return nodeInterner.intern(
+      return NODE_INTERNER.intern(
           new MerkleTreeNode(
-              path,
               children.build(),
               ImmutableSortedMap.copyOf(filesBuilder),
               ImmutableSortedMap.copyOf(symlinksBuilder),
@@ -378,11 +424,17 @@ public class MerkleTreeNodeCache {
     private final Directory directory;
     private final Digest digest;
     private final long totalInputsSize;
+    private final Class<? extends Protocol> protocolType;
 
-    NodeData(Directory directory, Digest digest, long totalInputsSize) {
+    NodeData(
+        Directory directory,
+        Digest digest,
+        long totalInputsSize,
+        Class<? extends Protocol> protocolType) {
       this.directory = directory;
       this.digest = digest;
       this.totalInputsSize = totalInputsSize;
+      this.protocolType = protocolType;
     }
 
     public Digest getDigest() {
@@ -45,6 +45,8 @@ import com.facebook.buck.remoteexecution.event.RemoteExecutionSessionEvent;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.util.MaterializedOutputs;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
@@ -58,6 +60,7 @@ import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
 import com.google.common.util.concurrent.FutureCallback;
@@ -69,6 +72,7 @@ import io.grpc.Status;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -76,6 +80,7 @@ import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /**
@@ -89,6 +94,13 @@ import javax.annotation.Nullable;
 public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private static final Logger LOG = Logger.get(RemoteExecutionStrategy.class);
 
+  /**
+   * Outputs materialized by any build of this process, which later builds can reuse without
+   * reading them. Enough for the outputs of a large build.
+   */
+  private static final MaterializedOutputs MATERIALIZED_OUTPUTS =
+      new MaterializedOutputs(1_000_000);
+
   private final BuckEventBus eventBus;
   private final RemoteExecutionClients executionClients;
   private final RemoteExecutionHelper mbrHelper;
@@ -147,6 +159,7 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       MetadataProvider metadataProvider,
       WorkerRequirementsProvider workerRequirementsProvider) {
     RemoteExecutionStrategyConfig strategyConfig = remoteExecutionConfig.getStrategyConfig();
+    MerkleTreeNodeCache.setMaxRetainedEntries(strategyConfig.getMaxRetainedMerkleTreeEntries());
     return new LocalFallbackStrategy(
         new RemoteExecutionStrategy(
             eventBus,
@@ -561,18 +574,35 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     stdout.ifPresent(x -> eventBus.post(ConsoleEvent.info(x)));
     stderr.ifPresent(x -> eventBus.post(ConsoleEvent.severe(x)));
 
+    List<Protocol.OutputFile> files = new ArrayList<>();
+    ListenableFuture<Unit> metadata = stripMetadata(result.getOutputFiles(), files, buildRule);
+
+    ImmutableSet<Path> outputs = ImmutableSet.copyOf(actionOutputs);
+    List<Protocol.OutputFile> outputFiles =
+        files.stream()
+            .filter(file -> outputs.contains(Paths.get(file.getPath())))
+            .collect(Collectors.toList());
+    ImmutableSet<Path> upToDateOutputs;
     try (Scope ignored1 =
         guardContext.enterState(State.DELETING_STALE_OUTPUTS, Optional.of(actionDigest))) {
-      for (Path path : actionOutputs) {
-        MostFiles.deleteRecursivelyIfExists(mbrHelper.getCellPathPrefix().resolve(path));
+      upToDateOutputs =
+          MATERIALIZED_OUTPUTS.findUpToDateOutputs(mbrHelper.getCellPathPrefix(), outputFiles);
+      for (Path path : outputs) {
+        if (!upToDateOutputs.contains(path)) {
+          MostFiles.deleteRecursivelyIfExists(mbrHelper.getCellPathPrefix().resolve(path));
+        }
       }
     }
+    if (!upToDateOutputs.isEmpty()) {
+      LOG.debug(
+          "[RE] Reusing %d up to date outputs of [%s].",
+          upToDateOutputs.size(), buildTarget.getFullyQualifiedName());
+      files.removeIf(file -> upToDateOutputs.contains(Paths.get(file.getPath())));
+    }
 
     Scope materializationScope =
         guardContext.enterState(State.MATERIALIZING_OUTPUTS, Optional.of(actionDigest));
 
-    List<Protocol.OutputFile> files = new ArrayList<>();
-    ListenableFuture<Unit> metadata = stripMetadata(result.getOutputFiles(), files, buildRule);
     ListenableFuture<Unit> materializationFuture =
         executionClients
             .getContentAddressedStorage()
@@ -581,10 +611,28 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                 files,
                 new FilesystemFileMaterializer(mbrHelper.getCellPathPrefix()));
     materializationFuture.addListener(materializationScope::close, MoreExecutors.directExecutor());
+    materializationFuture =
+        Futures.transform(
+            materializationFuture,
+            ignored -> {
+              recordMaterializedOutputs(buildTarget, outputFiles);
+              return ignored;
+            },
+            MoreExecutors.directExecutor());
     return Futures.whenAllSucceed(ImmutableList.of(metadata, materializationFuture))
         .call(() -> result, MoreExecutors.directExecutor());
   }
 
+  private void recordMaterializedOutputs(
+      BuildTarget buildTarget, List<Protocol.OutputFile> outputFiles) {
+    try {
+      MATERIALIZED_OUTPUTS.record(mbrHelper.getCellPathPrefix(), outputFiles);
+    } catch (IOException e) {
+      LOG.debug(
+          e, "[RE] Unable to record the outputs of [%s].", buildTarget.getFullyQualifiedName());
+    }
+  }
+
   private ListenableFuture<Unit> stripMetadata(
       List<Protocol.OutputFile> outputFiles, List<Protocol.OutputFile> files, BuildRule buildRule) {
     Digest metadataDigest = null;
@@ -59,6 +59,7 @@ public class DefaultWorkerToolRule extends WriteFile
       SourcePathRuleFinder ruleFinder,
       Tool tool,
       int maxWorkers,
+      int maxJobsPerWorker,
       boolean isPersistent) {
     super(
         buildTarget,
@@ -71,6 +72,7 @@ public class DefaultWorkerToolRule extends WriteFile
         new DefaultWorkerTool(
             new DefaultWorkerToolDelegatingTool(tool, getSourcePathToOutput()),
             maxWorkers,
+            maxJobsPerWorker,
             isPersistent,
             buildTarget,
             generateNewUUID());
@@ -141,6 +143,13 @@ public class DefaultWorkerToolRule extends WriteFile
     @CustomFieldBehavior(DefaultFieldSerialization.class)
     private final Integer maxWorkers;
 
+    /**
+     * Important : Do not add this field into RuleKey. Rule key should not change in case of max
+     * jobs per worker variable modification.
+     */
+    @CustomFieldBehavior(DefaultFieldSerialization.class)
+    private final Integer maxJobsPerWorker;
+
     /**
      * Important : Do not add this field into RuleKey. Rule key should not change in case of
      * instance key modification (that is calculated during creation as random UUID).
@@ -149,9 +158,15 @@ public class DefaultWorkerToolRule extends WriteFile
     private HashCode instanceKey;
 
     DefaultWorkerTool(
-        Tool tool, int maxWorkers, boolean isPersistent, BuildTarget buildTarget, UUID uuid) {
+        Tool tool,
+        int maxWorkers,
+        int maxJobsPerWorker,
+        boolean isPersistent,
+        BuildTarget buildTarget,
+        UUID uuid) {
       this.tool = tool;
       this.maxWorkers = maxWorkers;
+      this.maxJobsPerWorker = maxJobsPerWorker;
       this.isPersistent = isPersistent;
       this.buildTarget = buildTarget;
       this.instanceKey = calculateInstanceKey(uuid);
@@ -180,6 +195,11 @@ public class DefaultWorkerToolRule extends WriteFile
       return maxWorkers;
     }
 
+    @Override
+    public int getMaxJobsPerWorker() {
+      return maxJobsPerWorker;
+    }
+
     @Override
     public boolean isPersistent() {
       return isPersistent;
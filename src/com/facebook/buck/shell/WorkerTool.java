@@ -31,6 +31,9 @@ public interface WorkerTool extends AddsToRuleKey {
 
   int getMaxWorkers();
 
+  /** Returns how many jobs a single worker process handles concurrently. */
+  int getMaxJobsPerWorker();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A step that brings a symlink tree up to date incrementally.
+ *
+ * <p>The links written by the last successful run are recorded in a manifest. When the manifest
+ * and the tree are both present, only links that were removed or retargeted are deleted and only
+ * links that are new or retargeted are created, and directories left empty by removed links are
+ * removed; everything else is left untouched. When either is
+ * missing (or the manifest can't be read) the tree is rebuilt from scratch.
+ *
+ * <p>The manifest is removed before the tree is modified and rewritten only after all links were
+ * created, so a failed or interrupted run always results in a full rebuild the next time.
+ */
+public class SymlinkTreeSyncStep implements Step {
+
+  private static final Logger LOG = Logger.get(SymlinkTreeSyncStep.class);
+
+  private static final int MANIFEST_VERSION = 1;
+
+  private final String name;
+  private final ProjectFilesystem filesystem;
+  private final Path root;
+  private final SymlinkPaths links;
+  private final Path manifestPath;
+
+  /**
+   * @param category The type of link tree that will be used. This is used in the name
+   * @param filesystem The filesystem that the root resides on
+   * @param root The root of the link tree
+   * @param links The links to materialize under {@code root}
+   * @param manifestPath Where to record the links of the last materialization. Must be outside of
+   *     {@code root}.
+   */
+  public SymlinkTreeSyncStep(
+      String category,
+      ProjectFilesystem filesystem,
+      Path root,
+      SymlinkPaths links,
+      Path manifestPath) {
+    this.name = category + "_link_sync_dir";
+    this.filesystem = filesystem;
+    this.root = root;
+    this.links = links;
+    this.manifestPath = manifestPath;
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return getShortName() + " @ " + root;
+  }
+
+  @Override
+  public String getShortName() {
+    return name;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    Map<Path, Path> desired = new LinkedHashMap<>();
+    links.forEachSymlink(desired::put);
+
+    Path absoluteRoot = filesystem.resolve(root);
+    Path absoluteManifest = filesystem.resolve(manifestPath);
+    Optional<Map<Path, Path>> previous =
+        Files.isDirectory(absoluteRoot) ? readManifest(absoluteManifest) : Optional.empty();
+    Files.deleteIfExists(absoluteManifest);
+
+    boolean synced = false;
+    if (previous.isPresent()) {
+      try {
+        sync(absoluteRoot, previous.get(), desired);
+        synced = true;
+      } catch (IOException e) {
+        LOG.debug(e, "Incremental update of %s failed, rebuilding it.", root);
+      }
+    }
+    if (!synced) {
+      rebuild(absoluteRoot, desired);
+    }
+
+    writeManifest(absoluteManifest, desired);
+    return StepExecutionResults.SUCCESS;
+  }
+
+  private void sync(Path absoluteRoot, Map<Path, Path> previous, Map<Path, Path> desired)
+      throws IOException {
+    // Remove stale links first, so that a removed link can be replaced by a directory of the same
+    // name below.
+    Set<Path> staleDirs = new HashSet<>();
+    for (Map.Entry<Path, Path> entry : previous.entrySet()) {
+      if (!entry.getValue().equals(desired.get(entry.getKey()))) {
+        Files.deleteIfExists(absoluteRoot.resolve(entry.getKey()));
+        Path parent = entry.getKey().getParent();
+        if (parent != null) {
+          staleDirs.add(parent);
+        }
+      }
+    }
+    Set<Path> dirs = new HashSet<>();
+    for (Map.Entry<Path, Path> entry : desired.entrySet()) {
+      Path destPath = absoluteRoot.resolve(entry.getKey());
+      if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+        createSymLink(dirs, destPath, entry.getValue(), true);
+      } else if (!Files.isSymbolicLink(destPath)) {
+        // Someone removed the link behind our back; the manifest can't be trusted.
+        throw new NoSuchFileException(destPath.toString());
+      }
+    }
+    removeEmptyDirectories(absoluteRoot, staleDirs);
+  }
+
+  /** Removes the given directories, and then their parents, for as long as they are empty. */
+  private static void removeEmptyDirectories(Path absoluteRoot, Set<Path> dirs) throws IOException {
+    // Deepest first, so that a directory which only held emptied directories is removed as well.
+    List<Path> sortedDirs = new ArrayList<>(dirs);
+    sortedDirs.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+    for (Path dir : sortedDirs) {
+      for (Path current = dir; current != null; current = current.getParent()) {
+        Path absoluteDir = absoluteRoot.resolve(current);
+        if (!Files.isDirectory(absoluteDir, LinkOption.NOFOLLOW_LINKS)) {
+          // Already removed along with a deeper directory, or replaced by a link.
+          if (Files.exists(absoluteDir, LinkOption.NOFOLLOW_LINKS)) {
+            break;
+          }
+          continue;
+        }
+        try {
+          Files.delete(absoluteDir);
+        } catch (DirectoryNotEmptyException e) {
+          break;
+        }
+      }
+    }
+  }
+
+  private void rebuild(Path absoluteRoot, Map<Path, Path> desired) throws IOException {
+    MostFiles.deleteRecursivelyIfExists(absoluteRoot);
+    Files.createDirectories(absoluteRoot);
+    Set<Path> dirs = new HashSet<>();
+    for (Map.Entry<Path, Path> entry : desired.entrySet()) {
+      createSymLink(dirs, absoluteRoot.resolve(entry.getKey()), entry.getValue(), false);
+    }
+  }
+
+  private void createSymLink(Set<Path> dirs, Path destPath, Path srcPath, boolean force)
+      throws IOException {
+    Path parent = destPath.getParent();
+    if (parent != null && dirs.add(parent)) {
+      Files.createDirectories(parent);
+    }
+    filesystem.createSymLink(destPath, srcPath, force);
+  }
+
+  @VisibleForTesting
+  static Optional<Map<Path, Path>> readManifest(Path manifest) {
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(manifest))) {
+      DataInputStream in = new DataInputStream(input);
+      if (in.readInt() != MANIFEST_VERSION) {
+        return Optional.empty();
+      }
+      int size = in.readInt();
+      Map<Path, Path> links = new HashMap<>();
+      for (int i = 0; i < size; i++) {
+        links.put(Paths.get(in.readUTF()), Paths.get(in.readUTF()));
+      }
+      return Optional.of(links);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      LOG.debug(e, "Unable to read symlink tree manifest %s.", manifest);
+      return Optional.empty();
+    }
+  }
+
+  private static void writeManifest(Path manifest, Map<Path, Path> links) throws IOException {
+    Files.createDirectories(manifest.getParent());
+    Path tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+    try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+      DataOutputStream out = new DataOutputStream(output);
+      out.writeInt(MANIFEST_VERSION);
+      out.writeInt(links.size());
+      for (Map.Entry<Path, Path> entry : links.entrySet()) {
+        out.writeUTF(entry.getKey().toString());
+        out.writeUTF(entry.getValue().toString());
+      }
+      out.flush();
+    }
+    Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof SymlinkTreeSyncStep)) {
+      return false;
+    }
+    SymlinkTreeSyncStep that = (SymlinkTreeSyncStep) obj;
+    return Objects.equal(this.name, that.name)
+        && Objects.equal(this.root, that.root)
+        && Objects.equal(this.links, that.links)
+        && Objects.equal(this.manifestPath, that.manifestPath);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(root, links, manifestPath);
+  }
+}
@@ -230,6 +230,21 @@ public final class BuckGlobalState implements Closeable {
     }
   }
 
+  private void closePersistentFileHashIndexes() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof WatchedFileHashCache) {
+        try {
+          ((WatchedFileHashCache) hashCache).closePersistentIndex();
+        } catch (IOException e) {
+          LOG.warn(
+              e,
+              "Failed to close the file hash index of %s.",
+              hashCache.getFilesystem().getRootPath());
+        }
+      }
+    }
+  }
+
   /** Global event bus used to process file invalidation events. This event bus is synchronous. */
   public EventBus getFileEventBus() {
     return fileEventBus;
@@ -248,6 +263,7 @@ public final class BuckGlobalState implements Closeable {
   public void close() {
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    closePersistentFileHashIndexes();
   }
 
   private void shutdownPersistentWorkerPools() {
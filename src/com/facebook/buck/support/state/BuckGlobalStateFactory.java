@@ -48,6 +48,8 @@ import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.PersistentFileHashIndex;
+import com.facebook.buck.util.cache.impl.StackedFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.timing.Clock;
@@ -89,8 +91,18 @@ public class BuckGlobalStateFactory {
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder =
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
     for (Cell subCell : allCells) {
+      ProjectFilesystem cellFilesystem = subCell.getFilesystem();
       WatchedFileHashCache watchedCache =
-          new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
+          new WatchedFileHashCache(
+              cellFilesystem,
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.getPersistentFileHashCaching()
+                  ? Optional.of(
+                      PersistentFileHashIndex.open(
+                          cellFilesystem
+                              .resolve(cellFilesystem.getBuckPaths().getCacheDir())
+                              .resolve("file_hashes")))
+                  : Optional.empty());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
     }
@@ -114,7 +126,8 @@ public class BuckGlobalStateFactory {
     TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
     ParserConfig parserConfig = rootCell.getRootCell().getBuckConfig().getView(ParserConfig.class);
     DaemonicParserState daemonicParserState =
-        new DaemonicParserState(parserConfig.getNumParsingThreads());
+        new DaemonicParserState(
+            parserConfig.getNumParsingThreads(), new StackedFileHashCache(hashCaches));
     fileEventBus.register(daemonicParserState);
 
     // Build the the rule key cache recycler.
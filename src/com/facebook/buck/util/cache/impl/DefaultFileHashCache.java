@@ -53,6 +53,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
+  private final Optional<PersistentFileHashIndex> persistentIndex;
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
@@ -60,8 +61,17 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashIndex> persistentIndex) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentIndex = persistentIndex;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -211,6 +221,14 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (persistentIndex.isPresent()) {
+      return persistentIndex
+          .get()
+          .get(
+              projectFilesystem.resolve(path),
+              path,
+              () -> projectFilesystem.computeSha1(path).asHashCode());
+    }
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
@@ -341,6 +359,13 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
                     projectFilesystem.resolve(entry.getKey()), entry.getValue().getHashCode()));
   }
 
+  /** Flushes the persistent index, if there is one, and stops using it. */
+  public void closePersistentIndex() throws IOException {
+    if (persistentIndex.isPresent()) {
+      persistentIndex.get().close();
+    }
+  }
+
   public List<AbstractBuckEvent> getStatsEvents() {
     return fileHashCacheEngine.getStatsEvents();
   }
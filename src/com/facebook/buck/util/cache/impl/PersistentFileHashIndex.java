@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of file hashes which survives daemon restarts and watchman overflows.
+ *
+ * <p>Entries are keyed by a 64-bit hash of the path relative to the project root and record the
+ * modification time, size and file key (the inode on unix) of the file when it was hashed. An entry
+ * is only served if all three still match the file on disk, otherwise the file is rehashed.
+ *
+ * <p>The index is an open addressing hash table of fixed size slots in a memory mapped file, so
+ * that opening it is cheap regardless of its size and only the pages which are looked up are read.
+ * New hashes are written to their slot as soon as they are computed, and the OS writes the dirty
+ * pages back in the background. {@link #close()} forces them to disk. The file is never replaced,
+ * only grown in place, so it can stay mapped on every platform.
+ *
+ * <p>The process which opens the index first locks it. Any other process doesn't use it, since the
+ * table may be grown or rewritten under it at any time.
+ */
+public class PersistentFileHashIndex implements Closeable {
+  private static final Logger LOG = Logger.get(PersistentFileHashIndex.class);
+
+  private static final int MAGIC = 0x46484958;
+  private static final int VERSION = 2;
+
+  private static final int HEADER_SIZE = 16;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int COUNT_OFFSET = 12;
+
+  private static final int HASH_SIZE = 20;
+  private static final int ENTRY_SIZE = 8 + 8 + 8 + 8 + HASH_SIZE;
+  private static final long EMPTY_KEY = 0;
+
+  private static final int INITIAL_CAPACITY = 1 << 12;
+
+  /**
+   * Caps the index at roughly 100MB. When it is full, it is cleared and starts over with the files
+   * hashed from then on.
+   */
+  @VisibleForTesting static final int MAX_ENTRIES = 1 << 20;
+
+  private static final int MAX_CAPACITY = MAX_ENTRIES * 2;
+
+  /**
+   * Files modified this recently when they are hashed may be modified again without changing their
+   * modification time, so they aren't persisted.
+   */
+  private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final Path indexFile;
+  @Nullable private final FileChannel channel;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** Guarded by {@link #lock}, {@code null} once closed or if the index is unavailable. */
+  @Nullable private MappedByteBuffer table;
+
+  private PersistentFileHashIndex(
+      Path indexFile, @Nullable FileChannel channel, @Nullable MappedByteBuffer table) {
+    this.indexFile = indexFile;
+    this.channel = channel;
+    this.table = table;
+  }
+
+  /**
+   * Opens the index stored at {@code indexFile}. A missing or invalid index is replaced by an empty
+   * one. If another process has it open, the returned index is empty and records nothing.
+   */
+  public static PersistentFileHashIndex open(Path indexFile) {
+    FileChannel channel = null;
+    try {
+      Files.createDirectories(indexFile.getParent());
+      channel =
+          FileChannel.open(
+              indexFile,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      if (!tryLock(channel)) {
+        LOG.debug("File hash index %s is in use, not using it.", indexFile);
+        channel.close();
+        return new PersistentFileHashIndex(indexFile, null, null);
+      }
+      MappedByteBuffer table = map(channel);
+      if (table == null) {
+        table = reset(channel, INITIAL_CAPACITY);
+      }
+      return new PersistentFileHashIndex(indexFile, channel, table);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to open file hash index %s.", indexFile);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException closeException) {
+          e.addSuppressed(closeException);
+        }
+      }
+      return new PersistentFileHashIndex(indexFile, null, null);
+    }
+  }
+
+  private static boolean tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock() != null;
+    } catch (OverlappingFileLockException e) {
+      return false;
+    }
+  }
+
+  /** Maps the table stored in the file, or returns {@code null} if it doesn't hold a valid one. */
+  @Nullable
+  private static MappedByteBuffer map(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size < HEADER_SIZE) {
+      return null;
+    }
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    int capacity = buffer.getInt(CAPACITY_OFFSET);
+    if (buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION
+        || Integer.bitCount(capacity) != 1
+        || capacity > MAX_CAPACITY
+        || size < HEADER_SIZE + (long) capacity * ENTRY_SIZE) {
+      return null;
+    }
+    return buffer;
+  }
+
+  /** Writes an empty table of {@code capacity} slots to the start of the file and maps it. */
+  private static MappedByteBuffer reset(FileChannel channel, int capacity) throws IOException {
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * ENTRY_SIZE);
+    // Invalidate the table first, so that it isn't trusted if we crash before we are done.
+    buffer.putInt(0, 0);
+    for (int offset = HEADER_SIZE; offset < buffer.limit(); offset += 8) {
+      buffer.putLong(offset, 0);
+    }
+    buffer.putInt(4, VERSION);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(COUNT_OFFSET, 0);
+    buffer.putInt(0, MAGIC);
+    return buffer;
+  }
+
+  /**
+   * @return the hash of {@code relativePath} recorded in the index if the file is unchanged since
+   *     it was recorded, otherwise the hash returned by {@code loader}, which is then recorded.
+   */
+  public HashCode get(
+      Path absolutePath, Path relativePath, ThrowingSupplier<HashCode, IOException> loader)
+      throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+    } catch (IOException e) {
+      // Let the loader report the problem.
+      return loader.get();
+    }
+    long key = keyOf(relativePath);
+    long modifiedTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    long size = attributes.size();
+    long fileKey = Objects.hashCode(attributes.fileKey());
+
+    Entry entry = lookup(key);
+    if (entry != null && entry.matches(modifiedTime, size, fileKey)) {
+      hits.incrementAndGet();
+      return entry.hashCode;
+    }
+
+    HashCode hashCode = loader.get();
+    misses.incrementAndGet();
+    long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    if (hashCode.bits() == HASH_SIZE * 8 && modifiedTime < now - RACY_WINDOW_NANOS) {
+      record(key, new Entry(modifiedTime, size, fileKey, hashCode));
+    }
+    return hashCode;
+  }
+
+  @Nullable
+  private Entry lookup(long key) {
+    lock.readLock().lock();
+    try {
+      ByteBuffer table = this.table;
+      if (table == null) {
+        return null;
+      }
+      int offset = findSlot(table, key);
+      return table.getLong(offset) == EMPTY_KEY ? null : readEntry(table, offset);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Writes {@code entry} to the slot of {@code key}, growing the table if it is too full. */
+  private void record(long key, Entry entry) {
+    lock.writeLock().lock();
+    try {
+      MappedByteBuffer table = this.table;
+      if (table == null) {
+        return;
+      }
+      int offset = findSlot(table, key);
+      if (table.getLong(offset) == EMPTY_KEY) {
+        int count = table.getInt(COUNT_OFFSET);
+        if ((count + 1) * 2 > table.getInt(CAPACITY_OFFSET)) {
+          table = grow(table);
+          this.table = table;
+          offset = findSlot(table, key);
+          count = table.getInt(COUNT_OFFSET);
+        }
+        table.putInt(COUNT_OFFSET, count + 1);
+      }
+      writeEntry(table, offset, key, entry);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to grow file hash index %s, it won't record new hashes.", indexFile);
+      this.table = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rehashes the entries of {@code table} into one twice its size, which extends the file. A table
+   * at the maximum size is cleared instead.
+   */
+  private MappedByteBuffer grow(MappedByteBuffer table) throws IOException {
+    int capacity = table.getInt(CAPACITY_OFFSET);
+    List<Long> keys = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    if (capacity < MAX_CAPACITY) {
+      for (int slot = 0; slot < capacity; slot++) {
+        int offset = HEADER_SIZE + slot * ENTRY_SIZE;
+        long key = table.getLong(offset);
+        if (key != EMPTY_KEY) {
+          keys.add(key);
+          entries.add(readEntry(table, offset));
+        }
+      }
+    } else {
+      LOG.info("File hash index %s is full, clearing it.", indexFile);
+    }
+
+    MappedByteBuffer grown =
+        reset(Objects.requireNonNull(channel), Math.min(capacity * 2, MAX_CAPACITY));
+    // Invalidate the table again until all entries are back.
+    grown.putInt(0, 0);
+    for (int i = 0; i < keys.size(); i++) {
+      writeEntry(grown, findSlot(grown, keys.get(i)), keys.get(i), entries.get(i));
+    }
+    grown.putInt(COUNT_OFFSET, keys.size());
+    grown.putInt(0, MAGIC);
+    return grown;
+  }
+
+  /** @return the offset of the slot holding {@code key}, or of the empty slot it would go into. */
+  private static int findSlot(ByteBuffer table, long key) {
+    int mask = table.getInt(CAPACITY_OFFSET) - 1;
+    for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+      int offset = HEADER_SIZE + slot * ENTRY_SIZE;
+      long slotKey = table.getLong(offset);
+      if (slotKey == EMPTY_KEY || slotKey == key) {
+        return offset;
+      }
+    }
+  }
+
+  private static Entry readEntry(ByteBuffer table, int offset) {
+    byte[] hash = new byte[HASH_SIZE];
+    for (int i = 0; i < HASH_SIZE; i++) {
+      hash[i] = table.get(offset + 32 + i);
+    }
+    return new Entry(
+        table.getLong(offset + 8),
+        table.getLong(offset + 16),
+        table.getLong(offset + 24),
+        HashCode.fromBytes(hash));
+  }
+
+  private static void writeEntry(ByteBuffer table, int offset, long key, Entry entry) {
+    table.putLong(offset + 8, entry.modifiedTime);
+    table.putLong(offset + 16, entry.size);
+    table.putLong(offset + 24, entry.fileKey);
+    byte[] hash = entry.hashCode.asBytes();
+    for (int i = 0; i < HASH_SIZE; i++) {
+      table.put(offset + 32 + i, hash[i]);
+    }
+    table.putLong(offset, key);
+  }
+
+  /** Forces recorded hashes to disk and releases the index, which then no longer serves hashes. */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      MappedByteBuffer table = this.table;
+      if (table != null) {
+        table.force();
+        LOG.debug(
+            "Closed file hash index %s with %d entries (%d hits, %d misses).",
+            indexFile, table.getInt(COUNT_OFFSET), hits.get(), misses.get());
+      }
+      this.table = null;
+      if (channel != null) {
+        channel.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static long keyOf(Path relativePath) {
+    long key =
+        Hashing.murmur3_128().hashString(relativePath.toString(), StandardCharsets.UTF_8).asLong();
+    return key == EMPTY_KEY ? 1 : key;
+  }
+
+  @VisibleForTesting
+  long getHitCount() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  long getMissCount() {
+    return misses.get();
+  }
+
+  private static class Entry {
+    private final long modifiedTime;
+    private final long size;
+    private final long fileKey;
+    private final HashCode hashCode;
+
+    private Entry(long modifiedTime, long size, long fileKey, HashCode hashCode) {
+      this.modifiedTime = modifiedTime;
+      this.size = size;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+    }
+
+    private boolean matches(long modifiedTime, long size, long fileKey) {
+      return this.modifiedTime == modifiedTime && this.size == size && this.fileKey == fileKey;
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -31,7 +32,22 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
 
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentIndex consulted before hashing a file, so that a new daemon or one which saw a
+   *     watchman overflow doesn't need to rehash files which haven't changed.
+   */
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashIndex> persistentIndex) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        persistentIndex);
   }
 
   /**
@@ -18,30 +18,70 @@ package com.facebook.buck.util.concurrent;
 
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>The used amounts of all resource types are packed into a single {@code long}, so acquiring
+ * and releasing is a compare-and-set without locking. Acquisitions that can't be satisfied wait in
+ * a queue ordered by priority, and by arrival among acquisitions of equal priority. The queue is
+ * drained by one thread at a time: a thread that finds another one draining just asks it to make
+ * another pass, so releasing never waits for other threads.
  */
 public class ListeningMultiSemaphore {
 
-  private ResourceAmounts usedValues;
+  private static final Comparator<ListeningSemaphoreArrayPendingItem> PENDING_ORDER =
+      Comparator.comparingLong(ListeningSemaphoreArrayPendingItem::getPriority)
+          .reversed()
+          .thenComparingLong(ListeningSemaphoreArrayPendingItem::getSequence);
+
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
   private final ResourceAllocationFairness fairness;
 
+  /** Bit offset and width of each resource type's used amount in {@link #usedValues}. */
+  private final int[] shifts = new int[ResourceAmounts.RESOURCE_TYPE_COUNT];
+
+  private final long[] masks = new long[ResourceAmounts.RESOURCE_TYPE_COUNT];
+  private final long packedMaximumValues;
+
+  private final AtomicLong usedValues = new AtomicLong();
+  private final NavigableSet<ListeningSemaphoreArrayPendingItem> pending =
+      new ConcurrentSkipListSet<>(PENDING_ORDER);
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicLong pendingSequence = new AtomicLong();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+
   public ListeningMultiSemaphore(
       ResourceAmounts availableResources, ResourceAllocationFairness fairness) {
-    this.usedValues = ResourceAmounts.zero();
     this.maximumValues = availableResources;
     this.fairness = fairness;
+    int[] maximums = toArray(availableResources);
+    int shift = 0;
+    for (int i = 0; i < maximums.length; i++) {
+      Preconditions.checkArgument(maximums[i] >= 0, "Negative maximum amounts: %s", maximumValues);
+      int width = Integer.SIZE - Integer.numberOfLeadingZeros(maximums[i]);
+      shifts[i] = shift;
+      masks[i] = (1L << width) - 1;
+      shift += width;
+    }
+    Preconditions.checkArgument(
+        shift < Long.SIZE,
+        "Maximum amounts %s are too large to be tracked in %s bits",
+        maximumValues,
+        Long.SIZE - 1);
+    this.packedMaximumValues = pack(availableResources);
   }
 
   /**
@@ -54,19 +94,32 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+    return acquire(resources, 0);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if the resources have to be waited for, they are
+   * granted to waiting acquisitions with a higher {@code priority} first.
+   */
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(Unit.UNIT);
     }
 
     resources = capResourceAmounts(resources);
-    if (!checkIfResourcesAvailable(resources)) {
-      SettableFuture<Unit> pendingFuture = SettableFuture.create();
-      pending.add(ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
-      return pendingFuture;
+    if (tryIncreaseUsedResources(pack(resources))) {
+      return Futures.immediateFuture(null);
     }
-    increaseUsedResources(resources);
-    return Futures.immediateFuture(null);
+    SettableFuture<Unit> pendingFuture = SettableFuture.create();
+    pendingCount.incrementAndGet();
+    pending.add(
+        ImmutableListeningSemaphoreArrayPendingItem.of(
+            pendingFuture, resources, priority, pendingSequence.getAndIncrement()));
+    // Resources may have been released after we failed to acquire them but before we were queued,
+    // in which case no one else would look at the queue on our behalf.
+    processPendingItems();
+    return pendingFuture;
   }
 
   /**
@@ -82,37 +135,19 @@ public class ListeningMultiSemaphore {
 
     resources = capResourceAmounts(resources);
     decreaseUsedResources(resources);
-    processPendingFutures(getPendingItemsThatCanBeProcessed());
-  }
-
-  private synchronized ImmutableList<ListeningSemaphoreArrayPendingItem>
-      getPendingItemsThatCanBeProcessed() {
-    ImmutableList.Builder<ListeningSemaphoreArrayPendingItem> builder = ImmutableList.builder();
-
-    Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
-    while (!getAvailableResources().equals(ResourceAmounts.zero()) && iterator.hasNext()) {
-      ListeningSemaphoreArrayPendingItem item = iterator.next();
-      if (checkIfResourcesAvailable(item.getResources())) {
-        builder.add(item);
-        increaseUsedResources(item.getResources());
-        iterator.remove();
-      } else if (!fairnessAllowsReordering()) {
-        break;
-      }
-    }
-    return builder.build();
+    processPendingItems();
   }
 
-  public synchronized ResourceAmounts getAvailableResources() {
-    return maximumValues.subtract(usedValues);
+  public ResourceAmounts getAvailableResources() {
+    return maximumValues.subtract(unpack(usedValues.get()));
   }
 
-  public synchronized ResourceAmounts getMaximumValues() {
+  public ResourceAmounts getMaximumValues() {
     return maximumValues;
   }
 
-  public synchronized int getQueueLength() {
-    return pending.size();
+  public int getQueueLength() {
+    return pendingCount.get();
   }
 
   /**
@@ -128,42 +163,112 @@ public class ListeningMultiSemaphore {
         Math.min(amounts.getNetworkIO(), maximumValues.getNetworkIO()));
   }
 
-  private synchronized boolean checkIfResourcesAvailable(ResourceAmounts resources) {
-    Preconditions.checkState(
-        resources.allValuesLessThanOrEqual(maximumValues),
-        "Resource amounts (%s) must be capped to the maximum amounts (%s)",
-        resources,
-        maximumValues);
-    return usedValues.append(resources).allValuesLessThanOrEqual(maximumValues);
+  /**
+   * Drains the pending queue unless another thread is already doing so, in which case that thread
+   * will make one more pass over the queue before it stops.
+   */
+  private void processPendingItems() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int requests = 1;
+    do {
+      completePendingFutures(collectPendingItemsThatCanBeProcessed());
+      requests = drainRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+
+  private List<ListeningSemaphoreArrayPendingItem> collectPendingItemsThatCanBeProcessed() {
+    List<ListeningSemaphoreArrayPendingItem> items = new ArrayList<>();
+    Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
+    while (usedValues.get() != packedMaximumValues && iterator.hasNext()) {
+      ListeningSemaphoreArrayPendingItem item = iterator.next();
+      if (tryIncreaseUsedResources(pack(item.getResources()))) {
+        iterator.remove();
+        pendingCount.decrementAndGet();
+        items.add(item);
+      } else if (!fairnessAllowsReordering()) {
+        break;
+      }
+    }
+    return items;
   }
 
-  private synchronized void increaseUsedResources(ResourceAmounts resources) {
-    usedValues = usedValues.append(resources);
+  private void completePendingFutures(List<ListeningSemaphoreArrayPendingItem> items) {
+    for (ListeningSemaphoreArrayPendingItem item : items) {
+      if (!item.getFuture().set(null)) {
+        // Cancelled after it was granted: hand the resources back to whoever is next.
+        decreaseUsedResources(item.getResources());
+        drainRequests.incrementAndGet();
+      }
+    }
   }
 
-  private synchronized void decreaseUsedResources(ResourceAmounts resources) {
-    ResourceAmounts updatedAmounts = usedValues.subtract(resources);
-    Preconditions.checkArgument(
-        !updatedAmounts.containsValuesLessThan(ResourceAmounts.zero()),
-        "Cannot increase available resources by %s. Current: %s, Maximum: %s",
-        resources,
-        usedValues,
-        maximumValues);
-    usedValues = updatedAmounts;
+  private boolean tryIncreaseUsedResources(long resources) {
+    while (true) {
+      long used = usedValues.get();
+      if (!fits(used, resources)) {
+        return false;
+      }
+      // No field can carry into its neighbour, as each sum is at most the field's maximum.
+      if (usedValues.compareAndSet(used, used + resources)) {
+        return true;
+      }
+    }
   }
 
-  private void processPendingFutures(ImmutableList<ListeningSemaphoreArrayPendingItem> items) {
-    ResourceAmounts failedAmounts = ResourceAmounts.zero();
+  private void decreaseUsedResources(ResourceAmounts resources) {
+    long packed = pack(resources);
+    while (true) {
+      long used = usedValues.get();
+      for (int i = 0; i < shifts.length; i++) {
+        Preconditions.checkArgument(
+            field(used, i) >= field(packed, i),
+            "Cannot increase available resources by %s. Current: %s, Maximum: %s",
+            resources,
+            unpack(used),
+            maximumValues);
+      }
+      if (usedValues.compareAndSet(used, used - packed)) {
+        return;
+      }
+    }
+  }
 
-    for (ListeningSemaphoreArrayPendingItem item : items) {
-      if (!item.getFuture().set(null)) {
-        failedAmounts = failedAmounts.append(item.getResources());
+  private boolean fits(long used, long resources) {
+    for (int i = 0; i < shifts.length; i++) {
+      if (field(used, i) + field(resources, i) > field(packedMaximumValues, i)) {
+        return false;
       }
     }
+    return true;
+  }
 
-    if (!failedAmounts.equals(ResourceAmounts.zero())) {
-      release(failedAmounts);
+  private long field(long packed, int index) {
+    return (packed >>> shifts[index]) & masks[index];
+  }
+
+  private long pack(ResourceAmounts amounts) {
+    int[] values = toArray(amounts);
+    long packed = 0;
+    for (int i = 0; i < values.length; i++) {
+      packed |= (long) values[i] << shifts[i];
     }
+    return packed;
+  }
+
+  private ResourceAmounts unpack(long packed) {
+    return ResourceAmounts.of(
+        (int) field(packed, 0),
+        (int) field(packed, 1),
+        (int) field(packed, 2),
+        (int) field(packed, 3));
+  }
+
+  private static int[] toArray(ResourceAmounts amounts) {
+    return new int[] {
+      amounts.getCpu(), amounts.getMemory(), amounts.getDiskIO(), amounts.getNetworkIO()
+    };
   }
 
   private boolean fairnessAllowsReordering() {
@@ -25,4 +25,10 @@ interface ListeningSemaphoreArrayPendingItem {
   SettableFuture<Unit> getFuture();
 
   ResourceAmounts getResources();
+
+  /** Items with a higher priority are granted their resources first. */
+  long getPriority();
+
+  /** Order in which items were queued, which decides between items of equal priority. */
+  long getSequence();
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs tasks on a delegate {@link Executor}, but in order of priority rather than in the order they
+ * were submitted.
+ *
+ * <p>Every submitted task adds one dispatch to the delegate, and each dispatch runs whichever
+ * pending task has the highest priority at the time it starts. Tasks of equal priority run in
+ * submission order. This keeps the delegate in charge of parallelism (and of any resource
+ * accounting it does), while letting important work jump the queue.
+ */
+public class PrioritizedExecutor {
+
+  private static final Comparator<PrioritizedTask> ORDER =
+      Comparator.comparingLong((PrioritizedTask task) -> task.priority)
+          .reversed()
+          .thenComparingLong(task -> task.sequence);
+
+  private final Executor delegate;
+  private final PriorityBlockingQueue<PrioritizedTask> pendingTasks =
+      new PriorityBlockingQueue<>(11, ORDER);
+  private final AtomicLong sequence = new AtomicLong();
+
+  public PrioritizedExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @return an {@link Executor} which submits tasks with the given priority. The priority is read
+   *     when a task is submitted.
+   */
+  public Executor withPriority(LongSupplier priority) {
+    return command -> execute(priority.getAsLong(), command);
+  }
+
+  /** Submits a task. Tasks with a higher priority run first. */
+  public void execute(long priority, Runnable command) {
+    PrioritizedTask task = new PrioritizedTask(priority, sequence.getAndIncrement(), command);
+    pendingTasks.add(task);
+    try {
+      delegate.execute(this::runNext);
+    } catch (RejectedExecutionException e) {
+      pendingTasks.remove(task);
+      throw e;
+    }
+  }
+
+  /** @return the number of tasks which have been submitted but not started yet. */
+  public int getPendingTaskCount() {
+    return pendingTasks.size();
+  }
+
+  private void runNext() {
+    PrioritizedTask task = pendingTasks.poll();
+    if (task != null) {
+      task.command.run();
+    }
+  }
+
+  private static class PrioritizedTask {
+    private final long priority;
+    private final long sequence;
+    private final Runnable command;
+
+    private PrioritizedTask(long priority, long sequence, Runnable command) {
+      this.priority = priority;
+      this.sequence = sequence;
+      this.command = command;
+    }
+  }
+}
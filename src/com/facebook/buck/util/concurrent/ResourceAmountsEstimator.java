@@ -16,14 +16,19 @@
 
 package com.facebook.buck.util.concurrent;
 
+import com.sun.management.OperatingSystemMXBean;
+import java.lang.management.ManagementFactory;
+
 public class ResourceAmountsEstimator {
 
   /** CPU resource amount is considered as number of cores. Each core can perform a single job. */
   public static final int DEFAULT_CPU_CAP = Runtime.getRuntime().availableProcessors();
 
   /** Memory resource unit size has been chosen arbitrarily. We can tune the value if we need. */
+  public static final long MEMORY_UNIT_BYTES = 100L * 1024 * 1024;
+
   public static final int DEFAULT_MEMORY_CAP =
-      (int) (Runtime.getRuntime().maxMemory() / (100 * 1024 * 1024));
+      (int) (Runtime.getRuntime().maxMemory() / MEMORY_UNIT_BYTES);
 
   /**
    * Disk IO resource unit size has been chosen arbitrarily. Since most of the jobs are light, we
@@ -46,6 +51,23 @@ public class ResourceAmountsEstimator {
 
   private ResourceAmountsEstimator() {}
 
+  /**
+   * @return the physical memory of the host in memory resource units, or {@link
+   *     #DEFAULT_MEMORY_CAP} if the JVM doesn't tell.
+   */
+  public static int getHostMemoryCap() {
+    java.lang.management.OperatingSystemMXBean osBean =
+        ManagementFactory.getOperatingSystemMXBean();
+    if (!(osBean instanceof OperatingSystemMXBean)) {
+      return DEFAULT_MEMORY_CAP;
+    }
+    long bytes = ((OperatingSystemMXBean) osBean).getTotalPhysicalMemorySize();
+    if (bytes <= 0) {
+      return DEFAULT_MEMORY_CAP;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, bytes / MEMORY_UNIT_BYTES);
+  }
+
   public static ResourceAmounts getEstimatedAmounts() {
     return ResourceAmounts.of(
         DEFAULT_CPU_CAP, DEFAULT_MEMORY_CAP, DEFAULT_DISK_IO_CAP, DEFAULT_NETWORK_IO_CAP);
@@ -23,6 +23,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -38,14 +39,24 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
   private final ListeningExecutorService delegate;
+  private final LongSupplier priority;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, delegate, () -> 0);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      ListeningExecutorService delegate,
+      LongSupplier priority) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
     this.delegate = delegate;
+    this.priority = priority;
   }
 
   /**
@@ -61,14 +72,26 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate, priority);
+  }
+
+  /**
+   * Creates a new service whose tasks are given their resources before those of lower priority
+   * tasks waiting on the same semaphore. The priority is read when a task starts waiting.
+   *
+   * @param newPriority supplies the priority of submitted tasks
+   * @return Service that uses the same semaphore, delegate and default resource amounts, but with
+   *     the given priority.
+   */
+  public WeightedListeningExecutorService withPriority(LongSupplier newPriority) {
+    return new WeightedListeningExecutorService(semaphore, defaultValues, delegate, newPriority);
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       Callable<T> callable, ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority.getAsLong()),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.reflect;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Creates {@link ValueAccessor}s for fields and methods found via reflection.
+ *
+ * <p>Public methods of classes visible from this class loader get an accessor class spun by {@link
+ * LambdaMetafactory}, which calls the method directly and can be inlined by the JIT like any other
+ * call. Fields and all other methods, which {@link LambdaMetafactory} cannot target or the spun
+ * class could not access, get an accessor class spun here which holds a {@link MethodHandle} in a
+ * static final field. The JIT treats that handle as a constant and inlines it down to the field
+ * read or call, which it does not do for {@link Field#get}, {@link Method#invoke} or a handle held
+ * in an instance field. Setting {@code -Dbuck.reflective_value_accessors=true} falls back to plain
+ * reflection.
+ *
+ * <p>Accessor classes spun here are defined by a class loader of their own for each declaring
+ * class, held in a {@link ClassValue}. Since nothing else refers to that loader, the accessors of
+ * a class can be unloaded along with it.
+ *
+ * <p>Checked exceptions thrown by methods are wrapped in a {@link RuntimeException}, as are the
+ * failures of {@link Method#invoke} when falling back to reflection.
+ *
+ * <p>Values of primitive fields and methods are boxed, since {@link ValueAccessor} returns them as
+ * objects.
+ */
+public final class ValueAccessors {
+  private static final boolean USE_REFLECTION =
+      Boolean.getBoolean("buck.reflective_value_accessors");
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private static final String OBJECT = Type.getInternalName(Object.class);
+  private static final String METHOD_HANDLE_DESCRIPTOR = Type.getDescriptor(MethodHandle.class);
+  private static final String HANDLE_ACCESSOR_PREFIX =
+      ValueAccessors.class.getName() + "$$HandleAccessor";
+  private static final MethodHandle WRAP_CHECKED_EXCEPTION;
+  private static final ClassValue<HandleAccessorLoader> HANDLE_ACCESSOR_LOADERS =
+      new ClassValue<HandleAccessorLoader>() {
+        @Override
+        protected HandleAccessorLoader computeValue(Class<?> declaringClass) {
+          return new HandleAccessorLoader();
+        }
+      };
+  private static final AtomicInteger handleAccessorCount = new AtomicInteger();
+
+  static {
+    try {
+      WRAP_CHECKED_EXCEPTION =
+          LOOKUP.findStatic(
+              ValueAccessors.class,
+              "wrapCheckedException",
+              MethodType.methodType(Object.class, Exception.class, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private ValueAccessors() {}
+
+  /** @return an accessor reading {@code field}, which is made accessible if it isn't already. */
+  public static ValueAccessor forField(Field field) {
+    field.setAccessible(true);
+    if (!USE_REFLECTION) {
+      try {
+        return spinHandleAccessor(field.getDeclaringClass(), adapt(LOOKUP.unreflectGetter(field)));
+      } catch (IllegalAccessException e) {
+        // Fall back to reflection below.
+      }
+    }
+    return target -> {
+      try {
+        return field.get(target);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  /**
+   * @return an accessor calling the no-arg {@code method}, which is made accessible if it
+   *     isn't already.
+   */
+  public static ValueAccessor forMethod(Method method) {
+    Preconditions.checkArgument(method.getParameterCount() == 0, "%s takes arguments", method);
+    method.setAccessible(true);
+    if (!USE_REFLECTION) {
+      try {
+        MethodHandle handle = LOOKUP.unreflect(method);
+        if (throwsCheckedExceptions(method)) {
+          // Spun lambdas would let checked exceptions escape unwrapped.
+          return spinHandleAccessor(
+              method.getDeclaringClass(),
+              MethodHandles.catchException(adapt(handle), Exception.class, WRAP_CHECKED_EXCEPTION));
+        }
+        if (!Modifier.isStatic(method.getModifiers()) && canSpinAccessorFor(method)) {
+          ValueAccessor accessor = spinAccessor(handle);
+          if (accessor != null) {
+            return accessor;
+          }
+        }
+        return spinHandleAccessor(method.getDeclaringClass(), adapt(handle));
+      } catch (IllegalAccessException e) {
+        // Fall back to reflection below.
+      }
+    }
+    return target -> {
+      try {
+        return method.invoke(target);
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  /** Adapts a getter to {@code (Object)Object}, ignoring the target if the getter is static. */
+  private static MethodHandle adapt(MethodHandle handle) {
+    if (handle.type().parameterCount() == 0) {
+      handle = MethodHandles.dropArguments(handle, 0, Object.class);
+    }
+    return handle.asType(ACCESSOR_TYPE);
+  }
+
+  private static boolean throwsCheckedExceptions(Method method) {
+    for (Class<?> exceptionType : method.getExceptionTypes()) {
+      if (!RuntimeException.class.isAssignableFrom(exceptionType)
+          && !Error.class.isAssignableFrom(exceptionType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unused")
+  private static Object wrapCheckedException(Exception exception, Object target) {
+    Throwables.throwIfUnchecked(exception);
+    throw new RuntimeException(exception);
+  }
+
+  /**
+   * The spun class is defined alongside this one, so it must be able to both see and access the
+   * declaring class of the method by name.
+   */
+  private static boolean canSpinAccessorFor(Method method) {
+    Class<?> declaringClass = method.getDeclaringClass();
+    if (!Modifier.isPublic(method.getModifiers())
+        || !Modifier.isPublic(declaringClass.getModifiers())) {
+      return false;
+    }
+    try {
+      return Class.forName(declaringClass.getName(), false, ValueAccessors.class.getClassLoader())
+          == declaringClass;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private static ValueAccessor spinAccessor(MethodHandle handle) {
+    try {
+      CallSite site =
+          LambdaMetafactory.metafactory(
+              LOOKUP,
+              "get",
+              MethodType.methodType(ValueAccessor.class),
+              ACCESSOR_TYPE,
+              handle,
+              handle.type().wrap());
+      return (ValueAccessor) site.getTarget().invokeExact();
+    } catch (LambdaConversionException e) {
+      return null;
+    } catch (Throwable t) {
+      Throwables.throwIfUnchecked(t);
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * Spins an accessor class which invokes {@code handle}, adapted to {@code (Object)Object}, for a
+   * field or method of {@code declaringClass}.
+   */
+  private static ValueAccessor spinHandleAccessor(Class<?> declaringClass, MethodHandle handle) {
+    String name = HANDLE_ACCESSOR_PREFIX + handleAccessorCount.incrementAndGet();
+    String internalName = name.replace('.', '/');
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_8,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+        internalName,
+        null,
+        OBJECT,
+        new String[] {Type.getInternalName(ValueAccessor.class)});
+    writer
+        .visitField(
+            Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+            "HANDLE",
+            METHOD_HANDLE_DESCRIPTOR,
+            null,
+            null)
+        .visitEnd();
+
+    // static { HANDLE = (MethodHandle) ((Function) X.class.getClassLoader()).apply("X"); }
+    MethodVisitor init = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    init.visitCode();
+    init.visitLdcInsn(Type.getObjectType(internalName));
+    init.visitMethodInsn(
+        Opcodes.INVOKEVIRTUAL,
+        Type.getInternalName(Class.class),
+        "getClassLoader",
+        "()Ljava/lang/ClassLoader;",
+        false);
+    init.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(Function.class));
+    init.visitLdcInsn(name);
+    init.visitMethodInsn(
+        Opcodes.INVOKEINTERFACE,
+        Type.getInternalName(Function.class),
+        "apply",
+        "(Ljava/lang/Object;)Ljava/lang/Object;",
+        true);
+    init.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(MethodHandle.class));
+    init.visitFieldInsn(Opcodes.PUTSTATIC, internalName, "HANDLE", METHOD_HANDLE_DESCRIPTOR);
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(0, 0);
+    constructor.visitEnd();
+
+    // public Object get(Object target) { return (Object) HANDLE.invokeExact(target); }
+    MethodVisitor get =
+        writer.visitMethod(
+            Opcodes.ACC_PUBLIC, "get", ACCESSOR_TYPE.toMethodDescriptorString(), null, null);
+    get.visitCode();
+    get.visitFieldInsn(Opcodes.GETSTATIC, internalName, "HANDLE", METHOD_HANDLE_DESCRIPTOR);
+    get.visitVarInsn(Opcodes.ALOAD, 1);
+    get.visitMethodInsn(
+        Opcodes.INVOKEVIRTUAL,
+        Type.getInternalName(MethodHandle.class),
+        "invokeExact",
+        ACCESSOR_TYPE.toMethodDescriptorString(),
+        false);
+    get.visitInsn(Opcodes.ARETURN);
+    get.visitMaxs(0, 0);
+    get.visitEnd();
+    writer.visitEnd();
+
+    try {
+      return (ValueAccessor)
+          HANDLE_ACCESSOR_LOADERS
+              .get(declaringClass)
+              .define(name, writer.toByteArray(), handle)
+              .getConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not instantiate " + name, e);
+    }
+  }
+
+  /**
+   * Defines the classes spun by {@link #spinHandleAccessor} for one declaring class, and hands each
+   * one its handle when the class is initialized.
+   */
+  private static final class HandleAccessorLoader extends ClassLoader
+      implements Function<String, MethodHandle> {
+    private final ConcurrentMap<String, MethodHandle> pendingHandles = new ConcurrentHashMap<>();
+
+    private HandleAccessorLoader() {
+      super(ValueAccessors.class.getClassLoader());
+    }
+
+    private Class<?> define(String name, byte[] bytes, MethodHandle handle) {
+      pendingHandles.put(name, handle);
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public MethodHandle apply(String name) {
+      return Objects.requireNonNull(pendingHandles.remove(name));
+    }
+  }
+}
@@ -27,6 +27,7 @@ import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
@@ -42,6 +43,7 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
@@ -105,6 +107,62 @@ public class Untar extends Unarchiver {
       PatternsMatcher entriesToExclude,
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
+    try (InputStream inputStream = Files.newInputStream(archiveFile)) {
+      return extractArchive(
+          inputStream,
+          archiveFile,
+          filesystem,
+          filesystemRelativePath,
+          stripPath,
+          existingFileMode,
+          entriesToExclude,
+          writeSymlinksAfterCreatingFiles,
+          path -> {});
+    }
+  }
+
+  /**
+   * Extract an archive that is read from a stream, e.g. while it is still being downloaded, instead
+   * of from a file on disk.
+   *
+   * @param archiveStream The stream of (possibly compressed) archive bytes. It is closed once the
+   *     archive has been extracted.
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @param onWrite Called with each file path before it is written, so that callers can clean up
+   *     after an archive that fails part way through.
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      Consumer<Path> onWrite)
+      throws IOException {
+    return extractArchive(
+        archiveStream,
+        "<stream>",
+        filesystem,
+        filesystem.getPath(""),
+        Optional.empty(),
+        existingFileMode,
+        PatternsMatcher.NONE,
+        Platform.detect() == Platform.WINDOWS,
+        onWrite);
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      InputStream inputStream,
+      Object archiveDescription,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles,
+      Consumer<Path> onWrite)
+      throws IOException {
 
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
@@ -116,7 +174,7 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
+    try (TarArchiveInputStream archiveStream = getArchiveInputStream(inputStream)) {
       TarArchiveEntry entry;
       while ((entry = archiveStream.getNextTarEntry()) != null) {
         String entryName = entry.getName();
@@ -140,6 +198,7 @@ public class Untar extends Unarchiver {
           mkdirs(creator, destPath);
           dirCreationTimes.put(destPath, entry.getModTime().getTime());
         } else if (entry.isSymbolicLink()) {
+          onWrite.accept(destPath);
           if (writeSymlinksAfterCreatingFiles) {
             recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
           } else {
@@ -148,6 +207,7 @@ public class Untar extends Unarchiver {
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
         } else if (entry.isFile()) {
+          onWrite.accept(destPath);
           writeFile(creator, archiveStream, destPath);
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
@@ -157,7 +217,7 @@ public class Untar extends Unarchiver {
       writeWindowsSymlinks(creator, windowsSymlinkMap);
     } catch (CompressorException e) {
       throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+          String.format("Could not get decompressor for archive at %s", archiveDescription), e);
     }
 
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
@@ -170,9 +230,9 @@ public class Untar extends Unarchiver {
     return filePaths;
   }
 
-  private TarArchiveInputStream getArchiveInputStream(Path tarFile)
-      throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
+  private TarArchiveInputStream getArchiveInputStream(InputStream rawStream)
+      throws CompressorException {
+    BufferedInputStream inputStream = new BufferedInputStream(rawStream);
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
@@ -76,6 +76,14 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
 
     @Override
     public void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+      if (shouldHashEntries
+          && !entry.isDirectory()
+          && entry instanceof CustomZipEntry
+          && ((CustomZipEntry) entry).isPrecompressed()) {
+        throw new IllegalStateException(
+            "Attempted to write a precompressed entry with hashing enabled: " + entry.getName());
+      }
+
       inner.actuallyPutNextEntry(entry);
 
       if (shouldHashEntries && !entry.isDirectory() && hasher == null) {
@@ -29,6 +29,7 @@ public class CustomZipEntry extends ZipEntry {
 
   private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
   private long externalAttributes = 0;
+  private boolean precompressed = false;
 
   public CustomZipEntry(ZipEntry other) {
     super(other);
@@ -79,6 +80,19 @@ public class CustomZipEntry extends ZipEntry {
     return compressionLevel;
   }
 
+  /**
+   * Marks the data written for this entry as already deflated, as when copying an entry verbatim
+   * from another zip file. The crc, size and compressed size of the entry must already be set to
+   * the values describing that data.
+   */
+  public void setPrecompressed(boolean precompressed) {
+    this.precompressed = precompressed;
+  }
+
+  public boolean isPrecompressed() {
+    return precompressed;
+  }
+
   public long getExternalAttributes() {
     return externalAttributes;
   }
@@ -52,6 +52,8 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  /** Whether the bytes written for a deflated entry are already compressed. */
+  private final boolean precompressed;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long length = 0;
@@ -68,20 +70,33 @@ class EntryAccounting {
    */
   private int flags = UTF8_NAMES_FLAG;
 
-  @Nullable private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
-  @Nullable private byte[] buffer = new byte[ARBITRARY_SIZE];
+  @Nullable private Deflater deflater;
+  @Nullable private byte[] buffer;
+  private boolean finished = false;
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
     this.entry = entry;
     this.method = Method.detect(entry.getMethod());
     this.offset = currentOffset;
+    this.precompressed =
+        method == Method.DEFLATE
+            && entry instanceof CustomZipEntry
+            && ((CustomZipEntry) entry).isPrecompressed();
 
     if (entry.getTime() == -1) {
       entry.setTime(clock.currentTimeMillis());
     }
 
+    // Precompressed data is copied as is, so don't pay for setting up a deflater.
+    if (!precompressed) {
+      deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      buffer = new byte[ARBITRARY_SIZE];
+    }
+
     if (entry instanceof CustomZipEntry) {
-      deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+      if (deflater != null) {
+        deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+      }
       externalAttributes = ((CustomZipEntry) entry).getExternalAttributes();
     }
   }
@@ -269,6 +284,11 @@ class EntryAccounting {
     if (len == 0) {
       return;
     }
+    if (precompressed) {
+      out.write(b, off, len);
+      length += len;
+      return;
+    }
     updateCrc(b, off, len);
 
     if (method == Method.STORE) {
@@ -289,8 +309,13 @@ class EntryAccounting {
    * local file header, but counting the data descriptor if present). Must be called exactly once.
    */
   public long finish(OutputStream out) throws IOException {
-    Preconditions.checkState(deflater != null);
-    if (method == Method.STORE) {
+    Preconditions.checkState(!finished, "Entry has already been finished.");
+    finished = true;
+    if (precompressed) {
+      Preconditions.checkState(
+          entry.getCompressedSize() == length,
+          "Number of compressed bytes written differs from what is specified in the entry.");
+    } else if (method == Method.STORE) {
       Preconditions.checkState(
           entry.getSize() == length && entry.getCompressedSize() == length,
           "Number of bytes written differs from what is specified in the entry.");
@@ -298,6 +323,7 @@ class EntryAccounting {
           entry.getCrc() == calculateCrc(),
           "CRC of bytes written differs from what is specified in the entry.");
     } else if (method == Method.DEFLATE) {
+      Preconditions.checkState(deflater != null);
       deflater.finish();
       while (!deflater.finished()) {
         deflate(out);
@@ -311,8 +337,10 @@ class EntryAccounting {
     long dataDescriptorLength = writeDataDescriptor(out);
 
     // regardless of the method used, end the deflater to free native resources.
-    deflater.end();
-    deflater = null;
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
     buffer = null;
 
     return entry.getCompressedSize() + dataDescriptorLength;
@@ -17,19 +17,26 @@
 package com.facebook.buck.util.zip;
 
 import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.util.stream.RichStream;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.Futures;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -37,14 +44,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
 import javax.annotation.Nullable;
 
 public class JarBuilder {
+  /**
+   * How many entries may be queued per compression thread before waiting for the oldest to be
+   * written. Bounds the memory used for holding compressed entries.
+   */
+  private static final int MAX_PENDING_ENTRIES_PER_THREAD = 16;
+
   public interface Observer {
     Observer IGNORING =
         new Observer() {
@@ -67,10 +89,14 @@ public class JarBuilder {
   private boolean shouldMergeManifests;
   private boolean shouldDisallowAllDuplicates;
   private boolean shouldHashEntries;
+  private boolean shouldCopyCompressedEntries;
+  private int compressionThreads = 1;
   private Predicate<? super CustomZipEntry> removeEntryPredicate = entry -> false;
   private List<JarEntryContainer> sourceContainers = new ArrayList<>();
   private Set<String> alreadyAddedEntries = new HashSet<>();
   private Map<String, Set<String>> services = new HashMap<>();
+  @Nullable private ExecutorService compressionExecutor;
+  private final Deque<Future<PendingEntry>> pendingEntries = new ArrayDeque<>();
 
   public JarBuilder setObserver(Observer observer) {
     this.observer = observer;
@@ -126,6 +152,28 @@ public class JarBuilder {
     return this;
   }
 
+  /**
+   * Copies entries that are already deflated in source jars as they are, instead of inflating and
+   * deflating them again. Copied entries keep the compression of their source jar. Ignored when
+   * hashing entries, which requires their uncompressed contents.
+   */
+  public JarBuilder setShouldCopyCompressedEntries(boolean shouldCopyCompressedEntries) {
+    this.shouldCopyCompressedEntries = shouldCopyCompressedEntries;
+    return this;
+  }
+
+  /**
+   * Deflates entries on up to {@code compressionThreads} threads. Entries are still written in
+   * sorted order and compressed the same way, so the jar does not depend on the number of threads.
+   * Entry input streams must be safe to open and read from any thread when using more than one.
+   * Ignored when hashing entries.
+   */
+  public JarBuilder setCompressionThreads(int compressionThreads) {
+    Preconditions.checkArgument(compressionThreads > 0);
+    this.compressionThreads = compressionThreads;
+    return this;
+  }
+
   public JarBuilder setRemoveEntryPredicate(
       Predicate<? super CustomZipEntry> removeEntryPredicate) {
     this.removeEntryPredicate = removeEntryPredicate;
@@ -145,8 +193,12 @@ public class JarBuilder {
 
       // Sort entries across all suppliers
       List<JarEntrySupplier> sortedEntries = new ArrayList<>();
+      boolean copyCompressedEntries = shouldCopyCompressedEntries && !shouldHashEntries;
       for (JarEntryContainer sourceContainer : sourceContainers) {
-        sourceContainer.stream().forEach(sortedEntries::add);
+        (copyCompressedEntries
+                ? sourceContainer.streamAllowingPrecompressed()
+                : sourceContainer.stream())
+            .forEach(sortedEntries::add);
       }
       sortedEntries.sort(Comparator.comparing(supplier -> supplier.getEntry().getName()));
 
@@ -228,8 +280,27 @@ public class JarBuilder {
 
   private void addEntriesToJar(Iterable<JarEntrySupplier> entries, CustomJarOutputStream jar)
       throws IOException {
-    for (JarEntrySupplier entrySupplier : entries) {
-      addEntryToJar(entrySupplier, jar);
+    if (compressionThreads == 1 || shouldHashEntries) {
+      for (JarEntrySupplier entrySupplier : entries) {
+        addEntryToJar(entrySupplier, jar);
+      }
+      return;
+    }
+
+    ExecutorService executor =
+        MostExecutors.newMultiThreadExecutor("jar-compression", compressionThreads);
+    compressionExecutor = executor;
+    try {
+      for (JarEntrySupplier entrySupplier : entries) {
+        addEntryToJar(entrySupplier, jar);
+      }
+      while (!pendingEntries.isEmpty()) {
+        writeNextPendingEntry(jar);
+      }
+    } finally {
+      compressionExecutor = null;
+      pendingEntries.clear();
+      executor.shutdownNow();
     }
   }
 
@@ -265,8 +336,7 @@ public class JarBuilder {
 
     // Collect all services together for later merging and addition to the output jar
     if (isService(entryName)) {
-      try (InputStream entryInputStream =
-          Objects.requireNonNull(entrySupplier.getInputStreamSupplier().get())) {
+      try (InputStream entryInputStream = openUncompressed(entrySupplier)) {
         Set<String> existingServices =
             services.computeIfAbsent(entryName, (m) -> new LinkedHashSet<>());
         existingServices.add(
@@ -275,16 +345,93 @@ public class JarBuilder {
       return;
     }
 
+    putEntry(jar, entry, entrySupplier.getInputStreamSupplier());
+  }
+
+  private static InputStream openUncompressed(JarEntrySupplier entrySupplier) throws IOException {
+    InputStream entryInputStream =
+        Objects.requireNonNull(entrySupplier.getInputStreamSupplier().get());
+    if (entrySupplier.getEntry().isPrecompressed()) {
+      return new InflaterInputStream(entryInputStream, new Inflater(true));
+    }
+    return entryInputStream;
+  }
+
+  /**
+   * Writes an entry to the jar, or queues it when compressing on several threads. Queued entries
+   * are written in the order they were added, deflated ones once their compression finished.
+   */
+  private void putEntry(
+      CustomJarOutputStream jar,
+      CustomZipEntry entry,
+      @Nullable ThrowingSupplier<InputStream, IOException> data)
+      throws IOException {
+    ExecutorService executor = compressionExecutor;
+    if (executor == null) {
+      writeEntry(jar, entry, data);
+      return;
+    }
+
+    if (data != null && entry.getMethod() == ZipEntry.DEFLATED && !entry.isPrecompressed()) {
+      pendingEntries.add(executor.submit(() -> compress(entry, data)));
+    } else {
+      pendingEntries.add(Futures.immediateFuture(new PendingEntry(entry, data)));
+    }
+    while (pendingEntries.size() > compressionThreads * MAX_PENDING_ENTRIES_PER_THREAD) {
+      writeNextPendingEntry(jar);
+    }
+  }
+
+  private void writeNextPendingEntry(CustomJarOutputStream jar) throws IOException {
+    PendingEntry pendingEntry = Futures.getChecked(pendingEntries.removeFirst(), IOException.class);
+    writeEntry(jar, pendingEntry.entry, pendingEntry.data);
+  }
+
+  private static void writeEntry(
+      CustomJarOutputStream jar,
+      CustomZipEntry entry,
+      @Nullable ThrowingSupplier<InputStream, IOException> data)
+      throws IOException {
     jar.putNextEntry(entry);
-    try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
-      if (entryInputStream != null) {
-        // Null stream means a directory
-        ByteStreams.copy(entryInputStream, jar);
+    if (data != null) {
+      try (InputStream entryInputStream = data.get()) {
+        if (entryInputStream != null) {
+          // Null stream means a directory
+          ByteStreams.copy(entryInputStream, jar);
+        }
       }
     }
     jar.closeEntry();
   }
 
+  /**
+   * Deflates the data of an entry the same way {@link CustomZipOutputStream} would, and returns the
+   * entry as a precompressed one.
+   */
+  private static PendingEntry compress(
+      CustomZipEntry entry, ThrowingSupplier<InputStream, IOException> data) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    CRC32 crc = new CRC32();
+    long size = 0;
+    Deflater deflater = new Deflater(entry.getCompressionLevel(), true);
+    try (InputStream entryInputStream = data.get()) {
+      DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+      if (entryInputStream != null) {
+        size = ByteStreams.copy(new CheckedInputStream(entryInputStream, crc), out);
+      }
+      out.finish();
+    } finally {
+      deflater.end();
+    }
+
+    entry.setCrc(crc.getValue());
+    entry.setSize(size);
+    entry.setCompressedSize(compressed.size());
+    entry.setPrecompressed(true);
+    byte[] compressedBytes = compressed.toByteArray();
+    return new PendingEntry(entry, () -> new ByteArrayInputStream(compressedBytes));
+  }
+
   private boolean isService(String entryName) {
     return entryName.startsWith("META-INF/services/") && !entryName.endsWith("/");
   }
@@ -302,8 +449,7 @@ public class JarBuilder {
     String parent = getParentDir(name);
     mkdirs(parent, jar);
 
-    jar.putNextEntry(new CustomZipEntry(name));
-    jar.closeEntry();
+    putEntry(jar, new CustomZipEntry(name), null);
     alreadyAddedEntries.add(name);
   }
 
@@ -348,6 +494,18 @@ public class JarBuilder {
         || (!shouldDisallowAllDuplicates && !name.endsWith(".class") && !name.endsWith("/"));
   }
 
+  /** An entry waiting to be written, with the data to write for it. */
+  private static class PendingEntry {
+    private final CustomZipEntry entry;
+    @Nullable private final ThrowingSupplier<InputStream, IOException> data;
+
+    private PendingEntry(
+        CustomZipEntry entry, @Nullable ThrowingSupplier<InputStream, IOException> data) {
+      this.entry = entry;
+      this.data = data;
+    }
+  }
+
   private static class SingletonJarEntryContainer implements JarEntryContainer {
     private final JarEntrySupplier supplier;
 
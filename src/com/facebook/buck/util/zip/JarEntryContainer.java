@@ -47,6 +47,15 @@ public interface JarEntryContainer extends AutoCloseable {
 
   Stream<JarEntrySupplier> stream() throws IOException;
 
+  /**
+   * Like {@link #stream()}, but entries that are already deflated in this container may be supplied
+   * as {@link CustomZipEntry#isPrecompressed() precompressed} entries, whose input streams return
+   * the compressed data. This allows copying them without inflating and deflating them again.
+   */
+  default Stream<JarEntrySupplier> streamAllowingPrecompressed() throws IOException {
+    return stream();
+  }
+
   @Override
   void close() throws IOException;
 }
@@ -18,18 +18,24 @@ package com.facebook.buck.util.zip;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 
 /** Provides all entries of a given zip or jar file, so they can be added to another jar. */
 class ZipFileJarEntryContainer implements JarEntryContainer {
   private final String owner;
   private final Path jarFilePath;
   @Nullable private JarFile jar;
+  @Nullable private ZipFile rawZip;
 
   public ZipFileJarEntryContainer(Path jarFilePath) {
     this.jarFilePath = jarFilePath;
@@ -51,12 +57,79 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
                     makeCustomEntry(entry), owner, () -> getJarFile().getInputStream(entry)));
   }
 
+  @Override
+  public Stream<JarEntrySupplier> streamAllowingPrecompressed() throws IOException {
+    ZipFile zipFile = getRawZipFile();
+    return getJarFile().stream()
+        .map(
+            entry -> {
+              ZipArchiveEntry archiveEntry = getCopyableEntry(zipFile, entry);
+              if (archiveEntry == null) {
+                return new JarEntrySupplier(
+                    makeCustomEntry(entry), owner, () -> getJarFile().getInputStream(entry));
+              }
+              CustomZipEntry wrappedEntry = new CustomZipEntry(entry);
+              wrappedEntry.setPrecompressed(true);
+              return new JarEntrySupplier(
+                  wrappedEntry, owner, () -> getRawInputStream(zipFile, archiveEntry));
+            });
+  }
+
   @Override
   public void close() throws IOException {
     if (jar != null) {
       jar.close();
       jar = null;
     }
+    if (rawZip != null) {
+      rawZip.close();
+      rawZip = null;
+    }
+  }
+
+  private ZipFile getRawZipFile() throws IOException {
+    if (rawZip == null) {
+      try {
+        rawZip = new ZipFile(jarFilePath.toFile());
+      } catch (IOException e) {
+        throw new IOException("Failed to process ZipFile " + owner, e);
+      }
+    }
+
+    return rawZip;
+  }
+
+  /**
+   * Returns the entry to read the compressed data of {@code entry} from, or null if the data has to
+   * be inflated and deflated again. Only unencrypted deflated entries whose name is unique within
+   * the zip file, and whose crc and sizes agree between both readers, are copied as is.
+   */
+  @Nullable
+  private static ZipArchiveEntry getCopyableEntry(ZipFile zipFile, ZipEntry entry) {
+    if (entry.getMethod() != ZipEntry.DEFLATED) {
+      return null;
+    }
+
+    Iterator<ZipArchiveEntry> candidates = zipFile.getEntries(entry.getName()).iterator();
+    if (!candidates.hasNext()) {
+      return null;
+    }
+    ZipArchiveEntry archiveEntry = candidates.next();
+    if (candidates.hasNext()
+        || archiveEntry.getMethod() != ZipEntry.DEFLATED
+        || archiveEntry.getGeneralPurposeBit().usesEncryption()
+        || archiveEntry.getCrc() != entry.getCrc()
+        || archiveEntry.getSize() != entry.getSize()
+        || archiveEntry.getCompressedSize() != entry.getCompressedSize()) {
+      return null;
+    }
+    return archiveEntry;
+  }
+
+  private InputStream getRawInputStream(ZipFile zipFile, ZipArchiveEntry archiveEntry) {
+    return Objects.requireNonNull(
+        zipFile.getRawInputStream(archiveEntry),
+        () -> "Failed to read " + archiveEntry.getName() + " from " + owner);
   }
 
   private JarFile getJarFile() throws IOException {
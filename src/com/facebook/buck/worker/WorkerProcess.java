@@ -27,11 +27,15 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class WorkerProcess implements Closeable {
@@ -43,11 +47,25 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int maxJobs;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
+  private final Object sendLock = new Object();
+
+  /** Guards the fields below. Responses are read from the process without holding it. */
+  private final Object receiveLock = new Object();
+
+  /** Exit codes of jobs that were received while another job was reading from the process. */
+  private final Map<Integer, Integer> receivedExitCodes = new HashMap<>();
+
+  /** Whether a job is currently reading the next response from the process. */
+  private boolean receiving = false;
+
+  @Nullable private volatile Exception receiveFailure;
+
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
    * processes may be combined into pools so they can perform different jobs concurrently. It
@@ -67,6 +85,22 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path stdErr,
       Path tmpPath) {
+    this(executor, processParams, filesystem, stdErr, tmpPath, 1);
+  }
+
+  /**
+   * Creates a worker process that runs up to {@code maxJobs} jobs concurrently. If {@code maxJobs}
+   * is greater than one, the process has to speak {@link WorkerProcessProtocolOne}.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path stdErr,
+      Path tmpPath,
+      int maxJobs) {
+    Preconditions.checkArgument(maxJobs > 0, "A worker process must accept at least one job.");
+    this.maxJobs = maxJobs;
     this.executor = executor;
     this.stdErr = stdErr;
     this.processParams =
@@ -76,7 +110,7 @@ public class WorkerProcess implements Closeable {
   }
 
   public boolean isAlive() {
-    return launchedProcess != null && launchedProcess.isAlive();
+    return receiveFailure == null && launchedProcess != null && launchedProcess.isAlive();
   }
 
   public synchronized void ensureLaunchAndHandshake() throws IOException {
@@ -87,24 +121,46 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
-    protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getStdin(),
-            launchedProcess.getStdout(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            },
-            () -> launchedProcess != null && launchedProcess.isAlive());
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    Supplier<Boolean> isAlive = () -> launchedProcess != null && launchedProcess.isAlive();
+    WorkerProcessProtocol.CommandSender sender =
+        maxJobs > 1
+            ? new WorkerProcessProtocolOne.CommandSender(
+                launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive)
+            : new WorkerProcessProtocolZero.CommandSender(
+                launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive);
+    protocol = sender;
 
     LOG.debug("Handshaking with process %d", this.hashCode());
-    protocol.handshake(currentMessageID.getAndIncrement());
+    sender.handshake(currentMessageID.getAndIncrement());
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /** Returns how many jobs this process may run at the same time. */
+  public int getMaxJobs() {
+    return maxJobs;
+  }
+
+  /**
+   * Submits a job and blocks until the worker responds to it. Processes running more than one job
+   * at a time accept submissions from several threads concurrently.
+   */
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    if (maxJobs > 1) {
+      return runJob(jobArgs);
+    }
+    synchronized (this) {
+      return runJob(jobArgs);
+    }
+  }
+
+  private WorkerJobResult runJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -120,9 +176,14 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    synchronized (sendLock) {
+      protocol.send(messageID, ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
+    }
     LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    int exitCode =
+        maxJobs > 1
+            ? receiveMultiplexedResponse(protocol, messageID)
+            : protocol.receiveCommandResponse(messageID);
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -135,6 +196,85 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * Waits for the response to {@code messageID}. One waiting thread at a time reads the next
+   * response from the process and hands it to the thread it belongs to, so no dedicated reader
+   * thread is needed. The read happens outside of the lock, so other threads can pick up their
+   * responses while it waits for the next one.
+   */
+  private int receiveMultiplexedResponse(
+      WorkerProcessProtocol.CommandSender protocol, int messageID) throws IOException {
+    while (true) {
+      synchronized (receiveLock) {
+        while (true) {
+          Integer exitCode = receivedExitCodes.remove(messageID);
+          if (exitCode != null) {
+            return exitCode;
+          }
+          if (receiveFailure != null) {
+            throw new IOException(
+                String.format("Worker process failed before responding to job %d.", messageID),
+                receiveFailure);
+          }
+          if (!receiving) {
+            receiving = true;
+            break;
+          }
+          try {
+            receiveLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                String.format("Interrupted while waiting for the response to job %d.", messageID));
+          }
+        }
+      }
+
+      WorkerProcessCommandResponse response = null;
+      Exception failure = null;
+      try {
+        response = protocol.receiveNextCommandResponse();
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      }
+      synchronized (receiveLock) {
+        receiving = false;
+        if (response != null) {
+          int responseID = response.getMessageId();
+          if (responseID >= currentMessageID.get()
+              || receivedExitCodes.put(responseID, response.getExitCode()) != null) {
+            failure =
+                new IOException(
+                    String.format("Received unexpected response with id %d.", responseID));
+          }
+        }
+        if (failure != null) {
+          receiveFailure = failure;
+        }
+        receiveLock.notifyAll();
+      }
+      if (failure != null) {
+        closeAfterReceiveFailure();
+      }
+    }
+  }
+
+  /**
+   * The stream of responses can't be trusted after a failed read, so the process is stopped. Jobs
+   * still waiting on it fail, and the pool replaces it as it is no longer alive.
+   */
+  private void closeAfterReceiveFailure() {
+    ProcessExecutor.LaunchedProcess launchedProcess = this.launchedProcess;
+    if (launchedProcess != null) {
+      executor.destroyLaunchedProcess(launchedProcess);
+    }
+    try {
+      close();
+    } catch (HumanReadableException e) {
+      LOG.debug(e, "Error closing worker process %d after a failed receive.", this.hashCode());
+    }
+  }
+
   @Override
   public synchronized void close() {
     LOG.debug("Closing process %d", this.hashCode());
@@ -44,6 +44,12 @@ public interface WorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs a single tool process runs concurrently. Tools accepting more than one
+   * job are spoken to with {@link WorkerProcessProtocolOne}.
+   */
+  int getMaxJobsPerWorker();
+
   /**
    * Identifies the instance of the persisted worker process pool. Defines when worker process pool
    * should be invalidated.
@@ -58,8 +64,14 @@ public interface WorkerProcessParams {
       ImmutableList<String> startupCommand,
       ImmutableMap<String, String> startupEnvironment,
       int maxWorkers,
+      int maxJobsPerWorker,
       Optional<WorkerProcessIdentity> workerProcessIdentity) {
     return ImmutableWorkerProcessParams.of(
-        tempDir, startupCommand, startupEnvironment, maxWorkers, workerProcessIdentity);
+        tempDir,
+        startupCommand,
+        startupEnvironment,
+        maxWorkers,
+        maxJobsPerWorker,
+        workerProcessIdentity);
   }
 }
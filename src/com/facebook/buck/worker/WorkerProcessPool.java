@@ -17,10 +17,10 @@
 package com.facebook.buck.worker;
 
 import com.facebook.buck.core.util.log.Logger;
-import com.facebook.buck.util.concurrent.LinkedBlockingStack;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import java.io.Closeable;
 import java.io.IOException;
@@ -29,7 +29,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -46,22 +47,43 @@ public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
   private final int capacity;
-  private final BlockingQueue<WorkerLifecycle> availableWorkers;
+  private final int maxJobsPerWorker;
+
+  /**
+   * Workers with at least one free job slot. Workers that become available again are put at the
+   * front, so that recently used processes are preferred over starting new ones. Workers that still
+   * have free slots after being borrowed are put at the back, so that concurrent jobs are spread
+   * across processes.
+   */
+  private final BlockingDeque<WorkerLifecycle> availableWorkers;
+
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
 
+  /** Guards {@link WorkerLifecycle#activeJobs} of all workers. */
+  private final Object jobsLock = new Object();
+
+  public WorkerProcessPool(
+      int maxWorkers,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(maxWorkers, 1, poolHash, startWorkerProcess);
+  }
+
   public WorkerProcessPool(
       int maxWorkers,
+      int maxJobsPerWorker,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(maxJobsPerWorker > 0, "Workers must accept at least one job.");
     capacity = maxWorkers;
-    availableWorkers = new LinkedBlockingStack<>();
+    this.maxJobsPerWorker = maxJobsPerWorker;
+    availableWorkers = new LinkedBlockingDeque<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
 
     Arrays.setAll(
-        workerLifecycles,
-        ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
+        workerLifecycles, ignored -> new WorkerLifecycle(startWorkerProcess, this::release));
     Collections.addAll(availableWorkers, workerLifecycles);
   }
 
@@ -69,18 +91,52 @@ public class WorkerProcessPool implements Closeable {
    * If there are available workers, returns one. Otherwise blocks until one becomes available and
    * returns it. Borrowed worker processes must be relased by calling {@link
    * BorrowedWorkerProcess#close()} after using them.
+   *
+   * <p>If workers accept more than one job at a time, the same worker can be borrowed several times
+   * concurrently.
    */
   public BorrowedWorkerProcess borrowWorkerProcess() throws InterruptedException {
-    return new BorrowedWorkerProcess(availableWorkers.take());
+    return new BorrowedWorkerProcess(acquire(availableWorkers.takeFirst()));
   }
 
   @VisibleForTesting
   Optional<BorrowedWorkerProcess> borrowWorkerProcess(int timeout, TimeUnit unit)
       throws InterruptedException {
-    return Optional.ofNullable(availableWorkers.poll(timeout, unit))
+    return Optional.ofNullable(availableWorkers.pollFirst(timeout, unit))
+        .map(this::acquire)
         .map(BorrowedWorkerProcess::new);
   }
 
+  private WorkerLifecycle acquire(WorkerLifecycle lifecycle) {
+    synchronized (jobsLock) {
+      lifecycle.activeJobs++;
+      if (lifecycle.activeJobs < maxJobsPerWorker) {
+        availableWorkers.addLast(lifecycle);
+      }
+    }
+    if (maxJobsPerWorker > 1) {
+      LOG.verbose("Borrowed worker of pool %s, queue depths: %s", poolHash, getQueueDepths());
+    }
+    return lifecycle;
+  }
+
+  private void release(WorkerLifecycle lifecycle) {
+    synchronized (jobsLock) {
+      if (lifecycle.activeJobs-- == maxJobsPerWorker) {
+        availableWorkers.addFirst(lifecycle);
+      }
+    }
+  }
+
+  /** Returns the number of jobs currently submitted to each worker of this pool. */
+  public ImmutableList<Integer> getQueueDepths() {
+    synchronized (jobsLock) {
+      return Arrays.stream(workerLifecycles)
+          .map(lifecycle -> lifecycle.activeJobs)
+          .collect(ImmutableList.toImmutableList());
+    }
+  }
+
   @Override
   public synchronized void close() {
     Throwable caughtWhileClosing = null;
@@ -107,6 +163,10 @@ public class WorkerProcessPool implements Closeable {
     return capacity;
   }
 
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
   HashCode getPoolHash() {
     return poolHash;
   }
@@ -115,7 +175,7 @@ public class WorkerProcessPool implements Closeable {
    * Represents the lifecycle of one specific worker in a {@link WorkerProcessPool}.
    *
    * <p>Concurrency is controlled by the pool, which supports acquiring and releasing workers with
-   * {@link WorkerProcessPool#availableWorkers}.
+   * {@link WorkerProcessPool#availableWorkers} and counts the jobs running on each worker.
    *
    * <p>{@link #get()} and {@link #close()} are synchronized to allow closing as part of closing the
    * pool with a consumer trying to acquire a worker in parallel.
@@ -129,6 +189,9 @@ public class WorkerProcessPool implements Closeable {
     private boolean isClosed = false;
     @Nullable private WorkerProcess workerProcess;
 
+    /** Guarded by {@link WorkerProcessPool#jobsLock}. */
+    private int activeJobs = 0;
+
     private WorkerLifecycle(
         ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess,
         Consumer<WorkerLifecycle> onWorkerProcessReturn) {
@@ -94,6 +94,14 @@ public class WorkerProcessPoolFactory {
                   + "Consolidate these workers to avoid this warning.",
               key, poolCapacity, paramsToUse.getMaxWorkers()));
     }
+    if (pool.getMaxJobsPerWorker() != paramsToUse.getMaxJobsPerWorker()) {
+      context.postEvent(
+          ConsoleEvent.warning(
+              "There are two 'worker_tool' targets declared with the same command (%s), but "
+                  + "different 'max_jobs_per_worker' settings (%d and %d). Only the first is "
+                  + "applied. Consolidate these workers to avoid this warning.",
+              key, pool.getMaxJobsPerWorker(), paramsToUse.getMaxJobsPerWorker()));
+    }
 
     return pool;
   }
@@ -117,11 +125,14 @@ public class WorkerProcessPoolFactory {
     WorkerProcessPool newPool =
         new WorkerProcessPool(
             paramsToUse.getMaxWorkers(),
+            paramsToUse.getMaxJobsPerWorker(),
             workerHash,
             () -> {
               Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
               filesystem.mkdirs(tmpDir);
-              WorkerProcess process = createWorkerProcess(processParams, context, tmpDir);
+              WorkerProcess process =
+                  createWorkerProcess(
+                      processParams, context, tmpDir, paramsToUse.getMaxJobsPerWorker());
               process.ensureLaunchAndHandshake();
               return process;
             });
@@ -160,10 +171,10 @@ public class WorkerProcessPoolFactory {
 
   @VisibleForTesting
   public WorkerProcess createWorkerProcess(
-      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir, int maxJobs)
       throws IOException {
     Path stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     return new WorkerProcess(
-        context.getProcessExecutor(), processParams, filesystem, stdErr, tmpDir);
+        context.getProcessExecutor(), processParams, filesystem, stdErr, tmpDir, maxJobs);
   }
 }
@@ -28,6 +28,12 @@ public interface WorkerProcessProtocol {
 
     int receiveCommandResponse(int messageID) throws IOException;
 
+    /**
+     * Receives the next command response, whichever command it belongs to. Used with protocols
+     * that allow several commands to be in flight at once.
+     */
+    WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException;
+
     /** Instructs the CommandReceiver to shut itself down. */
     @Override
     void close() throws IOException;
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Version 1 of the worker protocol. Messages are the same as in {@link WorkerProcessProtocolZero},
+ * but Buck may send further commands before earlier ones have been answered, and the worker may
+ * respond to them in any order. Responses are matched to commands by their "id".
+ */
+public class WorkerProcessProtocolOne {
+
+  private static final String PROTOCOL_VERSION = "1";
+
+  public static class CommandSender extends WorkerProcessProtocolZero.CommandSender {
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive) {
+      super(processStdin, processStdout, stdErr, onClose, isAlive, PROTOCOL_VERSION);
+    }
+  }
+}
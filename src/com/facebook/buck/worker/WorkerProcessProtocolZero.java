@@ -43,6 +43,7 @@ public class WorkerProcessProtocolZero {
     private final Runnable onClose;
     private boolean isClosed = false;
     private final Supplier<Boolean> isAlive;
+    private final String protocolVersion;
 
     public CommandSender(
         OutputStream processStdin,
@@ -50,6 +51,17 @@ public class WorkerProcessProtocolZero {
         Path stdErr,
         Runnable onClose,
         Supplier<Boolean> isAlive) {
+      this(processStdin, processStdout, stdErr, onClose, isAlive, PROTOCOL_VERSION);
+    }
+
+    protected CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive,
+        String protocolVersion) {
+      this.protocolVersion = protocolVersion;
       this.processStdinWriter =
           new JsonWriter(new BufferedWriter(new OutputStreamWriter(processStdin)));
       this.processStdoutReader =
@@ -71,8 +83,8 @@ public class WorkerProcessProtocolZero {
 
     @Override
     public void handshake(int messageId) throws IOException {
-      sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+      sendHandshake(processStdinWriter, messageId, protocolVersion);
+      receiveHandshake(processStdoutReader, messageId, stdErr, protocolVersion);
     }
 
     /*
@@ -130,6 +142,18 @@ public class WorkerProcessProtocolZero {
     */
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
+      WorkerProcessCommandResponse response = receiveNextCommandResponse();
+      if (response.getMessageId() != messageID) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
+                messageID, response.getMessageId()));
+      }
+      return response.getExitCode();
+    }
+
+    @Override
+    public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
       int id = -1;
       int exitCode = -1;
       String type = "";
@@ -157,12 +181,6 @@ public class WorkerProcessProtocolZero {
             getStdErrorOutput(stdErr));
       }
 
-      if (id != messageID) {
-        throw new HumanReadableException(
-            String.format(
-                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
-                messageID, id));
-      }
       if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
         throw new HumanReadableException(
             String.format(
@@ -170,7 +188,7 @@ public class WorkerProcessProtocolZero {
                     + "to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
                 TYPE_RESULT, TYPE_ERROR, type));
       }
-      return exitCode;
+      return ImmutableWorkerProcessCommandResponse.of(id, exitCode);
     }
 
     @Override
@@ -211,16 +229,17 @@ public class WorkerProcessProtocolZero {
        {
          id: 0,
          type: 'handshake',
-         protocol_version: '0',
+         protocol_version: <protocolVersion>,
          capabilities: []
        }
   */
-  private static void sendHandshake(JsonWriter writer, int messageId) throws IOException {
+  private static void sendHandshake(JsonWriter writer, int messageId, String protocolVersion)
+      throws IOException {
     writer.beginArray();
     writer.beginObject();
     writer.name("id").value(messageId);
     writer.name("type").value(TYPE_HANDSHAKE);
-    writer.name("protocol_version").value(PROTOCOL_VERSION);
+    writer.name("protocol_version").value(protocolVersion);
     writer.name("capabilities").beginArray().endArray();
     writer.endObject();
     writer.flush();
@@ -232,11 +251,12 @@ public class WorkerProcessProtocolZero {
        {
          id: 0,
          type: 'handshake',
-         protocol_version: '0',
+         protocol_version: <expectedProtocolVersion>,
          capabilities: []
        }
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Path stdErr)
+  private static void receiveHandshake(
+      JsonReader reader, int messageId, Path stdErr, String expectedProtocolVersion)
       throws IOException {
     int id = -1;
     String type = "";
@@ -286,12 +306,12 @@ public class WorkerProcessProtocolZero {
               "Expected handshake response's \"type\" " + "to be \"%s\", got \"%s\" instead.",
               TYPE_HANDSHAKE, type));
     }
-    if (!protocolVersion.equals(PROTOCOL_VERSION)) {
+    if (!protocolVersion.equals(expectedProtocolVersion)) {
       throw new HumanReadableException(
           String.format(
               "Expected handshake response's "
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
-              PROTOCOL_VERSION, protocolVersion));
+              expectedProtocolVersion, protocolVersion));
     }
   }
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.dalvik;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DalvikStatsCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void statsAreSharedBetweenCachesForIdenticalClasses() throws IOException {
+    byte[] contents = readClass(DalvikStatsCacheTest.class);
+
+    DalvikStatsTool.Stats first =
+        new DalvikStatsCache().getStats(new InMemoryFileLike("a.jar", contents));
+    DalvikStatsTool.Stats second =
+        new DalvikStatsCache().getStats(new InMemoryFileLike("b.jar", contents));
+
+    assertTrue(first.estimatedLinearAllocSize > 0);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void classesOfUnchangedContainersAreNotReadAgain() throws IOException {
+    Path jar = tmp.newFile("a.jar");
+    Files.write(jar, new byte[] {1, 2, 3});
+    InMemoryFileLike entry = new InMemoryFileLike(jar.toString(), readClass(String.class));
+    DalvikStatsTool.Stats first = new DalvikStatsCache().getStats(entry);
+
+    InMemoryFileLike sameEntry =
+        new InMemoryFileLike(jar.toString(), readClass(String.class)) {
+          @Override
+          public InputStream getInput() {
+            throw new AssertionError("Entry of an unchanged container was read.");
+          }
+        };
+    assertSame(first, new DalvikStatsCache().getStats(sameEntry));
+  }
+
+  @Test
+  public void nonClassFilesHaveNoStats() {
+    assertSame(
+        DalvikStatsTool.Stats.ZERO,
+        new DalvikStatsCache().getStats(new InMemoryFileLike("a.jar", new byte[0], "a.txt")));
+  }
+
+  private static byte[] readClass(Class<?> clazz) throws IOException {
+    try (InputStream input = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+      return ByteStreams.toByteArray(input);
+    }
+  }
+
+  private static class InMemoryFileLike extends AbstractFileLike {
+    private final Path container;
+    private final byte[] contents;
+    private final String relativePath;
+
+    InMemoryFileLike(String container, byte[] contents) {
+      this(container, contents, "com/example/Foo.class");
+    }
+
+    InMemoryFileLike(String container, byte[] contents, String relativePath) {
+      this.container = Paths.get(container);
+      this.contents = contents;
+      this.relativePath = relativePath;
+    }
+
+    @Override
+    public Path getContainer() {
+      return container;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
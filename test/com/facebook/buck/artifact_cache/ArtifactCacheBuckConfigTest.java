@@ -24,6 +24,7 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig.Executor;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.artifact_cache.config.DirCacheEntry;
+import com.facebook.buck.artifact_cache.config.DirCacheLinkMode;
 import com.facebook.buck.artifact_cache.config.HttpCacheEntry;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
@@ -188,6 +189,33 @@ public class ArtifactCacheBuckConfigTest {
         dirCacheConfig.getCacheDir(), Matchers.equalTo(Paths.get("cache_dir").toAbsolutePath()));
     assertThat(dirCacheConfig.getCacheReadMode(), Matchers.is(CacheReadMode.READONLY));
     assertThat(dirCacheConfig.getMaxSizeBytes(), Matchers.equalTo(Optional.of(1022L)));
+    assertThat(dirCacheConfig.getLinkMode(), Matchers.is(DirCacheLinkMode.COPY));
+  }
+
+  @Test
+  public void testDirCacheLinkMode() throws IOException {
+    ArtifactCacheBuckConfig config =
+        createFromText("[cache]", "dir = cache_dir", "dir_link_mode = hardlink");
+    DirCacheEntry dirCacheConfig = config.getCacheEntries().getDirCacheEntries().asList().get(0);
+
+    assertThat(dirCacheConfig.getLinkMode(), Matchers.is(DirCacheLinkMode.HARDLINK));
+  }
+
+  @Test
+  public void testLocalFetchSettings() throws IOException {
+    ArtifactCacheBuckConfig config = createFromText("[cache]", "dir = cache_dir");
+    assertThat(config.getLocalFetchThreads(), Matchers.is(0));
+
+    config = createFromText("[cache]", "local_fetch_threads = 4", "local_multi_fetch_limit = 16");
+    assertThat(config.getLocalFetchThreads(), Matchers.is(4));
+    assertThat(config.getLocalMultiFetchLimit(), Matchers.is(16));
+  }
+
+  @Test
+  public void testNegativeLocalFetchThreadsIsRejected() throws IOException {
+    ArtifactCacheBuckConfig config = createFromText("[cache]", "local_fetch_threads = -1");
+    expectedException.expect(HumanReadableException.class);
+    config.getLocalFetchThreads();
   }
 
   @Test
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BatchingLocalCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY_A = new RuleKey("aaaaaaaaaaaaaaaa");
+  private static final RuleKey RULE_KEY_B = new RuleKey("bbbbbbbbbbbbbbbb");
+  private static final RuleKey RULE_KEY_C = new RuleKey("cccccccccccccccc");
+
+  private ProjectFilesystem filesystem;
+  private RecordingDirArtifactCache delegate;
+  private ExplicitRunExecutorService fetchExecutor;
+  private BatchingLocalCacheDecorator cache;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    delegate = new RecordingDirArtifactCache(filesystem);
+    fetchExecutor = new ExplicitRunExecutorService();
+    cache = new BatchingLocalCacheDecorator(delegate, fetchExecutor, 2);
+
+    store(RULE_KEY_A, "a");
+    store(RULE_KEY_B, "b");
+  }
+
+  @Test
+  public void fetchesAreBatchedOnTheFetchExecutor() throws Exception {
+    ListenableFuture<CacheResult> a = cache.fetchAsync(null, RULE_KEY_A, output("a"));
+    ListenableFuture<CacheResult> b = cache.fetchAsync(null, RULE_KEY_B, output("b"));
+    ListenableFuture<CacheResult> c = cache.fetchAsync(null, RULE_KEY_C, output("c"));
+    assertFalse(a.isDone());
+    assertThat(delegate.batches, Matchers.empty());
+
+    fetchExecutor.run();
+    assertEquals(CacheResultType.HIT, a.get().getType());
+    assertEquals(CacheResultType.HIT, b.get().getType());
+    assertEquals(CacheResultType.MISS, c.get().getType());
+    assertEquals("a", filesystem.readFileIfItExists(output("a").get()).get());
+    assertEquals(
+        ImmutableList.of(ImmutableList.of(RULE_KEY_A, RULE_KEY_B), ImmutableList.of(RULE_KEY_C)),
+        delegate.batches);
+  }
+
+  @Test
+  public void fetchesForAQueuedRuleKeyAreCoalesced() throws Exception {
+    ListenableFuture<CacheResult> first = cache.fetchAsync(null, RULE_KEY_A, output("first"));
+    ListenableFuture<CacheResult> second = cache.fetchAsync(null, RULE_KEY_A, output("second"));
+
+    fetchExecutor.run();
+    assertEquals(CacheResultType.HIT, first.get().getType());
+    assertEquals(CacheResultType.HIT, second.get().getType());
+    assertEquals("a", filesystem.readFileIfItExists(output("first").get()).get());
+    assertEquals("a", filesystem.readFileIfItExists(output("second").get()).get());
+    assertEquals(ImmutableList.of(ImmutableList.of(RULE_KEY_A)), delegate.batches);
+  }
+
+  @Test
+  public void fetchesAfterTheRuleKeyWasClaimedAreNotCoalesced() throws Exception {
+    ListenableFuture<CacheResult> first = cache.fetchAsync(null, RULE_KEY_A, output("first"));
+    fetchExecutor.runOnce();
+    ListenableFuture<CacheResult> second = cache.fetchAsync(null, RULE_KEY_A, output("second"));
+    fetchExecutor.run();
+
+    assertEquals(CacheResultType.HIT, first.get().getType());
+    assertEquals(CacheResultType.HIT, second.get().getType());
+    assertEquals(
+        ImmutableList.of(ImmutableList.of(RULE_KEY_A), ImmutableList.of(RULE_KEY_A)),
+        delegate.batches);
+  }
+
+  @Test
+  public void streamingFetchesLeaveTheArtifactForTheCaller() throws Exception {
+    ListenableFuture<CacheResult> future =
+        cache.fetchAsync(
+            null,
+            RULE_KEY_A,
+            output("a"),
+            (metadata, artifact) -> {
+              throw new AssertionError("Local fetches must not be consumed on the fetch threads");
+            });
+
+    fetchExecutor.run();
+    assertEquals(CacheResultType.HIT, future.get().getType());
+    assertEquals("a", filesystem.readFileIfItExists(output("a").get()).get());
+  }
+
+  @Test
+  public void skippedFetchesDoNotReachTheDelegate() throws Exception {
+    ListenableFuture<CacheResult> pending = cache.fetchAsync(null, RULE_KEY_A, output("a"));
+    cache.skipPendingAndFutureAsyncFetches();
+    ListenableFuture<CacheResult> future = cache.fetchAsync(null, RULE_KEY_B, output("b"));
+
+    fetchExecutor.run();
+    assertEquals(CacheResultType.SKIPPED, pending.get().getType());
+    assertEquals(CacheResultType.SKIPPED, future.get().getType());
+    assertThat(delegate.batches, Matchers.empty());
+  }
+
+  @Test
+  public void errorsFailTheWholeBatchBeforeEscaping() {
+    ListenableFuture<CacheResult> a = cache.fetchAsync(null, RULE_KEY_A, output("a"));
+    ListenableFuture<CacheResult> b = cache.fetchAsync(null, RULE_KEY_B, output("b"));
+    delegate.error = new StackOverflowError();
+
+    try {
+      fetchExecutor.runOnce();
+      fail("Errors should not be swallowed.");
+    } catch (StackOverflowError e) {
+      assertSame(delegate.error, e);
+    }
+    for (ListenableFuture<CacheResult> future : ImmutableList.of(a, b)) {
+      assertTrue(future.isDone());
+      try {
+        future.get();
+        fail("The fetch should have failed.");
+      } catch (Exception e) {
+        assertThat(e, Matchers.instanceOf(ExecutionException.class));
+        assertSame(delegate.error, e.getCause());
+      }
+    }
+  }
+
+  private LazyPath output(String name) {
+    return LazyPath.ofInstance(tmp.getRoot().resolve("out-" + name));
+  }
+
+  private void store(RuleKey ruleKey, String contents) throws IOException {
+    Path artifact = Paths.get("artifact");
+    filesystem.writeContentsToPath(contents, artifact);
+    Futures.getUnchecked(
+        delegate.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(ImmutableMap.of()).build(),
+            BorrowablePath.notBorrowablePath(artifact)));
+  }
+
+  private static class RecordingDirArtifactCache extends DirArtifactCache {
+    private final List<ImmutableList<RuleKey>> batches = new ArrayList<>();
+    @Nullable private Error error;
+
+    private RecordingDirArtifactCache(ProjectFilesystem filesystem) throws IOException {
+      super(
+          "dir",
+          filesystem,
+          Paths.get("cache"),
+          CacheReadMode.READWRITE,
+          Optional.empty(),
+          MoreExecutors.newDirectExecutorService());
+    }
+
+    @Override
+    public ImmutableList<CacheResult> multiFetch(
+        ImmutableList<Pair<RuleKey, LazyPath>> requests) {
+      batches.add(
+          requests.stream().map(Pair::getFirst).collect(ImmutableList.toImmutableList()));
+      if (error != null) {
+        throw error;
+      }
+      return super.multiFetch(requests);
+    }
+  }
+}
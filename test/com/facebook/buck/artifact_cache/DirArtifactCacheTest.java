@@ -18,12 +18,14 @@ package com.facebook.buck.artifact_cache;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.DirCacheLinkMode;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -897,6 +899,63 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testHardlinkModeLinksArtifactsOnFetchOnly() throws IOException {
+    DirArtifactCache cache =
+        new DirArtifactCache(
+            "dir",
+            projectFilesystem,
+            Paths.get("cache"),
+            CacheReadMode.READWRITE,
+            Optional.empty(),
+            MoreExecutors.newDirectExecutorService(),
+            DirCacheLinkMode.HARDLINK);
+
+    RuleKey ruleKey = new RuleKey("0123456789abcdef");
+    Path data = Paths.get("data");
+    projectFilesystem.writeContentsToPath("artifact", data);
+    ImmutableMap<String, String> metadata = ImmutableMap.of("some", "metadata");
+
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(metadata).build(),
+        BorrowablePath.notBorrowablePath(data));
+    Path cachedArtifact = cache.getPathForRuleKey(ruleKey, Optional.empty());
+    assertFalse(
+        Files.isSameFile(
+            projectFilesystem.resolve(data), projectFilesystem.resolve(cachedArtifact)));
+
+    // Modifying the stored output doesn't affect the cache.
+    projectFilesystem.writeContentsToPath("modified", data);
+
+    // Fetching replaces an existing output with a link.
+    Path output = projectFilesystem.createTempFile("output", ".zip");
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(output)));
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(result.getMetadata(), Matchers.equalTo(metadata));
+    assertTrue(
+        Files.isSameFile(
+            projectFilesystem.resolve(output), projectFilesystem.resolve(cachedArtifact)));
+    assertEquals("artifact", projectFilesystem.readFileIfItExists(output).get());
+
+    // Deleting the fetched output doesn't affect the cache.
+    projectFilesystem.deleteFileAtPath(output);
+    assertThat(
+        Futures.getUnchecked(
+                cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(Paths.get("out-data"))))
+            .getType(),
+        Matchers.equalTo(CacheResultType.HIT));
+
+    assertThat(
+        Futures.getUnchecked(
+                cache.fetchAsync(
+                    null, new RuleKey("fedcba9876543210"), LazyPath.ofInstance(output)))
+            .getType(),
+        Matchers.equalTo(CacheResultType.MISS));
+
+    cache.close();
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
@@ -32,6 +32,8 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -136,6 +138,45 @@ public class HttpArtifactCacheBinaryProtocolTest {
     }
   }
 
+  @Test
+  public void testReadFetchResponseChecksumsPayloadTheReaderSkipped() throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000010000000000008000000000");
+    String data = "data";
+
+    byte[] responseData;
+    try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out)) {
+      byte[] metadata =
+          HttpArtifactCacheBinaryProtocol.createMetadataHeader(
+              ImmutableSet.of(ruleKey),
+              ImmutableMap.of("key", "value"),
+              ByteSource.wrap(data.getBytes(Charsets.UTF_8)));
+      dataOut.writeInt(metadata.length);
+      dataOut.write(metadata);
+      dataOut.write(data.getBytes(Charsets.UTF_8));
+      responseData = out.toByteArray();
+    }
+
+    List<ImmutableMap<String, String>> readMetadata = new ArrayList<>();
+    try (DataInputStream inputStream =
+        new DataInputStream(new ByteArrayInputStream(responseData))) {
+      HttpArtifactCacheBinaryProtocol.FetchResponseReadResult result =
+          HttpArtifactCacheBinaryProtocol.readFetchResponse(
+              inputStream,
+              (ruleKeys, metadata, payload) -> {
+                assertThat(ruleKeys, Matchers.contains(ruleKey));
+                readMetadata.add(metadata);
+                // Only read the first byte, and try to close the payload early.
+                assertThat(payload.read(), Matchers.equalTo((int) 'd'));
+                payload.close();
+              });
+      assertThat(readMetadata, Matchers.contains(ImmutableMap.of("key", "value")));
+      assertThat(result.getActualHashCode(), Matchers.equalTo(result.getExpectedHashCode()));
+      assertThat(result.getResponseSizeBytes(), Matchers.equalTo(4L));
+      assertThat(inputStream.read(), Matchers.equalTo(-1));
+    }
+  }
+
   @Test
   public void testMassiveMetadataHeaderWrite() throws IOException {
     ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -49,6 +50,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -330,6 +332,135 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testStreamingFetchOK() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<Response> responseList = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of("key", "value"),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build();
+              responseList.add(response);
+              return new OkHttpResponseWrapper(response);
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+    List<ImmutableMap<String, String>> consumedMetadata = new ArrayList<>();
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null,
+                ruleKey,
+                LazyPath.ofInstance(output),
+                (metadata, artifact) -> {
+                  consumedMetadata.add(metadata);
+                  ByteStreams.copy(artifact, consumed);
+                }));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableList.of(ImmutableMap.of("key", "value")), consumedMetadata);
+    assertEquals(data, consumed.toString(Charsets.UTF_8.name()));
+    assertFalse("artifact was staged on disk", filesystem.exists(output));
+    assertTrue("response wasn't fully read!", responseList.get(0).body().source().exhausted());
+    cache.close();
+  }
+
+  @Test
+  public void testStreamingFetchBadChecksum() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    List<Response> responseList = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(new byte[0]),
+                              "data"))
+                      .message("")
+                      .build();
+              responseList.add(response);
+              return new OkHttpResponseWrapper(response);
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    AtomicBoolean consumed = new AtomicBoolean();
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null,
+                ruleKey,
+                LazyPath.ofInstance(Paths.get("output/file")),
+                (metadata, artifact) -> consumed.set(true)));
+    // The artifact is only verified once it has been consumed, so the caller has to discard it.
+    assertTrue(consumed.get());
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertTrue("response wasn't fully read!", responseList.get(0).body().source().exhausted());
+    cache.close();
+  }
+
+  @Test
+  public void testStreamingFetchWrongKeyIsNotConsumed() throws Exception {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    RuleKey otherRuleKey = new RuleKey("11111111111111111111111111111111");
+    String data = "data";
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(otherRuleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    AtomicBoolean consumed = new AtomicBoolean();
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null,
+                ruleKey,
+                LazyPath.ofInstance(Paths.get("output/file")),
+                (metadata, artifact) -> consumed.set(true)));
+    assertFalse(consumed.get());
+    assertEquals(CacheResultType.ERROR, result.getType());
+    cache.close();
+  }
+
   @Test
   public void testFetchExtraPayload() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -35,9 +35,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -429,4 +433,56 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void streamedFetchIsStillPushedToHigherCache() throws Exception {
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    byte[] data = "artifact".getBytes(StandardCharsets.UTF_8);
+    ImmutableMap<String, String> metadata = ImmutableMap.of("hello", "world");
+    ArtifactCache cache2 =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              @Nullable BuildTarget target,
+              RuleKey ruleKey,
+              LazyPath output,
+              FetchedArtifactConsumer consumer) {
+            try {
+              consumer.consume(metadata, new ByteArrayInputStream(data));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+            return Futures.immediateFuture(
+                CacheResult.hit("streaming", ArtifactCacheMode.http, metadata, data.length));
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+
+    LazyPath output = LazyPath.ofInstance(tmp.newFile());
+    AtomicReference<byte[]> consumed = new AtomicReference<>();
+    CacheResult result =
+        multiArtifactCache
+            .fetchAsync(
+                null,
+                dummyRuleKey,
+                output,
+                (fetchedMetadata, artifact) -> {
+                  // Only read part of the artifact, the rest must still be copied.
+                  byte[] prefix = new byte[3];
+                  ByteStreams.readFully(artifact, prefix);
+                  consumed.set(prefix);
+                })
+            .get();
+
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(consumed.get(), Matchers.equalTo("art".getBytes(StandardCharsets.UTF_8)));
+    LazyPath copy = LazyPath.ofInstance(tmp.newFile());
+    CacheResult propagated = Futures.getUnchecked(cache1.fetchAsync(null, dummyRuleKey, copy));
+    assertThat(propagated.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(propagated.getMetadata(), Matchers.equalTo(metadata));
+    assertThat(Files.readAllBytes(copy.get()), Matchers.equalTo(data));
+
+    multiArtifactCache.close();
+  }
 }
@@ -35,6 +35,7 @@ import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
@@ -46,7 +47,12 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
@@ -112,6 +118,19 @@ public class SQLiteArtifactCacheTest {
         CacheReadMode.READWRITE);
   }
 
+  private SQLiteArtifactCache pooledCache(Optional<Long> maxCacheSizeBytes)
+      throws IOException, SQLException {
+    return new SQLiteArtifactCache(
+        "sqlite",
+        filesystem,
+        cacheDir,
+        BuckEventBusForTests.newInstance(),
+        maxCacheSizeBytes,
+        Optional.of(MAX_INLINED_BYTES),
+        CacheReadMode.READWRITE,
+        4);
+  }
+
   /**
    * Writes an artifact small enough to inline in the database.
    *
@@ -467,4 +486,110 @@ public class SQLiteArtifactCacheTest {
         cacheDir.resolve("45").resolve("67").resolve("456789abcdef"),
         artifactCache.getArtifactPath(new RuleKey("456789abcdef")));
   }
+
+  @Test
+  public void testPooledStoreAndFetchHit() throws IOException, SQLException {
+    artifactCache = pooledCache(Optional.empty());
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+    artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+    artifactCache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKeyC)
+            .putMetadata(METADATA_KEY, contentHashA.toString())
+            .build(),
+        BorrowablePath.notBorrowablePath(emptyFile));
+
+    CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashA, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(output.get()));
+
+    result = Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashB, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(Files.readAllBytes(fileB), Files.readAllBytes(output.get()));
+
+    result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyC, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(contentHashA.toString(), result.getMetadata().get(METADATA_KEY));
+
+    result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyA, output));
+    assertEquals(CacheResultType.MISS, result.getType());
+  }
+
+  @Test
+  public void testPooledConcurrentFetches() throws Exception {
+    artifactCache = pooledCache(Optional.empty());
+    writeInlinedArtifact(fileA);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<CacheResult>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        LazyPath threadOutput = LazyPath.ofInstance(cacheDir.resolve(".output" + i));
+        results.add(
+            executor.submit(
+                () -> artifactCache.fetchAsync(null, contentHashA, threadOutput).get()));
+      }
+      for (Future<CacheResult> result : results) {
+        assertEquals(CacheResultType.HIT, result.get().getType());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    artifactCache.flushAccesses();
+    assertThat(artifactCache.getBatchedAccessUpdates(), Matchers.greaterThan(0L));
+  }
+
+  @Test
+  public void testMultiFetchMatchesSingleFetches() throws IOException, SQLException {
+    artifactCache = cache(Optional.empty());
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+    artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+    artifactCache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKeyC)
+            .putMetadata(METADATA_KEY, contentHashA.toString())
+            .build(),
+        BorrowablePath.notBorrowablePath(emptyFile));
+
+    LazyPath outputA = LazyPath.ofInstance(cacheDir.resolve(".outputA"));
+    LazyPath outputB = LazyPath.ofInstance(cacheDir.resolve(".outputB"));
+    ImmutableList<CacheResult> results =
+        artifactCache.multiFetch(
+            ImmutableList.of(
+                new Pair<>(contentHashA, outputA),
+                new Pair<>(ruleKeyA, output),
+                new Pair<>(contentHashB, outputB),
+                new Pair<>(ruleKeyC, output)));
+
+    assertEquals(4, results.size());
+    assertEquals(CacheResultType.HIT, results.get(0).getType());
+    assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(outputA.get()));
+    assertEquals(CacheResultType.MISS, results.get(1).getType());
+    assertEquals(CacheResultType.HIT, results.get(2).getType());
+    assertEquals(filesystem.getFileSize(fileB), results.get(2).getArtifactSizeBytes());
+    assertArrayEquals(Files.readAllBytes(fileB), Files.readAllBytes(outputB.get()));
+    assertEquals(CacheResultType.HIT, results.get(3).getType());
+    assertEquals(contentHashA.toString(), results.get(3).getMetadata().get(METADATA_KEY));
+  }
+
+  @Test
+  public void testPooledAccessTimesAreFlushedBeforeEviction() throws Exception {
+    artifactCache = pooledCache(Optional.of(0L));
+    Timestamp time = Timestamp.from(Instant.now().minus(Duration.ofDays(8)));
+
+    artifactCache.insertMetadata(ruleKeyA, ImmutableMap.of(), time);
+    artifactCache.insertMetadata(ruleKeyB, ImmutableMap.of(), time);
+
+    CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyA, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+
+    artifactCache.removeOldMetadata().get();
+    assertThat(artifactCache.metadataRuleKeys(), Matchers.contains(ruleKeyA));
+  }
 }
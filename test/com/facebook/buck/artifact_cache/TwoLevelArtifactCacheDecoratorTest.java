@@ -19,17 +19,25 @@ package com.facebook.buck.artifact_cache;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -102,6 +110,58 @@ public class TwoLevelArtifactCacheDecoratorTest {
     }
   }
 
+  @Test
+  public void testStreamingFetchConsumesContentWithOriginalMetadata() throws IOException {
+    InMemoryArtifactCache streamingCache =
+        new InMemoryArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              @Nullable BuildTarget target,
+              RuleKey ruleKey,
+              LazyPath output,
+              FetchedArtifactConsumer consumer) {
+            CacheResult result = Futures.getUnchecked(fetchAsync(target, ruleKey, output));
+            if (result.getType() == CacheResultType.HIT) {
+              try (InputStream artifact = Files.newInputStream(output.get())) {
+                consumer.consume(result.getMetadata(), artifact);
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            }
+            return Futures.immediateFuture(result);
+          }
+        };
+    try (TwoLevelArtifactCacheDecorator twoLevelCache =
+        new TwoLevelArtifactCacheDecorator(
+            streamingCache,
+            TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+            BuckEventBusForTests.newInstance(),
+            /* performTwoLevelStores */ true,
+            /* minimumTwoLevelStoredArtifactSize */ 0L,
+            /* maximumTwoLevelStoredArtifactSize */ Optional.empty())) {
+      LazyPath dummyFile = LazyPath.ofInstance(tmp.newFile());
+      Files.write(dummyFile.get(), "content".getBytes(Charsets.UTF_8));
+      twoLevelCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).putMetadata("key", "value").build(),
+          BorrowablePath.notBorrowablePath(dummyFile.get()));
+
+      List<String> consumed = new ArrayList<>();
+      CacheResult cacheResult =
+          Futures.getUnchecked(
+              twoLevelCache.fetchAsync(
+                  null,
+                  dummyRuleKey,
+                  LazyPath.ofInstance(tmp.getRoot().resolve("fetched")),
+                  (metadata, artifact) -> {
+                    assertThat(metadata, Matchers.equalTo(ImmutableMap.of("key", "value")));
+                    consumed.add(new String(ByteStreams.toByteArray(artifact), Charsets.UTF_8));
+                  }));
+      assertThat(cacheResult.getType(), Matchers.equalTo(CacheResultType.HIT));
+      // Only the content is consumed, not the first-level entry pointing at it.
+      assertThat(consumed, Matchers.contains("content"));
+    }
+  }
+
   private void testStoreThresholds(int artifactSize, int expectedArtifactsInCache)
       throws IOException {
     try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildRuleDurationHistoryTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void dropsLeastRecentlyBuiltTargetsOnceFull() {
+    Map<String, Long> durations = new LinkedHashMap<>();
+    for (int i = 0; i < BuildRuleDurationHistory.MAX_ENTRIES; i++) {
+      durations.put("//:t" + i, 1L);
+    }
+
+    BuildRuleDurationHistory history =
+        BuildRuleDurationHistory.of(durations)
+            .updatedWith(ImmutableList.of("//:t0", "//:new"), ImmutableMap.of("//:new", 5L));
+
+    assertThat(history.size(), equalTo(BuildRuleDurationHistory.MAX_ENTRIES));
+    assertThat(getDurationMs(history, "//:t0"), equalTo(OptionalLong.of(1)));
+    assertThat(getDurationMs(history, "//:new"), equalTo(OptionalLong.of(5)));
+    assertThat(getDurationMs(history, "//:t1"), equalTo(OptionalLong.empty()));
+    assertThat(getDurationMs(history, "//:t2"), equalTo(OptionalLong.of(1)));
+  }
+
+  @Test
+  public void savesHistoryWithoutLeavingTemporaryFiles() throws IOException {
+    Path path = tmp.getRoot().resolve("log").resolve(BuildRuleDurationHistory.FILE_NAME);
+    BuildRuleDurationHistory.of(ImmutableMap.of("//:b", 2L, "//:a", 1L)).save(path);
+
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(path);
+    assertThat(getDurationMs(history, "//:a"), equalTo(OptionalLong.of(1)));
+    assertThat(getDurationMs(history, "//:b"), equalTo(OptionalLong.of(2)));
+    try (Stream<Path> files = Files.list(path.getParent())) {
+      assertThat(files.count(), equalTo(1L));
+    }
+  }
+
+  private static OptionalLong getDurationMs(BuildRuleDurationHistory history, String target) {
+    return history.getDurationMs(BuildTargetFactory.newInstance(target));
+  }
+}
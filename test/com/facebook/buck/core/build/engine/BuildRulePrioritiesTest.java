@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
+import com.facebook.buck.core.build.engine.impl.DefaultRuleDepsCache;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+public class BuildRulePrioritiesTest {
+
+  /**
+   * Test for the following action graph, where {@code d} is discovered before {@code a}:
+   *
+   * <pre>
+   *   a (10)
+   *   |
+   *   b (100)   d (1)
+   *    \       /
+   *     c (5)
+   *     |
+   *     e (?)
+   * </pre>
+   */
+  @Test
+  public void longerChainsFoundLaterRaiseDiscoveredDeps() {
+    BuildRule e = new FakeBuildRule("//:e");
+    BuildRule c = new FakeBuildRule("//:c", e);
+    BuildRule b = new FakeBuildRule("//:b", c);
+    BuildRule a = new FakeBuildRule("//:a", b);
+    BuildRule d = new FakeBuildRule("//:d", c);
+    BuildRulePriorities priorities =
+        createPriorities(ImmutableMap.of("//:a", 10L, "//:b", 100L, "//:c", 5L, "//:d", 1L));
+
+    priorities.addTopLevelRule(d);
+    priorities.addDeps(d);
+    priorities.addDeps(c);
+    assertThat(priorities.get(c), equalTo(6L));
+    assertThat(priorities.get(e), equalTo(6L + BuildRulePriorities.UNKNOWN_RULE_DURATION_MS));
+
+    priorities.addTopLevelRule(a);
+    priorities.addDeps(a);
+    priorities.addDeps(b);
+    assertThat(priorities.get(b), equalTo(110L));
+    assertThat(priorities.get(c), equalTo(115L));
+    assertThat(priorities.get(e), equalTo(115L + BuildRulePriorities.UNKNOWN_RULE_DURATION_MS));
+    assertThat(priorities.get(d), equalTo(1L));
+  }
+
+  @Test
+  public void raisesLongChainsFoundLaterWithoutRecursion() {
+    int chainLength = 100_000;
+    BuildRule bottom = new FakeBuildRule("//:r0");
+    BuildRule top = bottom;
+    for (int i = 1; i < chainLength; i++) {
+      top = new FakeBuildRule("//:r" + i, top);
+    }
+    BuildRule longRule = new FakeBuildRule("//:long", top);
+    BuildRulePriorities priorities = createPriorities(ImmutableMap.of("//:long", 1000L));
+
+    priorities.addTopLevelRule(top);
+    for (BuildRule rule = top; !rule.getBuildDeps().isEmpty(); ) {
+      priorities.addDeps(rule);
+      rule = rule.getBuildDeps().first();
+    }
+    assertThat(priorities.get(bottom), equalTo((long) chainLength));
+
+    priorities.addTopLevelRule(longRule);
+    priorities.addDeps(longRule);
+    assertThat(priorities.get(bottom), equalTo(1000L + chainLength));
+  }
+
+  @Test
+  public void undiscoveredRulesHaveNoPriority() {
+    BuildRule b = new FakeBuildRule("//:b");
+    BuildRule a = new FakeBuildRule("//:a", b);
+    BuildRulePriorities priorities = createPriorities(ImmutableMap.of());
+
+    priorities.addTopLevelRule(a);
+    assertThat(priorities.get(a), equalTo(BuildRulePriorities.UNKNOWN_RULE_DURATION_MS));
+    assertThat(priorities.get(b), equalTo(0L));
+  }
+
+  private static BuildRulePriorities createPriorities(ImmutableMap<String, Long> durations) {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    return new BuildRulePriorities(
+        BuildRuleDurationHistory.of(durations),
+        new DefaultRuleDepsCache(graphBuilder, new BuildEngineActionToBuildRuleResolver()));
+  }
+}
@@ -40,6 +40,7 @@ import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheDeleteResult;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.FetchedArtifactConsumer;
 import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
 import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
@@ -544,7 +545,8 @@ public class CachingBuildEngineTest {
               artifactCache.fetchAsync(
                   eq(buildRule.getBuildTarget()),
                   eq(defaultRuleKeyFactory.build(buildRule)),
-                  isA(LazyPath.class)))
+                  isA(LazyPath.class),
+                  isA(FetchedArtifactConsumer.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
@@ -638,7 +640,8 @@ public class CachingBuildEngineTest {
               artifactCache.fetchAsync(
                   eq(buildRule.getBuildTarget()),
                   eq(defaultRuleKeyFactory.build(buildRule)),
-                  isA(LazyPath.class)))
+                  isA(LazyPath.class),
+                  isA(FetchedArtifactConsumer.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
@@ -676,6 +679,70 @@ public class CachingBuildEngineTest {
       }
     }
 
+    @Test
+    public void testArtifactStreamedFromCacheWithAllBuildThreadsBusy() throws Exception {
+      BuildRule buildRule =
+          createRule(
+              filesystem,
+              graphBuilder,
+              /* deps */ ImmutableSortedSet.of(),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      ImmutableMap<String, String> metadata =
+          ImmutableMap.of(
+              BuildInfo.MetadataKey.RULE_KEY,
+              defaultRuleKeyFactory.build(buildRule).toString(),
+              BuildInfo.MetadataKey.BUILD_ID,
+              buildContext.getBuildId().toString(),
+              BuildInfo.MetadataKey.ORIGIN_BUILD_ID,
+              buildContext.getBuildId().toString());
+      ImmutableMap<Path, String> desiredZipEntries =
+          ImmutableMap.of(
+              BuildInfo.getPathToArtifactMetadataFile(buildRule.getBuildTarget(), filesystem),
+              ObjectMappers.WRITER.writeValueAsString(
+                  ImmutableMap.of(
+                      BuildInfo.MetadataKey.RECORDED_PATHS,
+                      ObjectMappers.WRITER.writeValueAsString(ImmutableList.of()),
+                      BuildInfo.MetadataKey.RECORDED_PATH_HASHES,
+                      ObjectMappers.WRITER.writeValueAsString(ImmutableMap.of()),
+                      BuildInfo.MetadataKey.OUTPUT_SIZE,
+                      "0",
+                      BuildInfo.MetadataKey.OUTPUT_HASH,
+                      HashCode.fromInt(123).toString())),
+              Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
+              "Imagine this is the contents of a valid JAR file.");
+
+      BuildEngineBuildContext buildContext =
+          BuildEngineBuildContext.of(
+              FakeBuildContext.withSourcePathResolver(pathResolver),
+              new FakeArtifactCacheThatStreamsAZipFile(desiredZipEntries, metadata),
+              new DefaultClock(),
+              new BuildId(),
+              ImmutableMap.of(),
+              false);
+
+      // The cache hands the artifact over on the only build thread, so extracting it must not
+      // need another one.
+      ListeningExecutorService service = listeningDecorator(Executors.newSingleThreadExecutor());
+      try {
+        CachingBuildEngine cachingBuildEngine =
+            cachingBuildEngineFactory().setExecutorService(service).build();
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), buildRule)
+                .getResult()
+                .get(30, TimeUnit.SECONDS);
+        cachingBuildEngine.close();
+        assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+        assertTrue(filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
+      } finally {
+        service.shutdownNow();
+      }
+    }
+
     @Test
     public void testMatchingTopLevelRuleKeyAvoidsProcessingDepInShallowMode() throws Exception {
       // Create a dep for the build rule.
@@ -4309,6 +4376,29 @@ public class CachingBuildEngineTest {
     }
   }
 
+  /** Streams the zip file written by {@link FakeArtifactCacheThatWritesAZipFile} to consumers. */
+  private static class FakeArtifactCacheThatStreamsAZipFile
+      extends FakeArtifactCacheThatWritesAZipFile {
+
+    public FakeArtifactCacheThatStreamsAZipFile(
+        ImmutableMap<Path, String> desiredEntries, ImmutableMap<String, String> metadata) {
+      super(desiredEntries, metadata);
+    }
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        BuildTarget target, RuleKey ruleKey, LazyPath output, FetchedArtifactConsumer consumer) {
+      CacheResult result = Futures.getUnchecked(fetchAsync(target, ruleKey, output));
+      try (InputStream artifact = Files.newInputStream(output.get())) {
+        consumer.consume(result.getMetadata(), artifact);
+      } catch (IOException e) {
+        return Futures.immediateFuture(
+            CacheResult.error("dir", ArtifactCacheMode.dir, e.getMessage()));
+      }
+      return Futures.immediateFuture(result);
+    }
+  }
+
   private static class FakeHasRuntimeDeps extends FakeBuildRule implements HasRuntimeDeps {
 
     private final ImmutableSortedSet<BuildRule> runtimeDeps;
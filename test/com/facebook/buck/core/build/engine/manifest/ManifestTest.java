@@ -38,6 +38,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -325,6 +326,89 @@ public class ManifestTest {
                     new RuleKey("bb"),
                     ImmutableMap.of("bar.h", HashCode.fromInt(0))))
             .getStats(),
-        Matchers.equalTo(ImmutableManifestStats.of(2, 1, 2)));
+        Matchers.equalTo(ImmutableManifestStats.of(2, 2, 2)));
+  }
+
+  @Test
+  public void lookupChecksInputsSharingTheSameHash() throws IOException {
+    RuleKey key = new RuleKey("aa");
+    SourcePath input1 = FakeSourcePath.of("input1.h");
+    SourcePath input2 = FakeSourcePath.of("input2.h");
+    HashCode hashCode = HashCode.fromInt(20);
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                key,
+                ImmutableMap.of(
+                    RESOLVER.getRelativePath(input1).toString(),
+                    hashCode,
+                    RESOLVER.getRelativePath(input2).toString(),
+                    hashCode)));
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(input1),
+                hashCode,
+                RESOLVER.getAbsolutePath(input2),
+                HashCode.fromInt(30)));
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(input1, input2)),
+        Matchers.equalTo(Optional.empty()));
+  }
+
+  @Test
+  public void lookupPrefersOldestMatchingEntry() throws IOException {
+    SourcePath input1 = FakeSourcePath.of("input1.h");
+    SourcePath input2 = FakeSourcePath.of("input2.h");
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"),
+                ImmutableMap.of(
+                    RESOLVER.getRelativePath(input1).toString(),
+                    HashCode.fromInt(1),
+                    RESOLVER.getRelativePath(input2).toString(),
+                    HashCode.fromInt(2)),
+                new RuleKey("bb"),
+                ImmutableMap.of(RESOLVER.getRelativePath(input1).toString(), HashCode.fromInt(1)),
+                new RuleKey("dd"),
+                ImmutableMap.of(RESOLVER.getRelativePath(input2).toString(), HashCode.fromInt(2))));
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(input1),
+                HashCode.fromInt(1),
+                RESOLVER.getAbsolutePath(input2),
+                HashCode.fromInt(3)));
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(input1, input2)),
+        Matchers.equalTo(Optional.of(new RuleKey("bb"))));
+  }
+
+  @Test
+  public void deserializeLegacyVersion() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+    output.writeInt(0);
+    output.writeUTF(new RuleKey("cc").toString());
+    output.writeInt(1);
+    output.writeUTF("foo/bar.h");
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF(HashCode.fromInt(20).toString());
+    output.writeInt(1);
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF(new RuleKey("aa").toString());
+
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(
+        ManifestUtil.toMap(deserialized),
+        Matchers.equalTo(
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20)))));
   }
 }
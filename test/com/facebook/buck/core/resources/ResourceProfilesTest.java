@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.perf.ProcessTracker;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ResourceProfilesTest {
+
+  private static final ResourceAmounts DEFAULT_AMOUNTS = ResourceAmounts.of(1, 1, 2, 3);
+  private static final ResourceAmounts MAXIMUM_AMOUNTS = ResourceAmounts.of(8, 40, 50, 30);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void learnsPeakCpuAndMemoryPerRuleType() {
+    ResourceProfiles profiles = ResourceProfiles.load(tmp.getRoot().resolve("profiles.json"));
+    profiles.record("cxx_link", consumption(memoryUnits(12) - 1, 1000, 3500));
+    profiles.record("cxx_link", consumption(memoryUnits(3), 1000, 900));
+    profiles.record("java_library", consumption(memoryUnits(1) / 2, 1000, 100));
+
+    assertEquals(
+        ImmutableMap.of(
+            "cxx_link", ResourceAmounts.of(4, 12, 2, 3),
+            "java_library", ResourceAmounts.of(1, 1, 2, 3)),
+        profiles.getResourceAmountsPerRuleType(DEFAULT_AMOUNTS, MAXIMUM_AMOUNTS));
+  }
+
+  @Test
+  public void amountsAreBoundedByMaximum() {
+    ResourceProfiles profiles = ResourceProfiles.load(tmp.getRoot().resolve("profiles.json"));
+    profiles.record("dex", consumption(memoryUnits(100), 1000, 32000));
+
+    assertEquals(
+        ResourceAmounts.of(8, 40, 2, 3),
+        profiles.getResourceAmountsPerRuleType(DEFAULT_AMOUNTS, MAXIMUM_AMOUNTS).get("dex"));
+  }
+
+  @Test
+  public void onlyEventsOfRuleStepsAreRecorded() {
+    ResourceProfiles profiles = ResourceProfiles.load(tmp.getRoot().resolve("profiles.json"));
+    profiles.processResourceConsumption(
+        new ProcessTracker.ProcessResourceConsumptionEvent(
+            "ld",
+            Optional.empty(),
+            Optional.of(ImmutableMap.of(ResourceProfiles.BUILD_RULE_TYPE_CONTEXT_KEY, "cxx_link")),
+            Optional.of(consumption(memoryUnits(5), 1000, 1000))));
+    profiles.processResourceConsumption(
+        new ProcessTracker.ProcessResourceConsumptionEvent(
+            "<buck-process>",
+            Optional.empty(),
+            Optional.empty(),
+            Optional.of(consumption(memoryUnits(20), 1000, 1000))));
+
+    assertEquals(
+        ImmutableMap.of("cxx_link", ResourceAmounts.of(1, 5, 2, 3)),
+        profiles.getResourceAmountsPerRuleType(DEFAULT_AMOUNTS, MAXIMUM_AMOUNTS));
+  }
+
+  @Test
+  public void profilesPersistAndDecayAcrossBuilds() throws Exception {
+    Path storage = tmp.getRoot().resolve("cache").resolve("profiles.json");
+    ResourceProfiles first = ResourceProfiles.load(storage);
+    first.record("cxx_link", consumption(memoryUnits(10), 1000, 4000));
+    first.save();
+    assertTrue(Files.exists(storage));
+
+    ResourceProfiles second = ResourceProfiles.load(storage);
+    assertEquals(
+        ResourceAmounts.of(4, 10, 2, 3),
+        second.getResourceAmountsPerRuleType(DEFAULT_AMOUNTS, MAXIMUM_AMOUNTS).get("cxx_link"));
+    second.record("cxx_link", consumption(memoryUnits(1), 1000, 1000));
+    second.save();
+
+    ResourceProfiles third = ResourceProfiles.load(storage);
+    assertEquals(
+        ResourceAmounts.of(
+            (int) Math.ceil(4 * ResourceProfiles.DECAY),
+            (int) Math.ceil(10 * ResourceProfiles.DECAY),
+            2,
+            3),
+        third.getResourceAmountsPerRuleType(DEFAULT_AMOUNTS, MAXIMUM_AMOUNTS).get("cxx_link"));
+  }
+
+  private static long memoryUnits(int units) {
+    return units * ResourceAmountsEstimator.MEMORY_UNIT_BYTES;
+  }
+
+  private static ProcessResourceConsumption consumption(
+      long memResident, long cpuReal, long cpuTotal) {
+    return ProcessResourceConsumption.of(
+        memResident, memResident, cpuReal, cpuTotal, 0, cpuTotal, 0, 0, 0);
+  }
+}
@@ -17,12 +17,14 @@
 package com.facebook.buck.core.resources;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
@@ -76,4 +78,21 @@ public class ResourcesConfigTest {
     }
     assertThat("IllegalArgumentException should be thrown", Matchers.equalTo(""));
   }
+
+  @Test
+  public void testMaximumMemoryIsHostMemoryWithAdaptiveEstimation() throws IOException {
+    Reader reader =
+        new StringReader(
+            Joiner.on('\n')
+                .join(
+                    "[resources]",
+                    "resource_aware_scheduling_enabled = true",
+                    "adaptive_resource_estimation = true"));
+    BuckConfig config = BuckConfigTestUtils.createWithDefaultFilesystem(temporaryFolder, reader);
+    ResourcesConfig resourcesConfig = config.getView(ResourcesConfig.class);
+    assertEquals(
+        ResourceAmountsEstimator.getHostMemoryCap(),
+        resourcesConfig.getMaximumResourceAmounts().getMemory());
+    assertSame(resourcesConfig.getResourceProfiles(), resourcesConfig.getResourceProfiles());
+  }
 }
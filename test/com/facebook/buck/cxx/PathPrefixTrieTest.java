@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Test;
+
+public class PathPrefixTrieTest {
+
+  private final PathPrefixTrie<String> trie =
+      PathPrefixTrie.of(
+          ImmutableMap.of(
+              Paths.get("/repo/include"), "dir",
+              Paths.get("/repo/include/foo/foo.h"), "header",
+              Paths.get("relative/bar.h"), "relative"));
+
+  @Test
+  public void exactMatchHasEmptyRemainder() {
+    assertEquals(
+        Optional.of(new Pair<>("header", Paths.get(""))),
+        trie.getLongestPrefix(Paths.get("/repo/include/foo/foo.h")));
+  }
+
+  @Test
+  public void longestPrefixWins() {
+    assertEquals(
+        Optional.of(new Pair<>("dir", Paths.get("foo/other.h"))),
+        trie.getLongestPrefix(Paths.get("/repo/include/foo/other.h")));
+    assertEquals(
+        Optional.of(new Pair<>("header", Paths.get("nested"))),
+        trie.getLongestPrefix(Paths.get("/repo/include/foo/foo.h/nested")));
+  }
+
+  @Test
+  public void unmappedPathsAreNotFound() {
+    assertFalse(trie.getLongestPrefix(Paths.get("/repo")).isPresent());
+    assertFalse(trie.getLongestPrefix(Paths.get("/other/include/foo.h")).isPresent());
+    assertFalse(trie.getLongestPrefix(Paths.get("/relative/bar.h")).isPresent());
+  }
+
+  @Test
+  public void relativeAndAbsolutePathsAreKeptApart() {
+    Optional<Pair<String, Path>> result = trie.getLongestPrefix(Paths.get("relative/bar.h"));
+    assertEquals(Optional.of(new Pair<>("relative", Paths.get(""))), result);
+    assertEquals(3, trie.size());
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.event;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -27,7 +28,13 @@ import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.concurrent.MostExecutors.NamedThreadFactory;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -145,6 +152,138 @@ public class DefaultBuckEventBusTest {
     assertTrue(threadFactory.caught);
   }
 
+  @Test
+  public void eventsAreDeliveredInOrderToEachListener() {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    RecordingSubscriber first = new RecordingSubscriber();
+    RecordingSubscriber second = new RecordingSubscriber();
+    eb.register(first);
+    eb.register(second);
+    List<TestEvent> events = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      TestEvent event = new TestEvent();
+      events.add(event);
+      eb.post(event);
+    }
+    assertTrue(eb.waitEvents(timeoutMillis * 10));
+    eb.close();
+    assertEquals(events, first.events);
+    assertEquals(events, second.events);
+  }
+
+  @Test
+  public void handlersOfSupertypesAreCalledAfterMoreSpecificOnes() {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), false, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    List<String> calls = new ArrayList<>();
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void any(BuckEvent event) {
+            calls.add("any");
+          }
+
+          @Subscribe
+          public void test(TestEvent event) {
+            calls.add("test");
+          }
+        });
+    eb.post(new TestEvent());
+    eb.post(new SleepEvent(0));
+    eb.close();
+    assertEquals(ImmutableList.of("test", "any", "any"), calls);
+  }
+
+  @Test
+  public void slowListenerDoesNotHoldUpOthers() throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    BlockingSubscriber slow = new BlockingSubscriber();
+    RecordingSubscriber fast = new RecordingSubscriber();
+    eb.register(slow);
+    eb.register(fast);
+    eb.post(new TestEvent());
+    eb.post(new TestEvent());
+
+    assertFalse(eb.waitEvents(timeoutMillis / 5));
+    assertEquals(2, fast.events.size());
+    slow.release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis * 10));
+    eb.close();
+  }
+
+  @Test
+  public void lossyListenerMissesEventsWhenBehind() throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    LossySubscriber lossy = new LossySubscriber();
+    eb.register(lossy);
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    lossy.release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis * 10));
+
+    EventListenerStats stats = Iterables.getOnlyElement(eb.getListenerStats());
+    eb.close();
+    assertThat(stats.getDeliveredEvents(), lessThanOrEqualTo(3L));
+    assertEquals(10, stats.getDeliveredEvents() + stats.getDroppedEvents());
+    assertThat(stats.getMaxQueueDepth(), lessThanOrEqualTo(2));
+  }
+
+  @Test
+  public void lossyListenerOnlyMissesDroppableEventsAndTheirMatches() throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    LossySubscriber lossy = new LossySubscriber();
+    eb.register(lossy);
+    TestEvent last = null;
+    for (int i = 0; i < 10; i++) {
+      last = new TestEvent();
+      eb.post(last);
+    }
+    FinishedTestEvent kept = new FinishedTestEvent(EventKey.unique());
+    eb.post(kept);
+    eb.post(new FinishedTestEvent(last.getEventKey()));
+    lossy.release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis * 10));
+
+    EventListenerStats stats = Iterables.getOnlyElement(eb.getListenerStats());
+    eb.close();
+    assertEquals(ImmutableList.of(kept), lossy.finished);
+    assertEquals(12, stats.getDeliveredEvents() + stats.getDroppedEvents());
+    assertEquals(stats.getDroppedEvents(), lossy.reportedDroppedEvents);
+  }
+
+  @Test
+  public void unregisteredListenerReceivesNoFurtherEvents() {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), false, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eb.register(subscriber);
+    eb.register(subscriber);
+    eb.post(new TestEvent());
+    eb.unregister(subscriber);
+    eb.post(new TestEvent());
+    eb.close();
+    assertEquals(1, subscriber.events.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unregisteringUnknownListenerFails() {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), false, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    eb.unregister(new RecordingSubscriber());
+  }
+
   static class TestError extends Error {}
 
   static class SingleErrorCatchingThreadFactory extends NamedThreadFactory {
@@ -194,10 +333,57 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class RecordingSubscriber {
+    private final List<BuckEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Subscribe
+    public void record(TestEvent event) {
+      events.add(event);
+    }
+  }
+
+  private static class BlockingSubscriber {
+    protected final CountDownLatch release = new CountDownLatch(1);
+
+    @Subscribe
+    public void block(TestEvent event) throws InterruptedException {
+      release.await();
+    }
+  }
+
+  private static class LossySubscriber extends BlockingSubscriber implements LossyEventListener {
+    private final List<BuckEvent> finished = Collections.synchronizedList(new ArrayList<>());
+    private volatile long reportedDroppedEvents;
+
+    @Override
+    public int getMaxQueuedEvents() {
+      return 2;
+    }
+
+    @Override
+    public boolean isDroppable(BuckEvent event) {
+      return !(event instanceof FinishedTestEvent);
+    }
+
+    @Override
+    public void eventsDropped(long droppedEvents, BuckEvent nextEvent) {
+      reportedDroppedEvents = droppedEvents;
+    }
+
+    @Subscribe
+    public void record(FinishedTestEvent event) {
+      finished.add(event);
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
-      super(EventKey.unique());
+      this(EventKey.unique());
+    }
+
+    public TestEvent(EventKey eventKey) {
+      super(eventKey);
     }
 
     @Override
@@ -210,4 +396,10 @@ public class DefaultBuckEventBusTest {
       return "TestEvent";
     }
   }
+
+  private static class FinishedTestEvent extends TestEvent {
+    public FinishedTestEvent(EventKey eventKey) {
+      super(eventKey);
+    }
+  }
 }
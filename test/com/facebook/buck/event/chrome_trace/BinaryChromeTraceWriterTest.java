@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class BinaryChromeTraceWriterTest {
+
+  private static final ImmutableList<ChromeTraceEvent> EVENTS =
+      ImmutableList.of(
+          new ChromeTraceEvent(
+              "buck",
+              "process_name",
+              Phase.METADATA,
+              0,
+              1,
+              1000,
+              -1,
+              ImmutableMap.of(
+                  "name", "build-id",
+                  "is_daemon", true,
+                  "timestamp", 1234567890123L,
+                  "ratio", 0.5,
+                  "user_args", ImmutableList.of("build", "//föo:bar"))),
+          new ChromeTraceEvent(
+              "build", "rule", Phase.BEGIN, 0, 2, 1500, 10, ImmutableMap.of("rule", "//foo:bar")),
+          new ChromeTraceEvent(
+              "build", "rule", Phase.END, 0, 2, 900, 20, ImmutableMap.of("rule", "//foo:bar")));
+
+  @Test
+  public void eventsRoundTrip() throws IOException {
+    BinaryChromeTraceReader reader =
+        new BinaryChromeTraceReader(new ByteArrayInputStream(writeBinary(EVENTS)));
+    for (ChromeTraceEvent expected : EVENTS) {
+      assertEquals(toJson(expected), toJson(reader.readEvent()));
+    }
+    assertNull(reader.readEvent());
+  }
+
+  @Test
+  public void convertedTraceMatchesJsonWriter() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ChromeTraceWriter jsonWriter = new ChromeTraceWriter(expected);
+    jsonWriter.writeStart();
+    for (ChromeTraceEvent event : EVENTS) {
+      jsonWriter.writeEvent(event);
+    }
+    jsonWriter.writeEnd();
+    jsonWriter.close();
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(writeBinary(EVENTS));
+    }
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    BinaryChromeTraceConverter.convertToJson(
+        new ByteArrayInputStream(compressed.toByteArray()), converted);
+
+    assertEquals(
+        ObjectMappers.READER.readTree(new ByteArrayInputStream(expected.toByteArray())),
+        ObjectMappers.READER.readTree(new ByteArrayInputStream(converted.toByteArray())));
+  }
+
+  @Test
+  public void truncatedTraceEndsAtLastCompleteEvent() throws IOException {
+    byte[] trace = writeBinary(EVENTS);
+    ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+    truncated.write(trace, 0, trace.length - 3);
+
+    BinaryChromeTraceReader reader =
+        new BinaryChromeTraceReader(new ByteArrayInputStream(truncated.toByteArray()));
+    assertEquals(toJson(EVENTS.get(0)), toJson(reader.readEvent()));
+    assertEquals(toJson(EVENTS.get(1)), toJson(reader.readEvent()));
+    assertNull(reader.readEvent());
+  }
+
+  @Test
+  public void repeatedStringsAreInterned() throws IOException {
+    ImmutableList.Builder<ChromeTraceEvent> events = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      events.add(
+          new ChromeTraceEvent(
+              "category",
+              "a_fairly_long_event_name",
+              Phase.BEGIN,
+              0,
+              1,
+              i,
+              i,
+              ImmutableMap.of("some_argument_key", "some_argument_value")));
+    }
+    assertTrue(writeBinary(events.build()).length < 100 * 16);
+  }
+
+  private static byte[] writeBinary(ImmutableList<ChromeTraceEvent> events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryChromeTraceWriter writer = new BinaryChromeTraceWriter(out);
+    writer.writeStart();
+    for (ChromeTraceEvent event : events) {
+      writer.writeEvent(event);
+    }
+    writer.writeEnd();
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private static JsonNode toJson(ChromeTraceEvent event) throws IOException {
+    return ObjectMappers.READER.readTree(ObjectMappers.WRITER.writeValueAsString(event));
+  }
+}
@@ -20,17 +20,28 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.core.build.engine.BuildRuleDurationHistory;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.listener.CriticalPathEventListener.CriticalPathNode;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ExitCode;
 import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
@@ -124,6 +135,49 @@ public class CriticalPathEventListenerTest {
     assertCriticalPathPair(iterator.next(), "d", 4, 7, "f");
   }
 
+  @Test
+  public void updatesRuleDurationsOfExecutedRulesWhenCommandFinishes() throws IOException {
+    Path durationHistoryPath = tmp.getRoot().resolve(BuildRuleDurationHistory.FILE_NAME);
+    BuildRuleDurationHistory.of(ImmutableMap.of("//:a", 5L, "//:b", 7L, "//:x", 3L))
+        .save(durationHistoryPath);
+    listener =
+        new CriticalPathEventListener(
+            tmp.getRoot().resolve("critical_path.log"), Optional.of(durationHistoryPath));
+    BuildRule c = execRule("c", 2);
+    BuildRule b = cachedRule("b", c);
+    BuildRule a = execRule("a", 4, b);
+    listener.commandFinished(
+        CommandEvent.finished(
+            CommandEvent.started(
+                "build", ImmutableList.of(), Paths.get(""), OptionalLong.empty(), 1234),
+            ExitCode.SUCCESS));
+
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(durationHistoryPath);
+    assertThat(history.getDurationMs(a.getBuildTarget()), equalTo(OptionalLong.of(4)));
+    assertThat(history.getDurationMs(b.getBuildTarget()), equalTo(OptionalLong.of(7)));
+    assertThat(history.getDurationMs(c.getBuildTarget()), equalTo(OptionalLong.of(2)));
+    assertThat(
+        history.getDurationMs(BuildTargetFactory.newInstance("//:x")),
+        equalTo(OptionalLong.of(3)));
+  }
+
+  @SuppressWarnings("unused")
+  @Test
+  public void doesNotWriteRuleDurationsOfFullyCachedBuilds() {
+    Path durationHistoryPath = tmp.getRoot().resolve(BuildRuleDurationHistory.FILE_NAME);
+    listener =
+        new CriticalPathEventListener(
+            tmp.getRoot().resolve("critical_path.log"), Optional.of(durationHistoryPath));
+    BuildRule a = cachedRule("a", cachedRule("b"));
+    listener.commandFinished(
+        CommandEvent.finished(
+            CommandEvent.started(
+                "build", ImmutableList.of(), Paths.get(""), OptionalLong.empty(), 1234),
+            ExitCode.SUCCESS));
+
+    assertThat(Files.exists(durationHistoryPath), equalTo(false));
+  }
+
   private BuildRule cachedRule(String buildTargetName, BuildRule... buildRules) {
     return execRule(buildTargetName, 0, buildRules);
   }
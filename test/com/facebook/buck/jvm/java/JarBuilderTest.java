@@ -16,6 +16,7 @@
 
 package com.facebook.buck.jvm.java;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -31,9 +32,11 @@ import com.google.common.io.CharStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
@@ -42,9 +45,12 @@ import java.util.Map;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -286,6 +292,73 @@ public class JarBuilderTest {
     assertThat(entries.keySet(), Matchers.contains("After"));
   }
 
+  @Test
+  public void testCompressingInParallelWritesSameJar() throws IOException {
+    File serialJar = temporaryFolder.newFile();
+    File parallelJar = temporaryFolder.newFile();
+    for (File output : ImmutableList.of(serialJar, parallelJar)) {
+      JarBuilder jarBuilder =
+          new JarBuilder().setCompressionThreads(output.equals(parallelJar) ? 4 : 1);
+      for (int i = 0; i < 500; i++) {
+        StringBuilder contents = new StringBuilder();
+        for (int j = 0; j < i; j++) {
+          contents.append(i * j).append('\n');
+        }
+        addEntry(jarBuilder, String.format("dir%d/Entry%d.class", i % 7, i), contents.toString());
+      }
+      jarBuilder.createJarFile(output.toPath());
+    }
+
+    assertArrayEquals(
+        Files.readAllBytes(serialJar.toPath()), Files.readAllBytes(parallelJar.toPath()));
+  }
+
+  @Test
+  public void testCopiesCompressedEntriesFromSourceJars() throws IOException {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      contents.append("Foo").append(i % 13).append(i % 17).append('\n');
+    }
+    Path sourceJar = temporaryFolder.newFile().toPath();
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(sourceJar))) {
+      // Use a level JarBuilder would not pick, so copied data is told apart from recompressed data.
+      out.setLevel(Deflater.BEST_SPEED);
+      writeJarEntry(out, "com/example/Foo.class", contents.toString());
+      writeJarEntry(out, "META-INF/services/com.example.Service", "com.example.Foo");
+    }
+
+    File outputFile = temporaryFolder.newFile();
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(sourceJar))
+        .setShouldCopyCompressedEntries(true)
+        .createJarFile(outputFile.toPath());
+
+    try (JarFile source = new JarFile(sourceJar.toFile());
+        JarFile output = new JarFile(outputFile)) {
+      ZipEntry sourceEntry = source.getEntry("com/example/Foo.class");
+      ZipEntry outputEntry = output.getEntry("com/example/Foo.class");
+      assertEquals(sourceEntry.getCompressedSize(), outputEntry.getCompressedSize());
+      assertEquals(sourceEntry.getCrc(), outputEntry.getCrc());
+      assertEquals(contents.toString(), readEntry(output, outputEntry));
+      assertEquals(
+          "com.example.Foo",
+          readEntry(output, output.getEntry("META-INF/services/com.example.Service")));
+    }
+  }
+
+  private static void writeJarEntry(JarOutputStream out, String name, String contents)
+      throws IOException {
+    out.putNextEntry(new JarEntry(name));
+    out.write(contents.getBytes(StandardCharsets.UTF_8));
+    out.closeEntry();
+  }
+
+  private static String readEntry(JarFile jarFile, ZipEntry entry) throws IOException {
+    try (InputStream stream = jarFile.getInputStream(entry)) {
+      return CharStreams.toString(new InputStreamReader(stream, Charsets.UTF_8));
+    }
+  }
+
   private static class TestJarEntryContainer implements JarEntryContainer {
     @Nullable private Manifest manifest;
     private final List<JarEntrySupplier> suppliers = new ArrayList<>();
@@ -66,6 +66,8 @@ import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.impl.StackedFileHashCache;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -527,7 +529,11 @@ public class ParsePipelineTest {
       ConstructorArgMarshaller constructorArgMarshaller =
           new DefaultConstructorArgMarshaller(coercerFactory);
 
-      this.daemonicParserState = new DaemonicParserState(NUM_THREADS);
+      this.daemonicParserState =
+          new DaemonicParserState(
+              NUM_THREADS,
+              StackedFileHashCache.createDefaultHashCaches(
+                  cells.getRootCell().getFilesystem(), FileHashCacheMode.DEFAULT));
 
       projectBuildFileParserPool =
           new ProjectBuildFileParserPool(
@@ -567,7 +573,8 @@ public class ParsePipelineTest {
               projectBuildFileParserPool,
               executorService,
               eventBus,
-              WatchmanFactory.NULL_WATCHMAN);
+              WatchmanFactory.NULL_WATCHMAN,
+              daemonicParserState.getFileHashLoader());
 
       BuildTargetRawNodeParsePipeline buildTargetRawNodeParsePipeline =
           new BuildTargetRawNodeParsePipeline(executorService, buildFileRawNodeParsePipeline);
@@ -33,6 +33,8 @@ import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.rules.coercer.DefaultConstructorArgMarshaller;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.impl.StackedFileHashCache;
 import org.pf4j.PluginManager;
 
 public class TestParserFactory {
@@ -87,7 +89,10 @@ public class TestParserFactory {
     ParserConfig parserConfig = cell.getBuckConfig().getView(ParserConfig.class);
 
     return new ParserWithConfigurableAttributes(
-        new DaemonicParserState(parserConfig.getNumParsingThreads()),
+        new DaemonicParserState(
+            parserConfig.getNumParsingThreads(),
+            StackedFileHashCache.createDefaultHashCaches(
+                cell.getFilesystem(), FileHashCacheMode.DEFAULT)),
         perBuildStateFactory,
         TestTargetSpecResolverFactory.create(executor, cell.getCellProvider(), eventBus),
         eventBus,
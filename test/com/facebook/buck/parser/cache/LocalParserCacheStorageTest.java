@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalParserCacheStorageTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path root;
+
+  @Before
+  public void setUp() {
+    root = tmp.getRoot().resolve("parser");
+  }
+
+  @Test
+  public void trimsLeastRecentlyUsedEntries() throws Exception {
+    LocalParserCacheStorage storage = LocalParserCacheStorage.of(root, 1000);
+    HashCode a = fingerprint("a");
+    HashCode b = fingerprint("b");
+    HashCode c = fingerprint("c");
+    HashCode d = fingerprint("d");
+    storage.store(a, new byte[300]);
+    storage.store(b, new byte[300]);
+    storage.store(c, new byte[300]);
+    setLastAccessTime(a, 3);
+    setLastAccessTime(b, 1);
+    setLastAccessTime(c, 2);
+    assertTrue(storage.get(a).isPresent());
+
+    // Brings the entries stored since the last trim above half of the maximum size.
+    storage.store(d, new byte[300]);
+
+    assertTrue(storage.get(a).isPresent());
+    assertFalse(storage.get(b).isPresent());
+    assertFalse(storage.get(c).isPresent());
+    assertTrue(storage.get(d).isPresent());
+  }
+
+  private static HashCode fingerprint(String name) {
+    return Hashing.sha1().hashString(name, StandardCharsets.UTF_8);
+  }
+
+  private void setLastAccessTime(HashCode fingerprint, long millis) throws IOException {
+    String name = fingerprint.toString();
+    Files.getFileAttributeView(
+            root.resolve(name.substring(0, 2)).resolve(name), BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(millis), null);
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.config.FakeBuckConfig;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.ProjectBuildFileParser;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.impl.StackedFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParserCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path buildFile;
+  private Path extension;
+  private ParserCacheStorage storage;
+  private FakeParser parser;
+
+  @Before
+  public void setUp() throws IOException {
+    buildFile = tmp.getRoot().resolve("BUCK");
+    extension = tmp.getRoot().resolve("defs.bzl");
+    write(buildFile, "java_library(name = 'lib')");
+    write(extension, "def foo(): pass");
+    storage =
+        LocalParserCacheStorage.of(tmp.getRoot().resolve("buck-out/cache/parser"), Long.MAX_VALUE);
+    parser =
+        new FakeParser(
+            createManifest(
+                ImmutableMap.of("section", ImmutableMap.of("key", Optional.of("value"))),
+                ImmutableList.of()));
+  }
+
+  @Test
+  public void servesUnchangedBuildFileFromCache() throws Exception {
+    assertEquals(parser.manifest, newCache().getManifest(parser, buildFile));
+
+    ParserCache cache = newCache();
+    assertEquals(parser.manifest, cache.getManifest(parser, buildFile));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, parser.parses);
+  }
+
+  @Test
+  public void changedBuildFileIsParsedAgain() throws Exception {
+    newCache().getManifest(parser, buildFile);
+
+    write(buildFile, "java_library(name = 'other')");
+    ParserCache cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, parser.parses);
+  }
+
+  @Test
+  public void changedOrDeletedExtensionIsParsedAgain() throws Exception {
+    newCache().getManifest(parser, buildFile);
+
+    write(extension, "def bar(): pass");
+    ParserCache cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+
+    Files.delete(extension);
+    cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void extensionsAreHashedThroughTheFileHashCache() throws Exception {
+    FileHashCache fileHashCache = newFileHashCache();
+    newCache(fileHashCache).getManifest(parser, buildFile);
+
+    // Without an invalidation from the file system, the file hash cache serves the old hash.
+    write(extension, "def bar(): pass");
+    ParserCache cache = newCache(fileHashCache);
+    cache.getManifest(parser, buildFile);
+    assertEquals(1, cache.getHitCount());
+
+    fileHashCache.invalidate(extension);
+    cache = newCache(fileHashCache);
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void manifestsOfExtensionsModifiedWhileParsingAreNotCached() throws Exception {
+    parser.onParse =
+        () -> Files.write(extension, "def bar(): pass".getBytes(StandardCharsets.UTF_8));
+    newCache().getManifest(parser, buildFile);
+
+    parser.onParse = () -> {};
+    ParserCache cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, parser.parses);
+  }
+
+  @Test
+  public void changedConfigValueReadByBuildFileIsParsedAgain() throws Exception {
+    newCache().getManifest(parser, buildFile);
+
+    ParserCache cache = newCache("[section]", "key = other");
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void changedParserConfigIsParsedAgain() throws Exception {
+    newCache().getManifest(parser, buildFile);
+
+    ParserCache cache = newCache("[section]", "key = value", "[parser]", "some_option = true");
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void changedGlobResultsAreParsedAgain() throws Exception {
+    parser =
+        new FakeParser(
+            createManifest(
+                ImmutableMap.of(),
+                ImmutableList.of(
+                    GlobSpecWithResult.of(
+                        GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of(), true),
+                        ImmutableSet.of("Foo.java")))));
+    newCache().getManifest(parser, buildFile);
+
+    ParserCache cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(1, cache.getHitCount());
+
+    parser.globsMatch = false;
+    cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void manifestsWithErrorsAreNotCached() throws Exception {
+    parser =
+        new FakeParser(
+            BuildFileManifest.of(
+                ImmutableMap.of(),
+                ImmutableSortedSet.of(),
+                ImmutableMap.of(),
+                Optional.empty(),
+                ImmutableList.of(),
+                ImmutableList.of(ParsingError.of("error", ImmutableList.of()))));
+    newCache().getManifest(parser, buildFile);
+
+    ParserCache cache = newCache();
+    cache.getManifest(parser, buildFile);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  private ParserCache newCache() {
+    return newCache("[section]", "key = value");
+  }
+
+  private ParserCache newCache(FileHashCache fileHashCache) {
+    return newCache(fileHashCache, "[section]", "key = value");
+  }
+
+  private ParserCache newCache(String... config) {
+    return newCache(newFileHashCache(), config);
+  }
+
+  private ParserCache newCache(FileHashCache fileHashCache, String... config) {
+    BuckConfig buckConfig = FakeBuckConfig.builder().setSections(config).build();
+    return new ParserCache(storage, buckConfig, fileHashCache);
+  }
+
+  private FileHashCache newFileHashCache() {
+    return StackedFileHashCache.createDefaultHashCaches(
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()), FileHashCacheMode.DEFAULT);
+  }
+
+  private BuildFileManifest createManifest(
+      ImmutableMap<String, Object> configs, ImmutableList<GlobSpecWithResult> globs) {
+    return BuildFileManifest.of(
+        ImmutableMap.of("lib", ImmutableMap.of("name", "lib", "buck.type", "java_library")),
+        ImmutableSortedSet.of(buildFile.toString(), extension.toString()),
+        configs,
+        Optional.empty(),
+        globs,
+        ImmutableList.of());
+  }
+
+  /** Writes a file as if it was modified well before it is parsed. */
+  private static void write(Path path, String contents) throws IOException {
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(
+        path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)));
+  }
+
+  private interface ParseAction {
+    void run() throws IOException;
+  }
+
+  private static class FakeParser implements ProjectBuildFileParser {
+    private final BuildFileManifest manifest;
+    private int parses;
+    private boolean globsMatch = true;
+    private ParseAction onParse = () -> {};
+
+    private FakeParser(BuildFileManifest manifest) {
+      this.manifest = manifest;
+    }
+
+    @Override
+    public BuildFileManifest getManifest(Path parseFile) throws IOException {
+      parses++;
+      onParse.run();
+      return manifest;
+    }
+
+    @Override
+    public ImmutableSortedSet<String> getIncludedFiles(Path parseFile) {
+      return manifest.getIncludes();
+    }
+
+    @Override
+    public boolean globResultsMatchCurrentState(
+        Path buildFile, ImmutableList<GlobSpecWithResult> existingGlobsWithResults) {
+      return globsMatch;
+    }
+
+    @Override
+    public void reportProfile() {}
+
+    @Override
+    public void close() {}
+  }
+}
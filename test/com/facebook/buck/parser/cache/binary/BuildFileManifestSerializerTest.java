@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/** This class contains tests that exercise the binary serialization of {@link BuildFileManifest}. */
+public class BuildFileManifestSerializerTest {
+  @Rule public ExpectedException expectedException = ExpectedException.none();
+
+  private static BuildFileManifest createManifest(ImmutableMap<String, Object> target) {
+    return BuildFileManifest.of(
+        ImmutableMap.of("lib", target),
+        ImmutableSortedSet.of("/repo/defs.bzl", "/repo/lib/BUCK"),
+        ImmutableMap.of(
+            "section", ImmutableMap.of("key", Optional.of("value"), "missing", Optional.empty())),
+        Optional.empty(),
+        ImmutableList.of(
+            GlobSpecWithResult.of(
+                GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of("Test*.java"), true),
+                ImmutableSet.of("Foo.java", "Bar.java"))),
+        ImmutableList.of(ParsingError.of("error", ImmutableList.of("frame1", "frame2"))));
+  }
+
+  @Test
+  public void roundTripsAllValueTypes() throws Exception {
+    ImmutableMap<String, Object> target =
+        ImmutableMap.<String, Object>builder()
+            .put("name", "lib")
+            .put("srcs", ImmutableList.of("Foo.java", "Bar.java"))
+            .put("labels", ImmutableSortedSet.of("b", "a"))
+            .put("licenses", ImmutableSet.of("LICENSE"))
+            .put("env", ImmutableSortedMap.of("Z", "1", "A", "2"))
+            .put("flags", ImmutableMap.of("x", ImmutableList.of(1, -2)))
+            .put("big", Long.MIN_VALUE)
+            .put("ratio", 0.5)
+            .put("enabled", true)
+            .put("disabled", false)
+            .put("optional", Optional.of("value"))
+            .put("absent", Optional.empty())
+            .put("long_string", Strings.repeat("x", 100_000))
+            .put(
+                "deps",
+                ListWithSelects.of(
+                    ImmutableList.of(
+                        ImmutableList.of(":a"),
+                        SelectorValue.of(
+                            ImmutableMap.of(
+                                "//config:linux",
+                                ImmutableList.of(":b"),
+                                "DEFAULT",
+                                ImmutableList.of()),
+                            "no match")),
+                    ImmutableList.class))
+            .build();
+    BuildFileManifest manifest = createManifest(target);
+
+    assertEquals(
+        manifest,
+        BuildFileManifestSerializer.deserialize(BuildFileManifestSerializer.serialize(manifest)));
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() throws Exception {
+    String label = Strings.repeat("//some/long/package:target", 10);
+    BuildFileManifest once = createManifest(ImmutableMap.of("deps", ImmutableList.of(label)));
+    BuildFileManifest many =
+        createManifest(
+            ImmutableMap.of("deps", ImmutableList.of(label, label, label, label, label)));
+
+    int onceLength = BuildFileManifestSerializer.serialize(once).length;
+    int manyLength = BuildFileManifestSerializer.serialize(many).length;
+    assertTrue(manyLength - onceLength < label.length());
+  }
+
+  @Test
+  public void isSmallerThanJson() throws Exception {
+    BuildFileManifest manifest =
+        createManifest(
+            ImmutableMap.of(
+                "name", "lib", "srcs", ImmutableList.of("Foo.java"), "visibility", "PUBLIC"));
+
+    assertTrue(
+        BuildFileManifestSerializer.serialize(manifest).length
+            < com.facebook.buck.parser.cache.json.BuildFileManifestSerializer.serialize(manifest)
+                .length);
+  }
+
+  @Test
+  public void unsupportedValueTypesFailToSerialize() throws Exception {
+    expectedException.expect(IOException.class);
+    BuildFileManifestSerializer.serialize(createManifest(ImmutableMap.of("value", new Object())));
+  }
+
+  @Test
+  public void truncatedBytesFailToDeserialize() throws Exception {
+    byte[] bytes = BuildFileManifestSerializer.serialize(createManifest(ImmutableMap.of()));
+    byte[] truncated = new byte[bytes.length / 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+    expectedException.expect(IOException.class);
+    BuildFileManifestSerializer.deserialize(truncated);
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class IndexedQueryGraphTest {
+
+  /**
+   * <pre>
+   *   a -> b -> d
+   *   a -> c -> d -> e
+   *   f -> e
+   * </pre>
+   */
+  private static final ImmutableMap<String, ImmutableList<String>> DIAMOND =
+      ImmutableMap.<String, ImmutableList<String>>builder()
+          .put("a", ImmutableList.of("b", "c"))
+          .put("b", ImmutableList.of("d"))
+          .put("c", ImmutableList.of("d"))
+          .put("d", ImmutableList.of("e"))
+          .put("e", ImmutableList.of())
+          .put("f", ImmutableList.of("e"))
+          .build();
+
+  private static IndexedQueryGraph<String> of(Map<String, ? extends List<String>> graph)
+      throws QueryException {
+    return IndexedQueryGraph.of(graph.keySet(), graph::get);
+  }
+
+  @Test
+  public void transitiveClosureIsBreadthFirst() throws Exception {
+    IndexedQueryGraph<String> graph = of(DIAMOND);
+    assertEquals(
+        ImmutableList.of("a", "b", "c", "d", "e"),
+        ImmutableList.copyOf(graph.getTransitiveClosure(ImmutableSet.of("a", "unknown"))));
+  }
+
+  @Test
+  public void depsAreBoundedByDepth() throws Exception {
+    IndexedQueryGraph<String> graph = of(DIAMOND);
+    assertEquals(
+        ImmutableList.of("a", "b", "c"),
+        ImmutableList.copyOf(graph.getDeps(ImmutableSet.of("a"), 1)));
+    assertEquals(
+        ImmutableList.of("a", "b", "c", "d", "e"),
+        ImmutableList.copyOf(graph.getDeps(ImmutableSet.of("a"), Integer.MAX_VALUE)));
+  }
+
+  @Test
+  public void reverseDepsAreLimitedToUniverse() throws Exception {
+    IndexedQueryGraph<String> graph = of(DIAMOND);
+    assertEquals(
+        ImmutableList.of("e", "d", "b", "c", "a"),
+        ImmutableList.copyOf(
+            graph.getReverseDeps(ImmutableSet.of("a"), ImmutableSet.of("e"), Integer.MAX_VALUE)));
+    assertEquals(
+        ImmutableList.of("e", "d"),
+        ImmutableList.copyOf(graph.getReverseDeps(ImmutableSet.of("a"), ImmutableSet.of("e"), 1)));
+    assertEquals(
+        ImmutableList.of("e", "f"),
+        ImmutableList.copyOf(
+            graph.getReverseDeps(ImmutableSet.of("f"), ImmutableSet.of("e"), Integer.MAX_VALUE)));
+  }
+
+  @Test
+  public void allPathsOnlyContainsNodesBetweenBothSets() throws Exception {
+    IndexedQueryGraph<String> graph = of(DIAMOND);
+    assertEquals(
+        ImmutableSet.of("a", "b", "c", "d"),
+        graph.getAllPaths(ImmutableSet.of("a"), ImmutableSet.of("d")));
+    assertTrue(graph.getAllPaths(ImmutableSet.of("f"), ImmutableSet.of("d")).isEmpty());
+  }
+
+  @Test
+  public void resultsCanBePassedBackWithoutLookups() throws Exception {
+    IndexedQueryGraph<String> graph = of(DIAMOND);
+    IndexedTargetSet<String> closure = graph.getTransitiveClosure(ImmutableSet.of("c"));
+    assertTrue(graph.containsAll(closure));
+    assertTrue(closure.contains("e"));
+    assertFalse(closure.contains("a"));
+    assertFalse(closure.contains("unknown"));
+    assertEquals(
+        ImmutableList.of("c", "d", "e", "a", "b"),
+        ImmutableList.copyOf(graph.getReverseDeps(ImmutableSet.of("a"), closure, Integer.MAX_VALUE)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void successorsMustBePartOfTheGraph() throws Exception {
+    of(ImmutableMap.of("a", ImmutableList.of("b")));
+  }
+
+  @Test
+  public void matchesSetBasedTraversalsOnRandomGraphs() throws Exception {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      Map<String, List<String>> graph = randomDag(random, 200);
+      IndexedQueryGraph<String> indexed = of(graph);
+      Set<String> from = randomSubset(random, graph.keySet(), 3);
+      Set<String> to = randomSubset(random, graph.keySet(), 10);
+      int depth = random.nextInt(4) + 1;
+
+      assertEquals(
+          ImmutableList.copyOf(deps(graph, from, depth)),
+          ImmutableList.copyOf(indexed.getDeps(from, depth)));
+      // The order of reverse dependencies within a level isn't defined.
+      assertEquals(rdeps(graph, from, to, depth), indexed.getReverseDeps(from, to, depth));
+      assertEquals(
+          rdeps(graph, from, to, Integer.MAX_VALUE),
+          indexed.getReverseDeps(from, to, Integer.MAX_VALUE));
+      assertEquals(allPaths(graph, from, to), indexed.getAllPaths(from, to));
+    }
+  }
+
+  @Test
+  public void extendedGraphMatchesGraphBuiltAtOnce() throws Exception {
+    IndexedQueryGraph<String> base =
+        IndexedQueryGraph.of(ImmutableList.of("d", "e"), DIAMOND::get);
+    IndexedQueryGraph<String> extended =
+        base.extend(ImmutableList.of("a", "b", "c", "f"), DIAMOND::get);
+    IndexedQueryGraph<String> atOnce = of(DIAMOND);
+
+    Set<String> all = DIAMOND.keySet();
+    assertEquals(
+        ImmutableList.copyOf(atOnce.getTransitiveClosure(ImmutableSet.of("a"))),
+        ImmutableList.copyOf(extended.getTransitiveClosure(ImmutableSet.of("a"))));
+    assertEquals(
+        ImmutableList.copyOf(atOnce.getReverseDeps(all, ImmutableSet.of("e"), Integer.MAX_VALUE)),
+        ImmutableList.copyOf(
+            extended.getReverseDeps(all, ImmutableSet.of("e"), Integer.MAX_VALUE)));
+    // The earlier snapshot doesn't see the nodes added since.
+    assertEquals(
+        ImmutableSet.of("e", "d"),
+        base.getReverseDeps(all, ImmutableSet.of("e"), Integer.MAX_VALUE));
+    assertFalse(base.containsAll(ImmutableSet.of("a")));
+  }
+
+  @Test
+  public void wideLevelsAreExpandedInTheSameOrder() throws Exception {
+    // Wide enough for the middle level to be scanned in parallel.
+    Map<String, List<String>> graph = new HashMap<>();
+    List<String> middle = new ArrayList<>();
+    Set<String> pathsToLeaf = new HashSet<>();
+    pathsToLeaf.add("root");
+    pathsToLeaf.add("leaf0");
+    for (int i = 0; i < 20000; i++) {
+      String node = "w" + i;
+      middle.add(node);
+      graph.put(node, ImmutableList.of("leaf" + (i * 31 % 97)));
+      if (i * 31 % 97 == 0) {
+        pathsToLeaf.add(node);
+      }
+    }
+    for (int i = 0; i < 97; i++) {
+      graph.put("leaf" + i, ImmutableList.of());
+    }
+    Collections.shuffle(middle, new Random(42));
+    graph.put("root", middle);
+    IndexedQueryGraph<String> indexed = IndexedQueryGraph.of(graph.keySet(), graph::get, true);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      pool.submit(() -> assertWideGraphTraversals(graph, indexed, pathsToLeaf)).get();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void assertWideGraphTraversals(
+      Map<String, List<String>> graph,
+      IndexedQueryGraph<String> indexed,
+      Set<String> pathsToLeaf) {
+    Set<String> root = ImmutableSet.of("root");
+    assertEquals(
+        ImmutableList.copyOf(closure(graph, root)),
+        ImmutableList.copyOf(indexed.getTransitiveClosure(root)));
+    assertEquals(
+        ImmutableList.copyOf(deps(graph, root, 2)),
+        ImmutableList.copyOf(indexed.getDeps(root, 2)));
+    assertEquals(pathsToLeaf, indexed.getReverseDeps(root, ImmutableSet.of("leaf0"), 2));
+    assertEquals(pathsToLeaf, indexed.getAllPaths(root, ImmutableSet.of("leaf0")));
+    Set<String> leaves = Sets.filter(graph.keySet(), node -> node.startsWith("leaf"));
+    assertEquals(graph.keySet(), indexed.getReverseDeps(root, leaves, Integer.MAX_VALUE));
+    assertEquals(graph.keySet(), indexed.getAllPaths(root, leaves));
+  }
+
+  private static Map<String, List<String>> randomDag(Random random, int size) {
+    Map<String, List<String>> graph = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      List<String> deps = new ArrayList<>();
+      for (int j = i + 1; j < size; j++) {
+        if (random.nextInt(size) < 4) {
+          deps.add("n" + j);
+        }
+      }
+      graph.put("n" + i, deps);
+    }
+    return graph;
+  }
+
+  private static Set<String> randomSubset(Random random, Collection<String> nodes, int size) {
+    List<String> candidates = new ArrayList<>(nodes);
+    Set<String> result = new LinkedHashSet<>();
+    while (result.size() < size) {
+      result.add(candidates.get(random.nextInt(candidates.size())));
+    }
+    return result;
+  }
+
+  // The following are the set based traversals of the query functions, as a reference.
+
+  private static Set<String> closure(Map<String, List<String>> graph, Set<String> roots) {
+    Set<String> result = new LinkedHashSet<>(roots);
+    List<String> queue = new ArrayList<>(roots);
+    for (int i = 0; i < queue.size(); i++) {
+      for (String dep : graph.get(queue.get(i))) {
+        if (result.add(dep)) {
+          queue.add(dep);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Set<String> reverseDeps(Map<String, List<String>> graph, Iterable<String> nodes) {
+    Set<String> targets = Sets.newHashSet(nodes);
+    Set<String> result = new LinkedHashSet<>();
+    for (String target : targets) {
+      for (Map.Entry<String, List<String>> entry : graph.entrySet()) {
+        if (entry.getValue().contains(target)) {
+          result.add(entry.getKey());
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Set<String> deps(Map<String, List<String>> graph, Set<String> roots, int depth) {
+    Set<String> result = new LinkedHashSet<>(roots);
+    Collection<String> current = roots;
+    for (int i = 0; i < depth; i++) {
+      List<String> next = new ArrayList<>();
+      for (String target : current) {
+        for (String dep : graph.get(target)) {
+          if (result.add(dep)) {
+            next.add(dep);
+          }
+        }
+      }
+      if (next.isEmpty()) {
+        break;
+      }
+      current = next;
+    }
+    return result;
+  }
+
+  private static Set<String> rdeps(
+      Map<String, List<String>> graph, Set<String> universe, Set<String> targets, int depth) {
+    Set<String> closure = closure(graph, universe);
+    Set<String> visited = new LinkedHashSet<>();
+    Collection<String> current = targets;
+    for (int i = 0; i <= depth; i++) {
+      List<String> filtered = new ArrayList<>();
+      for (String target : current) {
+        if (closure.contains(target) && visited.add(target)) {
+          filtered.add(target);
+        }
+      }
+      Set<String> next = reverseDeps(graph, filtered);
+      if (next.isEmpty()) {
+        break;
+      }
+      current = next;
+    }
+    return visited;
+  }
+
+  private static Set<String> allPaths(
+      Map<String, List<String>> graph, Set<String> from, Set<String> to) {
+    Set<String> reachable = closure(graph, from);
+    Set<String> result = new LinkedHashSet<>();
+    if (reachable.size() > to.size()) {
+      Sets.intersection(to, reachable).copyInto(result);
+    } else {
+      Sets.intersection(reachable, to).copyInto(result);
+    }
+    Collection<String> worklist = new ArrayList<>(result);
+    while (!worklist.isEmpty()) {
+      List<String> next = new ArrayList<>();
+      for (String target : reverseDeps(graph, worklist)) {
+        if (reachable.contains(target) && result.add(target)) {
+          next.add(target);
+        }
+      }
+      worklist = next;
+    }
+    return result;
+  }
+}
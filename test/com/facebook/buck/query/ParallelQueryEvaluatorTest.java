@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.QueryTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ParallelQueryEvaluatorTest {
+
+  private static final ImmutableMap<String, ImmutableList<String>> GRAPH =
+      ImmutableMap.<String, ImmutableList<String>>builder()
+          .put("//:a", ImmutableList.of("//:b", "//:c"))
+          .put("//:b", ImmutableList.of("//:d"))
+          .put("//:c", ImmutableList.of("//:d", "//:e"))
+          .put("//:d", ImmutableList.of())
+          .put("//:e", ImmutableList.of())
+          .put("//:f", ImmutableList.of("//:a", "//:e"))
+          .build();
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private ForkJoinPool pool;
+  private TestQueryEnvironment env;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+    env = new TestQueryEnvironment();
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void matchesSequentialEvaluation() throws Exception {
+    for (String query :
+        ImmutableList.of(
+            "deps(//:a) ^ rdeps(//:f, //:d)",
+            "deps(//:f) - (deps(//:b) + deps(//:c, 1))",
+            "allpaths(//:f, //:d) + rdeps(//:f, //:e, 1)",
+            "deps(//:f, 2, first_order_deps()) except deps(//:c)",
+            "set(//:e //:b //:a) intersect deps(//:f)")) {
+      QueryExpression<QueryBuildTarget> expression = QueryExpression.parse(query, env);
+      assertEquals(
+          query,
+          ImmutableList.copyOf(new NoopQueryEvaluator<QueryBuildTarget>().eval(expression, env)),
+          ImmutableList.copyOf(
+              new ParallelQueryEvaluator<QueryBuildTarget>(pool).eval(expression, env)));
+    }
+  }
+
+  @Test
+  public void evaluatesEachSubexpressionOnce() throws Exception {
+    QueryExpression<QueryBuildTarget> expression =
+        QueryExpression.parse("deps(//:a) + (rdeps(//:f, //:d) - deps(//:a))", env);
+    new ParallelQueryEvaluator<QueryBuildTarget>(pool).eval(expression, env);
+    assertEquals(1, env.getEvaluationCount("//:a"));
+    assertEquals(1, env.getEvaluationCount("//:d"));
+  }
+
+  @Test
+  public void propagatesFailures() throws Exception {
+    QueryExpression<QueryBuildTarget> expression =
+        QueryExpression.parse("deps(//:a) + deps(//:missing)", env);
+    thrown.expect(QueryException.class);
+    thrown.expectMessage("//:missing");
+    new ParallelQueryEvaluator<QueryBuildTarget>(pool).eval(expression, env);
+  }
+
+  private static QueryBuildTarget target(String name) {
+    return QueryBuildTarget.of(BuildTargetFactory.newInstance(name));
+  }
+
+  /** An environment over {@link #GRAPH}, which may be used from several threads. */
+  private static class TestQueryEnvironment extends BaseTestQueryEnvironment<QueryBuildTarget> {
+    private final Map<String, AtomicInteger> evaluationCounts = new ConcurrentHashMap<>();
+
+    int getEvaluationCount(String pattern) {
+      return evaluationCounts.get(pattern).get();
+    }
+
+    @Override
+    public TargetEvaluator getTargetEvaluator() {
+      return new TargetEvaluator() {
+        @Override
+        public Set<QueryTarget> evaluateTarget(String pattern) throws QueryException {
+          evaluationCounts.computeIfAbsent(pattern, key -> new AtomicInteger()).incrementAndGet();
+          if (!GRAPH.containsKey(pattern)) {
+            throw new QueryException("Unknown target %s", pattern);
+          }
+          return ImmutableSet.of(target(pattern));
+        }
+
+        @Override
+        public Type getType() {
+          return Type.LAZY;
+        }
+      };
+    }
+
+    @Override
+    public Set<QueryBuildTarget> getFwdDeps(Iterable<QueryBuildTarget> targets) {
+      Set<QueryBuildTarget> result = new LinkedHashSet<>();
+      for (QueryBuildTarget target : targets) {
+        for (String dep : getDeps(target)) {
+          result.add(target(dep));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Set<QueryBuildTarget> getReverseDeps(Iterable<QueryBuildTarget> targets) {
+      Set<QueryBuildTarget> result = new LinkedHashSet<>();
+      for (QueryBuildTarget target : targets) {
+        String name = target.getBuildTarget().getFullyQualifiedName();
+        GRAPH.forEach(
+            (parent, deps) -> {
+              if (deps.contains(name)) {
+                result.add(target(parent));
+              }
+            });
+      }
+      return result;
+    }
+
+    @Override
+    public Set<QueryBuildTarget> getTransitiveClosure(Set<QueryBuildTarget> targets) {
+      Set<QueryBuildTarget> result = new LinkedHashSet<>(targets);
+      for (QueryBuildTarget target : targets) {
+        result.addAll(getTransitiveClosure(getFwdDeps(ImmutableList.of(target))));
+      }
+      return result;
+    }
+
+    @Override
+    public void buildTransitiveClosure(Set<? extends QueryTarget> targetNodes, int maxDepth) {}
+
+    @Override
+    public Iterable<QueryFunction<? extends QueryTarget, QueryBuildTarget>> getFunctions() {
+      return ImmutableList.of(
+          new AllPathsFunction<>(),
+          new DepsFunction<>(),
+          new DepsFunction.FirstOrderDepsFunction<>(),
+          new RdepsFunction<>());
+    }
+
+    private static List<String> getDeps(QueryBuildTarget target) {
+      return GRAPH.get(target.getBuildTarget().getFullyQualifiedName());
+    }
+  }
+}
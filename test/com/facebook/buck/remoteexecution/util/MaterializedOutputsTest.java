@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MaterializedOutputsTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+
+  @Test
+  public void onlyUnchangedRecordedOutputsAreUpToDate() throws IOException {
+    Path root = tmp.getRoot();
+    byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    Path same = Paths.get("out/same");
+    Path changed = Paths.get("out/changed");
+    Path deleted = Paths.get("out/deleted");
+    Path unrecorded = Paths.get("out/unrecorded");
+    Files.createDirectories(root.resolve("out"));
+    for (Path path : ImmutableList.of(same, changed, deleted, unrecorded)) {
+      Files.write(root.resolve(path), data);
+    }
+
+    MaterializedOutputs outputs = new MaterializedOutputs(100);
+    outputs.record(
+        root,
+        ImmutableList.of(
+            protocol.newOutputFile(same, digest, false),
+            protocol.newOutputFile(changed, digest, false),
+            protocol.newOutputFile(deleted, digest, false)));
+
+    // Same size, but a different modification time.
+    Files.write(root.resolve(changed), "atad".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(
+        root.resolve(changed),
+        FileTime.fromMillis(Files.getLastModifiedTime(root.resolve(same)).toMillis() + 2000));
+    Files.delete(root.resolve(deleted));
+
+    ImmutableList<OutputFile> expected =
+        ImmutableList.of(
+            protocol.newOutputFile(same, digest, false),
+            protocol.newOutputFile(changed, digest, false),
+            protocol.newOutputFile(deleted, digest, false),
+            protocol.newOutputFile(unrecorded, digest, false));
+    assertEquals(ImmutableSet.of(same), outputs.findUpToDateOutputs(root, expected));
+  }
+
+  @Test
+  public void outputsWithADifferentDigestOrModeAreNotUpToDate() throws IOException {
+    Path root = tmp.getRoot();
+    byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    Path path = Paths.get("output");
+    Files.write(root.resolve(path), data);
+
+    MaterializedOutputs outputs = new MaterializedOutputs(100);
+    outputs.record(root, ImmutableList.of(protocol.newOutputFile(path, digest, false)));
+
+    Digest otherDigest = protocol.computeDigest("atad".getBytes(StandardCharsets.UTF_8));
+    assertEquals(
+        ImmutableSet.of(),
+        outputs.findUpToDateOutputs(
+            root, ImmutableList.of(protocol.newOutputFile(path, otherDigest, false))));
+    assertEquals(
+        ImmutableSet.of(),
+        outputs.findUpToDateOutputs(
+            root, ImmutableList.of(protocol.newOutputFile(path, digest, true))));
+    assertEquals(
+        ImmutableSet.of(path),
+        outputs.findUpToDateOutputs(
+            root, ImmutableList.of(protocol.newOutputFile(path, digest, false))));
+  }
+}
@@ -39,9 +39,11 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -303,6 +305,40 @@ public class MerkleTreeNodeCacheTest {
     assertEquals(30, nodeCache.getData(combinedNode).getTotalSize());
   }
 
+  @Test
+  public void identicalSubtreesAreSharedAcrossLocationsAndInstances() {
+    Digest hash1 = protocol.computeDigest("hash1".getBytes(Charsets.UTF_8));
+    MerkleTreeNode first =
+        new MerkleTreeNodeCache(protocol)
+            .createNode(
+                ImmutableMap.of(
+                    Paths.get("a/lib/file.1"), protocol.newFileNode(hash1, "file.1", false),
+                    Paths.get("b/lib/file.1"), protocol.newFileNode(hash1, "file.1", false)),
+                ImmutableMap.of(),
+                ImmutableMap.of());
+
+    MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol);
+    MerkleTreeNode second =
+        nodeCache.createNode(
+            ImmutableMap.of(
+                Paths.get("c/lib/file.1"), protocol.newFileNode(hash1, "file.1", false)),
+            ImmutableMap.of(),
+            ImmutableMap.of());
+
+    List<MerkleTreeNode> firstNodes = new ArrayList<>();
+    first.forAllNodes(firstNodes::add);
+    List<MerkleTreeNode> secondNodes = new ArrayList<>();
+    second.forAllNodes(secondNodes::add);
+    // root, a, a/lib, b, b/lib
+    assertEquals(5, firstNodes.size());
+    assertSame(firstNodes.get(1), firstNodes.get(3));
+    assertSame(firstNodes.get(1), secondNodes.get(1));
+
+    List<NodeData> data = new ArrayList<>();
+    nodeCache.forAllData(first, data::add);
+    assertEquals(3, data.size());
+  }
+
   @Test
   public void badFileNodeNameIsRejected() {
     expected.expect(IllegalStateException.class);
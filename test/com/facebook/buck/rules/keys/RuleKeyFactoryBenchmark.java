@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.SourceWithFlags;
+import com.facebook.buck.cxx.CxxDescriptionEnhancer;
+import com.facebook.buck.cxx.CxxLibraryBuilder;
+import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.shell.GenruleBuilder;
+import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures rule key computation over synthetic action graphs.
+ *
+ * <p>Each graph is a layered DAG of a single rule type where every rule depends on a couple of
+ * rules from the previous layer. A single benchmark operation computes the keys of every rule in
+ * the graph, so divide the score by {@code ruleKeys} to get per-rule latency. {@link #main} runs
+ * with the GC profiler attached, which reports the allocation rate ({@code gc.alloc.rate.norm}).
+ * The rule key cache hit ratio is {@code cacheHits / (cacheHits + cacheMisses)}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RuleKeyFactoryBenchmark {
+
+  /** The rule type a synthetic graph is made of. */
+  public enum Shape {
+    JAVA_LIBRARY(".java"),
+    CXX_LIBRARY(".cpp"),
+    GENRULE(".txt"),
+    ;
+
+    private final String extension;
+
+    Shape(String extension) {
+      this.extension = extension;
+    }
+  }
+
+  private static final int DEPS_PER_RULE = 2;
+  private static final int SRCS_PER_RULE = 8;
+
+  @Param({"JAVA_LIBRARY", "CXX_LIBRARY", "GENRULE"})
+  public Shape shape;
+
+  @Param({"500"})
+  public int ruleCount;
+
+  @Param({"20"})
+  public int width;
+
+  private final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private final FileHashLoader hashLoader = new PathHashLoader();
+  private final RuleKeyFieldLoader fieldLoader =
+      new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create());
+
+  private ActionGraphBuilder graphBuilder;
+  private ImmutableList<BuildRule> rules;
+  private TrackedRuleKeyCache<RuleKey> warmCache;
+  private InstrumentingCacheStatsTracker warmCacheStats;
+  private ImmutableList<RuleKeyInput> changedInputs;
+
+  @Setup(Level.Trial)
+  public void setUpGraph() {
+    List<TargetNode<?>> nodes = new ArrayList<>(ruleCount);
+    List<BuildTarget> ruleTargets = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      BuildTarget target = BuildTargetFactory.newInstance("//layer" + i / width + ":rule" + i);
+      ImmutableSortedSet<BuildTarget> deps = depsOf(i, ruleTargets);
+      nodes.add(createNode(target, deps));
+      ruleTargets.add(
+          shape == Shape.CXX_LIBRARY
+              ? target.withFlavors(
+                  CxxDescriptionEnhancer.STATIC_FLAVOR, CxxPlatformUtils.DEFAULT_PLATFORM_FLAVOR)
+              : target);
+    }
+
+    TargetGraph targetGraph = TargetGraphFactory.newInstance(nodes);
+    graphBuilder = new TestActionGraphBuilder(targetGraph);
+    ruleTargets.forEach(graphBuilder::requireRule);
+    rules = ImmutableList.copyOf(graphBuilder.getBuildRules());
+
+    warmCacheStats = new InstrumentingCacheStatsTracker();
+    warmCache = new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), warmCacheStats);
+    computeDefaultRuleKeys(warmCache, null);
+
+    // Touch one source of a rule in the first layer, which invalidates that rule and everything
+    // that transitively depends on it, roughly what an edit to a single file does.
+    changedInputs = ImmutableList.of(ImmutableRuleKeyInput.of(filesystem, sourcePath(0, 0)));
+  }
+
+  /** Computes every key from scratch, as on the first build of a daemon. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void defaultRuleKeysColdCache(RuleKeyCounters counters, Blackhole bh) {
+    InstrumentingCacheStatsTracker stats = new InstrumentingCacheStatsTracker();
+    computeDefaultRuleKeys(new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), stats), bh);
+    counters.record(rules.size(), stats);
+  }
+
+  /** Recomputes every key against a populated cache, as on a no-op rebuild. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void defaultRuleKeysWarmCache(RuleKeyCounters counters, Blackhole bh) {
+    long hits = warmCacheStats.getTotalHitCount();
+    long misses = warmCacheStats.getTotalMissCount();
+    computeDefaultRuleKeys(warmCache, bh);
+    counters.record(
+        rules.size(),
+        warmCacheStats.getTotalHitCount() - hits,
+        warmCacheStats.getTotalMissCount() - misses);
+  }
+
+  /** Recomputes every key after a single source file changed. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void defaultRuleKeysAfterEdit(RuleKeyCounters counters, Blackhole bh) {
+    warmCache.invalidateInputs(changedInputs);
+    long hits = warmCacheStats.getTotalHitCount();
+    long misses = warmCacheStats.getTotalMissCount();
+    computeDefaultRuleKeys(warmCache, bh);
+    counters.record(
+        rules.size(),
+        warmCacheStats.getTotalHitCount() - hits,
+        warmCacheStats.getTotalMissCount() - misses);
+  }
+
+  /** Computes input-based keys, which hash the outputs of deps rather than their rule keys. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void inputBasedRuleKeys(RuleKeyCounters counters, Blackhole bh) {
+    InputBasedRuleKeyFactory factory =
+        new InputBasedRuleKeyFactory(
+            fieldLoader, hashLoader, graphBuilder, Long.MAX_VALUE, Optional.empty());
+    int computed = 0;
+    for (BuildRule rule : rules) {
+      if (SupportsInputBasedRuleKey.isSupported(rule)) {
+        bh.consume(factory.build(rule));
+        computed++;
+      }
+    }
+    counters.record(computed, 0, 0);
+  }
+
+  private void computeDefaultRuleKeys(TrackedRuleKeyCache<RuleKey> cache, Blackhole bh) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(fieldLoader, hashLoader, graphBuilder, cache, Optional.empty());
+    for (BuildRule rule : rules) {
+      RuleKey ruleKey = factory.build(rule);
+      if (bh != null) {
+        bh.consume(ruleKey);
+      }
+    }
+  }
+
+  private ImmutableSortedSet<BuildTarget> depsOf(int index, List<BuildTarget> ruleTargets) {
+    int layer = index / width;
+    if (layer == 0) {
+      return ImmutableSortedSet.of();
+    }
+    ImmutableSortedSet.Builder<BuildTarget> deps = ImmutableSortedSet.naturalOrder();
+    for (int i = 0; i < DEPS_PER_RULE; i++) {
+      int dep = (layer - 1) * width + (index + i * 7) % width;
+      deps.add(ruleTargets.get(dep).withoutFlavors());
+    }
+    return deps.build();
+  }
+
+  private TargetNode<?> createNode(BuildTarget target, ImmutableSortedSet<BuildTarget> deps) {
+    int index = Integer.parseInt(target.getShortName().substring("rule".length()));
+    switch (shape) {
+      case JAVA_LIBRARY:
+        JavaLibraryBuilder javaLibrary = JavaLibraryBuilder.createBuilder(target, filesystem);
+        for (int i = 0; i < SRCS_PER_RULE; i++) {
+          javaLibrary.addSrc(FakeSourcePath.of(filesystem, sourcePath(index, i)));
+        }
+        deps.forEach(javaLibrary::addDep);
+        return javaLibrary.build();
+      case CXX_LIBRARY:
+        ImmutableSortedSet.Builder<SourceWithFlags> srcs = ImmutableSortedSet.naturalOrder();
+        ImmutableSortedSet.Builder<SourcePath> headers = ImmutableSortedSet.naturalOrder();
+        for (int i = 0; i < SRCS_PER_RULE; i++) {
+          Path src = sourcePath(index, i);
+          srcs.add(SourceWithFlags.of(FakeSourcePath.of(filesystem, src)));
+          headers.add(FakeSourcePath.of(filesystem, src.resolveSibling("Src" + i + ".h")));
+        }
+        return new CxxLibraryBuilder(target, filesystem)
+            .setSrcs(srcs.build())
+            .setExportedHeaders(headers.build())
+            .setDeps(deps)
+            .build();
+      case GENRULE:
+        ImmutableList.Builder<SourcePath> inputs = ImmutableList.builder();
+        for (int i = 0; i < SRCS_PER_RULE; i++) {
+          inputs.add(FakeSourcePath.of(filesystem, sourcePath(index, i)));
+        }
+        deps.forEach(dep -> inputs.add(DefaultBuildTargetSourcePath.of(dep)));
+        return GenruleBuilder.newGenruleBuilder(target, filesystem)
+            .setSrcs(inputs.build())
+            .setCmd("cat $SRCS > $OUT")
+            .setOut("out")
+            .build();
+    }
+    throw new IllegalStateException("Unknown shape " + shape);
+  }
+
+  private Path sourcePath(int ruleIndex, int srcIndex) {
+    return Paths.get(
+        "layer" + ruleIndex / width, "rule" + ruleIndex, "Src" + srcIndex + shape.extension);
+  }
+
+  /** Per-invocation counters reported next to the benchmark score. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class RuleKeyCounters {
+    public long ruleKeys;
+    public long cacheHits;
+    public long cacheMisses;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      ruleKeys = 0;
+      cacheHits = 0;
+      cacheMisses = 0;
+    }
+
+    void record(long computed, InstrumentingCacheStatsTracker stats) {
+      record(computed, stats.getTotalHitCount(), stats.getTotalMissCount());
+    }
+
+    void record(long computed, long hits, long misses) {
+      ruleKeys += computed;
+      cacheHits += hits;
+      cacheMisses += misses;
+    }
+  }
+
+  /** Hashes paths by name so that no benchmark time is spent reading files. */
+  private static class PathHashLoader implements FileHashLoader {
+    @Override
+    public HashCode get(Path path) {
+      return Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getSize(Path path) {
+      return path.toString().length();
+    }
+
+    @Override
+    public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath) {
+      return get(relativeArchivePath.resolve(memberPath));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(RuleKeyFactoryBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
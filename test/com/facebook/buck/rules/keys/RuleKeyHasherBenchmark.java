@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.RuleType;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
+import com.facebook.buck.log.thrift.rulekeys.FullRuleKey;
+import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.ForwardingRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher.Container;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher.Wrapper;
+import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the raw cost of the {@link RuleKeyHasher} implementations, independent of the field
+ * walking done by {@link RuleKeyBuilder}. Every operation feeds the same sequence of values a
+ * typical rule with {@code pathCount} source inputs produces and then computes the hash.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RuleKeyHasherBenchmark {
+
+  @Param({"8", "64"})
+  public int pathCount;
+
+  private final BuildTarget target = BuildTargetFactory.newInstance("//foo/bar:baz");
+  private final RuleType ruleType = RuleType.of("java_library", RuleType.Kind.BUILD);
+  private final RuleKey depRuleKey = new RuleKey("a002b39af204cdfaa5fdb67816b13867c32ac52c");
+  private final ThriftRuleKeyLogger thriftLogger =
+      new ThriftRuleKeyLogger(ByteStreams.nullOutputStream());
+
+  private Path[] paths;
+  private HashCode[] hashes;
+
+  @Setup
+  public void setUp() {
+    paths = new Path[pathCount];
+    hashes = new HashCode[pathCount];
+    for (int i = 0; i < pathCount; i++) {
+      paths[i] = Paths.get("foo/bar/src/com/example/Source" + i + ".java");
+      hashes[i] = Hashing.sha1().hashString(paths[i].toString(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public HashCode guava() {
+    return feed(new GuavaRuleKeyHasher(Hashing.sha1().newHasher()));
+  }
+
+  /** The hasher {@link RuleKeyBuilder} actually uses, which also counts the values it sees. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public HashCode counting() {
+    return feed(new CountingRuleKeyHasher<>(new GuavaRuleKeyHasher(Hashing.sha1().newHasher())));
+  }
+
+  /** What rule key logging costs on top of the default hasher. */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public HashCode guavaWithThriftLogging() {
+    ThriftRuleKeyHasher thriftHasher = new ThriftRuleKeyHasher(thriftLogger);
+    return feed(
+        new ForwardingRuleKeyHasher<HashCode, FullRuleKey>(
+            new GuavaRuleKeyHasher(Hashing.sha1().newHasher()), thriftHasher) {
+          @Override
+          protected void onHash(HashCode firstHash, FullRuleKey ruleKey) {
+            thriftHasher.setHashKey(firstHash);
+            thriftHasher.flushToLogger();
+          }
+        });
+  }
+
+  /** Values arrive in the order {@link RuleKeyBuilder} emits them: value first, then its key. */
+  private <HASH> HASH feed(RuleKeyHasher<HASH> hasher) {
+    hasher.putString("default").putKey(".rule_key_type");
+    hasher.putBuildTarget(target).putKey(".target_name");
+    hasher.putRuleType(ruleType).putKey(".build_rule_type");
+    hasher.putRuleKey(depRuleKey).putContainer(Container.LIST, 1).putKey("buck.deps");
+    hasher.putNull().putWrapper(Wrapper.OPTIONAL).putKey("resourcesRoot");
+    hasher.putString("CLASS").putKey("abiGenerationMode");
+    hasher.putBoolean(true).putKey("ruleKeyDiagnostics");
+    hasher.putNumber(8).putKey("sourceLevel");
+    for (int i = 0; i < pathCount; i++) {
+      hasher.putPath(paths[i], hashes[i]);
+    }
+    hasher.putContainer(Container.LIST, pathCount).putKey("srcs");
+    return hasher.hash();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {RuleKeyHasherBenchmark.class.getName()});
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.rules.modern.builders;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -34,6 +35,7 @@ import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient.FileMaterializer;
 import com.facebook.buck.remoteexecution.MetadataProviderFactory;
 import com.facebook.buck.remoteexecution.NoOpWorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
@@ -51,6 +53,7 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.proto.RemoteExecutionMetadata;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.NoOpModernBuildRule;
 import com.facebook.buck.testutil.TemporaryPaths;
@@ -67,8 +70,14 @@ import com.google.common.util.concurrent.SettableFuture;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -94,6 +103,7 @@ public class RemoteExecutionStrategyTest {
   private RemoteExecutionClients clients;
   private ListeningExecutorService service;
   private RemoteExecutionStrategy strategy;
+  private ImmutableList<Path> actionOutputs = ImmutableList.of();
 
   @After
   public void tearDown() throws Exception {
@@ -277,6 +287,54 @@ public class RemoteExecutionStrategyTest {
     strategyBuildResult.getBuildResult().get(2, TimeUnit.SECONDS);
   }
 
+  @Test
+  public void upToDateOutputsAreNeitherDeletedNorFetchedAgain() throws Exception {
+    actionOutputs = ImmutableList.of(Paths.get("output"));
+    List<List<OutputFile>> materialized = new ArrayList<>();
+    clients =
+        new SimpleRemoteExecutionClients() {
+          @Override
+          public ListenableFuture<Unit> materializeOutputs(
+              List<OutputFile> outputFiles, FileMaterializer materializer) throws IOException {
+            materialized.add(ImmutableList.copyOf(outputFiles));
+            for (OutputFile file : outputFiles) {
+              try (WritableByteChannel channel =
+                  materializer.getOutputChannel(Paths.get(file.getPath()), false)) {
+                channel.write(ByteBuffer.wrap(missingData));
+              }
+            }
+            return Futures.immediateFuture(null);
+          }
+        };
+    Path output = tmp.getRoot().resolve("output");
+
+    beginBuild().getBuildResult().get(2, TimeUnit.SECONDS);
+    assertEquals(1, materialized.get(0).size());
+    Object fileKey = fileKey(output);
+
+    // A rebuild which reproduces the output keeps the file as it is.
+    strategy.close();
+    service.shutdownNow();
+    beginBuild().getBuildResult().get(2, TimeUnit.SECONDS);
+    assertEquals(0, materialized.get(1).size());
+    assertEquals(fileKey, fileKey(output));
+
+    // Once the file was modified, it is fetched again.
+    Files.write(output, "atad".getBytes(Charsets.UTF_8));
+    Files.setLastModifiedTime(
+        output, FileTime.fromMillis(Files.getLastModifiedTime(output).toMillis() + 2000));
+    strategy.close();
+    service.shutdownNow();
+    beginBuild().getBuildResult().get(2, TimeUnit.SECONDS);
+    assertEquals(1, materialized.get(2).size());
+    assertArrayEquals(missingData, Files.readAllBytes(output));
+  }
+
+  private static Object fileKey(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+        .fileKey();
+  }
+
   private static class TestRemoteExecutionConfig implements RemoteExecutionStrategyConfig {
 
     @Override
@@ -329,6 +387,11 @@ public class RemoteExecutionStrategyTest {
       return OptionalLong.empty();
     }
 
+    @Override
+    public long getMaxRetainedMerkleTreeEntries() {
+      return MerkleTreeNodeCache.DEFAULT_MAX_RETAINED_ENTRIES;
+    }
+
     @Override
     public String getWorkerRequirementsFilename() {
       return RemoteExecutionConfig.WORKER_REQUIREMENTS_FILENAME;
@@ -368,7 +431,7 @@ public class RemoteExecutionStrategyTest {
               UploadDataSupplier.of(
                   "data", missingDigest, () -> new ByteArrayInputStream(missingData))),
           missingData.length,
-          ImmutableList.of());
+          actionOutputs);
     }
 
     @Override
@@ -445,6 +508,11 @@ public class RemoteExecutionStrategyTest {
       return Futures.immediateFuture(null);
     }
 
+    public ListenableFuture<Unit> materializeOutputs(
+        List<OutputFile> outputFiles, FileMaterializer materializer) throws IOException {
+      return materializeOutputs();
+    }
+
     public boolean containsDigest(Digest digest) {
       return false;
     }
@@ -467,8 +535,9 @@ public class RemoteExecutionStrategyTest {
         public ListenableFuture<Unit> materializeOutputs(
             List<OutputDirectory> outputDirectories,
             List<OutputFile> outputFiles,
-            FileMaterializer materializer) {
-          return SimpleRemoteExecutionClients.this.materializeOutputs();
+            FileMaterializer materializer)
+            throws IOException {
+          return SimpleRemoteExecutionClients.this.materializeOutputs(outputFiles, materializer);
         }
 
         @Override
@@ -18,6 +18,7 @@ package com.facebook.buck.rules.modern.builders;
 
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
+import com.facebook.buck.core.build.buildable.context.FakeBuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildRuleStatus;
@@ -91,6 +92,6 @@ class SimpleBuildStrategyContext implements BuildStrategyContext {
 
   @Override
   public BuildableContext getBuildableContext() {
-    throw new UnsupportedOperationException();
+    return new FakeBuildableContext();
   }
 }
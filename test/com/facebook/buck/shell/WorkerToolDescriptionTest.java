@@ -127,6 +127,23 @@ public class WorkerToolDescriptionTest {
     createWorkerTool(builder -> builder.setMaxWorkers(123).setMaxWorkersPerThreadPercent(45));
   }
 
+  @Test
+  public void testDefaultGetMaxJobsPerWorker() {
+    WorkerTool workerTool = createWorkerToolWithDefaultSettings();
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(1));
+  }
+
+  @Test
+  public void testGetMaxJobsPerWorkerWhenSet() {
+    WorkerTool workerTool = createWorkerTool(builder -> builder.setMaxJobsPerWorker(8));
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxJobsPerWorkerMustBePositive() {
+    createWorkerTool(builder -> builder.setMaxJobsPerWorker(0));
+  }
+
   private static WorkerTool createWorkerToolWithPercent(int maxWorkersPerThreadPercent) {
     return createWorkerTool(
         builder -> builder.setMaxWorkersPerThreadPercent(maxWorkersPerThreadPercent),
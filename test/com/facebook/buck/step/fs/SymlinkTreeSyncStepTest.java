@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SymlinkTreeSyncStepTest {
+  @Rule public TemporaryPaths tempDir = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path root;
+  private Path manifest;
+  private Path a;
+  private Path b;
+  private Path c;
+
+  @Before
+  public void setUp() throws IOException {
+    Assume.assumeFalse(Platform.detect() == Platform.WINDOWS);
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot());
+    root = Paths.get("tree");
+    manifest = Paths.get("scratch", "tree.symlinks");
+    a = filesystem.resolve("a.h");
+    b = filesystem.resolve("b.h");
+    c = filesystem.resolve("c.h");
+    filesystem.writeContentsToPath("a", a);
+    filesystem.writeContentsToPath("b", b);
+    filesystem.writeContentsToPath("c", c);
+  }
+
+  @Test
+  public void firstRunCreatesAllLinksAndManifest() throws Exception {
+    filesystem.mkdirs(root.resolve("stale"));
+
+    sync(ImmutableMap.of(Paths.get("a.h"), a, Paths.get("dir/b.h"), b));
+
+    assertEquals(a, filesystem.readSymLink(root.resolve("a.h")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("dir/b.h")));
+    assertFalse(filesystem.exists(root.resolve("stale")));
+    assertEquals(2, SymlinkTreeSyncStep.readManifest(filesystem.resolve(manifest)).get().size());
+  }
+
+  @Test
+  public void onlyChangedLinksAreTouched() throws Exception {
+    sync(ImmutableMap.of(Paths.get("a.h"), a, Paths.get("b.h"), b, Paths.get("x/c.h"), c));
+    Object linkKey = fileKey(root.resolve("a.h"));
+    Files.write(filesystem.resolve(root.resolve("unrelated")), new byte[0]);
+
+    sync(ImmutableMap.of(Paths.get("a.h"), a, Paths.get("b.h"), c, Paths.get("y/b.h"), b));
+
+    assertEquals(linkKey, fileKey(root.resolve("a.h")));
+    assertEquals(c, filesystem.readSymLink(root.resolve("b.h")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("y/b.h")));
+    assertFalse(filesystem.exists(root.resolve("x")));
+    // Files that aren't part of the tree survive an incremental update.
+    assertTrue(filesystem.exists(root.resolve("unrelated")));
+  }
+
+  @Test
+  public void directoriesEmptiedByRemovedLinksAreRemoved() throws Exception {
+    sync(ImmutableMap.of(Paths.get("x/z/c.h"), c, Paths.get("w/d.h"), a, Paths.get("a.h"), a));
+    Files.write(filesystem.resolve(root.resolve("w/unrelated")), new byte[0]);
+
+    sync(ImmutableMap.of(Paths.get("a.h"), a));
+
+    assertFalse(filesystem.exists(root.resolve("x")));
+    assertFalse(Files.exists(filesystem.resolve(root.resolve("w/d.h")), LinkOption.NOFOLLOW_LINKS));
+    assertTrue(filesystem.exists(root.resolve("w/unrelated")));
+    assertEquals(a, filesystem.readSymLink(root.resolve("a.h")));
+  }
+
+  @Test
+  public void linkCanBeReplacedByDirectory() throws Exception {
+    sync(ImmutableMap.of(Paths.get("inc"), a));
+
+    sync(ImmutableMap.of(Paths.get("inc/b.h"), b));
+
+    assertTrue(filesystem.isDirectory(root.resolve("inc")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("inc/b.h")));
+  }
+
+  @Test
+  public void missingTreeOrManifestTriggersRebuild() throws Exception {
+    sync(ImmutableMap.of(Paths.get("a.h"), a));
+    Files.write(filesystem.resolve(root.resolve("unrelated")), new byte[0]);
+    filesystem.deleteFileAtPath(manifest);
+
+    sync(ImmutableMap.of(Paths.get("a.h"), a));
+    assertFalse(filesystem.exists(root.resolve("unrelated")));
+
+    filesystem.deleteFileAtPath(root.resolve("a.h"));
+    sync(ImmutableMap.of(Paths.get("a.h"), a));
+    assertEquals(a, filesystem.readSymLink(root.resolve("a.h")));
+  }
+
+  private Object fileKey(Path path) throws IOException {
+    return Files.readAttributes(
+            filesystem.resolve(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+        .fileKey();
+  }
+
+  private void sync(ImmutableMap<Path, Path> links) throws Exception {
+    new SymlinkTreeSyncStep(
+            "cxx_header", filesystem, root, new SymlinkMapsPaths(links), manifest)
+        .execute(TestExecutionContext.newInstance());
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashIndexTest {
+
+  private static final HashCode FAKE_HASH =
+      HashCode.fromString("0123456789abcdef0123456789abcdef01234567");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path indexFile;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() {
+    indexFile = tmp.getRoot().resolve("buck-out/cache/file_hashes");
+    loads = new AtomicInteger();
+  }
+
+  @Test
+  public void servesHashOfUnchangedFileAfterReopening() throws IOException {
+    Path file = writeFile("foo.txt", "contents", 3600);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    assertEquals(FAKE_HASH, index.get(file, Paths.get("foo.txt"), this::load));
+    index.close();
+
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    assertEquals(FAKE_HASH, reopened.get(file, Paths.get("foo.txt"), this::load));
+    assertEquals(1, loads.get());
+    assertEquals(1, reopened.getHitCount());
+  }
+
+  @Test
+  public void rehashesModifiedFile() throws IOException {
+    Path file = writeFile("foo.txt", "contents", 3600);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    index.get(file, Paths.get("foo.txt"), this::load);
+    index.close();
+
+    writeFile("foo.txt", "other contents", 1800);
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    reopened.get(file, Paths.get("foo.txt"), this::load);
+    assertEquals(2, loads.get());
+    assertEquals(0, reopened.getHitCount());
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotPersisted() throws IOException {
+    Path file = writeFile("foo.txt", "contents", 0);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    index.get(file, Paths.get("foo.txt"), this::load);
+    index.close();
+
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    reopened.get(file, Paths.get("foo.txt"), this::load);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void keepsEntriesFromEarlierOpens() throws IOException {
+    Path foo = writeFile("foo.txt", "foo", 3600);
+    Path bar = writeFile("bar.txt", "bar", 3600);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    index.get(foo, Paths.get("foo.txt"), this::load);
+    index.close();
+    index = PersistentFileHashIndex.open(indexFile);
+    index.get(bar, Paths.get("bar.txt"), this::load);
+    index.close();
+
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    reopened.get(foo, Paths.get("foo.txt"), this::load);
+    reopened.get(bar, Paths.get("bar.txt"), this::load);
+    assertEquals(2, loads.get());
+    assertEquals(2, reopened.getHitCount());
+  }
+
+  @Test
+  public void keepsEntriesWhenGrowing() throws IOException {
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    for (int i = 0; i < 5000; i++) {
+      index.get(writeFile(i + ".txt", "", 3600), Paths.get(i + ".txt"), this::load);
+    }
+    index.close();
+
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    for (int i = 0; i < 5000; i++) {
+      reopened.get(tmp.getRoot().resolve(i + ".txt"), Paths.get(i + ".txt"), this::load);
+    }
+    assertEquals(5000, loads.get());
+    assertEquals(5000, reopened.getHitCount());
+  }
+
+  @Test
+  public void indexInUseIsNotUsed() throws IOException {
+    Path foo = writeFile("foo.txt", "foo", 3600);
+    Path bar = writeFile("bar.txt", "bar", 3600);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    index.get(foo, Paths.get("foo.txt"), this::load);
+
+    PersistentFileHashIndex other = PersistentFileHashIndex.open(indexFile);
+    other.get(foo, Paths.get("foo.txt"), this::load);
+    other.get(bar, Paths.get("bar.txt"), this::load);
+    other.close();
+    index.close();
+
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    reopened.get(foo, Paths.get("foo.txt"), this::load);
+    reopened.get(bar, Paths.get("bar.txt"), this::load);
+    assertEquals(0, other.getHitCount());
+    assertEquals(1, reopened.getHitCount());
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void indexInUseIsNotReadWhileItGrowsAndChanges() throws Exception {
+    Path foo = writeFile("foo.txt", "foo", 3600);
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      files.add(writeFile(i + ".txt", "", 3600));
+    }
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    index.get(foo, Paths.get("foo.txt"), this::load);
+    PersistentFileHashIndex other = PersistentFileHashIndex.open(indexFile);
+
+    // The owner grows the table and keeps rewriting the entry of foo.txt, while the other instance
+    // hashes it.
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> writer =
+          executor.submit(
+              () -> {
+                for (int i = 0; i < files.size(); i++) {
+                  index.get(files.get(i), Paths.get(i + ".txt"), this::load);
+                  Files.setLastModifiedTime(foo, FileTime.fromMillis(i * 1000L));
+                  index.get(foo, Paths.get("foo.txt"), this::load);
+                }
+                return null;
+              });
+      HashCode otherHash = Hashing.sha1().hashString("foo", StandardCharsets.UTF_8);
+      while (!writer.isDone()) {
+        assertEquals(otherHash, other.get(foo, Paths.get("foo.txt"), () -> otherHash));
+      }
+      writer.get();
+    } finally {
+      executor.shutdownNow();
+    }
+    other.close();
+    index.close();
+
+    assertEquals(0, other.getHitCount());
+  }
+
+  @Test
+  public void invalidIndexIsIgnored() throws IOException {
+    Files.createDirectories(indexFile.getParent());
+    Files.write(indexFile, "not an index".getBytes(StandardCharsets.UTF_8));
+    Path file = writeFile("foo.txt", "contents", 3600);
+
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    assertEquals(FAKE_HASH, index.get(file, Paths.get("foo.txt"), this::load));
+    index.close();
+    PersistentFileHashIndex reopened = PersistentFileHashIndex.open(indexFile);
+    assertEquals(FAKE_HASH, reopened.get(file, Paths.get("foo.txt"), this::load));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void watchedCacheServesPersistedHashesAfterOverflow() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    writeFile("foo.txt", "contents", 3600);
+    PersistentFileHashIndex index = PersistentFileHashIndex.open(indexFile);
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(filesystem, FileHashCacheMode.DEFAULT, Optional.of(index));
+    HashCode expected = Hashing.sha1().hashString("contents", StandardCharsets.UTF_8);
+    assertEquals(expected, cache.get(Paths.get("foo.txt")));
+
+    cache.invalidateAll();
+    assertEquals(expected, cache.get(Paths.get("foo.txt")));
+    assertEquals(1, index.getHitCount());
+  }
+
+  private HashCode load() {
+    loads.incrementAndGet();
+    return FAKE_HASH;
+  }
+
+  private Path writeFile(String name, String contents, long ageSeconds) throws IOException {
+    Path file = tmp.getRoot().resolve(name);
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(
+        file,
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ageSeconds)));
+    return file;
+  }
+}
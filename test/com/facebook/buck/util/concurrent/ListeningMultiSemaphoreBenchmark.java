@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.facebook.buck.util.types.Unit;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link ListeningMultiSemaphore} with the synchronized implementation it replaced, with
+ * more threads than permits acquiring, waiting for and releasing a few permits each.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(32)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListeningMultiSemaphoreBenchmark {
+
+  /** Fewer permits than threads, so that some acquisitions have to wait in the queue. */
+  private static final ResourceAmounts MAXIMUM_AMOUNTS = ResourceAmounts.of(16, 32, 50, 30);
+
+  private static final ResourceAmounts LIGHT_AMOUNTS = ResourceAmounts.of(1, 1, 0, 0);
+  private static final ResourceAmounts HEAVY_AMOUNTS = ResourceAmounts.of(4, 8, 1, 0);
+
+  @Param({"FAIR", "FAST"})
+  public ResourceAllocationFairness fairness;
+
+  private ListeningMultiSemaphore lockFree;
+  private SynchronizedListeningMultiSemaphore synchronizedSemaphore;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    lockFree = new ListeningMultiSemaphore(MAXIMUM_AMOUNTS, fairness);
+    synchronizedSemaphore = new SynchronizedListeningMultiSemaphore(MAXIMUM_AMOUNTS, fairness);
+  }
+
+  @Benchmark
+  public void lockFreeLight() {
+    Futures.getUnchecked(lockFree.acquire(LIGHT_AMOUNTS));
+    lockFree.release(LIGHT_AMOUNTS);
+  }
+
+  @Benchmark
+  public void lockFreeMixed() {
+    ResourceAmounts amounts = mixedAmounts();
+    Futures.getUnchecked(lockFree.acquire(amounts));
+    lockFree.release(amounts);
+  }
+
+  @Benchmark
+  public void synchronizedLight() {
+    Futures.getUnchecked(synchronizedSemaphore.acquire(LIGHT_AMOUNTS));
+    synchronizedSemaphore.release(LIGHT_AMOUNTS);
+  }
+
+  @Benchmark
+  public void synchronizedMixed() {
+    ResourceAmounts amounts = mixedAmounts();
+    Futures.getUnchecked(synchronizedSemaphore.acquire(amounts));
+    synchronizedSemaphore.release(amounts);
+  }
+
+  /** Every fourth thread runs heavy jobs, which have to wait for several light ones to finish. */
+  private static ResourceAmounts mixedAmounts() {
+    return Thread.currentThread().getId() % 4 == 0 ? HEAVY_AMOUNTS : LIGHT_AMOUNTS;
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {ListeningMultiSemaphoreBenchmark.class.getName()});
+  }
+
+  /** The previous, lock based, implementation of {@link ListeningMultiSemaphore}. */
+  private static class SynchronizedListeningMultiSemaphore {
+
+    private ResourceAmounts usedValues = ResourceAmounts.zero();
+    private final ResourceAmounts maximumValues;
+    private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+    private final ResourceAllocationFairness fairness;
+
+    SynchronizedListeningMultiSemaphore(
+        ResourceAmounts maximumValues, ResourceAllocationFairness fairness) {
+      this.maximumValues = maximumValues;
+      this.fairness = fairness;
+    }
+
+    synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+      if (!fits(resources)) {
+        SettableFuture<Unit> pendingFuture = SettableFuture.create();
+        pending.add(ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources, 0, 0));
+        return pendingFuture;
+      }
+      usedValues = usedValues.append(resources);
+      return Futures.immediateFuture(null);
+    }
+
+    void release(ResourceAmounts resources) {
+      List<ListeningSemaphoreArrayPendingItem> items;
+      synchronized (this) {
+        usedValues = usedValues.subtract(resources);
+        items = new ArrayList<>();
+        Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
+        while (!maximumValues.subtract(usedValues).equals(ResourceAmounts.zero())
+            && iterator.hasNext()) {
+          ListeningSemaphoreArrayPendingItem item = iterator.next();
+          if (fits(item.getResources())) {
+            items.add(item);
+            usedValues = usedValues.append(item.getResources());
+            iterator.remove();
+          } else if (fairness == ResourceAllocationFairness.FAIR) {
+            break;
+          }
+        }
+      }
+      for (ListeningSemaphoreArrayPendingItem item : items) {
+        item.getFuture().set(null);
+      }
+    }
+
+    private boolean fits(ResourceAmounts resources) {
+      return usedValues.append(resources).allValuesLessThanOrEqual(maximumValues);
+    }
+  }
+}
@@ -21,7 +21,12 @@ import static org.hamcrest.junit.MatcherAssert.assertThat;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -204,6 +209,76 @@ public class ListeningMultiSemaphoreTest {
     assertThat(second.isDone(), Matchers.equalTo(true));
   }
 
+  @Test
+  public void pendingAcquisitionsAreGrantedByPriorityThenArrival() {
+    ListeningMultiSemaphore semaphore = getFairListeningMultiSemaphore(amountsOfCpu(1));
+    semaphore.acquire(amountsOfCpu(1));
+
+    ListenableFuture<Unit> low = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Unit> firstHigh = semaphore.acquire(amountsOfCpu(1), 10);
+    ListenableFuture<Unit> secondHigh = semaphore.acquire(amountsOfCpu(1), 10);
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(3));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(firstHigh.isDone(), Matchers.equalTo(true));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(false));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void concurrentAcquisitionsNeverExceedMaximumAmounts() throws Exception {
+    for (ResourceAllocationFairness fairness : ResourceAllocationFairness.values()) {
+      ListeningMultiSemaphore semaphore =
+          new ListeningMultiSemaphore(amountsOfCpuAndMemory(8, 12), fairness);
+      AtomicInteger cpuInUse = new AtomicInteger();
+      AtomicInteger memoryInUse = new AtomicInteger();
+      AtomicBoolean exceeded = new AtomicBoolean(false);
+      int threads = 8;
+      int acquisitionsPerThread = 2000;
+      CountDownLatch done = new CountDownLatch(threads * acquisitionsPerThread);
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        for (int t = 0; t < threads; t++) {
+          int seed = t;
+          executor.execute(
+              () -> {
+                for (int i = 0; i < acquisitionsPerThread; i++) {
+                  ResourceAmounts amounts = amountsOfCpuAndMemory(1 + (seed + i) % 3, 1 + i % 5);
+                  semaphore
+                      .acquire(amounts)
+                      .addListener(
+                          () -> {
+                            if (cpuInUse.addAndGet(amounts.getCpu()) > 8
+                                | memoryInUse.addAndGet(amounts.getMemory()) > 12) {
+                              exceeded.set(true);
+                            }
+                            cpuInUse.addAndGet(-amounts.getCpu());
+                            memoryInUse.addAndGet(-amounts.getMemory());
+                            semaphore.release(amounts);
+                            done.countDown();
+                          },
+                          MoreExecutors.directExecutor());
+                }
+              });
+        }
+        assertThat(done.await(30, TimeUnit.SECONDS), Matchers.equalTo(true));
+      } finally {
+        executor.shutdownNow();
+      }
+      assertThat(exceeded.get(), Matchers.equalTo(false));
+      assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+      assertThat(semaphore.getAvailableResources(), Matchers.equalTo(semaphore.getMaximumValues()));
+    }
+  }
+
   private ListeningMultiSemaphore getFairListeningMultiSemaphore(ResourceAmounts values) {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
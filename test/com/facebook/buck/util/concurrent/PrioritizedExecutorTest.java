@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+public class PrioritizedExecutorTest {
+
+  @Test
+  public void runsHigherPriorityTasksFirst() {
+    ExplicitRunExecutorService delegate = new ExplicitRunExecutorService();
+    PrioritizedExecutor executor = new PrioritizedExecutor(delegate);
+    List<String> order = new ArrayList<>();
+
+    executor.execute(1, () -> order.add("low"));
+    executor.execute(5, () -> order.add("high"));
+    executor.withPriority(() -> 3).execute(() -> order.add("medium"));
+    assertEquals(3, executor.getPendingTaskCount());
+
+    delegate.run();
+    assertEquals(Arrays.asList("high", "medium", "low"), order);
+    assertEquals(0, executor.getPendingTaskCount());
+  }
+
+  @Test
+  public void runsTasksOfEqualPriorityInSubmissionOrder() {
+    ExplicitRunExecutorService delegate = new ExplicitRunExecutorService();
+    PrioritizedExecutor executor = new PrioritizedExecutor(delegate);
+    List<Integer> order = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      int task = i;
+      executor.execute(0, () -> order.add(task));
+    }
+
+    delegate.run();
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+  }
+
+  @Test
+  public void tasksSubmittedWhileRunningArePrioritizedAgainstPendingOnes() {
+    ExplicitRunExecutorService delegate = new ExplicitRunExecutorService();
+    PrioritizedExecutor executor = new PrioritizedExecutor(delegate);
+    List<String> order = new ArrayList<>();
+
+    executor.execute(
+        2,
+        () -> {
+          order.add("parent");
+          executor.execute(3, () -> order.add("child"));
+        });
+    executor.execute(1, () -> order.add("sibling"));
+
+    delegate.runOnce();
+    delegate.runOnce();
+    assertEquals(Arrays.asList("parent", "child"), order);
+    delegate.run();
+    assertEquals(Arrays.asList("parent", "child", "sibling"), order);
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void rejectedTasksAreNotLeftPending() {
+    PrioritizedExecutor executor =
+        new PrioritizedExecutor(
+            command -> {
+              throw new RejectedExecutionException();
+            });
+    try {
+      executor.execute(0, () -> {});
+    } finally {
+      assertEquals(0, executor.getPendingTaskCount());
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ValueAccessorsTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void readsPrivateFields() throws Exception {
+    Values values = new Values("foo", 42);
+    assertEquals(
+        "foo", ValueAccessors.forField(Values.class.getDeclaredField("name")).get(values));
+    assertEquals(42, ValueAccessors.forField(Values.class.getDeclaredField("count")).get(values));
+  }
+
+  @Test
+  public void readsNullFields() throws Exception {
+    assertNull(
+        ValueAccessors.forField(Values.class.getDeclaredField("name")).get(new Values(null, 0)));
+  }
+
+  @Test
+  public void readsStaticFields() throws Exception {
+    assertSame(
+        Values.CONSTANT,
+        ValueAccessors.forField(Values.class.getDeclaredField("CONSTANT")).get(new Values("", 0)));
+  }
+
+  @Test
+  public void readsFieldsOfPrivateClasses() throws Exception {
+    ValueAccessor accessor = ValueAccessors.forField(OtherValues.class.getDeclaredField("flag"));
+    assertEquals(true, accessor.get(new OtherValues()));
+  }
+
+  @Test
+  public void callsPublicMethods() throws Exception {
+    Values values = new Values("foo", 42);
+    assertEquals("foo", ValueAccessors.forMethod(Values.class.getMethod("getName")).get(values));
+    assertEquals(42, ValueAccessors.forMethod(Values.class.getMethod("getCount")).get(values));
+  }
+
+  @Test
+  public void callsPrivateMethods() throws Exception {
+    assertEquals(
+        true,
+        ValueAccessors.forMethod(Values.class.getDeclaredMethod("isEmpty"))
+            .get(new Values("", 0)));
+  }
+
+  @Test
+  public void callsOverridingMethods() throws Exception {
+    ValueAccessor accessor = ValueAccessors.forMethod(Values.class.getMethod("getName"));
+    assertEquals("bar", accessor.get(new OtherValues()));
+  }
+
+  @Test
+  public void propagatesUncheckedExceptions() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    ValueAccessors.forMethod(Values.class.getMethod("fail")).get(new Values("", 0));
+  }
+
+  @Test
+  public void wrapsCheckedExceptions() throws Exception {
+    thrown.expect(RuntimeException.class);
+    thrown.expectCause(Matchers.instanceOf(IOException.class));
+    ValueAccessors.forMethod(Values.class.getMethod("read")).get(new Values("", 0));
+  }
+
+  @Test
+  public void accessorsDoNotKeepTheirClassesLoaded() throws Exception {
+    WeakReference<Class<?>> unloadable = readFieldOfUnloadableClass();
+    for (int i = 0; i < 10 && unloadable.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(unloadable.get());
+  }
+
+  private static WeakReference<Class<?>> readFieldOfUnloadableClass() throws Exception {
+    String name = Unloadable.class.getName();
+    byte[] bytes;
+    try (InputStream input =
+        ValueAccessorsTest.class.getResourceAsStream(
+            name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+      bytes = ByteStreams.toByteArray(input);
+    }
+    Class<?> unloadableClass =
+        new ClassLoader(ValueAccessorsTest.class.getClassLoader()) {
+          Class<?> define() {
+            return defineClass(name, bytes, 0, bytes.length);
+          }
+        }.define();
+    assertNotSame(Unloadable.class, unloadableClass);
+
+    Object instance = unloadableClass.getDeclaredConstructor().newInstance();
+    assertEquals(
+        "value",
+        ValueAccessors.forField(unloadableClass.getDeclaredField("value")).get(instance));
+    return new WeakReference<>(unloadableClass);
+  }
+
+  public static class Values {
+    private static final Object CONSTANT = new Object();
+
+    private final String name;
+    private final int count;
+
+    Values(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public Object fail() {
+      throw new IllegalStateException();
+    }
+
+    public Object read() throws IOException {
+      throw new IOException();
+    }
+
+    private boolean isEmpty() {
+      return name.isEmpty();
+    }
+  }
+
+  private static class OtherValues extends Values {
+    private final boolean flag = true;
+
+    OtherValues() {
+      super("foo", 0);
+    }
+
+    @Override
+    public String getName() {
+      return "bar";
+    }
+  }
+
+  public static class Unloadable {
+    final String value = "value";
+  }
+}
@@ -35,6 +35,11 @@ public class FakeWorkerProcessProtocol {
       return 0;
     }
 
+    @Override
+    public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public void close() {
       isClosed = true;
@@ -26,6 +26,7 @@ import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
@@ -172,6 +173,44 @@ public class WorkerProcessPoolTest {
     assertThat(Thread.interrupted(), is(true));
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void spreadsConcurrentJobsAcrossMultiplexedWorkers() throws Exception {
+    Set<WorkerProcess> createdWorkers = concurrentSet();
+    WorkerProcessPool pool =
+        new WorkerProcessPool(
+            2,
+            2,
+            Hashing.sha1().hashLong(0),
+            () -> {
+              FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    BorrowedWorkerProcess first = pool.borrowWorkerProcess();
+    BorrowedWorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(pool.getQueueDepths(), equalTo(ImmutableList.of(1, 1)));
+
+    BorrowedWorkerProcess third = pool.borrowWorkerProcess();
+    BorrowedWorkerProcess fourth = pool.borrowWorkerProcess();
+    assertThat(pool.getQueueDepths(), equalTo(ImmutableList.of(2, 2)));
+    assertThat(pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).isPresent(), is(false));
+
+    for (BorrowedWorkerProcess worker : ImmutableList.of(first, second, third, fourth)) {
+      worker.get().ensureLaunchAndHandshake();
+    }
+    assertThat(createdWorkers.size(), is(2));
+
+    WorkerProcess secondProcess = second.get();
+    second.close();
+    BorrowedWorkerProcess fifth = pool.borrowWorkerProcess();
+    assertThat(fifth.get(), is(secondProcess));
+
+    ImmutableSet.of(first, third, fourth, fifth).forEach(BorrowedWorkerProcess::close);
+    assertThat(pool.getQueueDepths(), equalTo(ImmutableList.of(0, 0)));
+    pool.close();
+  }
+
   @Test
   public void cleansUpDeadProcesses() throws InterruptedException, IOException {
     WorkerProcessPool pool = createPool(1);
@@ -177,6 +177,53 @@ public class WorkerProcessProtocolZeroTest {
     protocol.receiveCommandResponse(messageID);
   }
 
+  @Test
+  public void testProtocolOneHandshake() throws IOException {
+    int handshakeID = 123;
+    ByteArrayOutputStream jsonSentToWorkerProcess = new ByteArrayOutputStream();
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolOne.CommandSender(
+            jsonSentToWorkerProcess,
+            createMockJsonReaderForReceiveHandshake(handshakeID, "handshake", "1"),
+            newTempFile(),
+            () -> {},
+            () -> true);
+
+    protocol.handshake(handshakeID);
+    assertThat(
+        jsonSentToWorkerProcess.toString(), Matchers.containsString("\"protocol_version\":\"1\""));
+  }
+
+  @Test
+  public void testProtocolOneRejectsVersionZeroHandshake() throws IOException {
+    expectedException.expect(HumanReadableException.class);
+    expectedException.expectMessage("\"protocol_version\" to be \"1\", got \"0\"");
+
+    int handshakeID = 123;
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolOne.CommandSender(
+            dummyOutputStream,
+            createMockJsonReaderForReceiveHandshake(handshakeID, "handshake", "0"),
+            newTempFile(),
+            () -> {},
+            () -> true);
+
+    protocol.handshake(handshakeID);
+  }
+
+  @Test
+  public void testReceiveNextCommandResponse() throws IOException {
+    InputStream jsonReader = createMockJsonReaderForReceiveCommandResponse(456, "result", 3);
+
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolOne.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+
+    assertThat(
+        protocol.receiveNextCommandResponse(),
+        Matchers.equalTo(ImmutableWorkerProcessCommandResponse.of(456, 3)));
+  }
+
   @Test
   public void testCloseSender() throws IOException {
     AtomicBoolean cleanedUp = new AtomicBoolean(false);
@@ -42,7 +42,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Deque;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -89,6 +98,155 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test(timeout = 20 * 1000)
+  public void testMultiplexedJobsReceiveResponsesInAnyOrder() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    CountDownLatch allSent = new CountDownLatch(2);
+    Deque<WorkerProcessCommand> sent = new ConcurrentLinkedDeque<>();
+    Map<Integer, Integer> exitCodes = new ConcurrentHashMap<>();
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            tmpPath.resolve("stderr"),
+            tmpPath,
+            2)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeCommandSender() {
+            @Override
+            public void send(int messageId, WorkerProcessCommand command) {
+              // The job args are used as the exit code, so each caller can check it got its own.
+              exitCodes.put(
+                  messageId,
+                  Integer.parseInt(filesystem.readFileIfItExists(command.getArgsPath()).get()));
+              sent.push(command);
+              allSent.countDown();
+            }
+
+            @Override
+            public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+              try {
+                allSent.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              // Respond to the most recent command first.
+              String name = sent.pop().getArgsPath().getFileName().toString();
+              int messageId = Integer.parseInt(name.substring(0, name.indexOf('.')));
+              return ImmutableWorkerProcessCommandResponse.of(messageId, exitCodes.get(messageId));
+            }
+          });
+
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        Future<WorkerJobResult> first = executor.submit(() -> process.submitAndWaitForJob("1"));
+        Future<WorkerJobResult> second = executor.submit(() -> process.submitAndWaitForJob("2"));
+        assertThat(first.get().getExitCode(), is(1));
+        assertThat(second.get().getExitCode(), is(2));
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void testMultiplexedJobDoesNotWaitForResponsesOfOtherJobs() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    CountDownLatch firstReadStarted = new CountDownLatch(1);
+    CountDownLatch allSent = new CountDownLatch(2);
+    CountDownLatch secondJobDone = new CountDownLatch(1);
+    Map<String, Integer> messageIds = new ConcurrentHashMap<>();
+    AtomicInteger reads = new AtomicInteger();
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            tmpPath.resolve("stderr"),
+            tmpPath,
+            2)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeCommandSender() {
+            @Override
+            public void send(int messageId, WorkerProcessCommand command) {
+              messageIds.put(filesystem.readFileIfItExists(command.getArgsPath()).get(), messageId);
+              allSent.countDown();
+            }
+
+            @Override
+            public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+              try {
+                if (reads.getAndIncrement() == 0) {
+                  // The first job reads the response to the second one.
+                  firstReadStarted.countDown();
+                  allSent.await();
+                  return ImmutableWorkerProcessCommandResponse.of(messageIds.get("2"), 2);
+                }
+                // Its own response only arrives once the second job is done.
+                secondJobDone.await();
+                return ImmutableWorkerProcessCommandResponse.of(messageIds.get("1"), 1);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+          });
+
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        Future<WorkerJobResult> first = executor.submit(() -> process.submitAndWaitForJob("1"));
+        firstReadStarted.await();
+        Future<WorkerJobResult> second = executor.submit(() -> process.submitAndWaitForJob("2"));
+        assertThat(second.get().getExitCode(), is(2));
+        secondJobDone.countDown();
+        assertThat(first.get().getExitCode(), is(1));
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  public void testFailedMultiplexedReceiveClosesProcess() throws IOException {
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    AtomicInteger reads = new AtomicInteger();
+    FakeWorkerProcessProtocol.FakeCommandSender protocol =
+        new FakeWorkerProcessProtocol.FakeCommandSender() {
+          @Override
+          public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+            reads.incrementAndGet();
+            throw new IOException("Stream closed");
+          }
+        };
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            new FakeProjectFilesystem(),
+            tmpPath.resolve("stderr"),
+            tmpPath,
+            2)) {
+      process.setProtocol(protocol);
+
+      for (String jobArgs : ImmutableList.of("first", "second")) {
+        try {
+          process.submitAndWaitForJob(jobArgs);
+          fail("Job should have failed");
+        } catch (IOException e) {
+          assertThat(e.getCause().getMessage(), is("Stream closed"));
+        }
+      }
+      assertTrue(protocol.isClosed());
+      assertFalse(process.isAlive());
+      assertThat(reads.get(), is(1));
+    }
+  }
+
   @Test
   public void testClose() {
     FakeWorkerProcessProtocol.FakeCommandSender protocol =